@@ -0,0 +1,289 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mattfogz.shortyback.analytics.TrendingTracker;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.config.CacheConfig;
+import com.mattfogz.shortyback.config.ClickAnalyticsConfig;
+import com.mattfogz.shortyback.config.ShortCodeConfig;
+import com.mattfogz.shortyback.config.ShortUrlFilterConfig;
+import com.mattfogz.shortyback.controller.ClickReportSecret;
+import com.mattfogz.shortyback.controller.UrlController;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.repository.CompactUrlStore;
+import com.mattfogz.shortyback.repository.UrlRepository;
+import com.mattfogz.shortyback.repository.UrlStore;
+import com.mattfogz.shortyback.service.ClickCountBuffer;
+import com.mattfogz.shortyback.service.LinkExpiry;
+import com.mattfogz.shortyback.service.LookupCoalescer;
+import com.mattfogz.shortyback.service.RedirectPolicy;
+import com.mattfogz.shortyback.service.ShortUrlFilter;
+import com.mattfogz.shortyback.service.UrlNormalizer;
+import com.mattfogz.shortyback.service.UrlService;
+import com.mattfogz.shortyback.shortcode.ShortCodeGenerator;
+import com.mattfogz.shortyback.transfer.LinkImporter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.repository.support.RedisRepositoryFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wires service objects for benchmarks in a small Spring context holding the
+ * application's own components and configuration classes, without web server
+ * or scheduling. Settings go through the same {@code shorty.*}
+ * properties as in the application.
+ *
+ * Redis-backed fixtures connect to {@code -Dredis.host} / {@code -Dredis.port}
+ * (default localhost:6379) and use database {@code -Dredis.database} (default 15),
+ * which they flush, so benchmarks never touch application data.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * A context whose UrlService reads links from an in-memory repository. Only
+     * the lookup paths (getLongUrl, getClickCount, redirects) work without Redis;
+     * anything else that reaches Redis fails with UnsupportedOperationException.
+     * Holds the {@link UrlController} and {@link RedirectPolicy} as well.
+     *
+     * @param repository The in-memory repository.
+     * @param cacheSize  Redirect cache size; 0 sends every lookup to the repository.
+     * @return The started context.
+     */
+    public static ConfigurableApplicationContext inMemoryContext(InMemoryUrlRepository repository,
+            int cacheSize) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("shorty.cache.redirect.max-size", cacheSize);
+        properties.put("shorty.cache.dedup.max-size", 0);
+        // The filter needs Redis to load, so it stays off and every code passes
+        properties.put("shorty.filter.enabled", false);
+        // Batched reads need Redis; identical concurrent lookups are still shared
+        properties.put("shorty.lookup.batch.max-size", 1);
+        properties.put("shorty.lookup.batch.max-wait-micros", 0);
+
+        AnnotationConfigServletWebApplicationContext context = context(properties);
+        context.registerBean(RedisConnectionFactory.class, Fixtures::offlineConnectionFactory);
+        context.registerBean("urlRepository", UrlRepository.class, () -> repository);
+        // Entity layout lookups only read through the repository
+        context.registerBean("urlStore", UrlStore.class, UrlStore::new);
+        context.registerBean(ShortCodeGenerator.class, () -> () -> {
+            throw new UnsupportedOperationException("Creating links needs Redis");
+        });
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * The UrlService of {@link #inMemoryContext}.
+     */
+    public static UrlService inMemoryService(InMemoryUrlRepository repository, int cacheSize) {
+        return inMemoryContext(repository, cacheSize).getBean(UrlService.class);
+    }
+
+    /**
+     * A fully wired UrlService backed by a local Redis.
+     */
+    public static final class RedisFixture implements AutoCloseable {
+        public final ConfigurableApplicationContext context;
+        public final StringRedisTemplate redisTemplate;
+        public final UrlRepository repository;
+        public final UrlStore urlStore;
+        public final UrlService service;
+        public final VisitorTracker visitorTracker;
+        public final TrendingTracker trendingTracker;
+
+        /**
+         * @param compactLayout    The compact layout to store links in, or null for the entity layout.
+         * @param lookupBatchSize  Most lookups read from Redis in one batch; 1 disables batching.
+         */
+        public RedisFixture(int redirectCacheSize, int dedupCacheSize, boolean filterEnabled,
+                CompactLayout compactLayout, int lookupBatchSize) {
+            RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                    System.getProperty("redis.host", "localhost"),
+                    Integer.getInteger("redis.port", 6379));
+            config.setDatabase(Integer.getInteger("redis.database", 15));
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(config);
+            connectionFactory.afterPropertiesSet();
+
+            // Flushed before the context starts, so the short code secret and the
+            // filter are created in the empty database
+            StringRedisTemplate flushTemplate = new StringRedisTemplate(connectionFactory);
+            flushTemplate.afterPropertiesSet();
+            flushTemplate.execute(connection -> {
+                connection.serverCommands().flushDb();
+                return null;
+            }, true);
+
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("shorty.cache.redirect.max-size", redirectCacheSize);
+            properties.put("shorty.cache.dedup.max-size", dedupCacheSize);
+            properties.put("shorty.filter.enabled", filterEnabled);
+            properties.put("shorty.filter.expected-links", 100000);
+            properties.put("shorty.lookup.batch.max-size", lookupBatchSize);
+            properties.put("shorty.lookup.batch.max-wait-micros", 200);
+
+            AnnotationConfigServletWebApplicationContext context = context(properties);
+            // Destroyed with the context
+            context.registerBean(LettuceConnectionFactory.class, () -> connectionFactory);
+            context.registerBean("urlRepository", UrlRepository.class, () -> new RedisRepositoryFactory(
+                    context.getBean(RedisKeyValueTemplate.class)).getRepository(UrlRepository.class));
+            context.registerBean("urlStore", UrlStore.class,
+                    () -> compactLayout == null ? new UrlStore() : new CompactUrlStore(compactLayout));
+            // The filter only answers for unknown codes while subscribed to other instances' creates
+            context.register(ShortCodeConfig.class, ShortUrlFilterConfig.class);
+            context.refresh();
+            this.context = context;
+
+            redisTemplate = context.getBean(StringRedisTemplate.class);
+            repository = context.getBean(UrlRepository.class);
+            urlStore = context.getBean(UrlStore.class);
+            service = context.getBean(UrlService.class);
+            visitorTracker = context.getBean(VisitorTracker.class);
+            trendingTracker = context.getBean(TrendingTracker.class);
+
+            // Loaded from the freshly flushed database once subscribed, so it holds
+            // exactly the links created from here on
+            if (filterEnabled) {
+                awaitInSync(context.getBean(ShortUrlFilter.class));
+            }
+        }
+
+        private static void awaitInSync(ShortUrlFilter filter) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!filter.isInSync()) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Short URL filter did not load within 30 s");
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            context.close();
+        }
+    }
+
+    /**
+     * A normalizer with its own validation cache.
+     *
+     * @param validationCacheSize Validation cache size; 0 validates every time.
+     */
+    public static UrlNormalizer normalizer(int validationCacheSize) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("fixture",
+                Map.of("shorty.cache.validation.max-size", validationCacheSize)));
+        context.register(CacheConfig.class, UrlNormalizer.class);
+        context.refresh();
+        return context.getBean(UrlNormalizer.class);
+    }
+
+    /**
+     * Stores a link in a repository the way the service would.
+     */
+    public static void store(UrlRepository repository, String shortUrl, String normalizedLongUrl) {
+        repository.save(new Url(normalizedLongUrl, shortUrl));
+    }
+
+    /**
+     * A servlet application context, as the servlet-only components require,
+     * with the components behind UrlService and UrlController. The
+     * caller registers the Redis connection factory, the urlRepository and
+     * urlStore beans and a ShortCodeGenerator, then refreshes it.
+     *
+     * @param properties {@code shorty.*} settings on top of the fixture defaults.
+     */
+    private static AnnotationConfigServletWebApplicationContext context(Map<String, Object> properties) {
+        Map<String, Object> settings = new HashMap<>();
+        // Entries stay until evicted, so runs measure the cache and not its expiry
+        settings.put("shorty.cache.redirect.ttl-seconds", 0);
+        settings.put("shorty.cache.redirect.negative-ttl-seconds", 0);
+        settings.put("shorty.cache.dedup.ttl-seconds", 0);
+        settings.put("shorty.expiry.default-ttl-days", 0);
+        settings.putAll(properties);
+
+        AnnotationConfigServletWebApplicationContext context = new AnnotationConfigServletWebApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("fixture", settings));
+        context.register(FixtureBeans.class, CacheConfig.class, ClickAnalyticsConfig.class,
+                UrlService.class, UrlNormalizer.class, ClickCountBuffer.class, LookupCoalescer.class,
+                ShortUrlFilter.class, LinkExpiry.class, UrlMetrics.class, VisitorTracker.class,
+                TrendingTracker.class, RedirectPolicy.class, LinkImporter.class, ClickReportSecret.class,
+                UrlController.class);
+        return context;
+    }
+
+    /**
+     * A connection factory for fixtures that must never reach Redis.
+     */
+    private static RedisConnectionFactory offlineConnectionFactory() {
+        return (RedisConnectionFactory) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+                new Class<?>[] { RedisConnectionFactory.class }, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.getName().equals("equals") ? proxy == args[0]
+                                : method.getName().equals("hashCode") ? System.identityHashCode(proxy)
+                                : "offline RedisConnectionFactory";
+                    }
+                    throw new UnsupportedOperationException("The in-memory fixture has no Redis");
+                });
+    }
+
+    /**
+     * Beans Spring Boot's auto-configuration provides in the application.
+     */
+    @Configuration(proxyBeanMethods = false)
+    static class FixtureBeans {
+
+        @Bean
+        public StringRedisTemplate redisTemplate(RedisConnectionFactory connectionFactory) {
+            return new StringRedisTemplate(connectionFactory);
+        }
+
+        @Bean
+        public RedisKeyValueTemplate keyValueTemplate(RedisConnectionFactory connectionFactory) {
+            RedisTemplate<byte[], byte[]> bytesTemplate = new RedisTemplate<>();
+            bytesTemplate.setConnectionFactory(connectionFactory);
+            bytesTemplate.afterPropertiesSet();
+            RedisMappingContext mappingContext = new RedisMappingContext();
+            return new RedisKeyValueTemplate(new RedisKeyValueAdapter(bytesTemplate, mappingContext),
+                    mappingContext);
+        }
+
+        // Metrics are recorded into an in-memory registry, so their cost is part of the measurement
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        public ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.UrlRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A heap-backed stand-in for the Redis {@link UrlRepository}, so service code
+ * paths can be measured without network round trips.
+ */
+public class InMemoryUrlRepository implements UrlRepository {
+
+    private final Map<String, Url> byId = new ConcurrentHashMap<>();
+    private final Map<String, List<Url>> byShortUrlKey = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<Url> findByLongUrlIgnoreCase(String longUrl) {
+        return byId.values().stream().filter(url -> url.getLongUrl().equalsIgnoreCase(longUrl)).findFirst();
+    }
+
+    @Override
+    public List<Url> findByShortUrlKey(String shortUrlKey) {
+        return byShortUrlKey.getOrDefault(shortUrlKey, List.of());
+    }
+
+    @Override
+    public <S extends Url> S save(S entity) {
+        byId.put(entity.getShortUrl(), entity);
+        byShortUrlKey.computeIfAbsent(entity.getShortUrlKey(), key -> new ArrayList<>()).add(entity);
+        return entity;
+    }
+
+    @Override
+    public <S extends Url> Iterable<S> saveAll(Iterable<S> entities) {
+        entities.forEach(this::save);
+        return entities;
+    }
+
+    @Override
+    public Optional<Url> findById(String id) {
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    @Override
+    public boolean existsById(String id) {
+        return byId.containsKey(id);
+    }
+
+    @Override
+    public Iterable<Url> findAll() {
+        return new ArrayList<>(byId.values());
+    }
+
+    @Override
+    public Iterable<Url> findAllById(Iterable<String> ids) {
+        List<Url> urls = new ArrayList<>();
+        ids.forEach(id -> findById(id).ifPresent(urls::add));
+        return urls;
+    }
+
+    @Override
+    public long count() {
+        return byId.size();
+    }
+
+    @Override
+    public void deleteById(String id) {
+        Url removed = byId.remove(id);
+        if (removed != null) {
+            byShortUrlKey.computeIfPresent(removed.getShortUrlKey(), (key, urls) -> {
+                List<Url> remaining = urls.stream().filter(url -> !url.getShortUrl().equals(id))
+                        .collect(Collectors.toList());
+                return remaining.isEmpty() ? null : remaining;
+            });
+        }
+    }
+
+    @Override
+    public void delete(Url entity) {
+        deleteById(entity.getShortUrl());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends String> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Url> entities) {
+        entities.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        byId.clear();
+        byShortUrlKey.clear();
+    }
+}
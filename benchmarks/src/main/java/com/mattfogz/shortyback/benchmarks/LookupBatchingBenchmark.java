@@ -0,0 +1,75 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.service.UrlService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures redirect lookups from many concurrent threads against a local Redis,
+ * with the redirect cache off so every lookup needs Redis, and lookup batching
+ * off ({@code batchSize=1}) and on.
+ *
+ * Requires a Redis server; see {@link Fixtures} for the connection properties.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class LookupBatchingBenchmark {
+
+    @Param({ "10000" })
+    private int links;
+
+    @Param({ "1", "32" })
+    private int batchSize;
+
+    @Param({ "entity", "compact" })
+    private String layout;
+
+    private Fixtures.RedisFixture fixture;
+    private UrlService service;
+    private String[] shortUrls;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new Fixtures.RedisFixture(0, 0, false,
+                "compact".equals(layout) ? new CompactLayout(65536, true) : null, batchSize);
+        service = fixture.service;
+
+        List<String> urls = UrlCorpus.load(links, 42L);
+        shortUrls = new String[urls.size()];
+        for (int i = 0; i < shortUrls.length; i++) {
+            shortUrls[i] = service.createShortUrl(urls.get(i), null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String getLongUrl() {
+        return service.getLongUrl(shortUrls[ThreadLocalRandom.current().nextInt(shortUrls.length)]);
+    }
+}
@@ -0,0 +1,116 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.controller.RedirectFilter;
+import com.mattfogz.shortyback.controller.UrlController;
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.service.RedirectPolicy;
+import com.mattfogz.shortyback.service.UrlNormalizer;
+import com.mattfogz.shortyback.service.UrlService;
+import com.mattfogz.shortyback.shortcode.Base62;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.test.web.servlet.setup.StandaloneMockMvcBuilder;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Compares serving a redirect through the DispatcherServlet and
+ * {@link UrlController#getLongUrl} ({@code path = controller}) with
+ * {@link RedirectFilter} ahead of it ({@code path = filter}).
+ *
+ * Both run inside MockMvc with every link in the redirect cache, so the
+ * difference is the web layer's own cost. MockMvc's request and response
+ * objects are part of both numbers; run with {@code -prof gc} to compare
+ * allocation per redirect. {@code unknown} requests codes that do not exist.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RedirectPathBenchmark {
+
+    @Param({ "10000" })
+    private int links;
+
+    @Param({ "controller", "filter" })
+    private String path;
+
+    private MockMvc mockMvc;
+    private String[] redirects;
+    private String[] unknown;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        InMemoryUrlRepository repository = new InMemoryUrlRepository();
+        UrlNormalizer normalizer = Fixtures.normalizer(0);
+        List<String> corpus = UrlCorpus.load(links, 42L);
+
+        redirects = new String[corpus.size()];
+        unknown = new String[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            String shortUrl = "bm" + Base62.encode(i, 4);
+            Fixtures.store(repository, shortUrl, normalizer.normalize(corpus.get(i)));
+            redirects[i] = "/" + shortUrl;
+            unknown[i] = "/zz" + Base62.encode(i, 4);
+        }
+
+        ApplicationContext context = Fixtures.inMemoryContext(repository, links * 2);
+        UrlService service = context.getBean(UrlService.class);
+        RedirectPolicy policy = context.getBean(RedirectPolicy.class);
+        UrlMetrics metrics = context.getBean(UrlMetrics.class);
+
+        StandaloneMockMvcBuilder builder = MockMvcBuilders.standaloneSetup(context.getBean(UrlController.class));
+        if ("filter".equals(path)) {
+            // Not attached to a connection, so it counts nothing but costs what it does in service
+            builder.addFilters(new RedirectFilter(service, policy, metrics, new RedisCommandCounter(),
+                    Set.of("error", "actuator")));
+        }
+        mockMvc = builder.build();
+
+        // Fill the redirect cache
+        for (String uri : redirects) {
+            perform(uri);
+        }
+    }
+
+    @Benchmark
+    public int redirect() {
+        return perform(redirects[ThreadLocalRandom.current().nextInt(redirects.length)]);
+    }
+
+    @Benchmark
+    public int redirectUnknown() {
+        return perform(unknown[ThreadLocalRandom.current().nextInt(unknown.length)]);
+    }
+
+    private int perform(String uri) {
+        try {
+            return mockMvc.perform(get(uri)).andReturn().getResponse().getStatus();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.service.UrlService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the Redis-bound service paths against a real local Redis: creating
+ * new links, re-submitting known long URLs, and resolving existing and unknown
+ * short URLs with the redirect cache and the short URL filter off and on, in
+ * both storage layouts.
+ *
+ * Requires a Redis server; see {@link Fixtures} for the connection properties.
+ * The benchmark database is flushed at the start of each trial.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RedisUrlServiceBenchmark {
+
+    @Param({ "10000" })
+    private int links;
+
+    @Param({ "0", "100000" })
+    private int cacheSize;
+
+    @Param({ "false", "true" })
+    private boolean filter;
+
+    @Param({ "entity", "compact" })
+    private String layout;
+
+    private final AtomicLong unique = new AtomicLong();
+
+    private Fixtures.RedisFixture fixture;
+    private UrlService service;
+    private String[] corpus;
+    private String[] shortUrls;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The dedup cache follows the redirect cache so both paths are measured cold and warm
+        fixture = new Fixtures.RedisFixture(cacheSize, cacheSize, filter,
+                "compact".equals(layout) ? new CompactLayout(65536, true) : null, 1);
+        service = fixture.service;
+
+        List<String> urls = UrlCorpus.load(links, 42L);
+        corpus = urls.toArray(new String[0]);
+        shortUrls = new String[corpus.length];
+        for (int i = 0; i < corpus.length; i++) {
+            shortUrls[i] = service.createShortUrl(corpus[i], null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String createShortUrl() {
+        // A fresh long URL each time, so every call reserves a new link
+        String base = corpus[ThreadLocalRandom.current().nextInt(corpus.length)];
+        String separator = base.indexOf('?') < 0 ? "?" : "&";
+        return service.createShortUrl(base + separator + "bm=" + unique.incrementAndGet(), null);
+    }
+
+    @Benchmark
+    public String createShortUrlExisting() {
+        return service.createShortUrl(corpus[ThreadLocalRandom.current().nextInt(corpus.length)], null);
+    }
+
+    @Benchmark
+    public String getLongUrl() {
+        return service.getLongUrl(shortUrls[ThreadLocalRandom.current().nextInt(shortUrls.length)]);
+    }
+
+    @Benchmark
+    public String findLongUrlUnknown() {
+        // Codes that were never created: a Redis miss each time unless the filter rejects them
+        return service.findLongUrl("unknown-" + ThreadLocalRandom.current().nextInt());
+    }
+}
@@ -0,0 +1,99 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.shortcode.FeistelPermutation;
+import com.mattfogz.shortyback.shortcode.RandomShortCodeGenerator;
+import com.mattfogz.shortyback.shortcode.SequentialShortCodeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the cost of obtaining one usable short code with the random
+ * generator (check each candidate against the store, retry on a clash) and the
+ * block-leased sequential generator (one allocation per block, no checks).
+ *
+ * Redis is modelled by an in-memory set of taken codes plus a simulated round
+ * trip of {@code roundTripMicros} per call, so the results show how the number
+ * of round trips, not just local CPU, differs between the two approaches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ShortCodeGeneratorBenchmark {
+
+    // Code width used for the random generator's keyspace; small enough to prefill
+    private static final int WIDTH = 3;
+
+    @Param({ "0.0", "0.5", "0.9" })
+    private double occupiedFraction;
+
+    @Param({ "0", "200" })
+    private long roundTripMicros;
+
+    @Param({ "1000" })
+    private int blockSize;
+
+    private final Set<String> taken = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private RandomShortCodeGenerator random;
+    private SequentialShortCodeGenerator sequential;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        random = new RandomShortCodeGenerator(WIDTH);
+        sequential = new SequentialShortCodeGenerator(size -> {
+            roundTrip();
+            return sequence.getAndAdd(size) + 1;
+        }, blockSize, 6, new FeistelPermutation(6, 42L));
+
+        // Occupy a share of the random generator's keyspace, as an aging store would
+        long capacity = 62L * 62L * 62L;
+        long target = (long) (capacity * occupiedFraction);
+        while (taken.size() < target) {
+            taken.add(random.nextShortCode());
+        }
+    }
+
+    @Benchmark
+    public String randomWithCollisionChecks() {
+        String code = random.nextShortCode();
+        roundTrip();
+        while (taken.contains(code)) {
+            code = random.nextShortCode();
+            roundTrip();
+        }
+        return code;
+    }
+
+    @Benchmark
+    public String sequentialBlockLeased() {
+        return sequential.nextShortCode();
+    }
+
+    private void roundTrip() {
+        if (roundTripMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+        }
+    }
+}
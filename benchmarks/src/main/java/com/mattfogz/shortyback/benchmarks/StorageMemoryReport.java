@@ -0,0 +1,107 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.ClickCounter;
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.repository.UrlPage;
+import com.mattfogz.shortyback.repository.UrlPageScripts;
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Measures the Redis memory each storage layout needs per million links.
+ *
+ * For each layout the benchmark database is flushed, {@code -Dlinks} links
+ * (default 1,000,000) from the {@link UrlCorpus} are created through
+ * {@code UrlService.createShortUrls}, every link gets one click, and the growth
+ * of {@code used_memory} is reported. Run it against an otherwise idle Redis:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.mattfogz.shortyback.benchmarks.StorageMemoryReport
+ * </pre>
+ *
+ * The compact layout depends on Redis keeping its bucket hashes as listpacks, so
+ * the report also prints the server's {@code hash-max-*} settings.
+ */
+public final class StorageMemoryReport {
+
+    // Links created per createShortUrls call
+    private static final int CHUNK_SIZE = 1000;
+
+    private StorageMemoryReport() {
+    }
+
+    public static void main(String[] args) {
+        int links = Integer.getInteger("links", 1_000_000);
+        List<String> corpus = UrlCorpus.load(links, 42L);
+
+        System.out.printf("%-22s %10s %10s %14s %16s%n", "layout", "links", "keys", "bytes/link", "MiB/million");
+        report("entity", null, corpus);
+        report("compact", new CompactLayout(65536, false), corpus);
+        report("compact, compressed", new CompactLayout(65536, true), corpus);
+    }
+
+    private static void report(String name, CompactLayout compactLayout, List<String> corpus) {
+        try (Fixtures.RedisFixture fixture = new Fixtures.RedisFixture(0, 0, false, compactLayout, 1)) {
+            if (compactLayout == null) {
+                printHashSettings(fixture);
+            }
+            long before = usedMemory(fixture);
+
+            List<String> noCustomShortUrls = Collections.nCopies(CHUNK_SIZE, null);
+            for (int first = 0; first < corpus.size(); first += CHUNK_SIZE) {
+                List<String> chunk = corpus.subList(first, Math.min(corpus.size(), first + CHUNK_SIZE));
+                fixture.service.createShortUrls(chunk, noCustomShortUrls.subList(0, chunk.size()));
+            }
+            clickEveryLink(fixture);
+
+            long stored = fixture.urlStore.count();
+            long bytes = usedMemory(fixture) - before;
+            Long keys = fixture.redisTemplate.execute((RedisCallback<Long>) connection -> connection
+                    .serverCommands().dbSize());
+            System.out.printf("%-22s %10d %10d %14.1f %16.1f%n", name, stored, keys, (double) bytes / stored,
+                    bytes * (1_000_000.0 / stored) / (1024 * 1024));
+        }
+    }
+
+    // Counts one click per link the way the click flush does, so click counts take their usual space
+    private static void clickEveryLink(Fixtures.RedisFixture fixture) {
+        String cursor = UrlPage.START_CURSOR;
+        do {
+            UrlPage page = fixture.urlStore.findPage(cursor, UrlPageScripts.MAX_PAGE_SIZE);
+            List<ClickCounter> counters = new ArrayList<>(page.getUrls().size());
+            for (Url url : page.getUrls()) {
+                counters.add(fixture.urlStore.clickCounter(url.getShortUrl()));
+            }
+            fixture.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ClickCounter counter : counters) {
+                    connection.hashCommands().hIncrBy(bytes(counter.getCountKey()), bytes(counter.getCountField()), 1);
+                }
+                return null;
+            });
+            cursor = page.getNextCursor();
+        } while (!UrlPage.START_CURSOR.equals(cursor));
+    }
+
+    private static long usedMemory(Fixtures.RedisFixture fixture) {
+        Properties info = fixture.redisTemplate.execute((RedisCallback<Properties>) connection -> connection
+                .serverCommands().info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+
+    private static void printHashSettings(Fixtures.RedisFixture fixture) {
+        Properties config = fixture.redisTemplate.execute((RedisCallback<Properties>) connection -> connection
+                .serverCommands().getConfig("hash-max-*"));
+        config.stringPropertyNames().stream().sorted()
+                .forEach(setting -> System.out.println(setting + " " + config.getProperty(setting)));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * A reproducible corpus of long URLs shaped like real submissions: mixed schemes,
+ * optional "www.", mixed-case hosts and paths, tracking query strings, fragments
+ * and trailing slashes.
+ *
+ * Set {@code -Dcorpus.file=<path>} to benchmark against a file of URLs instead,
+ * one per line.
+ */
+public final class UrlCorpus {
+
+    private static final String[] SCHEMES = { "https://", "http://", "HTTPS://", "" };
+    private static final String[] HOSTS = { "example.com", "shop.Example.co.uk", "news.site.org", "cdn.media-host.net",
+            "blog.personal.io", "docs.Product.dev", "store.brand.com", "a.very.deep.subdomain.example.org" };
+    private static final String[] SEGMENTS = { "products", "Article", "2023", "summer-sale", "id", "category",
+            "search", "User", "profile", "v2", "assets", "img", "Campaign", "landing" };
+    private static final String[] PARAMS = { "utm_source", "utm_medium", "utm_campaign", "ref", "q", "page", "sessionId" };
+
+    private UrlCorpus() {
+    }
+
+    /**
+     * @param size Number of URLs.
+     * @param seed Seed; the same seed always yields the same corpus.
+     * @return The corpus, from {@code corpus.file} if set, otherwise generated.
+     */
+    public static List<String> load(int size, long seed) {
+        String file = System.getProperty("corpus.file");
+        if (file != null) {
+            try {
+                return Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8).stream()
+                        .filter(line -> !line.isBlank())
+                        .limit(size)
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read corpus file " + file, e);
+            }
+        }
+        return generate(size, seed);
+    }
+
+    /**
+     * @param size Number of URLs.
+     * @param seed Seed; the same seed always yields the same corpus.
+     * @return Generated URLs.
+     */
+    public static List<String> generate(int size, long seed) {
+        Random rnd = new Random(seed);
+        List<String> urls = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append(SCHEMES[rnd.nextInt(SCHEMES.length)]);
+            if (rnd.nextBoolean()) {
+                sb.append("www.");
+            }
+            sb.append(HOSTS[rnd.nextInt(HOSTS.length)]);
+
+            int depth = rnd.nextInt(5);
+            for (int d = 0; d < depth; d++) {
+                sb.append('/').append(SEGMENTS[rnd.nextInt(SEGMENTS.length)]);
+                if (rnd.nextInt(4) == 0) {
+                    sb.append('-').append(Integer.toHexString(rnd.nextInt()));
+                }
+            }
+            if (rnd.nextInt(3) == 0) {
+                sb.append('/');
+            }
+
+            int params = rnd.nextInt(4);
+            for (int p = 0; p < params; p++) {
+                sb.append(p == 0 ? '?' : '&')
+                        .append(PARAMS[rnd.nextInt(PARAMS.length)])
+                        .append('=')
+                        .append(Long.toString(rnd.nextLong() & Long.MAX_VALUE, 36));
+            }
+            if (rnd.nextInt(10) == 0) {
+                sb.append("#section-").append(rnd.nextInt(20));
+            }
+            urls.add(sb.toString());
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,69 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.service.UrlNormalizer;
+import com.mattfogz.shortyback.service.UrlService;
+import com.mattfogz.shortyback.shortcode.Base62;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link UrlService#getLongUrl} against the in-memory repository, so
+ * the numbers cover the service, cache and mapping overhead without Redis.
+ *
+ * {@code cacheSize = 0} disables the redirect cache and sends every lookup to the
+ * repository; the other value holds the whole working set. Lookups use mixed-case
+ * short URLs to exercise the case-insensitive path.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class UrlLookupBenchmark {
+
+    @Param({ "10000" })
+    private int links;
+
+    @Param({ "0", "100000" })
+    private int cacheSize;
+
+    private UrlService service;
+    private String[] lookups;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        InMemoryUrlRepository repository = new InMemoryUrlRepository();
+        UrlNormalizer normalizer = Fixtures.normalizer(0);
+        List<String> corpus = UrlCorpus.load(links, 42L);
+
+        lookups = new String[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            String shortUrl = "bm" + Base62.encode(i, 4);
+            Fixtures.store(repository, shortUrl, normalizer.normalize(corpus.get(i)));
+            lookups[i] = i % 2 == 0 ? shortUrl : shortUrl.toUpperCase();
+        }
+        service = Fixtures.inMemoryService(repository, cacheSize);
+    }
+
+    @Benchmark
+    public String getLongUrl() {
+        return service.getLongUrl(lookups[ThreadLocalRandom.current().nextInt(lookups.length)]);
+    }
+}
@@ -0,0 +1,102 @@
+package com.mattfogz.shortyback.benchmarks;
+
+import com.mattfogz.shortyback.service.UrlNormalizer;
+import org.apache.commons.validator.routines.UrlValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU-only steps of creating a link: normalizing the long URL,
+ * validating it, and turning a stored URL into its redirect form. The
+ * {@code legacy*} benchmarks keep the original implementations (lowercase the
+ * whole URL, then cut it up; build a validator per call) as a baseline.
+ *
+ * Runs in both throughput and sample-time mode; the latter reports p50/p90/p99
+ * and beyond. Add {@code -prof gc} for the allocation rate per operation.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlNormalizerBenchmark {
+
+    @Param({ "10000" })
+    private int corpusSize;
+
+    // 0 validates every call; the default holds the whole corpus, as for repeat submissions
+    @Param({ "0", "10000" })
+    private int validationCacheSize;
+
+    private UrlNormalizer normalizer;
+
+    private String[] raw;
+    private String[] normalized;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        normalizer = Fixtures.normalizer(validationCacheSize);
+        List<String> corpus = UrlCorpus.load(corpusSize, 42L);
+        raw = corpus.toArray(new String[0]);
+        normalized = corpus.stream().map(normalizer::normalize).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public String normalize() {
+        return normalizer.normalize(raw[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return normalizer.isValid(normalized[nextIndex()]);
+    }
+
+    @Benchmark
+    public String toRedirectUrl() {
+        return normalizer.toRedirectUrl(normalized[nextIndex()]);
+    }
+
+    @Benchmark
+    public String legacyNormalize() {
+        String longUrl = raw[nextIndex()].toLowerCase();
+        if (longUrl.startsWith("http://")) {
+            longUrl = longUrl.substring(7);
+        } else if (longUrl.startsWith("https://")) {
+            longUrl = longUrl.substring(8);
+        }
+        if (longUrl.startsWith("www.")) {
+            longUrl = longUrl.substring(4);
+        }
+        if (longUrl.endsWith("/")) {
+            longUrl = longUrl.substring(0, longUrl.length() - 1);
+        }
+        return "http://" + longUrl;
+    }
+
+    @Benchmark
+    public boolean legacyIsValid() {
+        return new UrlValidator(new String[] { "http", "https" }).isValid(normalized[nextIndex()]);
+    }
+
+    // Cycle through the corpus so no single URL stays hot in the branch predictor
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == raw.length ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,18 @@
+#!/usr/bin/env bash
+# Runs the load test once against the servlet stack and once against the
+# reactive stack, with identical settings, and compares the two reports.
+#
+# Usage: loadtest/compare-web-stacks.sh [-D<property>=<value>...]
+# The -D properties are passed to both runs (see the README's Load Testing
+# section), e.g. -Dlinks=100000 -Dthreads=64 -Dduration=60.
+set -euo pipefail
+
+jar="$(dirname "$0")/target/loadtest.jar"
+if [ ! -f "$jar" ]; then
+    echo "Build the load test first: mvn install && mvn -f loadtest/pom.xml package" >&2
+    exit 1
+fi
+
+java "$@" -Dreport=servlet-report.json -jar "$jar" --spring.main.web-application-type=servlet
+java "$@" -Dreport=reactive-report.json -jar "$jar" --spring.main.web-application-type=reactive
+java -cp "$jar" com.mattfogz.shortyback.loadtest.LoadTestCompare servlet-report.json reactive-report.json
@@ -0,0 +1,89 @@
+package com.mattfogz.shortyback.loadtest;
+
+/**
+ * A fixed-size log-linear histogram of latencies in microseconds.
+ *
+ * Values below 128 us are counted exactly; larger values fall into 64 buckets per
+ * power of two, so every recorded value is reported within about 1.6% of its
+ * true value. Recording is allocation-free and not thread-safe: each worker keeps
+ * its own histograms, merged once the run is over.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+
+    // Enough buckets for any non-negative long
+    private final long[] counts = new long[LINEAR + SUB_BUCKETS * (63 - SUB_BITS)];
+
+    private long total;
+    private long max;
+
+    /**
+     * @param micros The latency to record; negative values count as 0.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts[index(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds every value recorded by another histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency at or below which that share of values falls, in
+     *         microseconds; 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // Keep the top SUB_BITS + 1 bits: the leading one selects the power of two
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
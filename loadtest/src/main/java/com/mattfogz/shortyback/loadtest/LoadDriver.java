@@ -0,0 +1,179 @@
+package com.mattfogz.shortyback.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the configured traffic mix from a fixed number of worker threads.
+ *
+ * Without a target rate each worker sends its next request as soon as the
+ * previous one returns (closed loop). With {@code -Drate} each worker follows a
+ * fixed schedule and latency is measured from the scheduled send time, so a
+ * stalled server shows up in the percentiles instead of merely slowing the
+ * senders down.
+ */
+public final class LoadDriver {
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final LoadTestSettings settings;
+    private final List<String> shortUrls;
+    private final ZipfianGenerator popularity;
+
+    /**
+     * @param shortUrls The seeded short URLs that redirects pick from.
+     */
+    public LoadDriver(HttpClient client, String baseUrl, LoadTestSettings settings, List<String> shortUrls) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.settings = settings;
+        this.shortUrls = shortUrls;
+        this.popularity = new ZipfianGenerator(shortUrls.size(), settings.zipfExponent, settings.seed);
+    }
+
+    /**
+     * Runs the warmup and the measured period.
+     *
+     * @return The measurements of the measured period.
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public LoadReport run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+
+        Worker[] workers = new Worker[settings.threads];
+        Thread[] threads = new Thread[settings.threads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, start, measureFrom, end);
+            threads[i] = new Thread(workers[i], "loadtest-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LoadReport report = new LoadReport(settings, settings.durationSeconds);
+        for (Worker worker : workers) {
+            for (Operation operation : Operation.values()) {
+                report.add(operation, worker.latencies.get(operation), worker.errors.get(operation));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Sends one request.
+     *
+     * @return Whether the response had the expected status.
+     */
+    private boolean send(Operation operation, Random random, int worker, long sequence) throws InterruptedException {
+        HttpRequest request;
+        int expected;
+        switch (operation) {
+            case REDIRECT:
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + shortUrls.get(popularity.next(random))))
+                        .GET().build();
+                expected = 302;
+                break;
+            case CREATE:
+                // Unique per worker and request, so every create stores a new link
+                String body = "{\"longUrl\":\"https://load.example.com/created/" + worker + "/" + sequence + "\"}";
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/url/create"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+                expected = 200;
+                break;
+            case LIST:
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/url/page?size=" + settings.listPageSize))
+                        .GET().build();
+                expected = 200;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == expected;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * One sender thread with its own random source and measurements.
+     */
+    private final class Worker implements Runnable {
+        private final int id;
+        private final long start;
+        private final long measureFrom;
+        private final long end;
+        private final Random random;
+
+        final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+
+        Worker(int id, long start, long measureFrom, long end) {
+            this.id = id;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.random = new Random(settings.seed + id);
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new LatencyHistogram());
+                errors.put(operation, 0L);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Each worker sends rate / threads requests per second, offset so workers do not send in lockstep
+            long interval = settings.rate > 0 ? TimeUnit.SECONDS.toNanos(settings.threads) / settings.rate : 0;
+            long scheduled = start + (interval * id) / settings.threads;
+
+            for (long sequence = 0; ; sequence++) {
+                long sendAt;
+                if (interval > 0) {
+                    long wait;
+                    while ((wait = scheduled - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    sendAt = scheduled;
+                    scheduled += interval;
+                } else {
+                    sendAt = System.nanoTime();
+                }
+                if (sendAt >= end) {
+                    return;
+                }
+
+                Operation operation = settings.nextOperation(random);
+                boolean ok;
+                try {
+                    ok = send(operation, random, id, sequence);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long done = System.nanoTime();
+
+                if (sendAt >= measureFrom) {
+                    latencies.get(operation).record(TimeUnit.NANOSECONDS.toMicros(done - sendAt));
+                    if (!ok) {
+                        errors.merge(operation, 1L, Long::sum);
+                    }
+                }
+            }
+        }
+    }
+}
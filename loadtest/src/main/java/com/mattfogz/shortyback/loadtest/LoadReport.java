@@ -0,0 +1,159 @@
+package com.mattfogz.shortyback.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput and latency percentiles of a measured run, per operation, printed
+ * as a table and written as JSON so runs on different commits can be compared
+ * with {@link LoadTestCompare}.
+ */
+public final class LoadReport {
+
+    // Percentiles reported for every operation
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final LoadTestSettings settings;
+    private final double measuredSeconds;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+    private List<String> applicationArguments = Collections.emptyList();
+
+    public LoadReport(LoadTestSettings settings, double measuredSeconds) {
+        this.settings = settings;
+        this.measuredSeconds = measuredSeconds;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, 0L);
+        }
+    }
+
+    /**
+     * Adds one worker's measurements.
+     */
+    public void add(Operation operation, LatencyHistogram histogram, long failed) {
+        latencies.get(operation).add(histogram);
+        errors.merge(operation, failed, Long::sum);
+    }
+
+    /**
+     * Records the arguments the service was started with, e.g. its web stack, so
+     * compared runs show what differed between them.
+     */
+    public void setApplicationArguments(List<String> applicationArguments) {
+        this.applicationArguments = applicationArguments;
+    }
+
+    /**
+     * @return The report as written to JSON.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> results = new LinkedHashMap<>();
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            total += histogram.getCount();
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", histogram.getCount());
+            result.put("errors", errors.get(operation));
+            result.put("throughput", round(histogram.getCount() / measuredSeconds));
+            for (double percentile : PERCENTILES) {
+                result.put(percentileKey(percentile), millis(histogram.percentile(percentile)));
+            }
+            result.put("maxMs", millis(histogram.getMax()));
+            results.put(operation.label(), result);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("commit", commit());
+        report.put("finishedAt", Instant.now().toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("cpus", Runtime.getRuntime().availableProcessors());
+        report.put("settings", settings.toMap());
+        report.put("applicationArguments", applicationArguments);
+        report.put("measuredSeconds", round(measuredSeconds));
+        report.put("throughput", round(total / measuredSeconds));
+        report.put("operations", results);
+        return report;
+    }
+
+    /**
+     * Prints one line per operation.
+     */
+    public void print(PrintStream out) {
+        out.printf("%-10s %10s %8s %12s %9s %9s %9s %9s %9s%n", "operation", "requests", "errors", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            out.printf("%-10s %10d %8d %12.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", operation.label(),
+                    histogram.getCount(), errors.get(operation), histogram.getCount() / measuredSeconds,
+                    millis(histogram.percentile(50)), millis(histogram.percentile(90)),
+                    millis(histogram.percentile(99)), millis(histogram.percentile(99.9)), millis(histogram.getMax()));
+        }
+    }
+
+    /**
+     * Writes the report as pretty-printed JSON.
+     */
+    public void write(Path file) throws IOException {
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), toMap());
+    }
+
+    static String percentileKey(double percentile) {
+        String digits = percentile == Math.rint(percentile)
+                ? String.valueOf((long) percentile)
+                : String.valueOf(percentile).replace(".", "");
+        return "p" + digits + "Ms";
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    /**
+     * @return {@code -Dcommit}, else the current git commit, else "unknown".
+     */
+    private static String commit() {
+        String commit = System.getProperty("commit");
+        if (commit != null) {
+            return commit;
+        }
+        try {
+            Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(git.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                return git.waitFor() == 0 && line != null ? line.trim() : "unknown";
+            }
+        } catch (IOException e) {
+            return "unknown";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unknown";
+        }
+    }
+}
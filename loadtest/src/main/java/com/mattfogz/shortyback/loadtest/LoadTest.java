@@ -0,0 +1,122 @@
+package com.mattfogz.shortyback.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mattfogz.shortyback.ShortyBackApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Boots the service against a Redis stand-in, seeds {@code -Dlinks} links and
+ * drives a redirect / create / list traffic mix, then prints and writes a
+ * {@link LoadReport}.
+ *
+ * Every run is described by its system properties (see {@link LoadTestSettings})
+ * and starts from a flushed database, a cold cache and a fixed seed, so reports
+ * of different commits are comparable. Arguments are passed on to the
+ * application, e.g. {@code --shorty.storage.layout=compact}.
+ */
+public final class LoadTest {
+
+    // Links created per seeding request
+    private static final int SEED_CHUNK = 1000;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+
+        try (RedisStandIn redis = RedisStandIn.start(settings);
+                ConfigurableApplicationContext app = startApplication(redis, args)) {
+            String baseUrl = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .build();
+
+            System.out.printf("Seeding %d links...%n", settings.links);
+            List<String> shortUrls = seed(client, baseUrl, settings);
+
+            System.out.printf("Running %d s warmup and %d s measurement with %d threads...%n",
+                    settings.warmupSeconds, settings.durationSeconds, settings.threads);
+            LoadReport report = new LoadDriver(client, baseUrl, settings, shortUrls).run();
+            report.setApplicationArguments(Arrays.asList(args));
+
+            report.print(System.out);
+            report.write(Paths.get(settings.reportFile));
+            System.out.println("Report written to " + settings.reportFile);
+        }
+    }
+
+    private static ConfigurableApplicationContext startApplication(RedisStandIn redis, String[] args) {
+        // System properties beat application.properties, but leave any the caller set alone
+        System.getProperties().putIfAbsent("logging.level.root", "WARN");
+        // Every run starts cold, whatever a previous run left on disk
+        System.getProperties().putIfAbsent("shorty.snapshot.enabled", "false");
+
+        List<String> appArgs = new ArrayList<>(Arrays.asList(args));
+        appArgs.add("--server.port=0");
+        appArgs.add("--spring.redis.host=" + redis.getHost());
+        appArgs.add("--spring.redis.port=" + redis.getPort());
+        appArgs.add("--spring.redis.database=" + redis.getDatabase());
+        return new SpringApplicationBuilder(ShortyBackApplication.class).run(appArgs.toArray(new String[0]));
+    }
+
+    /**
+     * Creates the dataset through the batch endpoint.
+     *
+     * @return The short URLs, in creation order.
+     */
+    private static List<String> seed(HttpClient client, String baseUrl, LoadTestSettings settings)
+            throws IOException, InterruptedException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Random random = new Random(settings.seed);
+        List<String> shortUrls = new ArrayList<>(settings.links);
+
+        for (int from = 0; from < settings.links; from += SEED_CHUNK) {
+            StringBuilder body = new StringBuilder();
+            for (int i = from; i < Math.min(from + SEED_CHUNK, settings.links); i++) {
+                body.append("{\"longUrl\":\"https://load.example.com/seed/").append(i)
+                        .append("?ref=").append(Integer.toHexString(random.nextInt())).append("\"}\n");
+            }
+
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/url/batch"))
+                    .header("Content-Type", "application/x-ndjson")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build();
+            HttpResponse<Stream<String>> response = client.send(request,
+                    HttpResponse.BodyHandlers.ofLines());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding failed with HTTP " + response.statusCode());
+            }
+
+            Iterator<String> lines = response.body().iterator();
+            while (lines.hasNext()) {
+                String line = lines.next();
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode result = objectMapper.readTree(line);
+                if (!result.hasNonNull("shortUrl")) {
+                    throw new IllegalStateException("Seeding failed: " + line);
+                }
+                shortUrls.add(result.get("shortUrl").asText());
+            }
+        }
+        return shortUrls;
+    }
+}
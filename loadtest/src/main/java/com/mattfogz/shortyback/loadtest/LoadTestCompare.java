@@ -0,0 +1,70 @@
+package com.mattfogz.shortyback.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Compares two {@link LoadReport} files, typically from two commits, and prints
+ * the change in throughput and latency percentiles per operation.
+ *
+ * Usage: {@code LoadTestCompare <baseline.json> <candidate.json>}. Reports of
+ * runs with different settings are still compared, with a warning.
+ */
+public final class LoadTestCompare {
+
+    private LoadTestCompare() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: LoadTestCompare <baseline.json> <candidate.json>");
+            System.exit(2);
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode baseline = objectMapper.readTree(new File(args[0]));
+        JsonNode candidate = objectMapper.readTree(new File(args[1]));
+
+        System.out.printf("baseline  %s (%s)%n", baseline.path("commit").asText(), args[0]);
+        System.out.printf("candidate %s (%s)%n", candidate.path("commit").asText(), args[1]);
+        if (!baseline.path("applicationArguments").equals(candidate.path("applicationArguments"))) {
+            System.out.printf("service arguments: baseline %s, candidate %s%n", baseline.path("applicationArguments"),
+                    candidate.path("applicationArguments"));
+        }
+        if (!baseline.path("settings").equals(candidate.path("settings"))) {
+            System.out.println("WARNING: the runs used different settings");
+        }
+        if (baseline.path("cpus").asInt() != candidate.path("cpus").asInt()) {
+            System.out.println("WARNING: the runs had different CPU counts");
+        }
+
+        System.out.printf("%n%-10s %-10s %12s %12s %9s%n", "operation", "metric", "baseline", "candidate", "change");
+        Iterator<Map.Entry<String, JsonNode>> operations = baseline.path("operations").fields();
+        while (operations.hasNext()) {
+            Map.Entry<String, JsonNode> operation = operations.next();
+            JsonNode other = candidate.path("operations").path(operation.getKey());
+            if (other.isMissingNode()) {
+                continue;
+            }
+
+            print(operation.getKey(), "req/s", operation.getValue(), other, "throughput");
+            print(operation.getKey(), "errors", operation.getValue(), other, "errors");
+            for (double percentile : LoadReport.PERCENTILES) {
+                String key = LoadReport.percentileKey(percentile);
+                print(operation.getKey(), key.substring(0, key.length() - 2) + " ms", operation.getValue(), other, key);
+            }
+        }
+    }
+
+    private static void print(String operation, String metric, JsonNode baseline, JsonNode candidate, String field) {
+        double before = baseline.path(field).asDouble();
+        double after = candidate.path(field).asDouble();
+        String change = before == 0 ? "n/a" : String.format("%+.1f%%", (after - before) * 100 / before);
+        System.out.printf("%-10s %-10s %12.3f %12.3f %9s%n", operation, metric, before, after, change);
+    }
+}
@@ -0,0 +1,127 @@
+package com.mattfogz.shortyback.loadtest;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Parameters of a load-test run, read from system properties so a run is
+ * described entirely by its command line.
+ */
+public final class LoadTestSettings {
+
+    // Links seeded before the run
+    public final int links;
+    // Concurrent workers
+    public final int threads;
+    // Seconds of traffic before and during measurement
+    public final int warmupSeconds;
+    public final int durationSeconds;
+    // Relative weight of each operation
+    public final Map<Operation, Integer> mix;
+    // Skew of redirect key popularity
+    public final double zipfExponent;
+    public final long seed;
+    // Target requests per second over all workers; 0 sends as fast as responses allow
+    public final int rate;
+    public final int listPageSize;
+    // "embedded" starts a bundled redis-server; "local" uses redis.host / redis.port
+    public final String redis;
+    public final String redisHost;
+    public final int redisPort;
+    public final int redisDatabase;
+    public final String reportFile;
+
+    private final int totalWeight;
+
+    private LoadTestSettings() {
+        links = Integer.getInteger("links", 100000);
+        threads = Integer.getInteger("threads", 32);
+        warmupSeconds = Integer.getInteger("warmup", 10);
+        durationSeconds = Integer.getInteger("duration", 60);
+        mix = parseMix(System.getProperty("mix", "redirect=90,create=9,list=1"));
+        zipfExponent = Double.parseDouble(System.getProperty("zipf", "0.99"));
+        seed = Long.getLong("seed", 42L);
+        rate = Integer.getInteger("rate", 0);
+        listPageSize = Integer.getInteger("list.size", 100);
+        redis = System.getProperty("redis", "embedded");
+        redisHost = System.getProperty("redis.host", "localhost");
+        redisPort = Integer.getInteger("redis.port", "embedded".equals(redis) ? 6390 : 6379);
+        redisDatabase = Integer.getInteger("redis.database", 15);
+        reportFile = System.getProperty("report", "loadtest-report.json");
+
+        if (links < 1 || threads < 1 || durationSeconds < 1 || warmupSeconds < 0 || rate < 0) {
+            throw new IllegalArgumentException("links, threads and duration must be positive; warmup and rate must not be negative");
+        }
+        if (!"embedded".equals(redis) && !"local".equals(redis)) {
+            throw new IllegalArgumentException("redis must be 'embedded' or 'local'");
+        }
+        totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * @return The settings given by the current system properties.
+     * @throws IllegalArgumentException if a property is malformed or out of range
+     */
+    public static LoadTestSettings fromSystemProperties() {
+        return new LoadTestSettings();
+    }
+
+    /**
+     * Parses a mix such as {@code redirect=90,create=9,list=1}.
+     */
+    static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : value.split(",")) {
+            String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Malformed mix entry '" + part + "'; expected name=weight");
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Mix weights must not be negative");
+            }
+            mix.put(Operation.fromLabel(pair[0]), weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("The mix needs at least one positive weight");
+        }
+        return mix;
+    }
+
+    /**
+     * Picks an operation according to the mix.
+     */
+    public Operation nextOperation(Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Mix weights changed");
+    }
+
+    /**
+     * @return The settings as recorded in a report.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> mixByLabel = new LinkedHashMap<>();
+        mix.forEach((operation, weight) -> mixByLabel.put(operation.label(), weight));
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("links", links);
+        map.put("threads", threads);
+        map.put("warmupSeconds", warmupSeconds);
+        map.put("durationSeconds", durationSeconds);
+        map.put("mix", mixByLabel);
+        map.put("zipf", zipfExponent);
+        map.put("seed", seed);
+        map.put("rate", rate);
+        map.put("listPageSize", listPageSize);
+        map.put("redis", redis);
+        return map;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mattfogz.shortyback.loadtest;
+
+import java.util.Locale;
+
+/**
+ * The kinds of request a load test sends.
+ */
+public enum Operation {
+
+    // GET /{shortUrl} for a seeded link picked by Zipfian popularity; expects 302
+    REDIRECT,
+
+    // POST /api/url/create with a long URL never submitted before; expects 200
+    CREATE,
+
+    // GET /api/url/page for the first page of links; expects 200
+    LIST;
+
+    /**
+     * @return The lowercase name used in mixes and reports.
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param label A lowercase name, as in {@code redirect}.
+     * @return The operation.
+     * @throws IllegalArgumentException if there is no such operation
+     */
+    public static Operation fromLabel(String label) {
+        for (Operation operation : values()) {
+            if (operation.label().equals(label.trim().toLowerCase(Locale.ROOT))) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation '" + label + "'");
+    }
+}
@@ -0,0 +1,81 @@
+package com.mattfogz.shortyback.loadtest;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+
+/**
+ * The Redis a load test runs against: a redis-server started from the binaries
+ * bundled with embedded-redis, or an already running local server. Either way
+ * the database is flushed first, so every run starts from the same state.
+ */
+public final class RedisStandIn implements AutoCloseable {
+
+    private final RedisServer server;
+    private final String host;
+    private final int port;
+    private final int database;
+
+    private RedisStandIn(RedisServer server, String host, int port, int database) {
+        this.server = server;
+        this.host = host;
+        this.port = port;
+        this.database = database;
+    }
+
+    /**
+     * Starts (or connects to) Redis and flushes the load-test database.
+     *
+     * @param settings The run settings.
+     * @return The running stand-in; close it to stop an embedded server.
+     * @throws IOException if the embedded server cannot be started
+     */
+    public static RedisStandIn start(LoadTestSettings settings) throws IOException {
+        RedisServer server = null;
+        String host = settings.redisHost;
+        if ("embedded".equals(settings.redis)) {
+            server = new RedisServer(settings.redisPort);
+            server.start();
+            host = "localhost";
+        }
+
+        RedisStandIn standIn = new RedisStandIn(server, host, settings.redisPort, settings.redisDatabase);
+        standIn.flush();
+        return standIn;
+    }
+
+    private void flush() {
+        RedisClient client = RedisClient.create(RedisURI.builder()
+                .withHost(host)
+                .withPort(port)
+                .withDatabase(database)
+                .build());
+        try (StatefulRedisConnection<String, String> connection = client.connect()) {
+            connection.sync().flushdb();
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getDatabase() {
+        return database;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
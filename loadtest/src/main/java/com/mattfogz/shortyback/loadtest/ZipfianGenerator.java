@@ -0,0 +1,81 @@
+package com.mattfogz.shortyback.loadtest;
+
+import java.util.Random;
+
+/**
+ * Draws indexes in {@code [0, n)} with Zipfian popularity: the k-th most popular
+ * index is drawn with probability proportional to {@code 1 / k^exponent}.
+ *
+ * Popularity ranks are assigned to indexes by a seeded shuffle, so the hottest
+ * links are spread over the dataset instead of being the first ones created.
+ * The cumulative distribution is precomputed once (8 bytes per index); drawing
+ * is a binary search and is thread-safe given a per-thread {@link Random}.
+ */
+public final class ZipfianGenerator {
+
+    private final double[] cumulative;
+    private final int[] indexOfRank;
+
+    /**
+     * @param n        Number of indexes.
+     * @param exponent Skew; 0 is uniform, around 1 matches typical link popularity.
+     * @param seed     Seed of the rank-to-index shuffle.
+     */
+    public ZipfianGenerator(int n, double exponent, long seed) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Zipfian range must not be empty");
+        }
+        if (exponent < 0) {
+            throw new IllegalArgumentException("Zipfian exponent must not be negative");
+        }
+
+        cumulative = new double[n];
+        double sum = 0;
+        for (int rank = 0; rank < n; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= sum;
+        }
+
+        indexOfRank = new int[n];
+        for (int i = 0; i < n; i++) {
+            indexOfRank[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = indexOfRank[i];
+            indexOfRank[i] = indexOfRank[j];
+            indexOfRank[j] = swap;
+        }
+    }
+
+    /**
+     * @param random The caller's random source.
+     * @return The next index.
+     */
+    public int next(Random random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return indexOfRank[low];
+    }
+
+    /**
+     * @param ranks Number of most popular indexes.
+     * @return The share of draws that land on them, e.g. to size a cache.
+     */
+    public double share(int ranks) {
+        return ranks <= 0 ? 0 : cumulative[Math.min(ranks, cumulative.length) - 1];
+    }
+}
@@ -3,11 +3,14 @@ package com.mattfogz.shortyback;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 // Mark this class as the starting point of a Spring Boot application
 @SpringBootApplication
 // Enable Redis repositories. This annotation will scan for interfaces that extend one of Redis' repositories and register them
 @EnableRedisRepositories
+// Enable @Scheduled background jobs, such as flushing buffered click counts to Redis
+@EnableScheduling
 public class ShortyBackApplication {
 
     /**
@@ -0,0 +1,143 @@
+package com.mattfogz.shortyback.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrency limit that adapts to observed latency, in the style of the
+ * gradient limiters used for adaptive load shedding.
+ *
+ * Two moving averages of request latency are kept: a short one following the
+ * last few dozen requests and a long one acting as the no-queueing baseline.
+ * Their ratio is the gradient: close to 1 while latency is at its baseline, lower
+ * once requests start to queue. Each sample moves the limit towards
+ * {@code limit * gradient + sqrt(limit)}, so it grows slowly while latency holds
+ * and shrinks in proportion once it degrades. A failed request cuts the limit
+ * multiplicatively (AIMD). Requests beyond the limit are rejected immediately
+ * rather than queued.
+ */
+public final class AdaptiveLimit {
+
+    // Latency may grow this much over the baseline before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    // Weight of a new sample in the short and long latency averages
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.002;
+    // Share of each computed limit blended into the current one
+    private static final double SMOOTHING = 0.2;
+    // Factor applied to the limit when a request fails
+    private static final double BACKOFF = 0.9;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+    private volatile double gradient = 1.0;
+
+    // Guards the averages and the estimate; samples arriving while it is held are skipped
+    private final ReentrantLock lock = new ReentrantLock();
+    private double estimate;
+    private double shortRtt;
+    private double longRtt;
+
+    /**
+     * @param initialLimit The limit before any latency has been observed.
+     * @param minLimit     The limit never drops below this, so a class is never shut out.
+     * @param maxLimit     The limit never grows beyond this.
+     */
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Concurrency limits need 1 <= min-limit <= max-limit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimate = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimate;
+    }
+
+    /**
+     * Admits a request if fewer than the limit are in flight.
+     *
+     * @return The number of requests in flight including this one, or 0 if rejected.
+     */
+    public int tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return 0;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Ends an admitted request and feeds its latency into the limit.
+     *
+     * @param rttNanos         How long the request took.
+     * @param inFlightAtStart  The value {@link #tryAcquire()} returned for it.
+     * @param failed           Whether the request failed on the server side.
+     * @param maxGradient      Cap on this sample's gradient, to let another class's
+     *                         latency shrink this limit; 1 for none.
+     */
+    public void release(long rttNanos, int inFlightAtStart, boolean failed, double maxGradient) {
+        inFlight.decrementAndGet();
+
+        // Under heavy load a skipped sample is harmless; waiting for the lock is not
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (shortRtt == 0) {
+                shortRtt = rttNanos;
+                longRtt = rttNanos;
+            }
+            shortRtt += (rttNanos - shortRtt) * SHORT_WEIGHT;
+            longRtt += (rttNanos - longRtt) * LONG_WEIGHT;
+            // Let the baseline follow quickly when latency improves for good
+            if (longRtt > shortRtt * 2) {
+                longRtt *= 0.95;
+            }
+            gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+
+            double target;
+            if (failed) {
+                target = estimate * BACKOFF;
+            } else if (inFlightAtStart < estimate / 2 && maxGradient >= 1.0) {
+                // The limit was not what held this request back; no evidence to move it
+                return;
+            } else {
+                target = estimate * Math.min(gradient, maxGradient) + Math.sqrt(estimate);
+            }
+            estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1 - SMOOTHING) + target * SMOOTHING));
+            limit = (int) estimate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return The current latency gradient: 1 at the baseline, down to 0.5 when queueing.
+     */
+    public double getGradient() {
+        return gradient;
+    }
+}
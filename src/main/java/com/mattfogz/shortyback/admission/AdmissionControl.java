@@ -0,0 +1,104 @@
+package com.mattfogz.shortyback.admission;
+
+import org.springframework.http.HttpStatus;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control in front of the controllers: one {@link AdaptiveLimit} per
+ * {@link RequestClass}.
+ *
+ * Redirects have priority. Writes and admin requests adapt to their own latency,
+ * and also to the redirect latency gradient. When redirects start to queue, the
+ * other classes shrink even if their own requests are still fast, which frees
+ * threads and Redis connections for redirects. Rejected requests are answered
+ * at once by the web filters.
+ */
+public class AdmissionControl {
+
+    // Body and Retry-After header (seconds) of a shed request
+    public static final String SHED_BODY = "{\"error\":\"Server busy; retry later.\"}";
+    public static final String RETRY_AFTER_SECONDS = "1";
+
+    private final Map<RequestClass, AdaptiveLimit> limits;
+
+    /**
+     * @param limits One limit per request class.
+     */
+    public AdmissionControl(Map<RequestClass, AdaptiveLimit> limits) {
+        for (RequestClass requestClass : RequestClass.values()) {
+            if (!limits.containsKey(requestClass)) {
+                throw new IllegalArgumentException("No concurrency limit for " + requestClass.label());
+            }
+        }
+        this.limits = new EnumMap<>(limits);
+    }
+
+    /**
+     * Tries to admit a request.
+     *
+     * @param requestClass The request's class.
+     * @return A permit to pass to {@link #complete}, or null if the request must be shed.
+     */
+    public Permit tryAcquire(RequestClass requestClass) {
+        int inFlight = limits.get(requestClass).tryAcquire();
+        return inFlight == 0 ? null : new Permit(requestClass, inFlight, System.nanoTime());
+    }
+
+    /**
+     * Ends an admitted request.
+     *
+     * @param permit The request's permit.
+     * @param failed Whether the server failed the request (a 5xx or an exception).
+     */
+    public void complete(Permit permit, boolean failed) {
+        // Async completion callbacks may report the same request more than once
+        if (!permit.completed.compareAndSet(false, true)) {
+            return;
+        }
+        double maxGradient = permit.requestClass == RequestClass.REDIRECT
+                ? 1.0
+                : limits.get(RequestClass.REDIRECT).getGradient();
+        limits.get(permit.requestClass).release(System.nanoTime() - permit.startedAt, permit.inFlight, failed,
+                maxGradient);
+    }
+
+    /**
+     * @param requestClass The class of a shed request.
+     * @return 503 for a redirect (the service itself is overloaded), 429 for the
+     *         lower classes (the client should back off and retry).
+     */
+    public static HttpStatus shedStatus(RequestClass requestClass) {
+        return requestClass == RequestClass.REDIRECT ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @param requestClass A request class.
+     * @return Its limit, for metrics.
+     */
+    public AdaptiveLimit getLimit(RequestClass requestClass) {
+        return limits.get(requestClass);
+    }
+
+    /**
+     * An admitted request, carried from admission to completion.
+     */
+    public static final class Permit {
+        private final RequestClass requestClass;
+        private final int inFlight;
+        private final long startedAt;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Permit(RequestClass requestClass, int inFlight, long startedAt) {
+            this.requestClass = requestClass;
+            this.inFlight = inFlight;
+            this.startedAt = startedAt;
+        }
+
+        public RequestClass getRequestClass() {
+            return requestClass;
+        }
+    }
+}
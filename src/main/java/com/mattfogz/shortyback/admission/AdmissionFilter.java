@@ -0,0 +1,97 @@
+package com.mattfogz.shortyback.admission;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Servlet filter applying {@link AdmissionControl} to every request. Shed requests
+ * get a 429 or 503 with {@code Retry-After} without reaching a controller or Redis.
+ * Streaming responses hold their permit until the body has been written.
+ */
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private final AdmissionControl admissionControl;
+
+    public AdmissionFilter(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestClass requestClass = RequestClass.of(request.getMethod(),
+                request.getRequestURI().substring(request.getContextPath().length()));
+        if (requestClass == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        AdmissionControl.Permit permit = admissionControl.tryAcquire(requestClass);
+        if (permit == null) {
+            shed(response, requestClass);
+            return;
+        }
+
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new PermitListener(permit, response));
+            } else {
+                admissionControl.complete(permit, failed || response.getStatus() >= 500);
+            }
+        }
+    }
+
+    private static void shed(HttpServletResponse response, RequestClass requestClass) throws IOException {
+        response.setStatus(AdmissionControl.shedStatus(requestClass).value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, AdmissionControl.RETRY_AFTER_SECONDS);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getOutputStream().write(AdmissionControl.SHED_BODY.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Releases the permit of an asynchronous request once its response is complete.
+     */
+    private final class PermitListener implements AsyncListener {
+        private final AdmissionControl.Permit permit;
+        private final HttpServletResponse response;
+
+        PermitListener(AdmissionControl.Permit permit, HttpServletResponse response) {
+            this.permit = permit;
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            admissionControl.complete(permit, response.getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            admissionControl.complete(permit, true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            admissionControl.complete(permit, true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // A restarted async cycle still ends in onComplete
+        }
+    }
+}
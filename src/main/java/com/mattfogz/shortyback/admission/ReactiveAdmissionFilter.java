@@ -0,0 +1,56 @@
+package com.mattfogz.shortyback.admission;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WebFlux counterpart of {@link AdmissionFilter}. A permit is held until the
+ * response completes, errors or is cancelled by the client.
+ */
+public class ReactiveAdmissionFilter implements WebFilter {
+
+    private final AdmissionControl admissionControl;
+
+    public ReactiveAdmissionFilter(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        RequestClass requestClass = RequestClass.of(request.getMethodValue(),
+                request.getPath().pathWithinApplication().value());
+        if (requestClass == null) {
+            return chain.filter(exchange);
+        }
+
+        AdmissionControl.Permit permit = admissionControl.tryAcquire(requestClass);
+        if (permit == null) {
+            return shed(exchange.getResponse(), requestClass);
+        }
+
+        return chain.filter(exchange).doFinally(signal -> {
+            HttpStatus status = exchange.getResponse().getStatusCode();
+            admissionControl.complete(permit,
+                    signal == SignalType.ON_ERROR || (status != null && status.is5xxServerError()));
+        });
+    }
+
+    private static Mono<Void> shed(ServerHttpResponse response, RequestClass requestClass) {
+        response.setStatusCode(AdmissionControl.shedStatus(requestClass));
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, AdmissionControl.RETRY_AFTER_SECONDS);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return response.writeWith(Mono.just(response.bufferFactory()
+                .wrap(AdmissionControl.SHED_BODY.getBytes(StandardCharsets.UTF_8))));
+    }
+}
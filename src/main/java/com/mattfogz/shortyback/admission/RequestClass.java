@@ -0,0 +1,43 @@
+package com.mattfogz.shortyback.admission;
+
+import java.util.Locale;
+
+/**
+ * Traffic classes that get separate concurrency limits, so slow listings and
+ * bursts of creates cannot take the capacity redirects need.
+ */
+public enum RequestClass {
+
+    // GET /{shortUrl}: the latency-critical path every other class yields to
+    REDIRECT,
+
+    // Creates, bulk creates, updates and deletes
+    WRITE,
+
+    // Listings, streams, statistics and other reads under /api
+    ADMIN;
+
+    /**
+     * @return The lowercase name used in properties and metric tags.
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Classifies a request by method and path.
+     *
+     * @param method The HTTP method.
+     * @param path   The request path, without the context path.
+     * @return The class, or null for requests that are never limited (Actuator, CORS preflights).
+     */
+    public static RequestClass of(String method, String path) {
+        if ("OPTIONS".equals(method) || path.startsWith("/actuator")) {
+            return null;
+        }
+        if (path.startsWith("/api/")) {
+            return "GET".equals(method) || "HEAD".equals(method) ? ADMIN : WRITE;
+        }
+        return REDIRECT;
+    }
+}
@@ -0,0 +1,202 @@
+package com.mattfogz.shortyback.analytics;
+
+import com.mattfogz.shortyback.repository.ClickCounter;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Key layout, retention and queries for per-link click time series.
+ *
+ * Every flushed batch of clicks is added to the link's minute, hour and day
+ * buckets at once by {@code scripts/record_clicks.lua}, so coarser series are
+ * rolled up at write time and never need a background job. Each bucket hash
+ * expires a fixed retention after its period ends.
+ */
+public class ClickAnalytics {
+
+    public static final RedisScript<Long> RECORD_SCRIPT = recordScript();
+
+    // Keys passed to the record script: the link and count hashes, one bucket hash per granularity,
+    // then the bitmap of the flush batch
+    public static final int RECORD_KEY_COUNT = 3 + Granularity.values().length;
+
+    // Largest series a single query may return
+    public static final int MAX_BUCKETS = 10000;
+
+    private static final String KEY_PREFIX = "shorty:clicks:";
+
+    // Matches every bucket hash, for SCAN
+    public static final String KEY_PATTERN = KEY_PREFIX + "*";
+
+    private final Map<Granularity, Duration> retention = new EnumMap<>(Granularity.class);
+
+    /**
+     * @param minuteRetention How long minute buckets are kept.
+     * @param hourRetention   How long hour buckets are kept.
+     * @param dayRetention    How long day buckets are kept.
+     */
+    public ClickAnalytics(Duration minuteRetention, Duration hourRetention, Duration dayRetention) {
+        retention.put(Granularity.MINUTE, minuteRetention);
+        retention.put(Granularity.HOUR, hourRetention);
+        retention.put(Granularity.DAY, dayRetention);
+        retention.forEach((granularity, duration) -> {
+            if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException("Retention of " + granularity.getName() + " buckets must be positive");
+            }
+        });
+    }
+
+    /**
+     * @param shortUrl    The canonical short URL (the stored id).
+     * @param granularity The bucket granularity.
+     * @param bucket      Any bucket of the container period.
+     * @return The hash holding that bucket, e.g. "shorty:clicks:abc123:hour:20230915".
+     */
+    public static String key(String shortUrl, Granularity granularity, ZonedDateTime bucket) {
+        return KEY_PREFIX + shortUrl + ":" + granularity.getName() + ":" + granularity.containerId(bucket);
+    }
+
+    /**
+     * @param key A bucket hash, as named by {@link #key}.
+     * @return The short URL the bucket belongs to.
+     */
+    public static String shortUrlOf(String key) {
+        String rest = key.substring(KEY_PREFIX.length(), key.lastIndexOf(':'));
+        return rest.substring(0, rest.lastIndexOf(':'));
+    }
+
+    /**
+     * Encodes the keys and arguments for recording a batch of clicks.
+     *
+     * @param counter  Where the link's click count is kept.
+     * @param shortUrl The canonical short URL (the stored id).
+     * @param delta    The number of clicks.
+     * @param at       The time the clicks are attributed to.
+     * @param batchKey The bitmap marking which entries of the flush batch were applied.
+     * @param index    The position of these clicks in the batch.
+     * @param batchTtl How long the bitmap is kept, so a retry of the batch skips applied entries.
+     * @return {@link #RECORD_KEY_COUNT} keys, then the delta, the link and count
+     *         fields, the bucket fields, the bucket expiry times (Unix seconds), the
+     *         batch position and the bitmap lifetime (seconds), UTF-8 encoded.
+     */
+    public byte[][] recordKeysAndArgs(ClickCounter counter, String shortUrl, long delta, Instant at,
+            String batchKey, int index, Duration batchTtl) {
+        Granularity[] granularities = Granularity.values();
+        List<String> keysAndArgs = new ArrayList<>(8 + 3 * granularities.length);
+
+        keysAndArgs.add(counter.getLinkKey());
+        keysAndArgs.add(counter.getCountKey());
+        for (Granularity granularity : granularities) {
+            keysAndArgs.add(key(shortUrl, granularity, granularity.bucketStart(at)));
+        }
+        keysAndArgs.add(batchKey);
+        keysAndArgs.add(String.valueOf(delta));
+        keysAndArgs.add(counter.getLinkField());
+        keysAndArgs.add(counter.getCountField());
+        for (Granularity granularity : granularities) {
+            keysAndArgs.add(granularity.field(granularity.bucketStart(at)));
+        }
+        for (Granularity granularity : granularities) {
+            ZonedDateTime end = granularity.containerEnd(granularity.bucketStart(at));
+            keysAndArgs.add(String.valueOf(end.plus(retention.get(granularity)).toEpochSecond()));
+        }
+        keysAndArgs.add(String.valueOf(index));
+        keysAndArgs.add(String.valueOf(batchTtl.getSeconds()));
+
+        byte[][] encoded = new byte[keysAndArgs.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = keysAndArgs.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    /**
+     * Plans a series query. Without {@code from}, the series covers the last hour
+     * of minutes, the last week of hours or the last 30 days.
+     *
+     * @param shortUrl    The canonical short URL (the stored id).
+     * @param granularity "minute", "hour" or "day"; null means "hour".
+     * @param from        ISO-8601 start instant (inclusive), or null.
+     * @param to          ISO-8601 end instant (inclusive), or null for now.
+     * @return The planned query.
+     * @throws IllegalArgumentException if a parameter is malformed or the range is too large
+     */
+    public ClickRange range(String shortUrl, String granularity, String from, String to) {
+        Granularity resolution = granularity == null ? Granularity.HOUR : Granularity.parse(granularity);
+        Instant end = to == null ? Instant.now() : parseInstant("to", to);
+        Instant start = from == null ? end.minus(defaultWindow(resolution)) : parseInstant("from", from);
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("'from' must not be after 'to'");
+        }
+
+        ClickRange range = new ClickRange(shortUrl, resolution);
+        ZonedDateTime last = resolution.bucketStart(end);
+        int count = 0;
+        for (ZonedDateTime bucket = resolution.bucketStart(start); !bucket.isAfter(last);
+                bucket = resolution.nextBucket(bucket)) {
+            if (++count > MAX_BUCKETS) {
+                throw new IllegalArgumentException("Range spans more than " + MAX_BUCKETS + " "
+                        + resolution.getName() + " buckets; use a coarser granularity");
+            }
+            range.addBucket(bucket, key(shortUrl, resolution, bucket));
+        }
+        return range;
+    }
+
+    /**
+     * Lists every bucket hash of a link that may still exist, for deleting the
+     * link's series along with the link.
+     *
+     * @param shortUrl The canonical short URL (the stored id).
+     * @return The bucket hash keys within each granularity's retention.
+     */
+    public List<String> retainedKeys(String shortUrl) {
+        Instant now = Instant.now();
+        List<String> keys = new ArrayList<>();
+        for (Granularity granularity : Granularity.values()) {
+            ZonedDateTime last = granularity.bucketStart(now);
+            ZonedDateTime container = granularity.containerStart(granularity.bucketStart(now.minus(retention.get(granularity))));
+            for (; !container.isAfter(last); container = granularity.containerEnd(container)) {
+                keys.add(key(shortUrl, granularity, container));
+            }
+        }
+        return keys;
+    }
+
+    private static Duration defaultWindow(Granularity granularity) {
+        switch (granularity) {
+            case MINUTE:
+                return Duration.ofHours(1);
+            case HOUR:
+                return Duration.ofDays(7);
+            default:
+                return Duration.ofDays(30);
+        }
+    }
+
+    private static Instant parseInstant(String name, String value) {
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("'" + name + "' must be an ISO-8601 instant such as 2023-09-15T00:00:00Z");
+        }
+    }
+
+    private static RedisScript<Long> recordScript() {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("scripts/record_clicks.lua"));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
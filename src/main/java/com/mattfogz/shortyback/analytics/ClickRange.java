@@ -0,0 +1,96 @@
+package com.mattfogz.shortyback.analytics;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A click series query for one link: the buckets to report and the bucket
+ * hashes and fields to read them from. Callers read each hash with one HMGET,
+ * in order, and turn the replies into the response with {@link #toStats(List)}.
+ */
+public class ClickRange {
+
+    private final String shortUrl;
+    private final Granularity granularity;
+    private final List<ZonedDateTime> buckets = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<List<String>> fields = new ArrayList<>();
+
+    ClickRange(String shortUrl, Granularity granularity) {
+        this.shortUrl = shortUrl;
+        this.granularity = granularity;
+    }
+
+    /**
+     * Adds the next bucket of the series.
+     */
+    void addBucket(ZonedDateTime bucket, String key) {
+        if (keys.isEmpty() || !keys.get(keys.size() - 1).equals(key)) {
+            keys.add(key);
+            fields.add(new ArrayList<>());
+        }
+        fields.get(fields.size() - 1).add(granularity.field(bucket));
+        buckets.add(bucket);
+    }
+
+    /**
+     * @return The canonical short URL the series belongs to.
+     */
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    /**
+     * @return The bucket hash keys to read, in series order.
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return The fields to read from each key, index-aligned with {@link #getKeys()}.
+     */
+    public List<List<String>> getFields() {
+        return fields;
+    }
+
+    /**
+     * Builds the response from the HMGET replies.
+     *
+     * @param values One reply per key, index-aligned with {@link #getKeys()};
+     *               missing fields (no clicks) may be null.
+     * @return {@code shortUrl}, {@code granularity}, {@code from}, {@code to},
+     *         {@code total} and the {@code buckets} with their {@code time} and {@code clicks}
+     */
+    public Map<String, Object> toStats(List<List<String>> values) {
+        List<Map<String, Object>> series = new ArrayList<>(buckets.size());
+        long total = 0;
+        int bucket = 0;
+
+        for (int k = 0; k < keys.size(); k++) {
+            List<String> reply = values.get(k);
+            for (int f = 0; f < fields.get(k).size(); f++, bucket++) {
+                String value = reply == null ? null : reply.get(f);
+                long clicks = value == null ? 0 : Long.parseLong(value);
+                total += clicks;
+
+                Map<String, Object> point = new LinkedHashMap<>();
+                point.put("time", buckets.get(bucket).toInstant().toString());
+                point.put("clicks", clicks);
+                series.add(point);
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shortUrl", shortUrl);
+        stats.put("granularity", granularity.getName());
+        stats.put("from", buckets.get(0).toInstant().toString());
+        stats.put("to", buckets.get(buckets.size() - 1).toInstant().toString());
+        stats.put("total", total);
+        stats.put("buckets", series);
+        return stats;
+    }
+}
@@ -0,0 +1,116 @@
+package com.mattfogz.shortyback.analytics;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * Resolution of a click time series. Buckets of one granularity are grouped into
+ * a small Redis hash per container period (an hour of minutes, a day of hours, a
+ * month of days), so each hash stays in Redis's compact listpack encoding and
+ * expires as a whole. All periods are in UTC.
+ */
+public enum Granularity {
+
+    MINUTE(ChronoUnit.MINUTES, "yyyyMMddHH"),
+    HOUR(ChronoUnit.HOURS, "yyyyMMdd"),
+    DAY(ChronoUnit.DAYS, "yyyyMM");
+
+    private final ChronoUnit unit;
+    private final DateTimeFormatter containerFormat;
+
+    Granularity(ChronoUnit unit, String containerPattern) {
+        this.unit = unit;
+        this.containerFormat = DateTimeFormatter.ofPattern(containerPattern);
+    }
+
+    /**
+     * Parses a granularity name, ignoring case.
+     *
+     * @param name "minute", "hour" or "day".
+     * @return The granularity.
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static Granularity parse(String name) {
+        for (Granularity granularity : values()) {
+            if (granularity.getName().equalsIgnoreCase(name)) {
+                return granularity;
+            }
+        }
+        throw new IllegalArgumentException("Unknown granularity: " + name + ". Use minute, hour or day.");
+    }
+
+    /**
+     * @return The lowercase name used in requests, responses and keys.
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The start of the bucket containing the given instant.
+     */
+    public ZonedDateTime bucketStart(Instant at) {
+        return at.atZone(ZoneOffset.UTC).truncatedTo(unit);
+    }
+
+    /**
+     * @return The start of the bucket after the given one.
+     */
+    public ZonedDateTime nextBucket(ZonedDateTime bucket) {
+        return bucket.plus(1, unit);
+    }
+
+    /**
+     * @return The start of the container period holding the given bucket.
+     */
+    public ZonedDateTime containerStart(ZonedDateTime bucket) {
+        switch (this) {
+            case MINUTE:
+                return bucket.truncatedTo(ChronoUnit.HOURS);
+            case HOUR:
+                return bucket.truncatedTo(ChronoUnit.DAYS);
+            default:
+                return bucket.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+        }
+    }
+
+    /**
+     * @return The start of the container period after the one holding the given bucket.
+     */
+    public ZonedDateTime containerEnd(ZonedDateTime bucket) {
+        ZonedDateTime start = containerStart(bucket);
+        switch (this) {
+            case MINUTE:
+                return start.plusHours(1);
+            case HOUR:
+                return start.plusDays(1);
+            default:
+                return start.plusMonths(1);
+        }
+    }
+
+    /**
+     * @return The identifier of the container period holding the given bucket, e.g. "2023091514".
+     */
+    public String containerId(ZonedDateTime bucket) {
+        return containerFormat.format(bucket);
+    }
+
+    /**
+     * @return The hash field of the bucket within its container: the minute, hour or day of month.
+     */
+    public String field(ZonedDateTime bucket) {
+        switch (this) {
+            case MINUTE:
+                return String.valueOf(bucket.getMinute());
+            case HOUR:
+                return String.valueOf(bucket.getHour());
+            default:
+                return String.valueOf(bucket.getDayOfMonth());
+        }
+    }
+}
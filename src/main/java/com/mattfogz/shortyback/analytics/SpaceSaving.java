@@ -0,0 +1,140 @@
+package com.mattfogz.shortyback.analytics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving heavy-hitters summary: tracks at most {@code capacity} keys, and
+ * when a new key arrives while full it replaces the key with the smallest count,
+ * inheriting that count as its error bound. Any key whose true count exceeds
+ * total / capacity is guaranteed to be tracked, and every reported count
+ * overestimates the true count by at most its error.
+ *
+ * Not thread-safe; callers synchronize.
+ */
+public class SpaceSaving {
+
+    /**
+     * A tracked key with its estimated count and the maximum overestimation.
+     */
+    public static final class Counter {
+        private final String key;
+        private long count;
+        private long error;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    private static final Comparator<Counter> BY_COUNT = Comparator.comparingLong(Counter::getCount)
+            .thenComparing(Counter::getKey);
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> byCount = new TreeSet<>(BY_COUNT);
+
+    /**
+     * @param capacity Maximum number of keys tracked.
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds occurrences of a key.
+     *
+     * @param key    The key.
+     * @param weight The number of occurrences; must be positive.
+     */
+    public void offer(String key, long weight) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter(key, 0, 0);
+            } else {
+                // Replace the smallest counter; its count bounds how often the new key may have been missed
+                Counter smallest = byCount.pollFirst();
+                counters.remove(smallest.key);
+                counter = new Counter(key, smallest.count, smallest.count);
+            }
+            counters.put(key, counter);
+        } else {
+            byCount.remove(counter);
+        }
+        counter.count += weight;
+        byCount.add(counter);
+    }
+
+    /**
+     * Merges summaries, summing counts and errors per key. A full summary may have
+     * seen a key it no longer tracks as often as its smallest count, so such a key
+     * gets that count added to both its count and its error, which keeps every
+     * merged count an overestimate bounded by its error.
+     *
+     * @param summaries The summaries to merge.
+     * @return Key to {count, error}.
+     */
+    public static Map<String, long[]> merge(List<SpaceSaving> summaries) {
+        Map<String, long[]> merged = new HashMap<>();
+        long missed = 0;
+        for (SpaceSaving summary : summaries) {
+            // Charge the smallest count to every key up front and take it back from the keys tracked here
+            long floor = summary.counters.size() < summary.capacity ? 0 : summary.byCount.first().count;
+            for (Counter counter : summary.counters.values()) {
+                long[] totals = merged.computeIfAbsent(counter.key, key -> new long[2]);
+                totals[0] += counter.count - floor;
+                totals[1] += counter.error - floor;
+            }
+            missed += floor;
+        }
+        for (long[] totals : merged.values()) {
+            totals[0] += missed;
+            totals[1] += missed;
+        }
+        return merged;
+    }
+
+    /**
+     * @param limit Maximum number of keys returned.
+     * @return The keys with the highest counts, highest first.
+     */
+    public List<Counter> top(int limit) {
+        List<Counter> top = new ArrayList<>(Math.min(limit, counters.size()));
+        for (Counter counter : byCount.descendingSet()) {
+            if (top.size() == limit) {
+                break;
+            }
+            top.add(new Counter(counter.key, counter.count, counter.error));
+        }
+        return top;
+    }
+
+    /**
+     * @return The number of keys tracked.
+     */
+    public int size() {
+        return counters.size();
+    }
+}
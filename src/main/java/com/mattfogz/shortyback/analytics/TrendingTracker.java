@@ -0,0 +1,104 @@
+package com.mattfogz.shortyback.analytics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the most clicked links over a sliding window of recent minutes.
+ *
+ * Each minute gets its own {@link SpaceSaving} summary in a ring; a query merges
+ * the summaries of the requested window. Memory is bounded by
+ * {@code shorty.trending.capacity} keys per minute, however many links are
+ * clicked. Counts are per instance: each instance ranks the clicks it served.
+ */
+@Component
+public class TrendingTracker {
+
+    // Longest window a query may ask for, in minutes
+    public static final int MAX_WINDOW_MINUTES = 60;
+
+    private final int capacity;
+    private final SpaceSaving[] slices = new SpaceSaving[MAX_WINDOW_MINUTES];
+    private final long[] sliceMinutes = new long[MAX_WINDOW_MINUTES];
+
+    public TrendingTracker(@Value("${shorty.trending.capacity:1000}") int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < slices.length; i++) {
+            sliceMinutes[i] = -1;
+        }
+    }
+
+    /**
+     * Adds clicks for a link to the current minute.
+     *
+     * @param shortUrl The canonical short URL (the stored id).
+     * @param clicks   The number of clicks.
+     */
+    public void record(String shortUrl, long clicks) {
+        record(shortUrl, clicks, currentMinute());
+    }
+
+    synchronized void record(String shortUrl, long clicks, long minute) {
+        int index = (int) (minute % slices.length);
+        if (sliceMinutes[index] != minute) {
+            // The slot still holds a minute that has left every window; reuse it
+            slices[index] = new SpaceSaving(capacity);
+            sliceMinutes[index] = minute;
+        }
+        slices[index].offer(shortUrl, clicks);
+    }
+
+    /**
+     * Returns the most clicked links of the last {@code windowMinutes} minutes,
+     * including the current one.
+     *
+     * @param windowMinutes Window length, 1 to {@link #MAX_WINDOW_MINUTES}.
+     * @param limit         Maximum number of links, at least 1.
+     * @return Links with their estimated {@code clicks} and the {@code error} bound, most clicked first.
+     * @throws IllegalArgumentException if the window or limit is out of range
+     */
+    public List<Map<String, Object>> top(int windowMinutes, int limit) {
+        return top(windowMinutes, limit, currentMinute());
+    }
+
+    synchronized List<Map<String, Object>> top(int windowMinutes, int limit, long minute) {
+        if (windowMinutes < 1 || windowMinutes > MAX_WINDOW_MINUTES) {
+            throw new IllegalArgumentException("'window' must be between 1 and " + MAX_WINDOW_MINUTES + " minutes");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("'limit' must be positive");
+        }
+
+        List<SpaceSaving> window = new ArrayList<>(windowMinutes);
+        for (long m = minute - windowMinutes + 1; m <= minute; m++) {
+            int index = (int) (m % slices.length);
+            if (m >= 0 && sliceMinutes[index] == m) {
+                window.add(slices[index]);
+            }
+        }
+        Map<String, long[]> merged = SpaceSaving.merge(window);
+
+        List<Map.Entry<String, long[]>> ranked = new ArrayList<>(merged.entrySet());
+        ranked.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+
+        List<Map<String, Object>> top = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (Map.Entry<String, long[]> entry : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            Map<String, Object> link = new LinkedHashMap<>();
+            link.put("shortUrl", entry.getKey());
+            link.put("clicks", entry.getValue()[0]);
+            link.put("error", entry.getValue()[1]);
+            top.add(link);
+        }
+        return top;
+    }
+
+    private static long currentMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    }
+}
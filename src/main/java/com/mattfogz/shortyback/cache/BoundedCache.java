@@ -0,0 +1,427 @@
+package com.mattfogz.shortyback.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A size-bounded, thread-safe in-process cache with LRU eviction, an optional
+ * time-to-live and optional negative entries.
+ *
+ * Keys are spread over a fixed number of segments, each an access-ordered
+ * {@link LinkedHashMap} guarded by its own lock, so concurrent readers of
+ * different keys rarely contend. When a segment is full its least recently
+ * used entry is evicted.
+ *
+ * A loader returning null is remembered as a negative entry (when negative
+ * caching is enabled), so repeated lookups of missing keys also skip the
+ * backing store until the negative entry expires.
+ *
+ * A value loaded before an {@link #invalidate(String)} of its key must not be
+ * cached after it, or the stale value would outlive the change for a whole TTL.
+ * Callers loading on their own take a {@link #stamp()} before reading the
+ * backing store and pass it to {@link #put(String, Object, long)}, which drops
+ * the value if the key was invalidated since.
+ *
+ * @param <V> The type of cached values.
+ */
+public class BoundedCache<V> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    // Invalidation times are kept per stripe of keys rather than per key, so they
+    // need no cleanup; a load racing an invalidation of another key in the same
+    // stripe is merely not cached
+    private static final int STRIPES_PER_SEGMENT = 64;
+
+    private final Segment<V>[] segments;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxSize;
+    private final LongSupplier ticker;
+
+    // Orders stamps and invalidations
+    private final AtomicLong clock = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize            Maximum number of entries, positive and negative combined;
+     *                           0 disables the cache, so every lookup is a miss.
+     * @param ttlSeconds         Lifetime of positive entries; 0 keeps them until evicted.
+     * @param negativeTtlSeconds Lifetime of negative entries; 0 disables negative caching.
+     */
+    public BoundedCache(int maxSize, long ttlSeconds, long negativeTtlSeconds) {
+        this(maxSize, ttlSeconds, negativeTtlSeconds, System::nanoTime);
+    }
+
+    /**
+     * Creates a cache reading time from the given source, in nanoseconds.
+     */
+    @SuppressWarnings("unchecked")
+    BoundedCache(int maxSize, long ttlSeconds, long negativeTtlSeconds, LongSupplier ticker) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        }
+        this.maxSize = maxSize;
+        this.ticker = ticker;
+        this.ttlNanos = ttlSeconds > 0 ? TimeUnit.SECONDS.toNanos(ttlSeconds) : 0;
+        this.negativeTtlNanos = negativeTtlSeconds > 0 ? TimeUnit.SECONDS.toNanos(negativeTtlSeconds) : 0;
+
+        // Round the per-segment capacity up so the total never drops below maxSize
+        int segmentCapacity = (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        @SuppressWarnings("unchecked")
+        Segment<V>[] segments = (Segment<V>[]) new Segment<?>[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(segmentCapacity, evictions);
+        }
+        this.segments = segments;
+    }
+
+    /**
+     * Returns the cached value for a key, loading and caching it on a miss.
+     *
+     * @param key    The cache key.
+     * @param loader Loads the value from the backing store; returns null if absent.
+     * @return The value, or null if the key is known (or just found) to be absent.
+     */
+    public V get(String key, Function<String, V> loader) {
+        Lookup<V> lookup = lookup(key);
+        if (lookup.isCached()) {
+            return lookup.getValue();
+        }
+
+        long stamp = stamp();
+        V value = loader.apply(key);
+        if (value != null) {
+            put(key, value, stamp);
+        } else {
+            putAbsent(key, stamp);
+        }
+        return value;
+    }
+
+    /**
+     * Looks a key up without loading it, for callers that load asynchronously.
+     * Counts as a hit, negative hit or miss exactly like {@link #get(String, Function)}.
+     *
+     * @param key The cache key.
+     * @return The lookup outcome.
+     */
+    @SuppressWarnings("unchecked")
+    public Lookup<V> lookup(String key) {
+        Segment<V> segment = segmentFor(key);
+        long now = ticker.getAsLong();
+
+        synchronized (segment) {
+            CacheEntry<V> entry = segment.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) {
+                    if (entry.value == null) {
+                        negativeHits.increment();
+                        return (Lookup<V>) Lookup.ABSENT;
+                    }
+                    hits.increment();
+                    return new Lookup<>(true, entry.value);
+                }
+                // Expired entries are dropped and treated as a miss
+                segment.remove(key);
+                expirations.increment();
+            }
+        }
+
+        misses.increment();
+        return (Lookup<V>) Lookup.MISS;
+    }
+
+    /**
+     * Marks the start of a load from the backing store, for {@link #put(String, Object, long)}.
+     *
+     * @return A stamp later than every invalidation so far.
+     */
+    public long stamp() {
+        return clock.incrementAndGet();
+    }
+
+    /**
+     * Remembers that a key is absent from the backing store, if negative caching is enabled.
+     *
+     * @param key The cache key.
+     */
+    public void putAbsent(String key) {
+        if (negativeTtlNanos > 0) {
+            store(key, null, negativeTtlNanos, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Remembers that a key was found absent by a load, unless the key was
+     * invalidated after the load started.
+     *
+     * @param key   The cache key.
+     * @param stamp The {@link #stamp()} taken before the load.
+     */
+    public void putAbsent(String key, long stamp) {
+        if (negativeTtlNanos > 0) {
+            store(key, null, negativeTtlNanos, stamp);
+        }
+    }
+
+    /**
+     * Stores a value, replacing any existing entry for the key. Only for values
+     * known to be current; values read from the backing store go through
+     * {@link #put(String, Object, long)}.
+     *
+     * @param key   The cache key.
+     * @param value The value to cache; must not be null.
+     */
+    public void put(String key, V value) {
+        put(key, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Stores a value loaded from the backing store, unless the key was
+     * invalidated after the load started.
+     *
+     * @param key   The cache key.
+     * @param value The value to cache; must not be null.
+     * @param stamp The {@link #stamp()} taken before the load.
+     */
+    public void put(String key, V value, long stamp) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cached values must not be null.");
+        }
+        store(key, value, ttlNanos, stamp);
+    }
+
+    /**
+     * Removes the entry for a key, positive or negative, and keeps loads already
+     * under way from caching what they read.
+     *
+     * @param key The cache key.
+     */
+    public void invalidate(String key) {
+        Segment<V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+            segment.invalidatedAt[stripeFor(key)] = clock.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes every entry from the cache, and keeps loads already under way from
+     * caching what they read.
+     */
+    public void invalidateAll() {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                Arrays.fill(segment.invalidatedAt, clock.incrementAndGet());
+            }
+        }
+    }
+
+    /**
+     * Returns the most recently used live values, for example to persist the hot
+     * part of the cache. Each segment contributes its share of the limit, so the
+     * result approximates the overall recency order.
+     *
+     * @param limit Maximum number of values.
+     * @return Positive, unexpired values, most recently used first within each segment.
+     */
+    public List<V> hottest(int limit) {
+        int perSegment = (limit + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        long now = ticker.getAsLong();
+        List<V> hottest = new ArrayList<>(Math.min(limit, maxSize));
+
+        for (Segment<V> segment : segments) {
+            List<CacheEntry<V>> entries;
+            synchronized (segment) {
+                entries = new ArrayList<>(segment.values());
+            }
+            // Access order runs from least to most recently used
+            int taken = 0;
+            for (int i = entries.size() - 1; i >= 0 && taken < perSegment && hottest.size() < limit; i--) {
+                CacheEntry<V> entry = entries.get(i);
+                if (entry.value != null && entry.expiresAt - now > 0) {
+                    hottest.add(entry.value);
+                    taken++;
+                }
+            }
+        }
+        return hottest;
+    }
+
+    /**
+     * @return The current number of entries, positive and negative combined.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /**
+     * Returns a snapshot of the cache counters.
+     *
+     * @return Map of counter name to value, suitable for a JSON response.
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", (long) size());
+        stats.put("maxSize", (long) maxSize);
+        stats.put("hits", getHitCount());
+        stats.put("negativeHits", getNegativeHitCount());
+        stats.put("misses", getMissCount());
+        stats.put("evictions", getEvictionCount());
+        stats.put("expirations", getExpirationCount());
+        return stats;
+    }
+
+    private void store(String key, V value, long lifetimeNanos, long stamp) {
+        if (maxSize == 0) {
+            return;
+        }
+        // A lifetime of 0 means "no expiry"; Long.MAX_VALUE keeps the comparison overflow-safe
+        long now = ticker.getAsLong();
+        long expiresAt = lifetimeNanos > 0 ? now + lifetimeNanos : now + Long.MAX_VALUE;
+        Segment<V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.invalidatedAt[stripeFor(key)] > stamp) {
+                // Invalidated while the value was being loaded; it may predate the change
+                return;
+            }
+            segment.put(key, new CacheEntry<>(value, expiresAt));
+        }
+    }
+
+    private Segment<V> segmentFor(String key) {
+        return segments[spread(key) & (SEGMENT_COUNT - 1)];
+    }
+
+    // The bits above those picking the segment, so every stripe of a segment is used
+    private static int stripeFor(String key) {
+        return (spread(key) >>> Integer.numberOfTrailingZeros(SEGMENT_COUNT)) & (STRIPES_PER_SEGMENT - 1);
+    }
+
+    private static int spread(String key) {
+        int h = key.hashCode();
+        // Spread the high bits so keys sharing a suffix do not pile into one segment
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The outcome of {@link #lookup(String)}: a cached value, a cached absence, or a miss.
+     *
+     * @param <V> The type of cached values.
+     */
+    public static final class Lookup<V> {
+        private static final Lookup<?> MISS = new Lookup<>(false, null);
+        private static final Lookup<?> ABSENT = new Lookup<>(true, null);
+
+        private final boolean cached;
+        private final V value;
+
+        private Lookup(boolean cached, V value) {
+            this.cached = cached;
+            this.value = value;
+        }
+
+        /**
+         * @return true if the cache answered, with either a value or a known absence.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        /**
+         * @return The cached value; null on a miss or a known absence.
+         */
+        public V getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * A cached value with its expiry deadline. A null value marks a negative entry.
+     */
+    private static final class CacheEntry<V> {
+        final V value;
+        final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * An access-ordered map that evicts its least recently used entry once full.
+     * Callers synchronize on the segment itself.
+     */
+    private static final class Segment<V> extends LinkedHashMap<String, CacheEntry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final LongAdder evictions;
+
+        // Clock value of the latest invalidation per stripe of keys
+        final long[] invalidatedAt = new long[STRIPES_PER_SEGMENT];
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.mattfogz.shortyback.cache;
+
+import com.mattfogz.shortyback.util.Fnv;
+
+import java.net.URI;
+
+/**
+ * An immutable view of a stored link, as kept in the in-process redirect cache.
+ * Holds the canonical short URL (the stored id, with its original case), the
+ * normalized long URL that redirects point to and the link's expiry.
+ *
+ * The {@code Location} header value and the ETag of the link's redirect are
+ * prepared once, when the link enters the cache, so serving a cached redirect
+ * neither parses the URL nor hashes it again.
+ */
+public final class CachedLink {
+
+    private final String shortUrl;
+    private final String longUrl;
+    private final long expiresAt;
+    private final String location;
+    private final String etag;
+
+    /**
+     * @param expiresAt The link's expiry in epoch milliseconds, or 0 if it never expires.
+     */
+    public CachedLink(String shortUrl, String longUrl, long expiresAt) {
+        this.shortUrl = shortUrl;
+        this.longUrl = longUrl;
+        this.expiresAt = expiresAt;
+        this.location = location(longUrl);
+        this.etag = etag(longUrl, expiresAt);
+    }
+
+    // Getter for the canonical short URL
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    // Getter for the normalized long URL
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    // Getter for the expiry in epoch milliseconds, 0 if the link never expires
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return The redirect's Location header value (the long URL as an ASCII URI),
+     *         or null if the stored long URL is not a valid URI.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return A strong ETag of the redirect, derived from the long URL and the
+     *         expiry, so it changes whenever the link is updated.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * @param now The current time in epoch milliseconds.
+     * @return Whether the link has an expiry and it has passed.
+     */
+    public boolean isExpired(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    private static String location(String longUrl) {
+        try {
+            // The value ResponseEntity.location(URI.create(longUrl)) would send
+            return URI.create(longUrl).toASCIIString();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // 64-bit FNV-1a over the long URL, then the expiry
+    private static String etag(String longUrl, long expiresAt) {
+        long hash = Fnv.hash(Fnv.hash(longUrl), expiresAt);
+        return "\"" + Long.toHexString(hash) + "\"";
+    }
+}
@@ -0,0 +1,243 @@
+package com.mattfogz.shortyback.cache;
+
+import com.mattfogz.shortyback.util.Fnv;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Cuckoo filter: an approximate set of strings that supports deletion.
+ *
+ * Each item is reduced to a 16-bit fingerprint stored in one of two candidate
+ * buckets of four slots. {@link #mightContain(String)} never returns false for
+ * an added item that has not been removed; it returns true for an absent item
+ * with a probability of about 8 * load / 65536 (at most 0.012%). Removing an
+ * item that was never added may remove another item's fingerprint, so callers
+ * only remove items they added.
+ *
+ * Lookups take an optimistic read stamp and only fall back to a read lock if a
+ * write intervened, so concurrent readers never block each other.
+ */
+public class CuckooFilter {
+
+    private static final int SLOTS = 4;
+    private static final int MAX_KICKS = 500;
+    private static final double MAX_LOAD = 0.95;
+
+    private final short[] table;
+    private final int bucketMask;
+    private final StampedLock lock = new StampedLock();
+
+    private long count;
+
+    // A fingerprint left without a bucket after MAX_KICKS relocations; kept so it
+    // is never lost, and once set the filter is full
+    private boolean hasVictim;
+    private int victimBucket;
+    private short victimFingerprint;
+
+    /**
+     * @param expectedItems Number of items the filter must hold.
+     */
+    public CuckooFilter(long expectedItems) {
+        long buckets = Long.highestOneBit(Math.max(1, (long) Math.ceil(expectedItems / (SLOTS * MAX_LOAD))));
+        if (buckets * SLOTS < expectedItems / MAX_LOAD) {
+            buckets <<= 1;
+        }
+        if (buckets * SLOTS > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Cuckoo filter for " + expectedItems + " items is too large");
+        }
+        table = new short[(int) buckets * SLOTS];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /**
+     * @param item The item.
+     * @return false if the item is definitely absent, true if it may be present.
+     */
+    public boolean mightContain(String item) {
+        long hash = hash(item);
+        short fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+        int second = alternate(first, fingerprint);
+
+        long stamp = lock.tryOptimisticRead();
+        boolean found = contains(first, second, fingerprint);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = contains(first, second, fingerprint);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds an item. Adding the same item twice stores it twice.
+     *
+     * @param item The item.
+     * @return false if the filter is full; the item may then be reported absent.
+     */
+    public boolean add(String item) {
+        long hash = hash(item);
+        short fingerprint = fingerprint(hash);
+        int bucket = (int) hash & bucketMask;
+
+        long stamp = lock.writeLock();
+        try {
+            if (hasVictim) {
+                return false;
+            }
+            if (insert(bucket, fingerprint) || insert(alternate(bucket, fingerprint), fingerprint)) {
+                count++;
+                return true;
+            }
+
+            // Both buckets are full: evict a random resident and move it to its other bucket
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextBoolean()) {
+                bucket = alternate(bucket, fingerprint);
+            }
+            for (int kick = 0; kick < MAX_KICKS; kick++) {
+                int slot = bucket * SLOTS + random.nextInt(SLOTS);
+                short evicted = table[slot];
+                table[slot] = fingerprint;
+                fingerprint = evicted;
+                bucket = alternate(bucket, fingerprint);
+                if (insert(bucket, fingerprint)) {
+                    count++;
+                    return true;
+                }
+            }
+
+            // The item itself is stored; only the last evicted fingerprint is homeless
+            hasVictim = true;
+            victimBucket = bucket;
+            victimFingerprint = fingerprint;
+            count++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes one copy of an item that was previously added.
+     *
+     * @param item The item.
+     * @return true if a matching fingerprint was removed.
+     */
+    public boolean remove(String item) {
+        long hash = hash(item);
+        short fingerprint = fingerprint(hash);
+        int first = (int) hash & bucketMask;
+        int second = alternate(first, fingerprint);
+
+        long stamp = lock.writeLock();
+        try {
+            if (delete(first, fingerprint) || delete(second, fingerprint)) {
+                count--;
+                // Room was made, so the homeless fingerprint can be placed again
+                if (hasVictim && insert(victimBucket, victimFingerprint)) {
+                    hasVictim = false;
+                }
+                return true;
+            }
+            if (hasVictim && victimFingerprint == fingerprint
+                    && (victimBucket == first || victimBucket == second)) {
+                hasVictim = false;
+                count--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Whether the filter can no longer accept items.
+     */
+    public boolean isFull() {
+        long stamp = lock.readLock();
+        try {
+            return hasVictim;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The number of items held.
+     */
+    public long size() {
+        long stamp = lock.readLock();
+        try {
+            return count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The number of items the filter holds at its maximum load.
+     */
+    public long capacity() {
+        return (long) (table.length * MAX_LOAD);
+    }
+
+    /**
+     * @return The expected chance that an absent item is reported present at the current load.
+     */
+    public double expectedFalsePositiveRate() {
+        double load = (double) size() / table.length;
+        return 1 - Math.pow(1 - 1.0 / 65535, 2.0 * SLOTS * load);
+    }
+
+    private boolean contains(int first, int second, short fingerprint) {
+        for (int i = 0; i < SLOTS; i++) {
+            if (table[first * SLOTS + i] == fingerprint || table[second * SLOTS + i] == fingerprint) {
+                return true;
+            }
+        }
+        return hasVictim && victimFingerprint == fingerprint && (victimBucket == first || victimBucket == second);
+    }
+
+    private boolean insert(int bucket, short fingerprint) {
+        for (int i = bucket * SLOTS; i < bucket * SLOTS + SLOTS; i++) {
+            if (table[i] == 0) {
+                table[i] = fingerprint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean delete(int bucket, short fingerprint) {
+        for (int i = bucket * SLOTS; i < bucket * SLOTS + SLOTS; i++) {
+            if (table[i] == fingerprint) {
+                table[i] = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The two candidate buckets of a fingerprint map onto each other
+    private int alternate(int bucket, short fingerprint) {
+        return (bucket ^ (fingerprint * 0x5bd1e995)) & bucketMask;
+    }
+
+    // Fingerprint 0 marks an empty slot, so it is never produced
+    private static short fingerprint(long hash) {
+        int fingerprint = (int) (hash >>> 48);
+        return (short) (fingerprint == 0 ? 1 : fingerprint);
+    }
+
+    // FNV-1a over the characters, then a 64-bit finalizer to spread the bits
+    private static long hash(String item) {
+        return Fnv.fmix64(Fnv.hash(item));
+    }
+}
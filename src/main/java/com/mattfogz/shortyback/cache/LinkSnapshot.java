@@ -0,0 +1,174 @@
+package com.mattfogz.shortyback.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned, checksummed file of redirect cache entries, used to warm the
+ * cache on startup.
+ *
+ * Layout (big-endian): magic {@code "SHRT"}, format version (int), creation time
+ * in epoch millis (long), entry count (int), CRC32 of the entries (long), then per
+ * entry the canonical short URL (unsigned short length + UTF-8), the redirect
+ * URL (int length + UTF-8) and the expiry in epoch millis (long, 0 for none).
+ * Files are written to a temporary sibling and moved into place, so readers never
+ * see a partial snapshot; they are read through a memory mapping. The header is
+ * not checksummed, so its entry count and every length are checked against the
+ * bytes left before anything is allocated, and the entries must fill the file.
+ */
+public final class LinkSnapshot {
+
+    // "SHRT"
+    private static final int MAGIC = 0x53485254;
+
+    // Bump when the layout changes; files of another version are ignored
+    public static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 8;
+
+    // An entry with empty URLs: the two lengths and the expiry
+    private static final int MIN_ENTRY_BYTES = 2 + 4 + 8;
+
+    private final long createdAt;
+    private final List<CachedLink> links;
+
+    private LinkSnapshot(long createdAt, List<CachedLink> links) {
+        this.createdAt = createdAt;
+        this.links = links;
+    }
+
+    /**
+     * Writes a snapshot, replacing any existing file atomically.
+     *
+     * @param file  The snapshot file.
+     * @param links The links to store, hottest first.
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, List<CachedLink> links) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(links.size() * 64);
+        DataOutputStream out = new DataOutputStream(body);
+        int count = 0;
+        for (CachedLink link : links) {
+            byte[] shortUrl = link.getShortUrl().getBytes(StandardCharsets.UTF_8);
+            if (shortUrl.length > 0xFFFF) {
+                continue;
+            }
+            byte[] longUrl = link.getLongUrl().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(shortUrl.length);
+            out.write(shortUrl);
+            out.writeInt(longUrl.length);
+            out.write(longUrl);
+            out.writeLong(link.getExpiresAt());
+            count++;
+        }
+        out.flush();
+        byte[] entries = body.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(entries);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(System.currentTimeMillis())
+                .putInt(count)
+                .putLong(crc.getValue());
+        header.flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer[] buffers = { header, ByteBuffer.wrap(entries) };
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a snapshot, verifying its version and checksum.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException if the file cannot be read, is of another version or is corrupt
+     */
+    public static LinkSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a link snapshot: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a link snapshot: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported link snapshot version " + version + ": " + file);
+            }
+            long createdAt = buffer.getLong();
+            int count = buffer.getInt();
+            long checksum = buffer.getLong();
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Link snapshot checksum mismatch: " + file);
+            }
+
+            if (count < 0 || count > buffer.remaining() / MIN_ENTRY_BYTES) {
+                throw new IOException("Corrupt link snapshot entry count " + count + ": " + file);
+            }
+            List<CachedLink> links = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String shortUrl = readString(buffer, buffer.getShort() & 0xFFFF);
+                String longUrl = readString(buffer, buffer.getInt());
+                links.add(new CachedLink(shortUrl, longUrl, buffer.getLong()));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Corrupt link snapshot entry count " + count + ": " + file);
+            }
+            return new LinkSnapshot(createdAt, links);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Truncated link snapshot: " + file, e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Getter for the creation time, in epoch millis
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    // Getter for the stored links, hottest first
+    public List<CachedLink> getLinks() {
+        return links;
+    }
+}
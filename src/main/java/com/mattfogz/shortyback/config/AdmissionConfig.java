@@ -0,0 +1,67 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.admission.AdaptiveLimit;
+import com.mattfogz.shortyback.admission.AdmissionControl;
+import com.mattfogz.shortyback.admission.AdmissionFilter;
+import com.mattfogz.shortyback.admission.ReactiveAdmissionFilter;
+import com.mattfogz.shortyback.admission.RequestClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Puts adaptive concurrency limits in front of the controllers, one per
+ * {@link RequestClass}. Each class is tuned through
+ * {@code shorty.admission.<class>.initial-limit}, {@code min-limit} and
+ * {@code max-limit}; set {@code shorty.admission.enabled} to false to admit everything.
+ */
+@Configuration
+@ConditionalOnProperty(name = "shorty.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionConfig {
+
+    // Filter order: after the metrics filter, so shed requests still show up in http.server.requests
+    static final int FILTER_ORDER = Ordered.HIGHEST_PRECEDENCE + 10;
+
+    @Bean
+    public AdmissionControl admissionControl(Environment environment) {
+        Map<RequestClass, AdaptiveLimit> limits = new EnumMap<>(RequestClass.class);
+        limits.put(RequestClass.REDIRECT, limit(environment, RequestClass.REDIRECT, 200, 50, 1000));
+        limits.put(RequestClass.WRITE, limit(environment, RequestClass.WRITE, 50, 5, 200));
+        limits.put(RequestClass.ADMIN, limit(environment, RequestClass.ADMIN, 4, 1, 20));
+        return new AdmissionControl(limits);
+    }
+
+    private static AdaptiveLimit limit(Environment environment, RequestClass requestClass,
+            int initialLimit, int minLimit, int maxLimit) {
+        String prefix = "shorty.admission." + requestClass.label() + ".";
+        return new AdaptiveLimit(
+                environment.getProperty(prefix + "initial-limit", Integer.class, initialLimit),
+                environment.getProperty(prefix + "min-limit", Integer.class, minLimit),
+                environment.getProperty(prefix + "max-limit", Integer.class, maxLimit));
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public FilterRegistrationBean<AdmissionFilter> admissionFilter(AdmissionControl admissionControl) {
+        FilterRegistrationBean<AdmissionFilter> registration =
+                new FilterRegistrationBean<>(new AdmissionFilter(admissionControl));
+        registration.setOrder(FILTER_ORDER);
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+
+    @Bean
+    @Order(FILTER_ORDER)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public ReactiveAdmissionFilter reactiveAdmissionFilter(AdmissionControl admissionControl) {
+        return new ReactiveAdmissionFilter(admissionControl);
+    }
+}
@@ -0,0 +1,51 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the in-process caches that sit in front of Redis.
+ */
+@Configuration
+public class CacheConfig {
+
+    /**
+     * Cache of case-folded short URL to link, consulted on every redirect.
+     * Sized and timed through the {@code shorty.cache.redirect.*} properties.
+     */
+    @Bean
+    public BoundedCache<CachedLink> redirectCache(
+            @Value("${shorty.cache.redirect.max-size:100000}") int maxSize,
+            @Value("${shorty.cache.redirect.ttl-seconds:300}") long ttlSeconds,
+            @Value("${shorty.cache.redirect.negative-ttl-seconds:10}") long negativeTtlSeconds) {
+        return new BoundedCache<>(maxSize, ttlSeconds, negativeTtlSeconds);
+    }
+
+    /**
+     * Cache of normalized long URL to an existing short URL, used to dedup repeat
+     * submissions without a Redis lookup. Set
+     * {@code shorty.cache.dedup.max-size} to 0 to always ask Redis.
+     */
+    @Bean
+    public BoundedCache<String> dedupCache(
+            @Value("${shorty.cache.dedup.max-size:10000}") int maxSize,
+            @Value("${shorty.cache.dedup.ttl-seconds:60}") long ttlSeconds) {
+        // No negative entries: another instance may create the link at any time
+        return new BoundedCache<>(maxSize, ttlSeconds, 0);
+    }
+
+    /**
+     * Cache of normalized long URL to its validation result, so repeat
+     * submissions skip the validator. Set {@code shorty.cache.validation.max-size}
+     * to 0 to validate every time.
+     */
+    @Bean
+    public BoundedCache<Boolean> validationCache(
+            @Value("${shorty.cache.validation.max-size:10000}") int maxSize) {
+        // A URL's validity never changes, so entries live until evicted
+        return new BoundedCache<>(maxSize, 0, 0);
+    }
+}
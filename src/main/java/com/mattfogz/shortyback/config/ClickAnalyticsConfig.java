@@ -0,0 +1,28 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.analytics.ClickAnalytics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Configures the retention of per-link click time series.
+ */
+@Configuration
+public class ClickAnalyticsConfig {
+
+    /**
+     * Click series settings. Each granularity's buckets are kept for the number of
+     * seconds given by {@code shorty.clicks.retention.*-seconds}.
+     */
+    @Bean
+    public ClickAnalytics clickAnalytics(
+            @Value("${shorty.clicks.retention.minute-seconds:172800}") long minuteSeconds,
+            @Value("${shorty.clicks.retention.hour-seconds:7776000}") long hourSeconds,
+            @Value("${shorty.clicks.retention.day-seconds:94608000}") long daySeconds) {
+        return new ClickAnalytics(Duration.ofSeconds(minuteSeconds), Duration.ofSeconds(hourSeconds),
+                Duration.ofSeconds(daySeconds));
+    }
+}
@@ -0,0 +1,40 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import io.lettuce.core.metrics.MicrometerCommandLatencyRecorder;
+import io.lettuce.core.metrics.MicrometerOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.data.redis.ClientResourcesBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+/**
+ * Wires Redis client instrumentation into the Micrometer registry.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Publishes Lettuce's per-command latency timers ({@code lettuce.command.completion}
+     * and {@code lettuce.command.firstresponse}, tagged by command type).
+     */
+    @Bean
+    public ClientResourcesBuilderCustomizer redisLatencyMetrics(MeterRegistry registry) {
+        MicrometerOptions options = MicrometerOptions.builder().histogram(true).build();
+        return builder -> builder.commandLatencyRecorder(new MicrometerCommandLatencyRecorder(registry, options));
+    }
+
+    /**
+     * Listener that attributes Redis commands to the request thread that sent them.
+     */
+    @Bean
+    public RedisCommandCounter redisCommandCounter(RedisConnectionFactory connectionFactory) {
+        RedisCommandCounter counter = new RedisCommandCounter();
+        if (connectionFactory instanceof LettuceConnectionFactory) {
+            ((LettuceConnectionFactory) connectionFactory).getRequiredNativeClient().addListener(counter);
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,50 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.controller.RedirectFilter;
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.service.RedirectPolicy;
+import com.mattfogz.shortyback.service.UrlService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Serves redirects from {@link RedirectFilter} instead of the DispatcherServlet in
+ * servlet mode. Set {@code shorty.redirect.fast-path.enabled} to false to send
+ * them through {@code UrlController} again.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "shorty.redirect.fast-path.enabled", havingValue = "true", matchIfMissing = true)
+public class RedirectConfig {
+
+    // Right after admission control, so shed redirects never reach it
+    private static final int FILTER_ORDER = AdmissionConfig.FILTER_ORDER + 1;
+
+    @Bean
+    public FilterRegistrationBean<RedirectFilter> redirectFilter(UrlService urlService, RedirectPolicy redirectPolicy,
+            UrlMetrics urlMetrics, RedisCommandCounter redisCommandCounter, Environment environment) {
+        // Single-segment paths owned by Spring Boot itself
+        Set<String> reserved = Set.copyOf(List.of(
+                firstSegment(environment.getProperty("server.error.path", "/error")),
+                firstSegment(environment.getProperty("management.endpoints.web.base-path", "/actuator"))));
+
+        FilterRegistrationBean<RedirectFilter> registration = new FilterRegistrationBean<>(
+                new RedirectFilter(urlService, redirectPolicy, urlMetrics, redisCommandCounter, reserved));
+        registration.setOrder(FILTER_ORDER);
+        return registration;
+    }
+
+    private static String firstSegment(String path) {
+        String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        int slash = trimmed.indexOf('/');
+        return slash < 0 ? trimmed : trimmed.substring(0, slash);
+    }
+}
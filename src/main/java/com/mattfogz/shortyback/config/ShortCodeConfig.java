@@ -0,0 +1,83 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.shortcode.FeistelPermutation;
+import com.mattfogz.shortyback.shortcode.RandomShortCodeGenerator;
+import com.mattfogz.shortyback.shortcode.RedisIdBlockAllocator;
+import com.mattfogz.shortyback.shortcode.SequentialShortCodeGenerator;
+import com.mattfogz.shortyback.shortcode.ShortCodeGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.security.SecureRandom;
+
+/**
+ * Selects how short codes are generated, through {@code shorty.shortcode.strategy}:
+ * {@code sequential} (default) leases id blocks from Redis, {@code random} keeps the
+ * original random codes.
+ *
+ * Scrambled sequential codes are only as hard to guess as the permutation's
+ * secret is to know. Without {@code shorty.shortcode.secret}, a random secret is
+ * created once and kept in Redis, shared by every instance.
+ */
+@Configuration
+public class ShortCodeConfig {
+
+    // Secret of the sequential code permutation, when none is configured
+    public static final String SECRET_KEY = "shorty:shortcode:secret";
+
+    private static final Logger log = LoggerFactory.getLogger(ShortCodeConfig.class);
+
+    @Value("${shorty.shortcode.length:6}")
+    private int length;
+
+    @Bean
+    public ShortCodeGenerator shortCodeGenerator(
+            StringRedisTemplate redisTemplate,
+            @Value("${shorty.shortcode.strategy:sequential}") String strategy,
+            @Value("${shorty.shortcode.block-size:1000}") int blockSize,
+            @Value("${shorty.shortcode.scramble:true}") boolean scramble,
+            @Value("${shorty.shortcode.secret:}") String secret) {
+        switch (strategy) {
+            case "random":
+                return new RandomShortCodeGenerator(length);
+            case "sequential":
+                FeistelPermutation permutation = scramble
+                        ? new FeistelPermutation(length, secret(redisTemplate, secret))
+                        : null;
+                return new SequentialShortCodeGenerator(new RedisIdBlockAllocator(redisTemplate), blockSize, length,
+                        permutation);
+            default:
+                throw new IllegalArgumentException("Unknown shorty.shortcode.strategy: " + strategy);
+        }
+    }
+
+    /**
+     * @param configured {@code shorty.shortcode.secret}; empty to use the one kept in Redis.
+     * @return The permutation secret.
+     */
+    private static long secret(StringRedisTemplate redisTemplate, String configured) {
+        if (!configured.isEmpty()) {
+            try {
+                return Long.parseLong(configured);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("shorty.shortcode.secret must be a 64-bit number");
+            }
+        }
+
+        // The first instance to start picks the secret; later ones read it
+        long candidate = new SecureRandom().nextLong();
+        if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(SECRET_KEY, String.valueOf(candidate)))) {
+            log.info("Created a random short code secret in {}", SECRET_KEY);
+            return candidate;
+        }
+        String stored = redisTemplate.opsForValue().get(SECRET_KEY);
+        if (stored == null) {
+            throw new IllegalStateException("Short code secret disappeared from " + SECRET_KEY);
+        }
+        return Long.parseLong(stored);
+    }
+}
@@ -0,0 +1,32 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.service.ShortUrlFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Keeps the {@link ShortUrlFilter} of every instance in sync through Redis pub/sub.
+ */
+@Configuration
+public class ShortUrlFilterConfig {
+
+    /**
+     * Subscribes the filter to the create and delete events of other instances.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "shorty.filter.enabled", havingValue = "true", matchIfMissing = true)
+    public RedisMessageListenerContainer shortUrlFilterListener(RedisConnectionFactory connectionFactory,
+            ShortUrlFilter shortUrlFilter) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // Events are applied one at a time, in order, so gaps in their sequence mean lost events
+        container.setTaskExecutor(new SyncTaskExecutor());
+        container.addMessageListener(shortUrlFilter, new ChannelTopic(ShortUrlFilter.CHANNEL));
+        return container;
+    }
+}
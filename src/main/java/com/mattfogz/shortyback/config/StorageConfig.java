@@ -0,0 +1,85 @@
+package com.mattfogz.shortyback.config;
+
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.repository.CompactUrlStore;
+import com.mattfogz.shortyback.repository.ReactiveCompactUrlStore;
+import com.mattfogz.shortyback.repository.ReactiveShardedUrlStore;
+import com.mattfogz.shortyback.repository.ReactiveUrlStore;
+import com.mattfogz.shortyback.repository.ShardedUrlStore;
+import com.mattfogz.shortyback.repository.UrlStore;
+import com.mattfogz.shortyback.shard.ShardTopology;
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Selects how links are laid out in Redis, through {@code shorty.storage.layout}:
+ * {@code entity} (default) keeps the Spring Data {@code @RedisHash("Url")} keys,
+ * {@code compact} packs links into bucketed hashes (see {@link CompactLayout}).
+ * Links are sharded over several Redis servers when {@code shorty.shards.nodes}
+ * lists them (see {@link ShardTopology}).
+ */
+@Configuration
+public class StorageConfig {
+
+    @Value("${shorty.storage.layout:entity}")
+    private String layout;
+
+    /**
+     * Bucket count and URL compression of the compact layout, through
+     * {@code shorty.storage.compact.*}. The bucket count must not change once
+     * links are stored.
+     */
+    @Bean
+    public CompactLayout compactLayout(
+            @Value("${shorty.storage.compact.buckets:65536}") int buckets,
+            @Value("${shorty.storage.compact.compress-urls:true}") boolean compressUrls) {
+        return new CompactLayout(buckets, compressUrls);
+    }
+
+    /**
+     * The Redis servers links are sharded over, through {@code shorty.shards.*}.
+     * With no nodes the store is not sharded.
+     */
+    @Bean
+    public ShardTopology shardTopology(
+            @Value("${shorty.shards.nodes:}") List<String> nodes,
+            @Value("${shorty.shards.previous-nodes:}") List<String> previousNodes,
+            @Value("${shorty.shards.virtual-nodes:160}") int virtualNodes,
+            ClientResources clientResources, RedisCommandCounter redisCommandCounter) {
+        return new ShardTopology(nodes, previousNodes, virtualNodes, clientResources, redisCommandCounter);
+    }
+
+    @Bean
+    public UrlStore urlStore(CompactLayout compactLayout, ShardTopology shardTopology,
+            RedisMappingContext mappingContext) {
+        Supplier<UrlStore> layoutStore = () -> isCompact() ? new CompactUrlStore(compactLayout) : new UrlStore();
+        return shardTopology.isSharded() ? new ShardedUrlStore(shardTopology, layoutStore, mappingContext)
+                : layoutStore.get();
+    }
+
+    @Bean
+    public ReactiveUrlStore reactiveUrlStore(CompactLayout compactLayout, ShardTopology shardTopology) {
+        Supplier<ReactiveUrlStore> layoutStore = () -> isCompact() ? new ReactiveCompactUrlStore(compactLayout)
+                : new ReactiveUrlStore();
+        return shardTopology.isSharded() ? new ReactiveShardedUrlStore(shardTopology, layoutStore)
+                : layoutStore.get();
+    }
+
+    private boolean isCompact() {
+        switch (layout) {
+            case "entity":
+                return false;
+            case "compact":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown shorty.storage.layout: " + layout);
+        }
+    }
+}
@@ -1,14 +1,33 @@
 package com.mattfogz.shortyback.config;
 
+import com.mattfogz.shortyback.metrics.RedisCallsInterceptor;
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 @EnableWebMvc
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WebConfig implements WebMvcConfigurer {
 
+    @Autowired
+    private RedisCommandCounter redisCommandCounter;
+
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Publishes Redis commands per request as shorty.redis.calls
+        registry.addInterceptor(new RedisCallsInterceptor(redisCommandCounter, urlMetrics));
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
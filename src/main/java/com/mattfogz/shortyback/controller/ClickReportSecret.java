@@ -0,0 +1,41 @@
+package com.mattfogz.shortyback.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Guards {@code POST /api/url/clicks}: reported clicks feed click counts,
+ * statistics and trending links, so when {@code shorty.clicks.report-secret} is
+ * set, only callers sending it in the {@value #HEADER} header may report them.
+ * Unset, reports are accepted from anyone, as before.
+ */
+@Component
+public class ClickReportSecret {
+
+    public static final String HEADER = "X-Shorty-Report-Secret";
+
+    // Empty when reports are not protected
+    private final byte[] secret;
+
+    /**
+     * @param secret {@code shorty.clicks.report-secret}; empty to accept every report.
+     */
+    public ClickReportSecret(@Value("${shorty.clicks.report-secret:}") String secret) {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param header The {@value #HEADER} header of the report, or null if missing.
+     * @return Whether the report may be recorded.
+     */
+    public boolean accepts(String header) {
+        if (secret.length == 0) {
+            return true;
+        }
+        // Constant-time, so the secret cannot be guessed from response times
+        return header != null && MessageDigest.isEqual(secret, header.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,390 @@
+package com.mattfogz.shortyback.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.controller.UrlController.UrlRequest;
+import com.mattfogz.shortyback.controller.UrlController.UrlUpdateRequest;
+import com.mattfogz.shortyback.exception.UrlException;
+import com.mattfogz.shortyback.repository.UrlPageScripts;
+import com.mattfogz.shortyback.service.LinkExpiry;
+import com.mattfogz.shortyback.service.ReactiveUrlService;
+import com.mattfogz.shortyback.service.RedirectPolicy;
+import com.mattfogz.shortyback.transfer.DataBufferInputStream;
+import com.mattfogz.shortyback.transfer.LinkExportWriter;
+import com.mattfogz.shortyback.transfer.LinkImporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Reactive (WebFlux) variant of {@link UrlController}, active when
+ * {@code spring.main.web-application-type=reactive}. Exposes the same endpoints
+ * with the same request and response formats, served without blocking.
+ */
+@RestController
+@RequestMapping("/")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUrlController {
+
+    // Number of batch entries validated and reserved together
+    private static final int BATCH_CHUNK_SIZE = 500;
+
+    @Autowired
+    private ReactiveUrlService urlService;
+
+    @Autowired
+    private RedirectPolicy redirectPolicy;
+
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    @Autowired
+    private LinkImporter linkImporter;
+
+    @Autowired
+    private ClickReportSecret clickReportSecret;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * REST endpoint to create a short URL.
+     *
+     * @param request DTO containing the long URL, optional custom short URL and optional lifetime.
+     * @return JSON response with the short URL and success message.
+     */
+    @PostMapping("/api/url/create")
+    public Mono<ResponseEntity<Map<String, String>>> createShortUrl(@RequestBody UrlRequest request) {
+        return urlService.createShortUrl(request.getLongUrl(), request.getCustomShortUrl(), request.getExpiresInSeconds())
+                .flatMap(shortUrl -> Mono.zip(urlService.getLongUrl(shortUrl), urlService.getClickCount(shortUrl),
+                        urlService.findExpiresAt(shortUrl))
+                        .map(found -> {
+                            Map<String, String> response = new HashMap<>();
+                            response.put("shortUrl", shortUrl);
+                            response.put("longUrl", found.getT1());
+                            response.put("clickCount", String.valueOf(found.getT2()));
+                            if (found.getT3() != 0) {
+                                response.put("expiresAt", LinkExpiry.format(found.getT3()));
+                            }
+                            response.put("message", "Short URL created successfully.");
+                            return ResponseEntity.ok(response);
+                        }))
+                .onErrorResume(UrlException.class, e -> {
+                    Map<String, String> errorResponse = new HashMap<>();
+                    errorResponse.put("error", e.getMessage());
+                    return Mono.just(ResponseEntity.badRequest().body(errorResponse));
+                });
+    }
+
+    /**
+     * REST endpoint to create many short URLs in one request, from a JSON array or
+     * an NDJSON stream of {@link UrlRequest} objects. Results are streamed back as
+     * NDJSON, one line per entry in request order, with per-entry errors.
+     *
+     * @param requests The decoded request entries, consumed as they arrive.
+     * @return The streamed results.
+     */
+    @PostMapping(value = "/api/url/batch", consumes = { MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_NDJSON_VALUE }, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Map<String, String>> createShortUrls(@RequestBody Flux<UrlRequest> requests) {
+        return requests.buffer(BATCH_CHUNK_SIZE)
+                .concatMap(chunk -> {
+                    List<String> longUrls = new ArrayList<>(chunk.size());
+                    List<String> customShortUrls = new ArrayList<>(chunk.size());
+                    List<Long> expiresInSeconds = new ArrayList<>(chunk.size());
+                    for (UrlRequest request : chunk) {
+                        longUrls.add(request.getLongUrl());
+                        customShortUrls.add(request.getCustomShortUrl());
+                        expiresInSeconds.add(request.getExpiresInSeconds());
+                    }
+                    return urlService.createShortUrls(longUrls, customShortUrls, expiresInSeconds);
+                })
+                .index((index, result) -> {
+                    result.put("index", String.valueOf(index));
+                    return result;
+                });
+    }
+
+    /**
+     * Endpoint to redirect a short URL to its long URL, counting the click.
+     *
+     * @param shortUrl The short URL to lookup and redirect to its corresponding
+     *                 long URL.
+     * @return Redirect response to the original long URL, or 404 if the short URL does not exist.
+     */
+    @GetMapping("/{shortUrl}")
+    public Mono<ResponseEntity<Void>> getLongUrl(@PathVariable String shortUrl, ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        String visitorId = VisitorTracker.visitorId(
+                remoteAddress == null ? null : remoteAddress.getHostString(),
+                request.getHeaders().getFirst(HttpHeaders.USER_AGENT));
+
+        String ifNoneMatch = request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+
+        return urlService.findLink(shortUrl)
+                .flatMap(link -> urlService.incrementClickCount(shortUrl, visitorId)
+                        .then(Mono.fromSupplier(() -> {
+                            // Status and caching headers follow the redirect policy
+                            HttpHeaders headers = redirectPolicy.cacheHeaders(link, System.currentTimeMillis());
+                            if (redirectPolicy.isNotModified(ifNoneMatch, link)) {
+                                urlMetrics.redirectNotModified();
+                                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).<Void>build();
+                            }
+                            return ResponseEntity.status(redirectPolicy.status(link))
+                                    .headers(headers)
+                                    .location(URI.create(link.getLongUrl()))
+                                    .<Void>build();
+                        })))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * REST endpoint for clicks counted outside the service, such as redirects a
+     * CDN served from its cache, reported from its logs.
+     *
+     * @param clicks Clicks per short URL.
+     * @param secret The {@value ClickReportSecret#HEADER} header; required when
+     *               {@code shorty.clicks.report-secret} is set.
+     * @return The number of short URLs whose clicks were recorded, or 401 if the
+     *         secret is missing or wrong.
+     */
+    @PostMapping("/api/url/clicks")
+    public Mono<ResponseEntity<Map<String, Integer>>> reportClicks(@RequestBody Map<String, Long> clicks,
+            @RequestHeader(value = ClickReportSecret.HEADER, required = false) String secret) {
+        if (!clickReportSecret.accepts(secret)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED).build());
+        }
+        return urlService.recordClicks(clicks).map(recorded -> {
+            Map<String, Integer> response = new HashMap<>();
+            response.put("recorded", recorded);
+            return ResponseEntity.ok(response);
+        });
+    }
+
+    @GetMapping("/api/url/clickCount/{shortUrl}")
+    public Mono<ResponseEntity<Map<String, Long>>> getClickCount(@PathVariable String shortUrl) {
+        return urlService.getClickCount(shortUrl).map(clickCount -> {
+            Map<String, Long> response = new HashMap<>();
+            response.put("clickCount", clickCount);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setCacheControl("no-cache"); // Prevent caching
+
+            return ResponseEntity.ok().headers(headers).body(response);
+        });
+    }
+
+    /**
+     * REST endpoint for the click time series of a short URL.
+     *
+     * @param shortUrl    Short URL to report on (case-insensitive).
+     * @param from        ISO-8601 start instant; defaults to one window before {@code to}.
+     * @param to          ISO-8601 end instant; defaults to now.
+     * @param granularity "minute", "hour" or "day".
+     * @return The series buckets and their total.
+     */
+    @GetMapping("/api/url/stats/{shortUrl}")
+    public Mono<ResponseEntity<Map<String, Object>>> getClickStats(@PathVariable String shortUrl,
+            @RequestParam(required = false) String from, @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "hour") String granularity) {
+        return urlService.getClickStats(shortUrl, granularity, from, to).map(stats -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setCacheControl("no-cache"); // Prevent caching
+
+            return ResponseEntity.ok().headers(headers).body(stats);
+        });
+    }
+
+    /**
+     * REST endpoint for the estimated number of distinct visitors of a short URL.
+     *
+     * @param shortUrl Short URL to report on (case-insensitive).
+     * @return JSON response with the short URL and its unique visitor estimate.
+     */
+    @GetMapping("/api/url/visitors/{shortUrl}")
+    public Mono<ResponseEntity<Map<String, Object>>> getUniqueVisitors(@PathVariable String shortUrl) {
+        return urlService.getUniqueVisitors(shortUrl).map(uniqueVisitors -> {
+            Map<String, Object> response = new HashMap<>();
+            response.put("shortUrl", shortUrl);
+            response.put("uniqueVisitors", uniqueVisitors);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setCacheControl("no-cache"); // Prevent caching
+
+            return ResponseEntity.ok().headers(headers).body(response);
+        });
+    }
+
+    /**
+     * REST endpoint for the most clicked links of the last minutes.
+     *
+     * @param window Window length in minutes (1 to 60).
+     * @param limit  Maximum number of links.
+     * @return The trending links, most clicked first.
+     */
+    @GetMapping("/api/url/trending")
+    public Mono<ResponseEntity<List<Map<String, Object>>>> getTrending(@RequestParam(defaultValue = "60") int window,
+            @RequestParam(defaultValue = "10") int limit) {
+        return urlService.getTrending(window, limit).map(trending -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setCacheControl("no-cache"); // Prevent caching
+
+            return ResponseEntity.ok().headers(headers).body(trending);
+        });
+    }
+
+    @PutMapping("/api/url/update")
+    public Mono<ResponseEntity<Map<String, String>>> updateUrl(@RequestBody UrlUpdateRequest request) {
+        return urlService.updateUrl(request.getShortUrl(), request.getNewLongUrl())
+                .then(Mono.fromSupplier(() -> {
+                    Map<String, String> response = new HashMap<>();
+                    response.put("message", "URL updated successfully.");
+                    return ResponseEntity.ok(response);
+                }));
+    }
+
+    @DeleteMapping("/api/url/delete/{shortUrl}")
+    public Mono<ResponseEntity<Map<String, String>>> deleteUrl(@PathVariable String shortUrl) {
+        return urlService.deleteShortUrl(shortUrl)
+                .then(Mono.fromSupplier(() -> {
+                    Map<String, String> response = new HashMap<>();
+                    response.put("message", "URL with short URL: " + shortUrl + " has been deleted.");
+                    return ResponseEntity.ok(response);
+                }));
+    }
+
+    /**
+     * Lists all URLs with click counts. The JSON array is written as entries are
+     * read from Redis rather than after collecting them all.
+     *
+     * @return Stream of URL mappings.
+     */
+    @GetMapping("/api/url/all")
+    public Flux<Map<String, String>> getAllUrlsWithClickCount() {
+        return urlService.getAllUrlsWithClickCount();
+    }
+
+    @GetMapping("/api/url/page")
+    public Mono<ResponseEntity<Map<String, Object>>> getUrlPage(@RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int size) {
+        return urlService.getUrlPageWithClickCount(cursor, size).map(ResponseEntity::ok);
+    }
+
+    /**
+     * Streams every URL with its click count as NDJSON (default), a JSON array or
+     * CSV, optionally gzipped, with Redis paging driven by the client's demand.
+     * Doubles as the export of {@code POST /api/url/import}.
+     *
+     * @param format {@code ndjson}, {@code json} or {@code csv}.
+     * @param gzip   Whether to gzip the response ({@code Content-Encoding: gzip}).
+     * @return The streamed response.
+     */
+    @GetMapping("/api/url/all/stream")
+    public ResponseEntity<Flux<DataBuffer>> streamAllUrls(@RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        LinkExportWriter.checkFormat(format);
+
+        Flux<DataBuffer> body = Flux.defer(() -> {
+            // Each page is encoded into this buffer, then handed on as one DataBuffer
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            LinkExportWriter writer;
+            try {
+                writer = new LinkExportWriter(encoded, format, gzip, objectMapper);
+            } catch (IOException e) {
+                return Flux.error(e);
+            }
+            return urlService.getAllUrlsWithClickCount()
+                    .buffer(UrlPageScripts.MAX_PAGE_SIZE)
+                    .map(page -> {
+                        try {
+                            writer.writePage(page);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return drain(encoded);
+                    })
+                    .concatWith(Mono.fromCallable(() -> {
+                        writer.finish();
+                        return drain(encoded);
+                    }));
+        });
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(LinkExportWriter.contentType(format));
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    private static DataBuffer drain(ByteArrayOutputStream encoded) {
+        DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.wrap(encoded.toByteArray());
+        encoded.reset();
+        return buffer;
+    }
+
+    /**
+     * REST endpoint restoring links from an export, like
+     * {@link UrlController#importUrls}. The importer reads the body as a blocking
+     * stream, so it runs on the bounded elastic scheduler, pulling one body buffer
+     * at a time.
+     *
+     * @param importId Optional id naming the import's checkpoint.
+     * @return The streamed NDJSON progress.
+     */
+    @PostMapping(value = "/api/url/import", consumes = { MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_NDJSON_VALUE, "text/csv" }, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Map<String, String>> importUrls(ServerHttpRequest request,
+            @RequestParam(required = false) String importId) {
+        LinkImporter.checkImportId(importId);
+        String format = LinkImporter.format(request.getHeaders().getContentType());
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        return Flux.<Map<String, String>>create(sink -> {
+            try (InputStream body = new DataBufferInputStream(request.getBody());
+                    InputStream in = gzip ? new GZIPInputStream(body) : body) {
+                linkImporter.importLinks(in, format, importId, sink::next);
+            } catch (ZipException e) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Request body is not gzip data.");
+                sink.next(errorResponse);
+            } catch (IOException e) {
+                sink.error(e);
+                return;
+            }
+            sink.complete();
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @GetMapping("/api/url/cache/stats")
+    public ResponseEntity<Map<String, Long>> getRedirectCacheStats() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("no-cache"); // Counters change on every request
+
+        return ResponseEntity.ok().headers(headers).body(urlService.getRedirectCacheStats());
+    }
+}
@@ -0,0 +1,144 @@
+package com.mattfogz.shortyback.controller;
+
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.service.RedirectPolicy;
+import com.mattfogz.shortyback.service.UrlService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Serves {@code GET /{shortUrl}} ahead of the DispatcherServlet, with the same
+ * responses as {@link UrlController#getLongUrl}.
+ *
+ * Skips handler lookup, argument binding and {@code ResponseEntity} conversion:
+ * the path is matched by hand, the {@code Location} and {@code ETag} values come
+ * prepared from the cached link, and a miss is a bare 404 status with no
+ * exception or error dispatch. Requests it does not recognize as plain redirects
+ * (other paths, percent-encoded codes, CORS requests) continue to the controllers.
+ *
+ * The Redis commands of each redirect it serves are recorded in
+ * {@code shorty.redis.calls} under the controller's handler name, as the
+ * {@link com.mattfogz.shortyback.metrics.RedisCallsInterceptor} would.
+ */
+public class RedirectFilter implements Filter {
+
+    // Route pattern reported to the http.server.requests metrics, as for the controller
+    static final String ROUTE = "/{shortUrl}";
+
+    // Handler tag of shorty.redis.calls, as for the controller
+    static final String HANDLER = "getLongUrl";
+
+    private final UrlService urlService;
+    private final RedirectPolicy redirectPolicy;
+    private final UrlMetrics urlMetrics;
+    private final RedisCommandCounter redisCommandCounter;
+    private final Set<String> reservedSegments;
+
+    /**
+     * @param reservedSegments Single-segment paths served by other handlers, such as "error".
+     */
+    public RedirectFilter(UrlService urlService, RedirectPolicy redirectPolicy, UrlMetrics urlMetrics,
+            RedisCommandCounter redisCommandCounter, Set<String> reservedSegments) {
+        this.urlService = urlService;
+        this.redirectPolicy = redirectPolicy;
+        this.urlMetrics = urlMetrics;
+        this.redisCommandCounter = redisCommandCounter;
+        this.reservedSegments = reservedSegments;
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        String shortUrl = shortUrl(request);
+        if (shortUrl == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        redisCommandCounter.start();
+        try {
+            serve(shortUrl, request, response, chain);
+        } finally {
+            // -1 once the request went on to the controller, which records it itself
+            int calls = redisCommandCounter.stop();
+            if (calls >= 0) {
+                urlMetrics.recordRedisCalls(HANDLER, calls);
+            }
+        }
+    }
+
+    private void serve(String shortUrl, HttpServletRequest request, HttpServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+        CachedLink link = urlService.findLink(shortUrl);
+        if (link != null && link.getLocation() == null) {
+            // Not a valid URI; the controller reports it as before
+            redisCommandCounter.stop();
+            chain.doFilter(request, response);
+            return;
+        }
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, ROUTE);
+        if (link == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        urlService.recordClick(link,
+                VisitorTracker.visitorId(request.getRemoteAddr(), request.getHeader(HttpHeaders.USER_AGENT)));
+
+        response.setHeader(HttpHeaders.ETAG, link.getETag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, redirectPolicy.cacheControl(link, System.currentTimeMillis()));
+        if (redirectPolicy.isNotModified(request.getHeader(HttpHeaders.IF_NONE_MATCH), link)) {
+            urlMetrics.redirectNotModified();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(redirectPolicy.status(link).value());
+        response.setHeader(HttpHeaders.LOCATION, link.getLocation());
+    }
+
+    /**
+     * @return The short URL if the request is a plain redirect this filter serves, otherwise null.
+     */
+    private String shortUrl(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        // Cross-origin requests need the CORS headers the MVC configuration adds
+        if (request.getHeader(HttpHeaders.ORIGIN) != null) {
+            return null;
+        }
+
+        String uri = request.getRequestURI();
+        int start = request.getContextPath().length();
+        // One non-empty path segment after the context path
+        if (uri.length() <= start + 1 || uri.charAt(start) != '/') {
+            return null;
+        }
+        for (int i = start + 1; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            // Nested paths, encoded characters and path parameters are left to the dispatcher's decoding
+            if (c == '/' || c == '%' || c == ';') {
+                return null;
+            }
+        }
+        String segment = uri.substring(start + 1);
+        return reservedSegments.contains(segment) ? null : segment;
+    }
+}
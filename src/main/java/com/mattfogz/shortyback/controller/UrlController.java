@@ -1,18 +1,42 @@
 package com.mattfogz.shortyback.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.repository.UrlPageScripts;
+import com.mattfogz.shortyback.service.LinkExpiry;
+import com.mattfogz.shortyback.service.RedirectPolicy;
 import com.mattfogz.shortyback.service.UrlService;
+import com.mattfogz.shortyback.transfer.LinkExportWriter;
+import com.mattfogz.shortyback.transfer.LinkImporter;
 import com.mattfogz.shortyback.exception.UrlException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * REST Controller that provides endpoints for URL shortening operations.
@@ -20,28 +44,52 @@ import org.springframework.http.HttpHeaders;
  */
 @RestController
 @RequestMapping("/")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UrlController {
 
+    // Number of batch entries normalized, validated and written to Redis together
+    private static final int BATCH_CHUNK_SIZE = 500;
+
     @Autowired
     private UrlService urlService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RedirectPolicy redirectPolicy;
+
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    @Autowired
+    private LinkImporter linkImporter;
+
+    @Autowired
+    private ClickReportSecret clickReportSecret;
+
     /**
      * REST endpoint to create a short URL.
      * 
-     * @param request DTO containing the long URL and optional custom short URL.
+     * @param request DTO containing the long URL, optional custom short URL and optional lifetime.
      * @return JSON response with the short URL and success message.
      */
     @PostMapping("/api/url/create")
     public ResponseEntity<Map<String, String>> createShortUrl(@RequestBody UrlRequest request) {
         try {
-            String shortUrl = urlService.createShortUrl(request.getLongUrl(), request.getCustomShortUrl());
-            String longUrl = urlService.getLongUrl(shortUrl);
-            int clickCount = urlService.getClickCount(shortUrl);
+            String shortUrl = urlService.createShortUrl(request.getLongUrl(), request.getCustomShortUrl(),
+                    request.getExpiresInSeconds());
+            String longUrl = urlService.findLongUrl(shortUrl);
+            long clickCount = urlService.getClickCount(shortUrl);
+            long expiresAt = urlService.findExpiresAt(shortUrl);
 
             Map<String, String> response = new HashMap<>();
             response.put("shortUrl", shortUrl);
             response.put("longUrl", longUrl);
             response.put("clickCount", String.valueOf(clickCount));
+            if (expiresAt != 0) {
+                response.put("expiresAt", LinkExpiry.format(expiresAt));
+            }
             response.put("message", "Short URL created successfully.");
 
             return ResponseEntity.ok(response);
@@ -52,37 +100,141 @@ public class UrlController {
         }
     }
 
+    /**
+     * REST endpoint to create many short URLs in one request.
+     * The body is a JSON array or an NDJSON stream of {@link UrlRequest} objects.
+     * It is parsed incrementally and processed in chunks, and one NDJSON result
+     * line per entry is streamed back, in request order, as each chunk completes.
+     * Entries fail individually: a result line carries either {@code shortUrl},
+     * {@code longUrl} and {@code status}, or an {@code error}.
+     *
+     * @param body The raw request body.
+     * @return The streamed NDJSON results.
+     */
+    @PostMapping(value = "/api/url/batch", consumes = { MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_NDJSON_VALUE })
+    public ResponseEntity<StreamingResponseBody> createShortUrls(InputStream body) {
+        StreamingResponseBody results = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+
+            int index = 0;
+            try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+                JsonToken first = parser.nextToken();
+                // A JSON array is read element by element; otherwise the body is a sequence of root objects
+                boolean array = first == JsonToken.START_ARRAY;
+                JsonToken token = array ? parser.nextToken() : first;
+
+                List<UrlRequest> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    chunk.add(parser.readValueAs(UrlRequest.class));
+                    if (chunk.size() == BATCH_CHUNK_SIZE) {
+                        index = writeBatchResults(generator, chunk, index);
+                        chunk.clear();
+                    }
+                    token = parser.nextToken();
+                }
+                index = writeBatchResults(generator, chunk, index);
+            } catch (JsonProcessingException e) {
+                // Entries before the malformed one have been processed; report where parsing stopped
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("index", String.valueOf(index));
+                errorResponse.put("error", "Malformed request body: " + e.getOriginalMessage());
+                generator.writeObject(errorResponse);
+            }
+
+            generator.flush();
+            out.write('\n');
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(results);
+    }
+
+    private int writeBatchResults(JsonGenerator generator, List<UrlRequest> chunk, int firstIndex) throws IOException {
+        if (chunk.isEmpty()) {
+            return firstIndex;
+        }
+
+        List<String> longUrls = new ArrayList<>(chunk.size());
+        List<String> customShortUrls = new ArrayList<>(chunk.size());
+        List<Long> expiresInSeconds = new ArrayList<>(chunk.size());
+        for (UrlRequest request : chunk) {
+            longUrls.add(request == null ? null : request.getLongUrl());
+            customShortUrls.add(request == null ? null : request.getCustomShortUrl());
+            expiresInSeconds.add(request == null ? null : request.getExpiresInSeconds());
+        }
+
+        int index = firstIndex;
+        for (Map<String, String> result : urlService.createShortUrls(longUrls, customShortUrls, expiresInSeconds)) {
+            result.put("index", String.valueOf(index++));
+            generator.writeObject(result);
+        }
+        // Send this chunk's results before parsing the next one
+        generator.flush();
+        return index;
+    }
+
     /**
      * Endpoint to retrieve the original long URL using the short URL and redirect
      * to it.
      * Also increments the click count for the short URL when accessed.
+     * Status and caching headers follow {@link RedirectPolicy}; a client or CDN
+     * revalidating a cached redirect that is still current gets a 304.
      * 
      * @param shortUrl The short URL to lookup and redirect to its corresponding
      *                 long URL.
      * @return Redirect response to the original long URL or an error if not found.
      */
     @GetMapping("/{shortUrl}")
-    public ResponseEntity<Void> getLongUrl(@PathVariable String shortUrl) {
-        String longUrl = urlService.getLongUrl(shortUrl);
-        if (longUrl != null) {
-            // Increment the click count for the accessed short URL
-            urlService.incrementClickCount(shortUrl);
-
-            // Issue an HTTP 302 Found response to redirect the client
-            return ResponseEntity.status(HttpStatus.FOUND)
-                    .location(URI.create(longUrl))
+    public ResponseEntity<Void> getLongUrl(@PathVariable String shortUrl, HttpServletRequest request) {
+        CachedLink link = urlService.findLink(shortUrl);
+        if (link != null) {
+            // Increment the click count for the accessed short URL and note the visitor;
+            // a revalidation is a click served from the client's cache
+            urlService.recordClick(link,
+                    VisitorTracker.visitorId(request.getRemoteAddr(), request.getHeader(HttpHeaders.USER_AGENT)));
+
+            HttpHeaders headers = redirectPolicy.cacheHeaders(link, System.currentTimeMillis());
+            if (redirectPolicy.isNotModified(request.getHeader(HttpHeaders.IF_NONE_MATCH), link)) {
+                urlMetrics.redirectNotModified();
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+            }
+            return ResponseEntity.status(redirectPolicy.status(link))
+                    .headers(headers)
+                    .location(URI.create(link.getLongUrl()))
                     .build();
         } else {
-            // If the shortUrl isn't found in the system, you can send a 404 or another
-            // suitable error response
+            // The shortUrl isn't found in the system (often turned away by the
+            // short URL filter without asking Redis)
             return ResponseEntity.notFound().build();
         }
     }
 
-    @GetMapping("/api/url/clickCount/{shortUrl}")
-    public ResponseEntity<Map<String, Integer>> getClickCount(@PathVariable String shortUrl) {
-        int clickCount = urlService.getClickCount(shortUrl);
+    /**
+     * REST endpoint for clicks counted outside the service, such as redirects a
+     * CDN served from its cache, reported from its logs.
+     *
+     * @param clicks Clicks per short URL.
+     * @param secret The {@value ClickReportSecret#HEADER} header; required when
+     *               {@code shorty.clicks.report-secret} is set.
+     * @return The number of short URLs whose clicks were recorded, or 401 if the
+     *         secret is missing or wrong.
+     */
+    @PostMapping("/api/url/clicks")
+    public ResponseEntity<Map<String, Integer>> reportClicks(@RequestBody Map<String, Long> clicks,
+            @RequestHeader(value = ClickReportSecret.HEADER, required = false) String secret) {
+        if (!clickReportSecret.accepts(secret)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
         Map<String, Integer> response = new HashMap<>();
+        response.put("recorded", urlService.recordClicks(clicks));
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/api/url/clickCount/{shortUrl}")
+    public ResponseEntity<Map<String, Long>> getClickCount(@PathVariable String shortUrl) {
+        long clickCount = urlService.getClickCount(shortUrl);
+        Map<String, Long> response = new HashMap<>();
         response.put("clickCount", clickCount);
     
         HttpHeaders headers = new HttpHeaders();
@@ -91,6 +243,59 @@ public class UrlController {
         return ResponseEntity.ok().headers(headers).body(response);
     }
 
+    /**
+     * REST endpoint for the click time series of a short URL.
+     *
+     * @param shortUrl    Short URL to report on (case-insensitive).
+     * @param from        ISO-8601 start instant; defaults to one window before {@code to}.
+     * @param to          ISO-8601 end instant; defaults to now.
+     * @param granularity "minute", "hour" or "day".
+     * @return The series buckets and their total.
+     */
+    @GetMapping("/api/url/stats/{shortUrl}")
+    public ResponseEntity<Map<String, Object>> getClickStats(@PathVariable String shortUrl,
+            @RequestParam(required = false) String from, @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "hour") String granularity) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("no-cache"); // Prevent caching
+
+        return ResponseEntity.ok().headers(headers).body(urlService.getClickStats(shortUrl, granularity, from, to));
+    }
+
+    /**
+     * REST endpoint for the estimated number of distinct visitors of a short URL.
+     *
+     * @param shortUrl Short URL to report on (case-insensitive).
+     * @return JSON response with the short URL and its unique visitor estimate.
+     */
+    @GetMapping("/api/url/visitors/{shortUrl}")
+    public ResponseEntity<Map<String, Object>> getUniqueVisitors(@PathVariable String shortUrl) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("shortUrl", shortUrl);
+        response.put("uniqueVisitors", urlService.getUniqueVisitors(shortUrl));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("no-cache"); // Prevent caching
+
+        return ResponseEntity.ok().headers(headers).body(response);
+    }
+
+    /**
+     * REST endpoint for the most clicked links of the last minutes.
+     *
+     * @param window Window length in minutes (1 to 60).
+     * @param limit  Maximum number of links.
+     * @return The trending links, most clicked first.
+     */
+    @GetMapping("/api/url/trending")
+    public ResponseEntity<List<Map<String, Object>>> getTrending(@RequestParam(defaultValue = "60") int window,
+            @RequestParam(defaultValue = "10") int limit) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("no-cache"); // Prevent caching
+
+        return ResponseEntity.ok().headers(headers).body(urlService.getTrending(window, limit));
+    }
+
     @PutMapping("/api/url/update")
     public ResponseEntity<Map<String, String>> updateUrl(@RequestBody UrlUpdateRequest request) {
         urlService.updateUrl(request.getShortUrl(), request.getNewLongUrl());
@@ -109,10 +314,129 @@ public class UrlController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Endpoint listing every URL with its click count as one JSON array. The array
+     * is written page by page as it is read from Redis, like
+     * {@code /api/url/all/stream?format=json}, so memory use does not grow with the
+     * number of links.
+     *
+     * @return The streamed JSON array.
+     */
     @GetMapping("/api/url/all")
-    public ResponseEntity<List<Map<String, String>>> getAllUrlsWithClickCount() {
-        List<Map<String, String>> urls = urlService.getAllUrlsWithClickCount();
-        return ResponseEntity.ok(urls);
+    public ResponseEntity<StreamingResponseBody> getAllUrlsWithClickCount() {
+        return streamAllUrls("json", false);
+    }
+
+    /**
+     * Endpoint returning one page of URLs with click counts.
+     *
+     * @param cursor The {@code nextCursor} of the previous page; omit for the first page.
+     * @param size   Requested page size (1-1000).
+     * @return JSON object with {@code urls} and {@code nextCursor} (null on the last page).
+     */
+    @GetMapping("/api/url/page")
+    public ResponseEntity<Map<String, Object>> getUrlPage(@RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int size) {
+        return ResponseEntity.ok(urlService.getUrlPageWithClickCount(cursor, size));
+    }
+
+    /**
+     * Endpoint streaming every URL with its click count, written page by page as it
+     * is read from Redis, so memory use does not grow with the number of links.
+     * Doubles as the export of {@code POST /api/url/import}.
+     *
+     * @param format {@code ndjson} (default) for one JSON object per line,
+     *               {@code json} for a single JSON array, or {@code csv}.
+     * @param gzip   Whether to gzip the response ({@code Content-Encoding: gzip}).
+     * @return The streamed response body.
+     */
+    @GetMapping("/api/url/all/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllUrls(@RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        LinkExportWriter.checkFormat(format);
+
+        StreamingResponseBody body = out -> {
+            LinkExportWriter writer = new LinkExportWriter(out, format, gzip, objectMapper);
+            // Each page is read only after the previous one was written to the client
+            urlService.forEachUrlPage(UrlPageScripts.MAX_PAGE_SIZE, page -> {
+                try {
+                    writer.writePage(page);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.finish();
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(LinkExportWriter.contentType(format));
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    /**
+     * REST endpoint restoring links from an export of {@code /api/url/all/stream}:
+     * NDJSON, a JSON array or CSV ({@code text/csv}), gzipped if sent with
+     * {@code Content-Encoding: gzip}. Links keep their short URL, click count and
+     * expiry. The body is read incrementally, so imports of any size run in
+     * constant memory.
+     *
+     * Progress is streamed back as NDJSON: a line per failed record, a
+     * {@code checkpoint} line after every chunk, and a closing summary. With an
+     * {@code importId}, an interrupted import resumes after its last checkpoint
+     * when the same body is sent again with the same id.
+     *
+     * @param importId Optional id naming the import's checkpoint.
+     * @return The streamed NDJSON progress.
+     */
+    @PostMapping(value = "/api/url/import", consumes = { MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_NDJSON_VALUE, "text/csv" })
+    public ResponseEntity<StreamingResponseBody> importUrls(HttpServletRequest request,
+            @RequestParam(required = false) String importId) throws IOException {
+        LinkImporter.checkImportId(importId);
+        String format = LinkImporter.format(MediaType.parseMediaType(request.getContentType()));
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+        InputStream body = request.getInputStream();
+
+        StreamingResponseBody progress = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+
+            try (InputStream in = gzip ? new GZIPInputStream(body) : body) {
+                linkImporter.importLinks(in, format, importId, line -> {
+                    try {
+                        generator.writeObject(line);
+                        generator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (ZipException e) {
+                Map<String, String> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Request body is not gzip data.");
+                generator.writeObject(errorResponse);
+            }
+
+            generator.flush();
+            out.write('\n');
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(progress);
+    }
+
+    /**
+     * Endpoint exposing the hit, miss and eviction counters of the in-process
+     * redirect cache.
+     *
+     * @return JSON object of counter name to value.
+     */
+    @GetMapping("/api/url/cache/stats")
+    public ResponseEntity<Map<String, Long>> getRedirectCacheStats() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("no-cache"); // Counters change on every request
+
+        return ResponseEntity.ok().headers(headers).body(urlService.getRedirectCacheStats());
     }
 
     /**
@@ -122,6 +446,8 @@ public class UrlController {
     public static class UrlRequest {
         private String longUrl;
         private String customShortUrl;
+        // Lifetime in seconds; null for the default lifetime, 0 for a link that never expires
+        private Long expiresInSeconds;
 
         public String getLongUrl() {
             return longUrl;
@@ -138,6 +464,14 @@ public class UrlController {
         public void setCustomShortUrl(String customShortUrl) {
             this.customShortUrl = customShortUrl;
         }
+
+        public Long getExpiresInSeconds() {
+            return expiresInSeconds;
+        }
+
+        public void setExpiresInSeconds(Long expiresInSeconds) {
+            this.expiresInSeconds = expiresInSeconds;
+        }
     }
 
     /**
@@ -0,0 +1,53 @@
+package com.mattfogz.shortyback.metrics;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records how many Redis commands each request handler sends.
+ *
+ * For asynchronous requests only the work done before the handler returns is
+ * counted; a streaming response body written on another thread is not included.
+ */
+public class RedisCallsInterceptor implements AsyncHandlerInterceptor {
+
+    private final RedisCommandCounter counter;
+    private final UrlMetrics metrics;
+
+    public RedisCallsInterceptor(RedisCommandCounter counter, UrlMetrics metrics) {
+        this.counter = counter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // The async re-dispatch of a streaming request was already recorded
+        if (request.getDispatcherType() != DispatcherType.ASYNC) {
+            counter.start();
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+            Object handler) {
+        record(handler);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        record(handler);
+    }
+
+    private void record(Object handler) {
+        int calls = counter.stop();
+        if (calls >= 0 && handler instanceof HandlerMethod) {
+            metrics.recordRedisCalls(((HandlerMethod) handler).getMethod().getName(), calls);
+        }
+    }
+}
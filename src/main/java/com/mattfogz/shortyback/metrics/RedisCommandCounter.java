@@ -0,0 +1,43 @@
+package com.mattfogz.shortyback.metrics;
+
+import io.lettuce.core.event.command.CommandListener;
+import io.lettuce.core.event.command.CommandStartedEvent;
+
+/**
+ * Counts the Redis commands issued by the current thread while counting is
+ * active.
+ *
+ * Lettuce notifies command listeners on the thread that writes the command,
+ * which for the blocking Spring Data Redis API is the request thread, so a
+ * thread-local counter attributes commands to the request that sent them.
+ */
+public class RedisCommandCounter implements CommandListener {
+
+    private final ThreadLocal<int[]> current = new ThreadLocal<>();
+
+    /**
+     * Starts counting commands on the current thread.
+     */
+    public void start() {
+        current.set(new int[1]);
+    }
+
+    /**
+     * Stops counting on the current thread.
+     *
+     * @return The number of commands sent since {@link #start()}, or -1 if counting was not active.
+     */
+    public int stop() {
+        int[] count = current.get();
+        current.remove();
+        return count == null ? -1 : count[0];
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        int[] count = current.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+}
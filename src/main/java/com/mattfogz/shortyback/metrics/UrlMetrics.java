@@ -0,0 +1,284 @@
+package com.mattfogz.shortyback.metrics;
+
+import com.mattfogz.shortyback.admission.AdaptiveLimit;
+import com.mattfogz.shortyback.admission.AdmissionControl;
+import com.mattfogz.shortyback.admission.RequestClass;
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.service.ClickCountBuffer;
+import com.mattfogz.shortyback.service.ShortUrlFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application metrics published through Micrometer, next to the per-endpoint
+ * {@code http.server.requests} timers that Actuator records on its own.
+ */
+@Component
+public class UrlMetrics {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private BoundedCache<CachedLink> redirectCache;
+
+    @Autowired
+    private BoundedCache<String> dedupCache;
+
+    @Autowired
+    private ClickCountBuffer clickCountBuffer;
+
+    @Autowired
+    private ShortUrlFilter shortUrlFilter;
+
+    // Absent when shorty.admission.enabled is false
+    @Autowired(required = false)
+    private AdmissionControl admissionControl;
+
+    private Counter shortCodeRetries;
+    private Counter validationFailures;
+    private Counter lookupsFound;
+    private Counter lookupsNotFound;
+    private Counter lookupsCoalesced;
+    private DistributionSummary lookupBatchSize;
+    private Timer lookupQueueTime;
+    private Counter linksReaped;
+    private Counter clicksReported;
+    private Counter redirectsNotModified;
+
+    // One summary per handler, created on first use
+    private final Map<String, DistributionSummary> redisCallsByHandler = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        shortCodeRetries = Counter.builder("shorty.shortcode.retries")
+                .description("Generated short codes that were already taken and had to be replaced")
+                .register(registry);
+        validationFailures = Counter.builder("shorty.validation.failures")
+                .description("Long URLs rejected as invalid")
+                .register(registry);
+        lookupsFound = Counter.builder("shorty.lookups")
+                .tag("result", "found")
+                .description("Short URL lookups")
+                .register(registry);
+        lookupsNotFound = Counter.builder("shorty.lookups")
+                .tag("result", "not_found")
+                .description("Short URL lookups")
+                .register(registry);
+
+        lookupsCoalesced = Counter.builder("shorty.lookup.coalesced")
+                .description("Lookups that waited for an identical lookup already in flight")
+                .register(registry);
+        lookupBatchSize = DistributionSummary.builder("shorty.lookup.batch.size")
+                .description("Lookups sent to Redis together in one batch")
+                .baseUnit("lookups")
+                .register(registry);
+        lookupQueueTime = Timer.builder("shorty.lookup.batch.queued")
+                .description("Time a lookup waited for its batch to be sent")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+
+        linksReaped = Counter.builder("shorty.expiry.reaped")
+                .description("Expired links removed from Redis by the reaper")
+                .register(registry);
+
+        clicksReported = Counter.builder("shorty.clicks.reported")
+                .description("Short URLs with clicks reported by browsers or CDNs")
+                .register(registry);
+        redirectsNotModified = Counter.builder("shorty.redirect.not_modified")
+                .description("Redirects revalidated with a 304 Not Modified")
+                .register(registry);
+
+        registerCache("redirect", redirectCache);
+        registerCache("dedup", dedupCache);
+
+        Gauge.builder("shorty.clicks.pending", clickCountBuffer, ClickCountBuffer::getPendingCount)
+                .description("Short URLs with clicks not yet written to Redis")
+                .register(registry);
+
+        registerFilter();
+
+        if (admissionControl != null) {
+            for (RequestClass requestClass : RequestClass.values()) {
+                registerAdmission(requestClass, admissionControl.getLimit(requestClass));
+            }
+        }
+    }
+
+    /**
+     * Publishes the adaptive limit, concurrency and shed requests of a request class.
+     */
+    private void registerAdmission(RequestClass requestClass, AdaptiveLimit limit) {
+        Gauge.builder("shorty.admission.limit", limit, AdaptiveLimit::getLimit)
+                .tag("class", requestClass.label())
+                .description("Current concurrency limit of the request class")
+                .register(registry);
+        Gauge.builder("shorty.admission.in_flight", limit, AdaptiveLimit::getInFlight)
+                .tag("class", requestClass.label())
+                .description("Requests of the class being served")
+                .register(registry);
+        FunctionCounter.builder("shorty.admission.rejected", limit, AdaptiveLimit::getRejectedCount)
+                .tag("class", requestClass.label())
+                .description("Requests shed because the class was at its limit")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the short URL filter's outcomes and its observed and expected false-positive rates.
+     */
+    private void registerFilter() {
+        FunctionCounter.builder("shorty.filter.checks", shortUrlFilter, ShortUrlFilter::getPassedCount)
+                .tag("result", "passed")
+                .description("Short URL lookups checked against the filter")
+                .register(registry);
+        FunctionCounter.builder("shorty.filter.checks", shortUrlFilter, ShortUrlFilter::getRejectedCount)
+                .tag("result", "rejected")
+                .description("Short URL lookups checked against the filter")
+                .register(registry);
+        FunctionCounter.builder("shorty.filter.checks", shortUrlFilter, ShortUrlFilter::getFalsePositiveCount)
+                .tag("result", "false_positive")
+                .description("Lookups that passed the filter but were not found in Redis")
+                .register(registry);
+        Gauge.builder("shorty.filter.false_positive_rate", shortUrlFilter, UrlMetrics::observedFalsePositiveRate)
+                .description("Share of unknown short URLs the filter let through")
+                .register(registry);
+        Gauge.builder("shorty.filter.expected_false_positive_rate", shortUrlFilter,
+                ShortUrlFilter::expectedFalsePositiveRate)
+                .description("False-positive rate the filter should show at its current load")
+                .register(registry);
+        Gauge.builder("shorty.filter.size", shortUrlFilter, ShortUrlFilter::size)
+                .description("Short URLs held by the filter")
+                .register(registry);
+    }
+
+    private static double observedFalsePositiveRate(ShortUrlFilter filter) {
+        // Every unknown code checked is either rejected or a false positive
+        long falsePositives = filter.getFalsePositiveCount();
+        long unknown = falsePositives + filter.getRejectedCount();
+        return unknown == 0 ? 0 : (double) falsePositives / unknown;
+    }
+
+    /**
+     * Publishes the size and hit/miss/eviction counts of a cache.
+     */
+    private void registerCache(String name, BoundedCache<?> cache) {
+        Gauge.builder("shorty.cache.size", cache, BoundedCache::size)
+                .tag("cache", name)
+                .register(registry);
+        FunctionCounter.builder("shorty.cache.requests", cache, BoundedCache::getHitCount)
+                .tag("cache", name).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("shorty.cache.requests", cache, BoundedCache::getNegativeHitCount)
+                .tag("cache", name).tag("result", "negative_hit")
+                .register(registry);
+        FunctionCounter.builder("shorty.cache.requests", cache, BoundedCache::getMissCount)
+                .tag("cache", name).tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("shorty.cache.evictions", cache, BoundedCache::getEvictionCount)
+                .tag("cache", name)
+                .register(registry);
+        FunctionCounter.builder("shorty.cache.expirations", cache, BoundedCache::getExpirationCount)
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    /**
+     * Counts a generated short code that was already taken.
+     */
+    public void shortCodeRetry() {
+        shortCodeRetries.increment();
+    }
+
+    /**
+     * Counts a long URL rejected as invalid.
+     */
+    public void validationFailure() {
+        validationFailures.increment();
+    }
+
+    /**
+     * Counts a short URL lookup.
+     *
+     * @param found Whether the short URL exists.
+     */
+    public void lookup(boolean found) {
+        (found ? lookupsFound : lookupsNotFound).increment();
+    }
+
+    /**
+     * Counts a lookup that shared an identical lookup's Redis round trip.
+     */
+    public void lookupCoalesced() {
+        lookupsCoalesced.increment();
+    }
+
+    /**
+     * Records how full a batch of lookups was when sent.
+     *
+     * @param lookups The number of lookups in the batch.
+     */
+    public void lookupBatch(int lookups) {
+        lookupBatchSize.record(lookups);
+    }
+
+    /**
+     * Records the latency batching added to one lookup.
+     *
+     * @param nanos Time from joining the batch until it was sent.
+     */
+    public void lookupQueued(long nanos) {
+        lookupQueueTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records links removed by the expiry reaper.
+     *
+     * @param count How many links one batch removed.
+     */
+    public void linksReaped(int count) {
+        linksReaped.increment(count);
+    }
+
+    /**
+     * Records a click report from a browser or CDN.
+     *
+     * @param count How many short URLs the report added clicks to.
+     */
+    public void clicksReported(int count) {
+        clicksReported.increment(count);
+    }
+
+    /**
+     * Counts a redirect answered with 304 Not Modified.
+     */
+    public void redirectNotModified() {
+        redirectsNotModified.increment();
+    }
+
+    /**
+     * Records the number of Redis commands one request sent.
+     *
+     * @param handler The handler method name.
+     * @param calls   The number of Redis commands.
+     */
+    public void recordRedisCalls(String handler, int calls) {
+        redisCallsByHandler.computeIfAbsent(handler, h -> DistributionSummary.builder("shorty.redis.calls")
+                .tag("handler", h)
+                .description("Redis commands sent per request")
+                .baseUnit("commands")
+                .register(registry))
+                .record(calls);
+    }
+}
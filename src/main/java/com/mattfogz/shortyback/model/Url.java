@@ -4,6 +4,8 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.redis.core.RedisHash;
 import org.springframework.data.redis.core.index.Indexed;
 
+import java.util.Locale;
+
 /**
  * Represents a URL entity to be stored in a Redis database.
  * The entity contains both a long URL and its corresponding short URL.
@@ -19,7 +21,13 @@ public class Url {
         // a unique short URL.
     private String shortUrl;
 
-    private int clickCount = 0;
+    @Indexed // Case-folded copy of shortUrl, so case-insensitive lookups hit a single index set
+             // instead of scanning every stored Url.
+    private String shortUrlKey;
+
+    private long clickCount = 0; // long: HINCRBY counts are 64-bit, and viral links pass 2^31
+
+    private long expiresAt = 0; // Epoch milliseconds after which the link stops resolving; 0 = never
 
     // Default no-args constructor. Required by Spring Data.
     public Url() {
@@ -33,18 +41,45 @@ public class Url {
      */
     public Url(String longUrl, String shortUrl) {
         this.longUrl = longUrl;
-        this.shortUrl = shortUrl;
+        setShortUrl(shortUrl);
+    }
+
+    /**
+     * Folds a short URL into the form used by the case-insensitive lookup index.
+     *
+     * @param shortUrl The short URL as entered or stored.
+     * @return The case-folded short URL, or null if shortUrl is null.
+     */
+    public static String foldShortUrl(String shortUrl) {
+        return shortUrl == null ? null : shortUrl.toLowerCase(Locale.ROOT);
     }
 
     // Getter and setter for clickCount
-    public int getClickCount() {
+    public long getClickCount() {
         return clickCount;
     }
 
-    public void setClickCount(int clickCount) {
+    public void setClickCount(long clickCount) {
         this.clickCount = clickCount;
     }
 
+    // Getter and setter for expiresAt
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param now The current time in epoch milliseconds.
+     * @return Whether the link has an expiry and it has passed.
+     */
+    public boolean isExpired(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
     // Getter for longUrl
     public String getLongUrl() {
         return longUrl;
@@ -63,5 +98,16 @@ public class Url {
     // Setter for shortUrl
     public void setShortUrl(String shortUrl) {
         this.shortUrl = shortUrl;
+        this.shortUrlKey = foldShortUrl(shortUrl);
+    }
+
+    // Getter for shortUrlKey
+    public String getShortUrlKey() {
+        return shortUrlKey;
+    }
+
+    // Setter for shortUrlKey. Normally derived from shortUrl; exposed for Spring Data.
+    public void setShortUrlKey(String shortUrlKey) {
+        this.shortUrlKey = shortUrlKey;
     }
-}
\ No newline at end of file
+}
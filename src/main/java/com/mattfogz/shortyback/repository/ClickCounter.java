@@ -0,0 +1,41 @@
+package com.mattfogz.shortyback.repository;
+
+/**
+ * Where a link's click count lives: the hash field that proves the link exists,
+ * and the hash field holding the count. Both are the entity hash in the entity
+ * layout, and separate bucket hashes in the compact layout.
+ */
+public class ClickCounter {
+
+    private final String linkKey;
+    private final String linkField;
+    private final String countKey;
+    private final String countField;
+
+    public ClickCounter(String linkKey, String linkField, String countKey, String countField) {
+        this.linkKey = linkKey;
+        this.linkField = linkField;
+        this.countKey = countKey;
+        this.countField = countField;
+    }
+
+    // Getter for the hash holding the link
+    public String getLinkKey() {
+        return linkKey;
+    }
+
+    // Getter for the field that exists in the link hash while the link does
+    public String getLinkField() {
+        return linkField;
+    }
+
+    // Getter for the hash holding the click count
+    public String getCountKey() {
+        return countKey;
+    }
+
+    // Getter for the click count field
+    public String getCountField() {
+        return countField;
+    }
+}
@@ -0,0 +1,391 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.util.Fnv;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Key names, value encoding and scripts of the compact storage layout.
+ *
+ * Links are spread over a fixed number of buckets by a hash of their case-folded
+ * short URL. Each bucket is three small hashes, all keyed by that folded short URL
+ * or a fingerprint of the long URL:
+ * <ul>
+ * <li>{@code shorty:links:<bucket>}: folded short URL to the encoded link,</li>
+ * <li>{@code shorty:counts:<bucket>}: folded short URL to its click count, only
+ * for links that have been clicked,</li>
+ * <li>{@code shorty:longs:<bucket>}: long URL fingerprint to the short URL reused
+ * for it, bucketed by the fingerprint.</li>
+ * </ul>
+ * Small hashes are stored as listpacks, so a link costs about the size of its
+ * fields instead of several keys with their own overhead. The encoded link is the
+ * long URL, with {@code http://} and a well-known host prefix replaced by a
+ * single byte when compression is on, preceded by the short URL only when its
+ * case differs from the folded form. An expiring link starts with its expiry
+ * time, so a lookup learns it from the same read; such links are also listed in
+ * {@link UrlKeys#EXPIRY_KEY} for the reaper.
+ */
+public class CompactLayout {
+
+    public static final String LINKS_PREFIX = "shorty:links:";
+    public static final String COUNTS_PREFIX = "shorty:counts:";
+    public static final String LONGS_PREFIX = "shorty:longs:";
+
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> RESERVE_SCRIPT = script("scripts/compact_reserve.lua", List.class);
+    public static final RedisScript<Long> UPDATE_SCRIPT = script("scripts/compact_update.lua", Long.class);
+    public static final RedisScript<Long> DELETE_SCRIPT = script("scripts/compact_delete.lua", Long.class);
+    public static final RedisScript<Long> IMPORT_SCRIPT = script("scripts/compact_import.lua", Long.class);
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> PAGE_SCRIPT = script("scripts/compact_page.lua", List.class);
+    public static final RedisScript<Long> RETAIN_SCRIPT = script("scripts/compact_retain.lua", Long.class);
+    public static final RedisScript<Long> EXPIRE_SCRIPT = script("scripts/compact_expire.lua", Long.class);
+    public static final RedisScript<Long> UNINDEX_SCRIPT = script("scripts/compact_unindex.lua", Long.class);
+
+    // Buckets a single page script call may visit, so sparse layouts still page quickly
+    public static final int MAX_BUCKETS_PER_PAGE = 1024;
+
+    // Marks the start of an encoded link that carries its own short URL
+    private static final char SHORT_URL_MARK = '\u0000';
+
+    // Starts an encoded link that carries its expiry: "\0\0<epoch millis>\0", then the
+    // rest of the encoding. A stored short URL is never empty, so this cannot clash.
+    private static final String EXPIRY_MARK = "\u0000\u0000";
+
+    private static final String SCHEME = "http://";
+
+    // Prefixes replaced by the byte (index + 1) when compression is on; the first is
+    // the scheme every normalized URL starts with. Stored links refer to these by
+    // position, so entries may only ever be appended, and at most 31 fit. CompactLayoutTest
+    // pins every position.
+    private static final String[] PREFIXES = {
+            SCHEME,
+            SCHEME + "youtube.com/watch?v=",
+            SCHEME + "youtu.be/",
+            SCHEME + "docs.google.com/",
+            SCHEME + "drive.google.com/",
+            SCHEME + "google.com/",
+            SCHEME + "github.com/",
+            SCHEME + "en.wikipedia.org/wiki/",
+            SCHEME + "twitter.com/",
+            SCHEME + "x.com/",
+            SCHEME + "facebook.com/",
+            SCHEME + "instagram.com/",
+            SCHEME + "linkedin.com/",
+            SCHEME + "amazon.com/",
+            SCHEME + "reddit.com/r/",
+            SCHEME + "medium.com/",
+            SCHEME + "stackoverflow.com/questions/",
+            SCHEME + "tiktok.com/",
+    };
+
+    private final int buckets;
+    private final boolean compressUrls;
+
+    /**
+     * @param buckets      Number of buckets; fixed for the lifetime of the data.
+     * @param compressUrls Whether new long URLs are stored with prefix compression.
+     */
+    public CompactLayout(int buckets, boolean compressUrls) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("shorty.storage.compact.buckets must be positive");
+        }
+        this.buckets = buckets;
+        this.compressUrls = compressUrls;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * @param shortUrl The short URL, in any case.
+     * @return The bucket holding the link.
+     */
+    public int bucket(String shortUrl) {
+        return (int) Long.remainderUnsigned(Fnv.hash(Url.foldShortUrl(shortUrl)), buckets);
+    }
+
+    public String linksKey(String shortUrl) {
+        return LINKS_PREFIX + bucket(shortUrl);
+    }
+
+    public String countsKey(String shortUrl) {
+        return COUNTS_PREFIX + bucket(shortUrl);
+    }
+
+    /**
+     * @param longUrl The normalized long URL.
+     * @return The hash holding the long URL's reused short URL.
+     */
+    public String longsKey(String longUrl) {
+        return LONGS_PREFIX + Long.remainderUnsigned(Fnv.hash(longUrl) >>> 1, buckets);
+    }
+
+    /**
+     * A 64-bit hash of the long URL. Two long URLs sharing one has a chance of
+     * about 2^-64 per pair; the second would then be deduplicated to the first.
+     *
+     * @param longUrl The normalized long URL.
+     * @return The field of the long URL in its {@link #longsKey(String)} hash.
+     */
+    public String longUrlField(String longUrl) {
+        return Long.toUnsignedString(Fnv.hash(longUrl), 36);
+    }
+
+    /**
+     * @param shortUrl  The short URL as stored.
+     * @param longUrl   The normalized long URL.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The value stored for the link in its links hash.
+     */
+    public String encode(String shortUrl, String longUrl, long expiresAt) {
+        String encodedUrl = compressUrls ? compress(longUrl) : longUrl;
+        if (!shortUrl.equals(Url.foldShortUrl(shortUrl))) {
+            encodedUrl = SHORT_URL_MARK + shortUrl + SHORT_URL_MARK + encodedUrl;
+        }
+        return expiresAt == 0 ? encodedUrl : EXPIRY_MARK + expiresAt + SHORT_URL_MARK + encodedUrl;
+    }
+
+    /**
+     * @param field The folded short URL the link is stored under.
+     * @param value The value from {@link #encode(String, String, long)}, compressed or not.
+     * @return The link with its expiry, without its click count.
+     */
+    public Url decode(String field, String value) {
+        long expiresAt = 0;
+        if (value.startsWith(EXPIRY_MARK)) {
+            int end = value.indexOf(SHORT_URL_MARK, EXPIRY_MARK.length());
+            expiresAt = Long.parseLong(value.substring(EXPIRY_MARK.length(), end));
+            value = value.substring(end + 1);
+        }
+
+        String shortUrl = field;
+        String encodedUrl = value;
+        if (!value.isEmpty() && value.charAt(0) == SHORT_URL_MARK) {
+            int end = value.indexOf(SHORT_URL_MARK, 1);
+            shortUrl = value.substring(1, end);
+            encodedUrl = value.substring(end + 1);
+        }
+        Url url = new Url(decompress(encodedUrl), shortUrl);
+        url.setExpiresAt(expiresAt);
+        return url;
+    }
+
+    /**
+     * Builds the link with its click count from the two hash values read for it.
+     * Links past their expiry count as missing, even before the reaper removes them.
+     *
+     * @param field      The folded short URL.
+     * @param value      The links hash value, or null if the link does not exist.
+     * @param clickCount The counts hash value, or null if never clicked.
+     * @return The link, or null if it does not exist or has expired.
+     */
+    public Url toUrl(String field, String value, String clickCount) {
+        if (value == null) {
+            return null;
+        }
+        Url url = decode(field, value);
+        if (url.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        if (clickCount != null) {
+            url.setClickCount(Long.parseLong(clickCount));
+        }
+        return url;
+    }
+
+    /**
+     * @param shortUrl The short URL to claim.
+     * @param longUrl  The normalized long URL.
+     * @return The keys of {@code compact_reserve.lua}.
+     */
+    public List<String> reserveKeys(String shortUrl, String longUrl) {
+        return Arrays.asList(linksKey(shortUrl), longsKey(longUrl), UrlKeys.EXPIRY_KEY);
+    }
+
+    /**
+     * @param shortUrl  The short URL to claim.
+     * @param longUrl   The normalized long URL.
+     * @param dedup     Whether to reuse a link already pointing at longUrl instead.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The arguments of {@code compact_reserve.lua}.
+     */
+    public List<String> reserveArgs(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        return Arrays.asList(Url.foldShortUrl(shortUrl), encode(shortUrl, longUrl, expiresAt),
+                longUrlField(longUrl), dedup ? "1" : "0", shortUrl, String.valueOf(expiresAt));
+    }
+
+    /**
+     * @param shortUrl The reused short URL, as stored.
+     * @return The keys of {@code compact_retain.lua}.
+     */
+    public List<String> retainKeys(String shortUrl) {
+        return Arrays.asList(linksKey(shortUrl), UrlKeys.EXPIRY_KEY);
+    }
+
+    public List<String> retainArgs(String shortUrl, long expiresAt) {
+        return Arrays.asList(Url.foldShortUrl(shortUrl), shortUrl, String.valueOf(expiresAt));
+    }
+
+    /**
+     * @param longUrl The normalized long URL.
+     * @return The keys of {@code compact_unindex.lua}.
+     */
+    public List<String> unindexKeys(String longUrl) {
+        return Collections.singletonList(longsKey(longUrl));
+    }
+
+    public List<String> unindexArgs(String shortUrl, String longUrl) {
+        return Arrays.asList(longUrlField(longUrl), shortUrl);
+    }
+
+    /**
+     * @param shortUrl The expired short URL, as listed in the expiry index.
+     * @param link     The link as read from its links hash, decoded.
+     * @return The keys of {@code compact_expire.lua}.
+     */
+    public List<String> expireKeys(String shortUrl, Url link) {
+        return Arrays.asList(UrlKeys.EXPIRY_KEY, linksKey(shortUrl), countsKey(shortUrl),
+                longsKey(link.getLongUrl()));
+    }
+
+    /**
+     * @param value The encoded link as read, which the script checks is unchanged.
+     */
+    public List<String> expireArgs(String shortUrl, Url link, String value, long now) {
+        return Arrays.asList(shortUrl, Url.foldShortUrl(shortUrl), String.valueOf(now), value,
+                longUrlField(link.getLongUrl()));
+    }
+
+    /**
+     * @param url        The stored link.
+     * @param newLongUrl The new normalized long URL.
+     * @return The keys of {@code compact_update.lua}.
+     */
+    public List<String> updateKeys(Url url, String newLongUrl) {
+        return Arrays.asList(linksKey(url.getShortUrl()), longsKey(url.getLongUrl()), longsKey(newLongUrl));
+    }
+
+    public List<String> updateArgs(Url url, String newLongUrl) {
+        return Arrays.asList(Url.foldShortUrl(url.getShortUrl()),
+                encode(url.getShortUrl(), newLongUrl, url.getExpiresAt()),
+                longUrlField(url.getLongUrl()), longUrlField(newLongUrl), url.getShortUrl());
+    }
+
+    /**
+     * @param url The stored link.
+     * @return The keys of {@code compact_delete.lua}.
+     */
+    public List<String> deleteKeys(Url url) {
+        return Arrays.asList(linksKey(url.getShortUrl()), countsKey(url.getShortUrl()), longsKey(url.getLongUrl()),
+                UrlKeys.EXPIRY_KEY);
+    }
+
+    public List<String> deleteArgs(Url url) {
+        return Arrays.asList(Url.foldShortUrl(url.getShortUrl()), longUrlField(url.getLongUrl()), url.getShortUrl());
+    }
+
+    /**
+     * @param url A link read from another layout, with its click count.
+     * @return The keys of {@code compact_import.lua}.
+     */
+    public List<String> importKeys(Url url) {
+        return Arrays.asList(linksKey(url.getShortUrl()), longsKey(url.getLongUrl()), countsKey(url.getShortUrl()));
+    }
+
+    public List<String> importArgs(Url url) {
+        return Arrays.asList(Url.foldShortUrl(url.getShortUrl()),
+                encode(url.getShortUrl(), url.getLongUrl(), url.getExpiresAt()),
+                longUrlField(url.getLongUrl()), url.getShortUrl(), String.valueOf(url.getClickCount()));
+    }
+
+    /**
+     * Builds the page script arguments, validating the cursor and page size.
+     *
+     * @param cursor The bucket to continue from; null or empty starts from the beginning.
+     * @param size   The requested page size.
+     * @return The arguments of {@code compact_page.lua}.
+     */
+    public List<String> pageArgs(String cursor, int size) {
+        String start = cursor == null || cursor.isEmpty() ? UrlPage.START_CURSOR : cursor;
+        if (start.isEmpty() || start.length() > 10 || !start.chars().allMatch(Character::isDigit)
+                || Long.parseLong(start) >= buckets) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (size <= 0 || size > UrlPageScripts.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + UrlPageScripts.MAX_PAGE_SIZE + ".");
+        }
+        return Arrays.asList(start, String.valueOf(size), String.valueOf(buckets),
+                String.valueOf(MAX_BUCKETS_PER_PAGE), LINKS_PREFIX, COUNTS_PREFIX);
+    }
+
+    /**
+     * Decodes the flat page script reply.
+     *
+     * @param reply The next cursor followed by (field, value, clickCount) triples.
+     * @return The decoded page.
+     */
+    public UrlPage toPage(List<?> reply) {
+        List<Url> urls = new ArrayList<>((reply.size() - 1) / 3);
+        for (int i = 1; i + 2 < reply.size(); i += 3) {
+            Url url = toUrl(String.valueOf(reply.get(i)), String.valueOf(reply.get(i + 1)),
+                    String.valueOf(reply.get(i + 2)));
+            // Expired links stay in their bucket until the reaper removes them
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return new UrlPage(urls, String.valueOf(reply.get(0)));
+    }
+
+    /**
+     * Encodes keys followed by arguments, for calling a script on a raw connection.
+     */
+    public static byte[][] keysAndArgs(List<String> keys, List<String> args) {
+        byte[][] encoded = new byte[keys.size() + args.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            encoded[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < args.size(); i++) {
+            encoded[keys.size() + i] = args.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static String compress(String longUrl) {
+        int best = -1;
+        for (int i = 0; i < PREFIXES.length; i++) {
+            if (longUrl.startsWith(PREFIXES[i]) && (best < 0 || PREFIXES[i].length() > PREFIXES[best].length())) {
+                best = i;
+            }
+        }
+        return best < 0 ? longUrl : (char) (best + 1) + longUrl.substring(PREFIXES[best].length());
+    }
+
+    // Decoding does not depend on the compression setting, so it can be switched at any time
+    private static String decompress(String encodedUrl) {
+        if (!encodedUrl.isEmpty()) {
+            char first = encodedUrl.charAt(0);
+            if (first >= 1 && first <= PREFIXES.length) {
+                return PREFIXES[first - 1] + encodedUrl.substring(1);
+            }
+        }
+        return encodedUrl;
+    }
+
+    private static <T> RedisScript<T> script(String location, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(resultType);
+        return script;
+    }
+}
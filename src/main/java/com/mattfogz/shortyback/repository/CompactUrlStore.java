@@ -0,0 +1,302 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Blocking access to stored links in the compact layout described by
+ * {@link CompactLayout}. Short URLs are stored case-folded, so at most one link
+ * matches a short URL in any case.
+ */
+public class CompactUrlStore extends UrlStore {
+
+    // Buckets read per pipeline when walking every short URL
+    private static final int BUCKETS_PER_BATCH = 256;
+
+    private final CompactLayout layout;
+
+    public CompactUrlStore(CompactLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Reads the link and its click count in one round trip.
+     */
+    @Override
+    public Optional<Url> findByShortUrl(String shortUrl) {
+        String field = Url.foldShortUrl(shortUrl);
+        byte[] fieldBytes = field.getBytes(StandardCharsets.UTF_8);
+        byte[] linksKey = layout.linksKey(shortUrl).getBytes(StandardCharsets.UTF_8);
+        byte[] countsKey = layout.countsKey(shortUrl).getBytes(StandardCharsets.UTF_8);
+
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hGet(linksKey, fieldBytes);
+            connection.hashCommands().hGet(countsKey, fieldBytes);
+            return null;
+        });
+        return Optional.ofNullable(layout.toUrl(field, (String) replies.get(0), (String) replies.get(1)));
+    }
+
+    @Override
+    public List<Url> findByShortUrls(List<String> shortUrls) {
+        List<Url> urls = new ArrayList<>(shortUrls.size());
+        if (shortUrls.isEmpty()) {
+            return urls;
+        }
+
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String shortUrl : shortUrls) {
+                byte[] fieldBytes = Url.foldShortUrl(shortUrl).getBytes(StandardCharsets.UTF_8);
+                connection.hashCommands().hGet(layout.linksKey(shortUrl).getBytes(StandardCharsets.UTF_8),
+                        fieldBytes);
+                connection.hashCommands().hGet(layout.countsKey(shortUrl).getBytes(StandardCharsets.UTF_8),
+                        fieldBytes);
+            }
+            return null;
+        });
+        for (int i = 0; i < shortUrls.size(); i++) {
+            urls.add(layout.toUrl(Url.foldShortUrl(shortUrls.get(i)), (String) replies.get(2 * i),
+                    (String) replies.get(2 * i + 1)));
+        }
+        return urls;
+    }
+
+    @Override
+    public List<Url> findAllByShortUrl(String shortUrl) {
+        return findByShortUrl(shortUrl).map(Collections::singletonList).orElse(Collections.emptyList());
+    }
+
+    /**
+     * The reused link of a dedup hit lives in a bucket the reservation script
+     * cannot derive, so its expiry is extended by a second call.
+     */
+    @Override
+    public Reservation reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        List<?> reply = redisTemplate.execute(CompactLayout.RESERVE_SCRIPT, layout.reserveKeys(shortUrl, longUrl),
+                layout.reserveArgs(shortUrl, longUrl, dedup, expiresAt).toArray());
+        Reservation reservation = ReservationScripts.toReservation(reply);
+
+        if (reservation.getStatus() == Reservation.Status.EXISTING && !retain(reservation.getShortUrl(), expiresAt)) {
+            // The reused link is gone but its dedup entry was left behind; store a new one
+            return reserve(shortUrl, longUrl, false, expiresAt);
+        }
+        return reservation;
+    }
+
+    @Override
+    public List<Reservation> reserveAll(List<String> shortUrls, List<String> longUrls, List<Boolean> dedup,
+            List<Long> expiresAt) {
+        if (shortUrls.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String sha = loadScript(CompactLayout.RESERVE_SCRIPT.getScriptAsString());
+        List<Reservation> reservations = toReservations(executePipelined(connection -> {
+            for (int i = 0; i < shortUrls.size(); i++) {
+                List<String> keys = layout.reserveKeys(shortUrls.get(i), longUrls.get(i));
+                connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, keys.size(),
+                        CompactLayout.keysAndArgs(keys, layout.reserveArgs(shortUrls.get(i), longUrls.get(i),
+                                dedup.get(i), expiresAt.get(i))));
+            }
+        }));
+
+        List<Integer> existing = new ArrayList<>();
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation reservation = reservations.get(i);
+            if (reservation != null && reservation.getStatus() == Reservation.Status.EXISTING) {
+                existing.add(i);
+            }
+        }
+        if (existing.isEmpty()) {
+            return reservations;
+        }
+
+        String retainSha = loadScript(CompactLayout.RETAIN_SCRIPT.getScriptAsString());
+        List<Object> retained = executePipelined(connection -> {
+            for (int i : existing) {
+                String reused = reservations.get(i).getShortUrl();
+                List<String> keys = layout.retainKeys(reused);
+                connection.scriptingCommands().evalSha(retainSha, ReturnType.INTEGER, keys.size(),
+                        CompactLayout.keysAndArgs(keys, layout.retainArgs(reused, expiresAt.get(i))));
+            }
+        });
+        for (int e = 0; e < existing.size(); e++) {
+            if (Long.valueOf(0).equals(retained.get(e))) {
+                int i = existing.get(e);
+                reservations.set(i, reserve(shortUrls.get(i), longUrls.get(i), false, expiresAt.get(i)));
+            }
+        }
+        return reservations;
+    }
+
+    @Override
+    public boolean retain(String shortUrl, long expiresAt) {
+        Long retained = redisTemplate.execute(CompactLayout.RETAIN_SCRIPT, layout.retainKeys(shortUrl),
+                layout.retainArgs(shortUrl, expiresAt).toArray());
+        return retained != null && retained == 1;
+    }
+
+    /**
+     * A long URL has at most one dedup entry per server: the first link stored or
+     * indexed for it.
+     */
+    @Override
+    public List<List<String>> findShortUrlsByLongUrls(List<String> longUrls) {
+        List<List<String>> shortUrls = new ArrayList<>(longUrls.size());
+        if (longUrls.isEmpty()) {
+            return shortUrls;
+        }
+
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String longUrl : longUrls) {
+                connection.hashCommands().hGet(bytes(layout.longsKey(longUrl)), bytes(layout.longUrlField(longUrl)));
+            }
+            return null;
+        });
+        for (Object reply : replies) {
+            List<String> found = new ArrayList<>(1);
+            if (reply != null) {
+                found.add((String) reply);
+            }
+            shortUrls.add(found);
+        }
+        return shortUrls;
+    }
+
+    /**
+     * Leaves a long URL's dedup entry alone if it already names a link.
+     */
+    @Override
+    public void indexLongUrls(List<String> shortUrls, List<String> longUrls) {
+        if (shortUrls.isEmpty()) {
+            return;
+        }
+
+        executePipelined(connection -> {
+            for (int i = 0; i < shortUrls.size(); i++) {
+                connection.hashCommands().hSetNX(bytes(layout.longsKey(longUrls.get(i))),
+                        bytes(layout.longUrlField(longUrls.get(i))), bytes(shortUrls.get(i)));
+            }
+        });
+    }
+
+    @Override
+    public void unindexLongUrl(String shortUrl, String longUrl) {
+        redisTemplate.execute(CompactLayout.UNINDEX_SCRIPT, layout.unindexKeys(longUrl),
+                layout.unindexArgs(shortUrl, longUrl).toArray());
+    }
+
+    @Override
+    public void updateLongUrl(Url url, String newLongUrl) {
+        redisTemplate.execute(CompactLayout.UPDATE_SCRIPT, layout.updateKeys(url, newLongUrl),
+                layout.updateArgs(url, newLongUrl).toArray());
+    }
+
+    @Override
+    public void delete(Url url) {
+        redisTemplate.execute(CompactLayout.DELETE_SCRIPT, layout.deleteKeys(url), layout.deleteArgs(url).toArray());
+    }
+
+    /**
+     * Expired links stay in their buckets until removed here. Each is read first,
+     * to find its long URL's dedup bucket, then removed by a script that checks
+     * the link has not changed since.
+     */
+    @Override
+    public List<Url> reapExpired(long now, int limit) {
+        List<String> expired = findExpired(now, limit);
+        List<Url> reaped = new ArrayList<>();
+        if (expired.isEmpty()) {
+            return reaped;
+        }
+
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String shortUrl : expired) {
+                connection.hashCommands().hGet(bytes(layout.linksKey(shortUrl)), bytes(Url.foldShortUrl(shortUrl)));
+            }
+            return null;
+        });
+
+        String sha = loadScript(CompactLayout.EXPIRE_SCRIPT.getScriptAsString());
+        List<Url> links = new ArrayList<>(expired.size());
+        List<Object> replies = executePipelined(connection -> {
+            for (int i = 0; i < expired.size(); i++) {
+                String shortUrl = expired.get(i);
+                String value = (String) values.get(i);
+                // A link deleted already only needs its expiry entry removed, which the script does
+                Url link = value == null ? new Url("", shortUrl) : layout.decode(Url.foldShortUrl(shortUrl), value);
+                links.add(link);
+                List<String> keys = layout.expireKeys(shortUrl, link);
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, keys.size(), CompactLayout
+                        .keysAndArgs(keys, layout.expireArgs(shortUrl, link, value == null ? "" : value, now)));
+            }
+        });
+        for (int i = 0; i < expired.size(); i++) {
+            if (Long.valueOf(1).equals(replies.get(i))) {
+                reaped.add(links.get(i));
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * Reads one page of links, walking the buckets in order; the cursor is the
+     * next bucket to read.
+     */
+    @Override
+    public UrlPage findPage(String cursor, int size) {
+        List<?> reply = redisTemplate.execute(CompactLayout.PAGE_SCRIPT, Collections.emptyList(),
+                layout.pageArgs(cursor, size).toArray());
+        return layout.toPage(reply);
+    }
+
+    @Override
+    public void forEachShortUrlKey(Consumer<String> action) {
+        forEachLinksBucket((connection, key) -> connection.hashCommands().hKeys(key), reply -> {
+            for (Object field : (Iterable<?>) reply) {
+                action.accept(String.valueOf(field));
+            }
+        });
+    }
+
+    @Override
+    public long count() {
+        long[] count = new long[1];
+        forEachLinksBucket((connection, key) -> connection.hashCommands().hLen(key),
+                reply -> count[0] += (Long) reply);
+        return count[0];
+    }
+
+    @Override
+    public ClickCounter clickCounter(String shortUrl) {
+        String field = Url.foldShortUrl(shortUrl);
+        return new ClickCounter(layout.linksKey(shortUrl), field, layout.countsKey(shortUrl), field);
+    }
+
+    /**
+     * Sends one command per links bucket, a batch of buckets per pipeline, and
+     * hands every reply to the consumer.
+     */
+    private void forEachLinksBucket(BiConsumer<RedisConnection, byte[]> command, Consumer<Object> replies) {
+        for (int first = 0; first < layout.getBuckets(); first += BUCKETS_PER_BATCH) {
+            int start = first;
+            int end = Math.min(layout.getBuckets(), first + BUCKETS_PER_BATCH);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int bucket = start; bucket < end; bucket++) {
+                    command.accept(connection, (CompactLayout.LINKS_PREFIX + bucket).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            }).forEach(replies);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * Non-blocking access to links in the compact layout, using the same keys and
+ * scripts as {@link CompactUrlStore}.
+ */
+public class ReactiveCompactUrlStore extends ReactiveUrlStore {
+
+    private final CompactLayout layout;
+
+    public ReactiveCompactUrlStore(CompactLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Short URLs are stored case-folded, so this is the same as {@link #findByShortUrl(String)}.
+     */
+    @Override
+    public Mono<Url> findById(String shortUrl) {
+        return findByShortUrl(shortUrl);
+    }
+
+    @Override
+    public Mono<Url> findByShortUrl(String shortUrl) {
+        String field = Url.foldShortUrl(shortUrl);
+        // Both reads share the connection, which Lettuce pipelines
+        Mono<String> link = redisTemplate.<String, String>opsForHash().get(layout.linksKey(shortUrl), field);
+        Mono<Optional<String>> clickCount = redisTemplate.<String, String>opsForHash()
+                .get(layout.countsKey(shortUrl), field)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+
+        // Expired links not yet removed by the reaper decode to null and count as missing
+        return Mono.zip(link, clickCount)
+                .flatMap(found -> Mono.justOrEmpty(layout.toUrl(field, found.getT1(), found.getT2().orElse(null))));
+    }
+
+    @Override
+    public Flux<Url> findAllByShortUrl(String shortUrl) {
+        return findByShortUrl(shortUrl).flux();
+    }
+
+    @Override
+    public Flux<String> findShortUrlsByLongUrl(String longUrl) {
+        return redisTemplate.<String, String>opsForHash().get(layout.longsKey(longUrl), layout.longUrlField(longUrl))
+                .flux();
+    }
+
+    /**
+     * Leaves a long URL's dedup entry alone if it already names a link.
+     */
+    @Override
+    public Mono<Void> indexLongUrl(String shortUrl, String longUrl) {
+        return redisTemplate.<String, String>opsForHash()
+                .putIfAbsent(layout.longsKey(longUrl), layout.longUrlField(longUrl), shortUrl)
+                .then();
+    }
+
+    @Override
+    public Mono<Void> unindexLongUrl(String shortUrl, String longUrl) {
+        return redisTemplate.execute(CompactLayout.UNINDEX_SCRIPT, layout.unindexKeys(longUrl),
+                layout.unindexArgs(shortUrl, longUrl))
+                .then();
+    }
+
+    @Override
+    public Mono<Boolean> retain(String shortUrl, long expiresAt) {
+        return redisTemplate.execute(CompactLayout.RETAIN_SCRIPT, layout.retainKeys(shortUrl),
+                layout.retainArgs(shortUrl, expiresAt))
+                .next()
+                .map(retained -> retained == 1);
+    }
+
+    /**
+     * Like {@link CompactUrlStore#reserve}, extends a reused link's expiry with a second call.
+     */
+    @Override
+    public Mono<Reservation> reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        return redisTemplate.execute(CompactLayout.RESERVE_SCRIPT, layout.reserveKeys(shortUrl, longUrl),
+                layout.reserveArgs(shortUrl, longUrl, dedup, expiresAt))
+                .next()
+                .map(ReservationScripts::toReservation)
+                .flatMap(reservation -> reservation.getStatus() != Reservation.Status.EXISTING
+                        ? Mono.just(reservation)
+                        : retain(reservation.getShortUrl(), expiresAt)
+                                // The reused link is gone but its dedup entry was left behind; store a new one
+                                .flatMap(retained -> retained ? Mono.just(reservation)
+                                        : reserve(shortUrl, longUrl, false, expiresAt)));
+    }
+
+    @Override
+    public Mono<Void> updateLongUrl(Url url, String newLongUrl) {
+        return redisTemplate.execute(CompactLayout.UPDATE_SCRIPT, layout.updateKeys(url, newLongUrl),
+                layout.updateArgs(url, newLongUrl))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> delete(Url url) {
+        return redisTemplate.execute(CompactLayout.DELETE_SCRIPT, layout.deleteKeys(url), layout.deleteArgs(url))
+                .then();
+    }
+
+    @Override
+    public Mono<UrlPage> findPage(String cursor, int size) {
+        return redisTemplate.execute(CompactLayout.PAGE_SCRIPT, Collections.emptyList(),
+                layout.pageArgs(cursor, size))
+                .next()
+                .map(layout::toPage);
+    }
+}
@@ -0,0 +1,244 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.analytics.ClickRange;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.shard.ShardNode;
+import com.mattfogz.shortyback.shard.ShardTopology;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking access to links sharded over the Redis servers of a
+ * {@link ShardTopology}, routed like {@link ShardedUrlStore}.
+ */
+public class ReactiveShardedUrlStore extends ReactiveUrlStore {
+
+    private final ShardTopology topology;
+
+    // Stores index-aligned with the topology's nodes
+    private final List<ReactiveUrlStore> stores;
+
+    /**
+     * @param topology    The shards.
+     * @param layoutStore Creates an unconnected store of the configured layout.
+     */
+    public ReactiveShardedUrlStore(ShardTopology topology, Supplier<ReactiveUrlStore> layoutStore) {
+        this.topology = topology;
+        this.stores = new ArrayList<>(topology.getNodes().size());
+        for (ShardNode node : topology.getNodes()) {
+            ReactiveUrlStore store = layoutStore.get();
+            store.connect(node.getReactiveRedisTemplate());
+            stores.add(store);
+        }
+    }
+
+    @Override
+    public Mono<Url> findById(String shortUrl) {
+        return withFallback(shortUrl, store -> store.findById(shortUrl));
+    }
+
+    @Override
+    public Mono<Url> findByShortUrl(String shortUrl) {
+        return withFallback(shortUrl, store -> store.findByShortUrl(shortUrl));
+    }
+
+    @Override
+    public Flux<Url> findAllByShortUrl(String shortUrl) {
+        ReactiveUrlStore previous = previousStore(shortUrl);
+        Flux<Url> urls = ownerStore(shortUrl).findAllByShortUrl(shortUrl);
+        return previous == null ? urls : urls.switchIfEmpty(Flux.defer(() -> previous.findAllByShortUrl(shortUrl)));
+    }
+
+    /**
+     * Asks the shard owning the long URL and, while rebalancing, the one that owned it before.
+     */
+    @Override
+    public Flux<String> findShortUrlsByLongUrl(String longUrl) {
+        Flux<String> shortUrls = stores.get(topology.ownerOf(longUrl).getIndex()).findShortUrlsByLongUrl(longUrl);
+        ShardNode previous = topology.previousOwnerOf(longUrl);
+        return previous == null ? shortUrls
+                : shortUrls.concatWith(stores.get(previous.getIndex()).findShortUrlsByLongUrl(longUrl)).distinct();
+    }
+
+    /**
+     * Indexes a link kept away from its long URL's shard on that shard, like
+     * {@link ShardedUrlStore#indexLongUrls}.
+     */
+    @Override
+    public Mono<Void> indexLongUrl(String shortUrl, String longUrl) {
+        ShardNode longOwner = topology.ownerOf(longUrl);
+        return longOwner == ownerOf(shortUrl) ? Mono.empty()
+                : stores.get(longOwner.getIndex()).indexLongUrl(shortUrl, longUrl);
+    }
+
+    /**
+     * Removes the entries for a link on its long URL's shards, like
+     * {@link ShardedUrlStore#unindexLongUrl}.
+     */
+    @Override
+    public Mono<Void> unindexLongUrl(String shortUrl, String longUrl) {
+        if (longUrl == null || longUrl.isEmpty()) {
+            return Mono.empty();
+        }
+        ShardNode owner = ownerOf(shortUrl);
+        ShardNode previous = topology.previousOwnerOf(Url.foldShortUrl(shortUrl));
+        return Flux.fromArray(new ShardNode[] { topology.ownerOf(longUrl), topology.previousOwnerOf(longUrl) })
+                .filter(node -> node != null && node != owner && node != previous)
+                .concatMap(node -> stores.get(node.getIndex()).unindexLongUrl(shortUrl, longUrl))
+                .then();
+    }
+
+    @Override
+    public Mono<Boolean> retain(String shortUrl, long expiresAt) {
+        return holderStore(shortUrl).flatMap(holder -> holder.retain(shortUrl, expiresAt));
+    }
+
+    /**
+     * Like {@link ShardedUrlStore#reserve}: with dedup, a link the reservation could
+     * not find on its own shard is reused first, and a link created away from its
+     * long URL's shard is indexed there. While rebalancing, a short URL still held
+     * by its previous owner is reported as taken without reserving it.
+     */
+    @Override
+    public Mono<Reservation> reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        Mono<Reservation> store = Mono.defer(() -> ownerStore(shortUrl).reserve(shortUrl, longUrl, dedup,
+                expiresAt))
+                .flatMap(reservation -> reservation.getStatus() != Reservation.Status.CREATED
+                        ? Mono.just(reservation)
+                        : indexLongUrl(reservation.getShortUrl(), longUrl).thenReturn(reservation));
+        ReactiveUrlStore previous = previousStore(shortUrl);
+        Mono<Reservation> reserve = previous == null ? store : previous.findAllByShortUrl(shortUrl).hasElements()
+                .flatMap(held -> held ? Mono.just(new Reservation(Reservation.Status.TAKEN, shortUrl)) : store);
+        return dedup ? reuseIndexed(shortUrl, longUrl, expiresAt).switchIfEmpty(reserve) : reserve;
+    }
+
+    @Override
+    public Mono<Void> updateLongUrl(Url url, String newLongUrl) {
+        // Update the link where it is: on its owner, unless a rebalance has yet to move it
+        return holderStore(url.getShortUrl())
+                .flatMap(holder -> holder.updateLongUrl(url, newLongUrl))
+                .then(unindexLongUrl(url.getShortUrl(), url.getLongUrl()))
+                .then(indexLongUrl(url.getShortUrl(), newLongUrl));
+    }
+
+    @Override
+    public Mono<Void> delete(Url url) {
+        ReactiveUrlStore previous = previousStore(url.getShortUrl());
+        Mono<Void> delete = ownerStore(url.getShortUrl()).delete(url);
+        // Wherever the rebalancer has got to, the link must be gone from both
+        return (previous == null ? delete : delete.then(previous.delete(url)))
+                .then(unindexLongUrl(url.getShortUrl(), url.getLongUrl()));
+    }
+
+    @Override
+    public Mono<List<List<String>>> readClickRange(ClickRange range) {
+        return ownerStore(range.getShortUrl()).readClickRange(range);
+    }
+
+    @Override
+    public Mono<Long> countVisitors(String shortUrl) {
+        return ownerStore(shortUrl).countVisitors(shortUrl);
+    }
+
+    @Override
+    public Mono<Void> unlink(String shortUrl, List<String> keys) {
+        ReactiveUrlStore previous = previousStore(shortUrl);
+        Mono<Void> unlink = ownerStore(shortUrl).unlink(shortUrl, keys);
+        // A rebalance may not have moved them yet
+        return previous == null ? unlink : unlink.then(previous.unlink(shortUrl, keys));
+    }
+
+    /**
+     * Walks the shards one after another, with a {@link ShardCursor}; a page
+     * running out of one shard is filled from the next.
+     */
+    @Override
+    public Mono<UrlPage> findPage(String cursor, int size) {
+        ShardCursor position;
+        try {
+            position = ShardCursor.parse(cursor, stores.size());
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+        return findPage(position.getShard(), position.getCursor(), size, new ArrayList<>());
+    }
+
+    @Override
+    public boolean colocated(String shortUrl, String longUrl) {
+        return ownerOf(shortUrl) == topology.ownerOf(longUrl);
+    }
+
+    private Mono<UrlPage> findPage(int shard, String shardCursor, int size, List<Url> urls) {
+        return stores.get(shard).findPage(shardCursor, size - urls.size()).flatMap(page -> {
+            urls.addAll(page.getUrls());
+            if (page.hasNext()) {
+                return Mono.just(new UrlPage(urls, ShardCursor.format(shard, page.getNextCursor(), stores.size())));
+            }
+            if (shard + 1 < stores.size() && urls.size() < size) {
+                return findPage(shard + 1, UrlPage.START_CURSOR, size, urls);
+            }
+            return Mono.just(new UrlPage(urls, ShardCursor.format(shard + 1, UrlPage.START_CURSOR, stores.size())));
+        });
+    }
+
+    /**
+     * Reuses a link recorded for a long URL that the reservation of shortUrl would
+     * not find itself, like {@link ShardedUrlStore}; stale entries are removed on the way.
+     *
+     * @return The reuse, with the link's expiry extended; empty if there is no such link.
+     */
+    private Mono<Reservation> reuseIndexed(String shortUrl, String longUrl, long expiresAt) {
+        ShardNode longOwner = topology.ownerOf(longUrl);
+        return findShortUrlsByLongUrl(longUrl)
+                // Links kept where the reservation runs are reused by its script
+                .filter(candidate -> ownerOf(candidate) != longOwner
+                        || topology.previousOwnerOf(Url.foldShortUrl(candidate)) != null
+                        || !colocated(shortUrl, longUrl))
+                .concatMap(candidate -> findByShortUrl(candidate)
+                        .filter(link -> longUrl.equals(link.getLongUrl()))
+                        .flatMap(link -> retain(link.getShortUrl(), expiresAt)
+                                .filter(retained -> retained)
+                                .map(retained -> new Reservation(Reservation.Status.EXISTING, link.getShortUrl())))
+                        .switchIfEmpty(Mono.defer(() -> unindexLongUrl(candidate, longUrl).then(Mono.empty()))))
+                .next();
+    }
+
+    /**
+     * @return The store the link is on: its owner, unless a rebalance has yet to move it.
+     */
+    private Mono<ReactiveUrlStore> holderStore(String shortUrl) {
+        ReactiveUrlStore owner = ownerStore(shortUrl);
+        ReactiveUrlStore previous = previousStore(shortUrl);
+        if (previous == null) {
+            return Mono.just(owner);
+        }
+        return owner.findByShortUrl(shortUrl).hasElement().map(moved -> moved ? owner : previous);
+    }
+
+    /**
+     * Looks a link up on its owner and, while rebalancing, on its previous owner if missing.
+     */
+    private Mono<Url> withFallback(String shortUrl, Function<ReactiveUrlStore, Mono<Url>> find) {
+        ReactiveUrlStore previous = previousStore(shortUrl);
+        Mono<Url> url = find.apply(ownerStore(shortUrl));
+        return previous == null ? url : url.switchIfEmpty(Mono.defer(() -> find.apply(previous)));
+    }
+
+    private ShardNode ownerOf(String shortUrl) {
+        return topology.ownerOf(Url.foldShortUrl(shortUrl));
+    }
+
+    private ReactiveUrlStore ownerStore(String shortUrl) {
+        return stores.get(ownerOf(shortUrl).getIndex());
+    }
+
+    private ReactiveUrlStore previousStore(String shortUrl) {
+        ShardNode previous = topology.previousOwnerOf(Url.foldShortUrl(shortUrl));
+        return previous == null ? null : stores.get(previous.getIndex());
+    }
+}
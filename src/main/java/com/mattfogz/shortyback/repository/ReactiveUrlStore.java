@@ -0,0 +1,270 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.analytics.ClickRange;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.model.Url;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking access to Url entities on {@link ReactiveStringRedisTemplate}.
+ *
+ * Reads and writes the same keys as {@link UrlRepository} (the entity hash, the
+ * {@code Url} id set, the {@code @Indexed} property sets and the per-entity
+ * {@code :idx} set), so links created in either web mode are visible to the other.
+ * {@link ReactiveCompactUrlStore} overrides the link methods for the compact layout,
+ * and {@link ReactiveShardedUrlStore} spreads links over several Redis servers.
+ */
+public class ReactiveUrlStore {
+
+    @Autowired
+    protected ReactiveStringRedisTemplate redisTemplate;
+
+    /**
+     * Points a store created outside the application context at one Redis server,
+     * e.g. a shard.
+     *
+     * @param template The server's template.
+     */
+    void connect(ReactiveStringRedisTemplate template) {
+        this.redisTemplate = template;
+    }
+
+    /**
+     * Finds a Url by its exact id.
+     *
+     * @param shortUrl The entity id.
+     * @return The entity, or empty if it does not exist.
+     */
+    public Mono<Url> findById(String shortUrl) {
+        return redisTemplate.<String, String>opsForHash().entries(UrlKeys.hashKey(shortUrl))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .filter(fields -> !fields.isEmpty())
+                .map(fields -> toUrl(shortUrl, fields));
+    }
+
+    /**
+     * Finds a Url by short URL, case-insensitively: the exact id first, then the
+     * case-folded {@code shortUrlKey} index.
+     *
+     * @param shortUrl The short URL to look up.
+     * @return The entity, or empty if none matches.
+     */
+    public Mono<Url> findByShortUrl(String shortUrl) {
+        return findById(shortUrl).switchIfEmpty(Mono.defer(() -> redisTemplate.opsForSet()
+                .members(UrlKeys.indexKey(UrlKeys.SHORT_URL_KEY_INDEX, Url.foldShortUrl(shortUrl)))
+                .concatMap(this::findById)
+                .next()));
+    }
+
+    /**
+     * Finds every Url whose short URL matches case-insensitively.
+     *
+     * @param shortUrl The short URL to look up.
+     * @return All matching entities.
+     */
+    public Flux<Url> findAllByShortUrl(String shortUrl) {
+        return redisTemplate.opsForSet()
+                .members(UrlKeys.indexKey(UrlKeys.SHORT_URL_KEY_INDEX, Url.foldShortUrl(shortUrl)))
+                .concatMap(this::findById)
+                // Entries written before the index existed are still reachable by exact id
+                .switchIfEmpty(Flux.defer(() -> findById(shortUrl)));
+    }
+
+    /**
+     * Finds the short URLs recorded for a long URL on this server; see
+     * {@link UrlStore#findShortUrlsByLongUrls}.
+     *
+     * @param longUrl The normalized long URL.
+     * @return The short URLs; empty if there are none.
+     */
+    public Flux<String> findShortUrlsByLongUrl(String longUrl) {
+        return redisTemplate.opsForSet().members(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrl));
+    }
+
+    /**
+     * Records a link kept on another server under its long URL here; see
+     * {@link UrlStore#indexLongUrls}.
+     *
+     * @param shortUrl The short URL, as stored.
+     * @param longUrl  The normalized long URL.
+     * @return Completes once the entry is written.
+     */
+    public Mono<Void> indexLongUrl(String shortUrl, String longUrl) {
+        return redisTemplate.opsForSet().add(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrl), shortUrl).then();
+    }
+
+    /**
+     * Removes a short URL from a long URL's entries on this server, if listed.
+     *
+     * @param shortUrl The short URL, as stored.
+     * @param longUrl  The normalized long URL.
+     * @return Completes once the entry is gone.
+     */
+    public Mono<Void> unindexLongUrl(String shortUrl, String longUrl) {
+        return redisTemplate.opsForSet().remove(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrl), shortUrl)
+                .then();
+    }
+
+    /**
+     * Extends a link's expiry to at least expiresAt; see {@link UrlStore#retain}.
+     *
+     * @param shortUrl  The short URL, as stored.
+     * @param expiresAt The requested expiry in epoch milliseconds, or 0 if the link should never expire.
+     * @return Whether the link still exists.
+     */
+    public Mono<Boolean> retain(String shortUrl, long expiresAt) {
+        return redisTemplate.execute(ReservationScripts.RETAIN_SCRIPT, ReservationScripts.retainKeys(shortUrl),
+                Arrays.asList(ReservationScripts.retainArgs(shortUrl, expiresAt)))
+                .next()
+                .map(retained -> retained == 1);
+    }
+
+    /**
+     * Atomically claims a short URL and stores the link with its index entries,
+     * using the same script as the servlet stack.
+     *
+     * @param shortUrl  The short URL to claim.
+     * @param longUrl   The normalized long URL.
+     * @param dedup     Whether an existing link for longUrl should be reused instead.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The reservation outcome.
+     */
+    public Mono<Reservation> reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        return redisTemplate.execute(ReservationScripts.RESERVE_SCRIPT, ReservationScripts.keys(shortUrl, longUrl),
+                Arrays.asList(ReservationScripts.args(shortUrl, longUrl, dedup, expiresAt)))
+                .next()
+                .map(ReservationScripts::toReservation);
+    }
+
+    /**
+     * Points an existing Url at a new long URL and moves its long URL index entry.
+     * Only the longUrl field is written, leaving the click count untouched.
+     *
+     * @param url        The stored entity.
+     * @param newLongUrl The new normalized long URL.
+     * @return Completes once the update is written.
+     */
+    public Mono<Void> updateLongUrl(Url url, String newLongUrl) {
+        String id = url.getShortUrl();
+        String oldIndex = UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, url.getLongUrl());
+        String newIndex = UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, newLongUrl);
+
+        return redisTemplate.opsForHash().put(UrlKeys.hashKey(id), "longUrl", newLongUrl)
+                .then(redisTemplate.opsForSet().remove(oldIndex, id))
+                .then(redisTemplate.opsForSet().remove(UrlKeys.indexesOfKey(id), oldIndex))
+                .then(redisTemplate.opsForSet().add(newIndex, id))
+                .then(redisTemplate.opsForSet().add(UrlKeys.indexesOfKey(id), newIndex))
+                .then();
+    }
+
+    /**
+     * Deletes a Url and all index entries referencing it.
+     *
+     * @param url The stored entity.
+     * @return Completes once the entity is removed.
+     */
+    public Mono<Void> delete(Url url) {
+        String id = url.getShortUrl();
+        String idx = UrlKeys.indexesOfKey(id);
+
+        return redisTemplate.opsForSet().members(idx)
+                .concatMap(indexKey -> redisTemplate.opsForSet().remove(indexKey, id))
+                .then(redisTemplate.delete(UrlKeys.hashKey(id), idx))
+                .then(redisTemplate.opsForSet().remove(UrlKeys.KEYSPACE, id))
+                .then(url.getExpiresAt() == 0 ? Mono.empty()
+                        : redisTemplate.opsForZSet().remove(UrlKeys.EXPIRY_KEY, id))
+                .then();
+    }
+
+    /**
+     * Reads the bucket hashes of a click series query, one HMGET per hash.
+     *
+     * @param range The planned query.
+     * @return The HMGET replies, index-aligned with the range's keys.
+     */
+    public Mono<List<List<String>>> readClickRange(ClickRange range) {
+        return Flux.range(0, range.getKeys().size())
+                .concatMap(i -> redisTemplate.<String, String>opsForHash()
+                        .multiGet(range.getKeys().get(i), range.getFields().get(i)))
+                .collectList();
+    }
+
+    /**
+     * @param shortUrl The canonical short URL (the stored id).
+     * @return The estimated number of distinct visitors of the link.
+     */
+    public Mono<Long> countVisitors(String shortUrl) {
+        return redisTemplate.opsForHyperLogLog().size(VisitorTracker.key(shortUrl));
+    }
+
+    /**
+     * Deletes keys of a link without blocking the server, e.g. a deleted link's
+     * click series.
+     *
+     * @param shortUrl The canonical short URL the keys belong to.
+     * @param keys     The keys to remove.
+     * @return Completes once Redis has accepted the command.
+     */
+    public Mono<Void> unlink(String shortUrl, List<String> keys) {
+        return redisTemplate.unlink(keys.toArray(new String[0])).then();
+    }
+
+    /**
+     * Whether a generated short URL suits a long URL; see {@link UrlStore#colocated}.
+     *
+     * @param shortUrl A generated short URL.
+     * @param longUrl  The normalized long URL.
+     * @return Always true for a single server.
+     */
+    public boolean colocated(String shortUrl, String longUrl) {
+        return true;
+    }
+
+    /**
+     * Reads one page of stored links with the {@code url_page.lua} script.
+     *
+     * @param cursor The SSCAN cursor; null or empty starts from the beginning.
+     * @param size   The requested page size.
+     * @return The page and the cursor to continue from.
+     */
+    public Mono<UrlPage> findPage(String cursor, int size) {
+        return redisTemplate.execute(UrlPageScripts.PAGE_SCRIPT, UrlPageScripts.keys(),
+                Arrays.asList(UrlPageScripts.args(cursor, size)))
+                .next()
+                .map(UrlPageScripts::toPage);
+    }
+
+    /**
+     * Streams every stored Url page by page; the next page is only requested once
+     * the previous one has been consumed.
+     *
+     * @return All stored entities, emitted as they are read.
+     */
+    public Flux<Url> findAll() {
+        return findPage(UrlPage.START_CURSOR, UrlPageScripts.MAX_PAGE_SIZE)
+                .expand(page -> page.hasNext()
+                        ? findPage(page.getNextCursor(), UrlPageScripts.MAX_PAGE_SIZE)
+                        : Mono.empty())
+                .concatMapIterable(UrlPage::getUrls);
+    }
+
+    private Url toUrl(String id, Map<String, String> fields) {
+        Url url = new Url(fields.get("longUrl"), fields.getOrDefault("shortUrl", id));
+        String clickCount = fields.get("clickCount");
+        if (clickCount != null) {
+            url.setClickCount(Long.parseLong(clickCount));
+        }
+        String expiresAt = fields.get(UrlKeys.EXPIRES_AT_FIELD);
+        if (expiresAt != null) {
+            url.setExpiresAt(Long.parseLong(expiresAt));
+        }
+        return url;
+    }
+}
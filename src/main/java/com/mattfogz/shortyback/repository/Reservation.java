@@ -0,0 +1,38 @@
+package com.mattfogz.shortyback.repository;
+
+/**
+ * The outcome of atomically reserving a short URL for a long URL.
+ */
+public class Reservation {
+
+    /**
+     * What the reservation did.
+     */
+    public enum Status {
+        // The link was stored under the requested short URL
+        CREATED,
+        // Dedup was requested and another short URL already points at the long URL
+        EXISTING,
+        // The requested short URL (or a case variant of it) is already in use
+        TAKEN
+    }
+
+    private final Status status;
+    private final String shortUrl;
+
+    public Reservation(Status status, String shortUrl) {
+        this.status = status;
+        this.shortUrl = shortUrl;
+    }
+
+    // Getter for the outcome
+    public Status getStatus() {
+        return status;
+    }
+
+    // Getter for the short URL: the new one when CREATED, the existing one when
+    // EXISTING, the requested one when TAKEN
+    public String getShortUrl() {
+        return shortUrl;
+    }
+}
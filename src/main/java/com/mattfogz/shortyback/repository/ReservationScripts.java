@@ -0,0 +1,128 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The {@code scripts/reserve_url.lua} script, which checks and stores a link in
+ * one atomic round trip, and the helpers to call it from blocking and reactive code.
+ * {@code scripts/retain_url.lua} extends the expiry of a link reused from
+ * elsewhere, as the reservation does for the links it reuses itself.
+ */
+public final class ReservationScripts {
+
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> RESERVE_SCRIPT = reserveScript();
+    public static final RedisScript<Long> RETAIN_SCRIPT = retainScript();
+
+    private ReservationScripts() {
+    }
+
+    /**
+     * @param shortUrl The short URL to claim.
+     * @param longUrl  The normalized long URL.
+     * @return The keys the script touches, in the order it expects.
+     */
+    public static List<String> keys(String shortUrl, String longUrl) {
+        return Arrays.asList(
+                UrlKeys.hashKey(shortUrl),
+                UrlKeys.KEYSPACE,
+                UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrl),
+                UrlKeys.indexKey(UrlKeys.SHORT_URL_KEY_INDEX, Url.foldShortUrl(shortUrl)),
+                UrlKeys.indexesOfKey(shortUrl),
+                UrlKeys.EXPIRY_KEY);
+    }
+
+    /**
+     * @param shortUrl  The short URL to claim.
+     * @param longUrl   The normalized long URL.
+     * @param dedup     Whether to reuse a link already pointing at longUrl instead.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The script arguments.
+     */
+    public static Object[] args(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        return new Object[] { shortUrl, longUrl, Url.foldShortUrl(shortUrl), UrlKeys.TYPE_HINT, dedup ? "1" : "0",
+                String.valueOf(expiresAt), UrlKeys.hashKey("") };
+    }
+
+    /**
+     * Encodes keys followed by arguments, for calling the script on a raw
+     * connection (e.g. inside a pipeline).
+     *
+     * @param shortUrl  The short URL to claim.
+     * @param longUrl   The normalized long URL.
+     * @param dedup     Whether to reuse a link already pointing at longUrl instead.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The keys and then the arguments, UTF-8 encoded.
+     */
+    public static byte[][] keysAndArgs(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        List<String> keys = keys(shortUrl, longUrl);
+        Object[] args = args(shortUrl, longUrl, dedup, expiresAt);
+
+        byte[][] encoded = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            encoded[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < args.length; i++) {
+            encoded[keys.size() + i] = String.valueOf(args[i]).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    /**
+     * @return The number of keys the script takes.
+     */
+    public static int keyCount() {
+        return 6;
+    }
+
+    /**
+     * @param shortUrl The reused short URL, as stored.
+     * @return The keys of {@code retain_url.lua}.
+     */
+    public static List<String> retainKeys(String shortUrl) {
+        return Arrays.asList(UrlKeys.hashKey(shortUrl), UrlKeys.EXPIRY_KEY);
+    }
+
+    /**
+     * @param shortUrl  The reused short URL, as stored.
+     * @param expiresAt The requested expiry in epoch milliseconds, or 0 for none.
+     * @return The arguments of {@code retain_url.lua}.
+     */
+    public static Object[] retainArgs(String shortUrl, long expiresAt) {
+        return new Object[] { shortUrl, String.valueOf(expiresAt) };
+    }
+
+    /**
+     * Decodes the script reply.
+     *
+     * @param reply The script reply: { status, shortUrl }.
+     * @return The reservation outcome.
+     */
+    public static Reservation toReservation(List<?> reply) {
+        Reservation.Status status = Reservation.Status.valueOf(String.valueOf(reply.get(0)).toUpperCase(Locale.ROOT));
+        return new Reservation(status, String.valueOf(reply.get(1)));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static RedisScript<List> reserveScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("scripts/reserve_url.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    private static RedisScript<Long> retainScript() {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("scripts/retain_url.lua"));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
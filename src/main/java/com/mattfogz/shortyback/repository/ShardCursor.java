@@ -0,0 +1,60 @@
+package com.mattfogz.shortyback.repository;
+
+/**
+ * A listing cursor over sharded links: the shard being walked, by its position in
+ * {@code shorty.shards.nodes}, and that shard's own cursor, written as
+ * {@code <shard>:<cursor>}. {@link UrlPage#START_CURSOR} starts at the first
+ * shard and, when returned, marks the end of the last.
+ */
+final class ShardCursor {
+
+    private final int shard;
+    private final String cursor;
+
+    private ShardCursor(int shard, String cursor) {
+        this.shard = shard;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @param cursor A cursor from a previous page; null or empty to start.
+     * @param shards The number of shards.
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static ShardCursor parse(String cursor, int shards) {
+        if (cursor == null || cursor.isEmpty() || UrlPage.START_CURSOR.equals(cursor)) {
+            return new ShardCursor(0, UrlPage.START_CURSOR);
+        }
+        int separator = cursor.indexOf(':');
+        int shard;
+        try {
+            shard = Integer.parseInt(cursor.substring(0, Math.max(separator, 0)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new ShardCursor(shard, cursor.substring(separator + 1));
+    }
+
+    /**
+     * @param shard  The shard to continue on; the shard count once all are done.
+     * @param cursor The shard's own cursor.
+     * @param shards The number of shards.
+     * @return The cursor to hand out with a page.
+     */
+    static String format(int shard, String cursor, int shards) {
+        return shard < shards ? shard + ":" + cursor : UrlPage.START_CURSOR;
+    }
+
+    // Getter for the position of the shard being walked
+    int getShard() {
+        return shard;
+    }
+
+    // Getter for the shard's own cursor
+    String getCursor() {
+        return cursor;
+    }
+}
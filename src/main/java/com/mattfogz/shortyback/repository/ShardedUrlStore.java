@@ -0,0 +1,472 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.shard.ShardNode;
+import com.mattfogz.shortyback.shard.ShardTopology;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Blocking access to links sharded over the Redis servers of a
+ * {@link ShardTopology}. Each server has a store of the configured layout, and a
+ * link goes to the server owning its case-folded short URL, so a lookup, create,
+ * update or delete talks to one server. Batches are split per server; counts,
+ * listings and the expiry reaper visit every server in turn.
+ *
+ * While a rebalance is under way, a link not found on its owner is looked up on
+ * the server that owned it before, and a short URL still held there is not
+ * created again on the new owner.
+ *
+ * A reservation reuses the links in the long URL index of its own server, so
+ * generated short URLs are kept on their long URL's shard. Links that are not,
+ * such as custom ones or those moved by a rebalance, are also indexed on their
+ * long URL's shard; a reservation with dedup checks those entries first, on
+ * both the long URL's owner and its previous owner.
+ */
+public class ShardedUrlStore extends UrlStore {
+
+    private final ShardTopology topology;
+
+    // Stores index-aligned with the topology's nodes
+    private final List<UrlStore> stores;
+
+    /**
+     * @param topology       The shards.
+     * @param layoutStore    Creates an unconnected store of the configured layout.
+     * @param mappingContext The application's Redis mapping context.
+     */
+    public ShardedUrlStore(ShardTopology topology, Supplier<UrlStore> layoutStore,
+            RedisMappingContext mappingContext) {
+        this.topology = topology;
+        this.stores = new ArrayList<>(topology.getNodes().size());
+        for (ShardNode node : topology.getNodes()) {
+            UrlStore store = layoutStore.get();
+            store.connect(node.getRedisTemplate(), mappingContext);
+            stores.add(store);
+        }
+    }
+
+    /**
+     * @param node A shard.
+     * @return The store of the links on that shard alone.
+     */
+    public UrlStore storeOn(ShardNode node) {
+        return stores.get(node.getIndex());
+    }
+
+    @Override
+    public Optional<Url> findByShortUrl(String shortUrl) {
+        Optional<Url> url = ownerStore(shortUrl).findByShortUrl(shortUrl);
+        UrlStore previous = previousStore(shortUrl);
+        return url.isPresent() || previous == null ? url : previous.findByShortUrl(shortUrl);
+    }
+
+    @Override
+    public List<Url> findAllByShortUrl(String shortUrl) {
+        List<Url> urls = ownerStore(shortUrl).findAllByShortUrl(shortUrl);
+        UrlStore previous = previousStore(shortUrl);
+        return !urls.isEmpty() || previous == null ? urls : previous.findAllByShortUrl(shortUrl);
+    }
+
+    /**
+     * Reads each shard's share in one batch; while rebalancing, misses are looked
+     * up on their previous owners in a second round.
+     */
+    @Override
+    public List<Url> findByShortUrls(List<String> shortUrls) {
+        List<Url> urls = new ArrayList<>(Collections.nCopies(shortUrls.size(), null));
+        forEachShard(shortUrls, this::ownerOf, (store, positions) -> fill(urls, positions,
+                store.findByShortUrls(select(shortUrls, positions))));
+
+        if (topology.isRebalancing()) {
+            List<Integer> misses = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i++) {
+                if (urls.get(i) == null) {
+                    misses.add(i);
+                }
+            }
+            List<String> missed = select(shortUrls, misses);
+            forEachShard(missed, this::previousOwnerOf, (store, positions) -> {
+                List<Url> found = store.findByShortUrls(select(missed, positions));
+                for (int p = 0; p < positions.size(); p++) {
+                    urls.set(misses.get(positions.get(p)), found.get(p));
+                }
+            });
+        }
+        return urls;
+    }
+
+    /**
+     * With dedup, a link for the long URL that the reservation could not find on
+     * its own shard is reused first; see {@link #reuseIndexed}. A link created
+     * away from its long URL's shard is indexed there. While rebalancing, a short
+     * URL still held by its previous owner is reported as taken without reserving it.
+     */
+    @Override
+    public Reservation reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        if (dedup) {
+            Reservation reused = reuseIndexed(shortUrl, longUrl,
+                    findShortUrlsByLongUrls(Collections.singletonList(longUrl)).get(0), expiresAt);
+            if (reused != null) {
+                return reused;
+            }
+        }
+
+        UrlStore previous = previousStore(shortUrl);
+        if (previous != null && !previous.findAllByShortUrl(shortUrl).isEmpty()) {
+            // Not moved yet; the rebalancer will bring it over
+            return new Reservation(Reservation.Status.TAKEN, shortUrl);
+        }
+        Reservation reservation = ownerStore(shortUrl).reserve(shortUrl, longUrl, dedup, expiresAt);
+        if (reservation.getStatus() == Reservation.Status.CREATED) {
+            indexLongUrls(Collections.singletonList(reservation.getShortUrl()), Collections.singletonList(longUrl));
+        }
+        return reservation;
+    }
+
+    /**
+     * Sends one pipeline per shard, after looking for links to reuse like
+     * {@link #reserve}: the dedup entries of every long URL are read in one batch
+     * per shard.
+     */
+    @Override
+    public List<Reservation> reserveAll(List<String> shortUrls, List<String> longUrls, List<Boolean> dedup,
+            List<Long> expiresAt) {
+        List<Reservation> reservations = new ArrayList<>(Collections.nCopies(shortUrls.size(), null));
+
+        List<Integer> deduped = new ArrayList<>();
+        for (int i = 0; i < shortUrls.size(); i++) {
+            if (dedup.get(i)) {
+                deduped.add(i);
+            }
+        }
+        List<List<String>> indexed = findShortUrlsByLongUrls(select(longUrls, deduped));
+        for (int d = 0; d < deduped.size(); d++) {
+            int i = deduped.get(d);
+            reservations.set(i, reuseIndexed(shortUrls.get(i), longUrls.get(i), indexed.get(d), expiresAt.get(i)));
+        }
+
+        List<Integer> pending = new ArrayList<>(shortUrls.size());
+        for (int i = 0; i < shortUrls.size(); i++) {
+            if (reservations.get(i) == null) {
+                pending.add(i);
+            }
+        }
+
+        if (topology.isRebalancing()) {
+            List<String> pendingShortUrls = select(shortUrls, pending);
+            boolean[] held = new boolean[pending.size()];
+            forEachShard(pendingShortUrls, this::previousOwnerOf, (store, positions) -> {
+                List<Url> found = store.findByShortUrls(select(pendingShortUrls, positions));
+                for (int p = 0; p < positions.size(); p++) {
+                    held[positions.get(p)] = found.get(p) != null;
+                }
+            });
+            List<Integer> free = new ArrayList<>(pending.size());
+            for (int p = 0; p < pending.size(); p++) {
+                int i = pending.get(p);
+                if (held[p]) {
+                    reservations.set(i, new Reservation(Reservation.Status.TAKEN, shortUrls.get(i)));
+                } else {
+                    free.add(i);
+                }
+            }
+            pending = free;
+        }
+
+        List<Integer> reserving = pending;
+        forEachShard(select(shortUrls, reserving), this::ownerOf, (store, positions) -> {
+            List<Integer> entries = select(reserving, positions);
+            List<Reservation> stored = store.reserveAll(select(shortUrls, entries), select(longUrls, entries),
+                    select(dedup, entries), select(expiresAt, entries));
+            fill(reservations, entries, stored);
+        });
+
+        List<String> createdShortUrls = new ArrayList<>();
+        List<String> createdLongUrls = new ArrayList<>();
+        for (int i : reserving) {
+            Reservation reservation = reservations.get(i);
+            if (reservation != null && reservation.getStatus() == Reservation.Status.CREATED) {
+                createdShortUrls.add(reservation.getShortUrl());
+                createdLongUrls.add(longUrls.get(i));
+            }
+        }
+        indexLongUrls(createdShortUrls, createdLongUrls);
+        return reservations;
+    }
+
+    @Override
+    public boolean retain(String shortUrl, long expiresAt) {
+        return holderStore(shortUrl).retain(shortUrl, expiresAt);
+    }
+
+    /**
+     * Reads each long URL's entries on the shard owning it and, while
+     * rebalancing, on the shard that owned it before.
+     */
+    @Override
+    public List<List<String>> findShortUrlsByLongUrls(List<String> longUrls) {
+        List<List<String>> shortUrls = new ArrayList<>(Collections.nCopies(longUrls.size(), null));
+        forEachShard(longUrls, topology::ownerOf, (store, positions) -> fill(shortUrls, positions,
+                store.findShortUrlsByLongUrls(select(longUrls, positions))));
+        forEachShard(longUrls, topology::previousOwnerOf, (store, positions) -> {
+            List<List<String>> found = store.findShortUrlsByLongUrls(select(longUrls, positions));
+            for (int p = 0; p < positions.size(); p++) {
+                List<String> known = shortUrls.get(positions.get(p));
+                for (String shortUrl : found.get(p)) {
+                    if (!known.contains(shortUrl)) {
+                        known.add(shortUrl);
+                    }
+                }
+            }
+        });
+        return shortUrls;
+    }
+
+    /**
+     * Indexes links kept away from their long URL's shard on that shard, one
+     * pipeline per shard, so reservations there can reuse them. Links on their
+     * long URL's shard are indexed by their own store already.
+     */
+    @Override
+    public void indexLongUrls(List<String> shortUrls, List<String> longUrls) {
+        Map<ShardNode, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < shortUrls.size(); i++) {
+            String longUrl = longUrls.get(i);
+            if (longUrl == null || longUrl.isEmpty()) {
+                continue;
+            }
+            ShardNode longOwner = topology.ownerOf(longUrl);
+            if (longOwner != ownerOf(shortUrls.get(i))) {
+                groups.computeIfAbsent(longOwner, key -> new ArrayList<>()).add(i);
+            }
+        }
+        groups.forEach((node, positions) -> storeOn(node).indexLongUrls(select(shortUrls, positions),
+                select(longUrls, positions)));
+    }
+
+    /**
+     * Removes the entries for a link on its long URL's shard and, while
+     * rebalancing, on the one that owned it before; shards the link itself may be
+     * kept on are left to its own store.
+     */
+    @Override
+    public void unindexLongUrl(String shortUrl, String longUrl) {
+        if (longUrl == null || longUrl.isEmpty()) {
+            return;
+        }
+        ShardNode owner = ownerOf(shortUrl);
+        ShardNode previous = previousOwnerOf(shortUrl);
+        for (ShardNode node : Arrays.asList(topology.ownerOf(longUrl), topology.previousOwnerOf(longUrl))) {
+            if (node != null && node != owner && node != previous) {
+                storeOn(node).unindexLongUrl(shortUrl, longUrl);
+            }
+        }
+    }
+
+    @Override
+    public void updateLongUrl(Url url, String newLongUrl) {
+        holderStore(url.getShortUrl()).updateLongUrl(url, newLongUrl);
+        unindexLongUrl(url.getShortUrl(), url.getLongUrl());
+        indexLongUrls(Collections.singletonList(url.getShortUrl()), Collections.singletonList(newLongUrl));
+    }
+
+    @Override
+    public void delete(Url url) {
+        ownerStore(url.getShortUrl()).delete(url);
+        UrlStore previous = previousStore(url.getShortUrl());
+        if (previous != null) {
+            // Wherever the rebalancer has got to, the link must be gone from both
+            previous.delete(url);
+        }
+        unindexLongUrl(url.getShortUrl(), url.getLongUrl());
+    }
+
+    /**
+     * Reaps up to limit links on each shard, so a run may return more than limit.
+     */
+    @Override
+    public List<Url> reapExpired(long now, int limit) {
+        List<Url> reaped = new ArrayList<>();
+        for (UrlStore store : stores) {
+            reaped.addAll(store.reapExpired(now, limit));
+        }
+        for (Url url : reaped) {
+            unindexLongUrl(url.getShortUrl(), url.getLongUrl());
+        }
+        return reaped;
+    }
+
+    /**
+     * Walks the shards one after another, with a {@link ShardCursor}; a page
+     * running out of one shard is filled from the next.
+     */
+    @Override
+    public UrlPage findPage(String cursor, int size) {
+        ShardCursor position = ShardCursor.parse(cursor, stores.size());
+        int shard = position.getShard();
+        String shardCursor = position.getCursor();
+
+        List<Url> urls = new ArrayList<>();
+        do {
+            UrlPage page = stores.get(shard).findPage(shardCursor, size - urls.size());
+            urls.addAll(page.getUrls());
+            if (page.hasNext()) {
+                return new UrlPage(urls, ShardCursor.format(shard, page.getNextCursor(), stores.size()));
+            }
+            shard++;
+            shardCursor = UrlPage.START_CURSOR;
+        } while (shard < stores.size() && urls.size() < size);
+        return new UrlPage(urls, ShardCursor.format(shard, UrlPage.START_CURSOR, stores.size()));
+    }
+
+    @Override
+    public void forEachShortUrlKey(Consumer<String> action) {
+        for (UrlStore store : stores) {
+            store.forEachShortUrlKey(action);
+        }
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (UrlStore store : stores) {
+            count += store.count();
+        }
+        return count;
+    }
+
+    @Override
+    public ClickCounter clickCounter(String shortUrl) {
+        return ownerStore(shortUrl).clickCounter(shortUrl);
+    }
+
+    @Override
+    public void restoreClickCounts(List<String> shortUrls, List<Long> clickCounts) {
+        forEachShard(shortUrls, this::ownerOf, (store, positions) -> store.restoreClickCounts(
+                select(shortUrls, positions), select(clickCounts, positions)));
+    }
+
+    @Override
+    public StringRedisTemplate redisFor(String shortUrl) {
+        return ownerOf(shortUrl).getRedisTemplate();
+    }
+
+    @Override
+    public StringRedisTemplate previousRedisFor(String shortUrl) {
+        ShardNode previous = previousOwnerOf(shortUrl);
+        return previous == null ? null : previous.getRedisTemplate();
+    }
+
+    @Override
+    public boolean colocated(String shortUrl, String longUrl) {
+        return ownerOf(shortUrl) == topology.ownerOf(longUrl);
+    }
+
+    private ShardNode ownerOf(String shortUrl) {
+        return topology.ownerOf(Url.foldShortUrl(shortUrl));
+    }
+
+    private ShardNode previousOwnerOf(String shortUrl) {
+        return topology.previousOwnerOf(Url.foldShortUrl(shortUrl));
+    }
+
+    private UrlStore ownerStore(String shortUrl) {
+        return storeOn(ownerOf(shortUrl));
+    }
+
+    private UrlStore previousStore(String shortUrl) {
+        ShardNode previous = previousOwnerOf(shortUrl);
+        return previous == null ? null : storeOn(previous);
+    }
+
+    /**
+     * Reuses a link recorded for a long URL that the reservation of shortUrl
+     * would not find itself: one kept away from the long URL's shard, or one a
+     * rebalance has yet to move. Entries naming links that are gone, or point at
+     * another long URL now, are removed on the way.
+     *
+     * @param candidates The short URLs recorded for longUrl.
+     * @return The reuse, with the link's expiry extended; null if there is no such link.
+     */
+    private Reservation reuseIndexed(String shortUrl, String longUrl, List<String> candidates, long expiresAt) {
+        ShardNode longOwner = topology.ownerOf(longUrl);
+        for (String candidate : candidates) {
+            if (ownerOf(candidate) == longOwner && previousOwnerOf(candidate) == null
+                    && colocated(shortUrl, longUrl)) {
+                // Kept where the reservation runs, whose script reuses it
+                continue;
+            }
+
+            UrlStore holder = ownerStore(candidate);
+            Optional<Url> link = holder.findByShortUrl(candidate);
+            UrlStore previous = previousStore(candidate);
+            if (!link.isPresent() && previous != null) {
+                holder = previous;
+                link = previous.findByShortUrl(candidate);
+            }
+            if (!link.isPresent() || !longUrl.equals(link.get().getLongUrl())) {
+                unindexLongUrl(candidate, longUrl);
+            } else if (holder.retain(link.get().getShortUrl(), expiresAt)) {
+                return new Reservation(Reservation.Status.EXISTING, link.get().getShortUrl());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The store the link is on: its owner, unless a rebalance has yet to move it.
+     */
+    private UrlStore holderStore(String shortUrl) {
+        UrlStore owner = ownerStore(shortUrl);
+        UrlStore previous = previousStore(shortUrl);
+        if (previous == null || owner.findByShortUrl(shortUrl).isPresent()) {
+            return owner;
+        }
+        return previous;
+    }
+
+    /**
+     * Groups short URLs by shard and hands each group to the shard's store.
+     *
+     * @param shard    Picks the shard of a short URL; null to skip it.
+     * @param consumer Receives each store with the positions of its short URLs.
+     */
+    private void forEachShard(List<String> shortUrls, Function<String, ShardNode> shard,
+            BiConsumer<UrlStore, List<Integer>> consumer) {
+        Map<ShardNode, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < shortUrls.size(); i++) {
+            ShardNode node = shard.apply(shortUrls.get(i));
+            if (node != null) {
+                groups.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+            }
+        }
+        groups.forEach((node, positions) -> consumer.accept(storeOn(node), positions));
+    }
+
+    private static <T> List<T> select(List<T> values, List<Integer> positions) {
+        List<T> selected = new ArrayList<>(positions.size());
+        for (int i : positions) {
+            selected.add(values.get(i));
+        }
+        return selected;
+    }
+
+    private static <T> void fill(List<T> target, List<Integer> positions, List<T> values) {
+        for (int p = 0; p < positions.size(); p++) {
+            target.set(positions.get(p), values.get(p));
+        }
+    }
+}
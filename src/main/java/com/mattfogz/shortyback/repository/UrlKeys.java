@@ -0,0 +1,57 @@
+package com.mattfogz.shortyback.repository;
+
+/**
+ * Redis key names used by Spring Data for {@code @RedisHash("Url")} entities.
+ *
+ * Code that talks to Redis directly (pipelines, scripts) must agree with the
+ * repository on these names, so they are defined in one place.
+ */
+public final class UrlKeys {
+
+    // Keyspace of the Url entity, as declared by @RedisHash("Url"). Also the name of
+    // the set holding every stored id.
+    public static final String KEYSPACE = "Url";
+
+    // Hash field Spring Data uses for the entity type hint, and its value for Url
+    public static final String TYPE_HINT_FIELD = "_class";
+    public static final String TYPE_HINT = "com.mattfogz.shortyback.model.Url";
+
+    // Names of the @Indexed properties of Url
+    public static final String LONG_URL_INDEX = "longUrl";
+    public static final String SHORT_URL_KEY_INDEX = "shortUrlKey";
+
+    // Sorted set of expiring short URLs scored by expiry time (epoch milliseconds).
+    // Shared by both storage layouts; its members are the short URLs as stored.
+    public static final String EXPIRY_KEY = "shorty:expiry";
+
+    // Hash field holding the expiry of an expiring entity
+    public static final String EXPIRES_AT_FIELD = "expiresAt";
+
+    private UrlKeys() {
+    }
+
+    /**
+     * @param shortUrl The entity id.
+     * @return The key of the hash holding the entity's fields.
+     */
+    public static String hashKey(String shortUrl) {
+        return KEYSPACE + ":" + shortUrl;
+    }
+
+    /**
+     * @param property The indexed property name.
+     * @param value    The property value.
+     * @return The key of the set holding the ids of entities with that property value.
+     */
+    public static String indexKey(String property, String value) {
+        return KEYSPACE + ":" + property + ":" + value;
+    }
+
+    /**
+     * @param shortUrl The entity id.
+     * @return The key of the set listing the index keys that reference the entity.
+     */
+    public static String indexesOfKey(String shortUrl) {
+        return hashKey(shortUrl) + ":idx";
+    }
+}
@@ -0,0 +1,39 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+
+import java.util.List;
+
+/**
+ * One page of stored links read with SSCAN, plus the cursor to continue from.
+ */
+public class UrlPage {
+
+    // SSCAN cursor value that starts a scan and, when returned, marks its end
+    public static final String START_CURSOR = "0";
+
+    private final List<Url> urls;
+    private final String nextCursor;
+
+    public UrlPage(List<Url> urls, String nextCursor) {
+        this.urls = urls;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getter for the links on this page
+    public List<Url> getUrls() {
+        return urls;
+    }
+
+    // Getter for the cursor of the next page; START_CURSOR once the scan is complete
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return true if the scan has further pages.
+     */
+    public boolean hasNext() {
+        return !START_CURSOR.equals(nextCursor);
+    }
+}
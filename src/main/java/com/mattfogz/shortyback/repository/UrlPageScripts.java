@@ -0,0 +1,77 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code scripts/url_page.lua} script and the helpers to call it and decode
+ * its result, shared by the blocking and reactive paging code.
+ */
+public final class UrlPageScripts {
+
+    // Upper bound on the COUNT hint, so a single script call stays short
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> PAGE_SCRIPT = pageScript();
+
+    private UrlPageScripts() {
+    }
+
+    /**
+     * @return The single key the page script reads.
+     */
+    public static List<String> keys() {
+        return Collections.singletonList(UrlKeys.KEYSPACE);
+    }
+
+    /**
+     * Builds the script arguments, validating the cursor and page size.
+     *
+     * @param cursor The SSCAN cursor; null or empty starts from the beginning.
+     * @param size   The requested page size (a hint, as with SSCAN COUNT).
+     * @return The script arguments.
+     */
+    public static Object[] args(String cursor, int size) {
+        String start = cursor == null || cursor.isEmpty() ? UrlPage.START_CURSOR : cursor;
+        if (!start.chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        return new Object[] { start, String.valueOf(size), UrlKeys.hashKey("") };
+    }
+
+    /**
+     * Decodes the flat script reply into a page.
+     *
+     * @param reply The script reply: the next cursor followed by (id, longUrl, clickCount, expiresAt)
+     *              quadruples.
+     * @return The decoded page.
+     */
+    public static UrlPage toPage(List<?> reply) {
+        List<Url> urls = new ArrayList<>((reply.size() - 1) / 4);
+        for (int i = 1; i + 3 < reply.size(); i += 4) {
+            Url url = new Url(String.valueOf(reply.get(i + 1)), String.valueOf(reply.get(i)));
+            url.setClickCount(Long.parseLong(String.valueOf(reply.get(i + 2))));
+            url.setExpiresAt(Long.parseLong(String.valueOf(reply.get(i + 3))));
+            urls.add(url);
+        }
+        return new UrlPage(urls, String.valueOf(reply.get(0)));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static RedisScript<List> pageScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("scripts/url_page.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+}
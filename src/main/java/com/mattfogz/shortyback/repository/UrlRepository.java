@@ -3,6 +3,7 @@ package com.mattfogz.shortyback.repository;
 import com.mattfogz.shortyback.model.Url;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -21,4 +22,14 @@ public interface UrlRepository extends CrudRepository<Url, String> {
      * @return An Optional containing the found Url entity, or empty if not found.
      */
     Optional<Url> findByLongUrlIgnoreCase(String longUrl);
-}
\ No newline at end of file
+
+    /**
+     * Finds Url entities by their case-folded short URL.
+     * Backed by the {@code Url:shortUrlKey:<value>} index set, so the cost does not
+     * depend on how many links are stored.
+     *
+     * @param shortUrlKey The short URL folded with {@link Url#foldShortUrl(String)}.
+     * @return All Url entities whose short URL matches case-insensitively.
+     */
+    List<Url> findByShortUrlKey(String shortUrlKey);
+}
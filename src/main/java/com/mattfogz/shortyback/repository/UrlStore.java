@@ -0,0 +1,518 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.repository.support.RedisRepositoryFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Blocking access to stored links in the entity layout: the
+ * {@code @RedisHash("Url")} hash per link with its id set and index sets, as
+ * written by {@link UrlRepository}. {@link CompactUrlStore} overrides every
+ * method for the compact layout; {@code shorty.storage.layout} picks one.
+ * {@link ShardedUrlStore} spreads links over several Redis servers, with one
+ * store of the configured layout per server.
+ */
+public class UrlStore {
+
+    // Ids read per SSCAN call when walking every short URL
+    private static final int SCAN_COUNT = 1000;
+
+    private static final RedisScript<String> EXPIRE_SCRIPT = script("scripts/expire_url.lua", String.class);
+    private static final RedisScript<Long> RESTORE_CLICKS_SCRIPT = script("scripts/restore_clicks.lua", Long.class);
+
+    @Autowired
+    protected StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private UrlRepository urlRepository;
+
+    @Autowired
+    private RedisKeyValueTemplate keyValueTemplate;
+
+    /**
+     * Points a store created outside the application context at one Redis
+     * server, e.g. a shard, with a repository of its own on that server.
+     *
+     * @param template       The server's template.
+     * @param mappingContext The application's Redis mapping context, which knows the Url indexes.
+     */
+    void connect(StringRedisTemplate template, RedisMappingContext mappingContext) {
+        this.redisTemplate = template;
+        this.keyValueTemplate = new RedisKeyValueTemplate(new RedisKeyValueAdapter(template, mappingContext),
+                mappingContext);
+        this.urlRepository = new RedisRepositoryFactory(keyValueTemplate).getRepository(UrlRepository.class);
+    }
+
+    /**
+     * Finds a link by short URL, case-insensitively.
+     * The exact id is tried first (a single hash read); on a miss the case-folded
+     * {@code shortUrlKey} index is consulted. Either way the number of Redis round
+     * trips is constant, regardless of how many links are stored.
+     *
+     * @param shortUrl The short URL to look up.
+     * @return The link with its persisted click count, or empty if none exists.
+     */
+    public Optional<Url> findByShortUrl(String shortUrl) {
+        Optional<Url> exact = urlRepository.findById(shortUrl);
+        if (exact.isPresent()) {
+            return exact;
+        }
+        return urlRepository.findByShortUrlKey(Url.foldShortUrl(shortUrl)).stream().findFirst();
+    }
+
+    /**
+     * Finds every link whose short URL matches case-insensitively.
+     *
+     * @param shortUrl The short URL to look up.
+     * @return All matching links; empty if none exist.
+     */
+    public List<Url> findAllByShortUrl(String shortUrl) {
+        List<Url> urls = new ArrayList<>(urlRepository.findByShortUrlKey(Url.foldShortUrl(shortUrl)));
+        if (urls.isEmpty()) {
+            // Entries written before the index existed are still reachable by exact id
+            urlRepository.findById(shortUrl).ifPresent(urls::add);
+        }
+        return urls;
+    }
+
+    /**
+     * Finds several links by short URL in a batch, case-insensitively, like
+     * {@link #findByShortUrl(String)} for each. The exact ids are read in one
+     * pipeline; codes not stored under their exact id take one more pipeline for
+     * the {@code shortUrlKey} index and one for the entities it names.
+     *
+     * @param shortUrls The short URLs to look up.
+     * @return The links, index-aligned with shortUrls; null where none exists.
+     */
+    public List<Url> findByShortUrls(List<String> shortUrls) {
+        List<Url> urls = readEntities(shortUrls);
+
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            if (urls.get(i) == null) {
+                misses.add(i);
+            }
+        }
+        if (misses.isEmpty()) {
+            return urls;
+        }
+
+        List<Object> ids = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i : misses) {
+                connection.setCommands().sRandMember(bytes(UrlKeys.indexKey(UrlKeys.SHORT_URL_KEY_INDEX,
+                        Url.foldShortUrl(shortUrls.get(i)))));
+            }
+            return null;
+        });
+        List<Integer> found = new ArrayList<>();
+        List<String> foundIds = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i++) {
+            if (ids.get(i) != null) {
+                found.add(misses.get(i));
+                foundIds.add((String) ids.get(i));
+            }
+        }
+        List<Url> indexed = readEntities(foundIds);
+        for (int i = 0; i < found.size(); i++) {
+            urls.set(found.get(i), indexed.get(i));
+        }
+        return urls;
+    }
+
+    /**
+     * Atomically claims a short URL and stores the link with its index entries.
+     * A reused link's expiry is extended to at least expiresAt.
+     *
+     * @param shortUrl  The short URL to claim.
+     * @param longUrl   The normalized long URL.
+     * @param dedup     Whether an existing link for longUrl should be reused instead.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The reservation outcome.
+     */
+    public Reservation reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        List<?> reply = redisTemplate.execute(ReservationScripts.RESERVE_SCRIPT,
+                ReservationScripts.keys(shortUrl, longUrl),
+                ReservationScripts.args(shortUrl, longUrl, dedup, expiresAt));
+        return ReservationScripts.toReservation(reply);
+    }
+
+    /**
+     * Sends one reservation per entry in a single pipeline.
+     *
+     * @param shortUrls The short URLs to claim.
+     * @param longUrls  The normalized long URLs, index-aligned with shortUrls.
+     * @param dedup     Whether each entry should reuse an existing link, index-aligned.
+     * @param expiresAt The expiry of each entry in epoch milliseconds (0 for none), index-aligned.
+     * @return The outcomes, index-aligned; null where the call failed.
+     */
+    public List<Reservation> reserveAll(List<String> shortUrls, List<String> longUrls, List<Boolean> dedup,
+            List<Long> expiresAt) {
+        if (shortUrls.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // EVALSHA inside a pipeline cannot fall back to EVAL, so make sure the script is loaded
+        String sha = loadScript(ReservationScripts.RESERVE_SCRIPT.getScriptAsString());
+        return toReservations(executePipelined(connection -> {
+            for (int i = 0; i < shortUrls.size(); i++) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, ReservationScripts.keyCount(),
+                        ReservationScripts.keysAndArgs(shortUrls.get(i), longUrls.get(i), dedup.get(i),
+                                expiresAt.get(i)));
+            }
+        }));
+    }
+
+    /**
+     * Extends a link's expiry to at least expiresAt, as a reservation does for a
+     * link it reuses; for reusing a link the reservation itself could not find.
+     *
+     * @param shortUrl  The short URL, as stored.
+     * @param expiresAt The requested expiry in epoch milliseconds, or 0 if the link should never expire.
+     * @return Whether the link still exists.
+     */
+    public boolean retain(String shortUrl, long expiresAt) {
+        Long retained = redisTemplate.execute(ReservationScripts.RETAIN_SCRIPT,
+                ReservationScripts.retainKeys(shortUrl), ReservationScripts.retainArgs(shortUrl, expiresAt));
+        return retained != null && retained == 1;
+    }
+
+    /**
+     * Finds the short URLs recorded for long URLs on this server, in one
+     * pipeline: its own links pointing at them, and the entries of
+     * {@link #indexLongUrls} for links kept elsewhere. An entry may name a link
+     * that has since expired or changed.
+     *
+     * @param longUrls The normalized long URLs.
+     * @return The short URLs of each long URL, index-aligned with longUrls.
+     */
+    public List<List<String>> findShortUrlsByLongUrls(List<String> longUrls) {
+        List<List<String>> shortUrls = new ArrayList<>(longUrls.size());
+        if (longUrls.isEmpty()) {
+            return shortUrls;
+        }
+
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String longUrl : longUrls) {
+                connection.setCommands().sMembers(bytes(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrl)));
+            }
+            return null;
+        });
+        for (Object reply : replies) {
+            @SuppressWarnings("unchecked")
+            Set<String> members = (Set<String>) reply;
+            shortUrls.add(members == null ? new ArrayList<>() : new ArrayList<>(members));
+        }
+        return shortUrls;
+    }
+
+    /**
+     * Records links kept on another server under their long URLs here, in one
+     * pipeline, so reservations on this server can be pointed at them.
+     *
+     * @param shortUrls The short URLs, as stored.
+     * @param longUrls  Their normalized long URLs, index-aligned with shortUrls.
+     */
+    public void indexLongUrls(List<String> shortUrls, List<String> longUrls) {
+        if (shortUrls.isEmpty()) {
+            return;
+        }
+
+        executePipelined(connection -> {
+            for (int i = 0; i < shortUrls.size(); i++) {
+                connection.setCommands().sAdd(bytes(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrls.get(i))),
+                        bytes(shortUrls.get(i)));
+            }
+        });
+    }
+
+    /**
+     * Removes a short URL from a long URL's entries on this server, if listed.
+     *
+     * @param shortUrl The short URL, as stored.
+     * @param longUrl  The normalized long URL.
+     */
+    public void unindexLongUrl(String shortUrl, String longUrl) {
+        redisTemplate.opsForSet().remove(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, longUrl), shortUrl);
+    }
+
+    /**
+     * Points a link at a new long URL and moves its long URL index entry. Only the
+     * longUrl field is written, so buffered click increments flushed concurrently
+     * are not overwritten.
+     *
+     * @param url        The stored link.
+     * @param newLongUrl The new normalized long URL.
+     */
+    public void updateLongUrl(Url url, String newLongUrl) {
+        keyValueTemplate.update(new PartialUpdate<>(url.getShortUrl(), Url.class).set("longUrl", newLongUrl));
+    }
+
+    /**
+     * Deletes a link and all index entries referencing it.
+     *
+     * @param url The stored link.
+     */
+    public void delete(Url url) {
+        urlRepository.deleteById(url.getShortUrl());
+        if (url.getExpiresAt() != 0) {
+            redisTemplate.opsForZSet().remove(UrlKeys.EXPIRY_KEY, url.getShortUrl());
+        }
+    }
+
+    /**
+     * Removes links whose expiry has passed, oldest first, with everything that
+     * still refers to them in Redis. Their hashes are gone already (they carry a
+     * native TTL); this cleans up the id set and the index sets. Safe to run on
+     * several instances at once: each link is removed by one atomic script call,
+     * which does nothing for a link another caller removed or extended.
+     *
+     * @param now   The current time in epoch milliseconds.
+     * @param limit The most links to remove.
+     * @return The removed links: their short URL and, where known, long URL.
+     */
+    public List<Url> reapExpired(long now, int limit) {
+        List<String> expired = findExpired(now, limit);
+        if (expired.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        byte[] longUrlIndexPrefix = bytes(UrlKeys.indexKey(UrlKeys.LONG_URL_INDEX, ""));
+        String sha = loadScript(EXPIRE_SCRIPT.getScriptAsString());
+        List<Object> replies = executePipelined(connection -> {
+            for (String id : expired) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.VALUE, 4,
+                        bytes(UrlKeys.EXPIRY_KEY), bytes(UrlKeys.KEYSPACE), bytes(UrlKeys.hashKey(id)),
+                        bytes(UrlKeys.indexesOfKey(id)), bytes(id), bytes(String.valueOf(now)), longUrlIndexPrefix);
+            }
+        });
+
+        List<Url> reaped = new ArrayList<>();
+        for (int i = 0; i < expired.size(); i++) {
+            Object reply = replies.get(i);
+            if (reply instanceof byte[] || reply instanceof String) {
+                String longUrl = reply instanceof byte[] ? new String((byte[]) reply, StandardCharsets.UTF_8)
+                        : (String) reply;
+                reaped.add(new Url(longUrl.isEmpty() ? null : longUrl, expired.get(i)));
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * @param now   The current time in epoch milliseconds.
+     * @param limit The most short URLs to return.
+     * @return Short URLs in the expiry index whose expiry has passed, oldest first.
+     */
+    protected List<String> findExpired(long now, int limit) {
+        Set<String> expired = redisTemplate.opsForZSet().rangeByScore(UrlKeys.EXPIRY_KEY, 0, now, 0, limit);
+        return expired == null ? new ArrayList<>() : new ArrayList<>(expired);
+    }
+
+    /**
+     * Reads one page of stored links with the {@code url_page.lua} script.
+     *
+     * @param cursor The cursor returned by the previous page; null or empty to start.
+     * @param size   The requested page size.
+     * @return The page and the cursor to continue from.
+     */
+    public UrlPage findPage(String cursor, int size) {
+        List<?> reply = redisTemplate.execute(UrlPageScripts.PAGE_SCRIPT, UrlPageScripts.keys(),
+                UrlPageScripts.args(cursor, size));
+        return UrlPageScripts.toPage(reply);
+    }
+
+    /**
+     * Walks the case-folded short URL of every stored link, without loading the links.
+     *
+     * @param action Receives each folded short URL; may see one more than once.
+     */
+    public void forEachShortUrlKey(Consumer<String> action) {
+        try (Cursor<String> ids = redisTemplate.opsForSet().scan(UrlKeys.KEYSPACE,
+                ScanOptions.scanOptions().count(SCAN_COUNT).build())) {
+            while (ids.hasNext()) {
+                action.accept(Url.foldShortUrl(ids.next()));
+            }
+        }
+    }
+
+    /**
+     * @return The number of stored links.
+     */
+    public long count() {
+        Long size = redisTemplate.opsForSet().size(UrlKeys.KEYSPACE);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * @param shortUrl The canonical short URL (the stored id).
+     * @return Where the link's click count is kept.
+     */
+    public ClickCounter clickCounter(String shortUrl) {
+        String hashKey = UrlKeys.hashKey(shortUrl);
+        return new ClickCounter(hashKey, "longUrl", hashKey, "clickCount");
+    }
+
+    /**
+     * @param shortUrl A short URL.
+     * @return The connection to the server holding the link, along with its click
+     *         series and visitor estimate.
+     */
+    public StringRedisTemplate redisFor(String shortUrl) {
+        return redisTemplate;
+    }
+
+    /**
+     * @param shortUrl A short URL.
+     * @return The connection to the server that held the link before the shards were
+     *         last grown, while a rebalance is moving it to {@link #redisFor}; otherwise null.
+     */
+    public StringRedisTemplate previousRedisFor(String shortUrl) {
+        return null;
+    }
+
+    /**
+     * Whether a generated short URL suits a long URL. A reservation only finds
+     * links to reuse in the long URL index of the server it runs on, so a sharded
+     * store accepts just the codes that live on the long URL's shard.
+     *
+     * @param shortUrl A generated short URL.
+     * @param longUrl  The normalized long URL.
+     * @return Always true for a single server.
+     */
+    public boolean colocated(String shortUrl, String longUrl) {
+        return true;
+    }
+
+    /**
+     * Raises the click counts of links to at least the given values in one
+     * pipeline, as when restoring links from an export. Counts that are already
+     * higher, and links that no longer exist, are left alone.
+     *
+     * @param shortUrls   The canonical short URLs.
+     * @param clickCounts The click counts, index-aligned with shortUrls.
+     */
+    public void restoreClickCounts(List<String> shortUrls, List<Long> clickCounts) {
+        if (shortUrls.isEmpty()) {
+            return;
+        }
+
+        String sha = loadScript(RESTORE_CLICKS_SCRIPT.getScriptAsString());
+        executePipelined(connection -> {
+            for (int i = 0; i < shortUrls.size(); i++) {
+                ClickCounter counter = clickCounter(shortUrls.get(i));
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 2,
+                        bytes(counter.getLinkKey()), bytes(counter.getCountKey()), bytes(counter.getLinkField()),
+                        bytes(counter.getCountField()), bytes(String.valueOf(clickCounts.get(i))));
+            }
+        });
+    }
+
+    /**
+     * Reads entity hashes by exact id in one pipeline.
+     *
+     * @return The entities, index-aligned with ids; null where the hash does not exist.
+     */
+    private List<Url> readEntities(List<String> ids) {
+        List<Url> urls = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return urls;
+        }
+
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String id : ids) {
+                connection.hashCommands().hGetAll(bytes(UrlKeys.hashKey(id)));
+            }
+            return null;
+        });
+        for (int i = 0; i < ids.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> fields = (Map<String, String>) replies.get(i);
+            urls.add(fields == null || fields.isEmpty() ? null : toUrl(ids.get(i), fields));
+        }
+        return urls;
+    }
+
+    private static Url toUrl(String id, Map<String, String> fields) {
+        Url url = new Url(fields.get("longUrl"), fields.getOrDefault("shortUrl", id));
+        String clickCount = fields.get("clickCount");
+        if (clickCount != null) {
+            url.setClickCount(Long.parseLong(clickCount));
+        }
+        String expiresAt = fields.get(UrlKeys.EXPIRES_AT_FIELD);
+        if (expiresAt != null) {
+            url.setExpiresAt(Long.parseLong(expiresAt));
+        }
+        return url;
+    }
+
+    protected static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static <T> RedisScript<T> script(String location, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(resultType);
+        return script;
+    }
+
+    /**
+     * Loads a script into the script cache.
+     *
+     * @return The script's SHA1, for EVALSHA inside a pipeline.
+     */
+    protected String loadScript(String script) {
+        byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+        return redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands()
+                .scriptLoad(bytes));
+    }
+
+    /**
+     * Runs commands in a pipeline, keeping the replies that succeeded when some fail.
+     *
+     * @return The replies, one per command; failed commands hold their exception.
+     */
+    protected List<Object> executePipelined(Consumer<RedisConnection> commands) {
+        try {
+            return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                commands.accept(connection);
+                return null;
+            });
+        } catch (RedisPipelineException e) {
+            return e.getPipelineResult();
+        }
+    }
+
+    /**
+     * Decodes pipelined script replies into reservations, null for failed calls.
+     */
+    protected static List<Reservation> toReservations(List<Object> replies) {
+        List<Reservation> reservations = new ArrayList<>(replies.size());
+        for (Object reply : replies) {
+            reservations.add(reply instanceof List ? ReservationScripts.toReservation((List<?>) reply) : null);
+        }
+        return reservations;
+    }
+}
@@ -0,0 +1,279 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.analytics.ClickAnalytics;
+import com.mattfogz.shortyback.analytics.TrendingTracker;
+import com.mattfogz.shortyback.repository.UrlStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Write-behind buffer for click counts.
+ *
+ * Redirects only bump a striped in-memory counter per short URL. A scheduled
+ * flush drains all counters and applies them to Redis as one pipelined batch of
+ * atomic increments, so the redirect path does no Redis write and concurrent
+ * clicks cannot overwrite each other. Counts reach Redis within
+ * {@code shorty.clicks.flush-interval-ms}, and are flushed once more on shutdown.
+ * Each increment also feeds the link's click time series (see
+ * {@link ClickAnalytics}) and, once stored, the {@link TrendingTracker}; clicks
+ * are attributed to the minute they are flushed in. With sharded storage, each
+ * server gets its own pipeline.
+ *
+ * A pipeline can fail after Redis applied part of it, e.g. when the connection
+ * drops mid-batch. Every pipeline is therefore a batch with its own id, and the
+ * script marks each entry it applies in a bitmap named after the batch. A failed
+ * batch is retried as it was, with the same id, so entries that did get applied
+ * are skipped instead of counted twice. Until it succeeds, newer clicks wait in
+ * memory.
+ */
+@Component
+public class ClickCountBuffer {
+
+    private static final byte[] RECORD_SCRIPT = ClickAnalytics.RECORD_SCRIPT.getScriptAsString()
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final Logger log = LoggerFactory.getLogger(ClickCountBuffer.class);
+
+    // Bitmaps of the entries applied per batch; kept long enough for a retry after an outage
+    private static final String BATCH_KEY_PREFIX = "shorty:flushed:";
+    private static final Duration BATCH_TTL = Duration.ofHours(1);
+
+    // Most clicks one report may add to a short URL, so a bad report cannot skew counts much
+    public static final long MAX_REPORTED_CLICKS = 1_000_000;
+
+    // Pending, unflushed clicks per canonical short URL
+    private final ConcurrentMap<String, LongAdder> pending = new ConcurrentHashMap<>();
+
+    // Counters removed for being idle during the previous flush. A redirect that fetched
+    // one just before its removal may still bump it, so it is drained once more.
+    private List<Map.Entry<String, LongAdder>> retired = new ArrayList<>();
+
+    // Batches whose pipeline failed, retried as they are; replaced as a whole, so readers need no lock
+    private volatile List<Batch> failed = Collections.emptyList();
+
+    @Autowired
+    private ClickAnalytics clickAnalytics;
+
+    @Autowired
+    private TrendingTracker trendingTracker;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    /**
+     * Records one click. Never touches Redis.
+     *
+     * @param shortUrl The canonical short URL (the stored id).
+     */
+    public void increment(String shortUrl) {
+        pending.computeIfAbsent(shortUrl, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records clicks counted elsewhere, e.g. redirects a CDN served from its cache.
+     *
+     * @param shortUrl The canonical short URL (the stored id).
+     * @param clicks   The number of clicks, at least 1.
+     */
+    public void add(String shortUrl, long clicks) {
+        pending.computeIfAbsent(shortUrl, key -> new LongAdder()).add(clicks);
+    }
+
+    /**
+     * Returns the clicks recorded for a short URL that have not reached Redis yet.
+     *
+     * @param shortUrl The canonical short URL (the stored id).
+     * @return The number of unflushed clicks.
+     */
+    public long getPending(String shortUrl) {
+        LongAdder counter = pending.get(shortUrl);
+        long clicks = counter == null ? 0 : counter.sum();
+        for (Batch batch : failed) {
+            clicks += batch.clicks.getOrDefault(shortUrl, 0L);
+        }
+        return clicks;
+    }
+
+    /**
+     * @return The number of short URLs with a live pending counter.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Drops any unflushed clicks for a short URL, e.g. after it has been deleted.
+     *
+     * @param shortUrl The canonical short URL (the stored id).
+     */
+    public void discard(String shortUrl) {
+        LongAdder counter = pending.remove(shortUrl);
+        if (counter != null) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Applies all pending clicks to Redis in a single pipelined batch per server.
+     * Runs on a fixed delay and on shutdown. Failed batches are retried first, and
+     * pending clicks are only drained once none is left.
+     */
+    @Scheduled(fixedDelayString = "${shorty.clicks.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized void flush() {
+        List<Batch> retries = failed;
+        if (!retries.isEmpty()) {
+            failed = Collections.emptyList();
+            List<Batch> stillFailed = new ArrayList<>();
+            for (Batch retry : retries) {
+                apply(retry, stillFailed);
+            }
+            failed = stillFailed;
+            if (!stillFailed.isEmpty()) {
+                // Redis is still failing; newer clicks keep adding up in memory meanwhile
+                return;
+            }
+        }
+
+        Map<String, Long> batch = new LinkedHashMap<>();
+        List<Map.Entry<String, LongAdder>> idle = new ArrayList<>();
+
+        for (Map.Entry<String, LongAdder> entry : pending.entrySet()) {
+            // sumThenReset swaps each cell to zero, so concurrent clicks land in the next batch
+            long delta = entry.getValue().sumThenReset();
+            if (delta > 0) {
+                batch.merge(entry.getKey(), delta, Long::sum);
+            } else if (pending.remove(entry.getKey(), entry.getValue())) {
+                idle.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        for (Map.Entry<String, LongAdder> entry : retired) {
+            long delta = entry.getValue().sumThenReset();
+            if (delta > 0) {
+                batch.merge(entry.getKey(), delta, Long::sum);
+            }
+        }
+        retired = idle;
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Batch> stillFailed = new ArrayList<>();
+        for (Batch perServer : split(batch, urlStore::redisFor, true, Instant.now())) {
+            apply(perServer, stillFailed);
+        }
+        failed = stillFailed;
+    }
+
+    /**
+     * Splits clicks into one batch per Redis server.
+     *
+     * @param server       Picks the server of a short URL; null skips it.
+     * @param retryUnmoved Whether to hand back clicks of links missing on their
+     *                     server that a rebalance may not have moved yet.
+     */
+    private List<Batch> split(Map<String, Long> clicks, Function<String, StringRedisTemplate> server,
+            boolean retryUnmoved, Instant at) {
+        Map<StringRedisTemplate, Map<String, Long>> byServer = new LinkedHashMap<>();
+        clicks.forEach((shortUrl, delta) -> {
+            StringRedisTemplate redisTemplate = server.apply(shortUrl);
+            if (redisTemplate != null) {
+                byServer.computeIfAbsent(redisTemplate, key -> new LinkedHashMap<>()).put(shortUrl, delta);
+            }
+        });
+
+        List<Batch> batches = new ArrayList<>(byServer.size());
+        byServer.forEach((redisTemplate, serverClicks) -> batches.add(new Batch(redisTemplate, serverClicks,
+                retryUnmoved, at)));
+        return batches;
+    }
+
+    /**
+     * Applies a batch with one pipeline, adding it to the failures if the pipeline fails.
+     */
+    private void apply(Batch batch, List<Batch> failures) {
+        List<Object> totals;
+        try {
+            totals = batch.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                int index = 0;
+                for (Map.Entry<String, Long> entry : batch.clicks.entrySet()) {
+                    record(connection, batch, entry.getKey(), entry.getValue(), index++);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // Part of the batch may have been applied; the retry skips that part
+            failures.add(batch);
+            log.warn("Failed to flush click counts for {} short URLs; will retry", batch.clicks.size(), e);
+            return;
+        }
+
+        Map<String, Long> unmoved = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<String, Long> entry : batch.clicks.entrySet()) {
+            Object total = totals.get(i++);
+            // The script returns 0 when the link is not on this server
+            if (batch.retryUnmoved && Long.valueOf(0).equals(total)
+                    && urlStore.previousRedisFor(entry.getKey()) != null) {
+                unmoved.put(entry.getKey(), entry.getValue());
+            } else {
+                // Only after a successful write, so retried batches are not ranked twice
+                trendingTracker.record(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!unmoved.isEmpty()) {
+            // Links a rebalance has yet to move are still counted where they were
+            for (Batch previous : split(unmoved, urlStore::previousRedisFor, false, batch.at)) {
+                apply(previous, failures);
+            }
+        }
+    }
+
+    private void record(RedisConnection connection, Batch batch, String shortUrl, long delta, int index) {
+        connection.scriptingCommands().eval(RECORD_SCRIPT, ReturnType.INTEGER, ClickAnalytics.RECORD_KEY_COUNT,
+                clickAnalytics.recordKeysAndArgs(urlStore.clickCounter(shortUrl), shortUrl, delta, batch.at,
+                        batch.key, index, BATCH_TTL));
+    }
+
+    /**
+     * Clicks sent to one Redis server in one pipeline. A retry sends the same
+     * entries in the same order under the same key.
+     */
+    private static final class Batch {
+        final String key = BATCH_KEY_PREFIX + UUID.randomUUID();
+        final StringRedisTemplate redisTemplate;
+        final Map<String, Long> clicks;
+        final boolean retryUnmoved;
+        final Instant at;
+
+        Batch(StringRedisTemplate redisTemplate, Map<String, Long> clicks, boolean retryUnmoved, Instant at) {
+            this.redisTemplate = redisTemplate;
+            this.clicks = clicks;
+            this.retryUnmoved = retryUnmoved;
+            this.at = at;
+        }
+    }
+}
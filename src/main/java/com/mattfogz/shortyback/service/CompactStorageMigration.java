@@ -0,0 +1,106 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.repository.UrlPage;
+import com.mattfogz.shortyback.repository.UrlPageScripts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * One-off copy of the links stored in the entity layout into the compact layout,
+ * run on the first start with {@code shorty.storage.layout=compact}.
+ *
+ * Links are read page by page and written with one pipelined import script call
+ * each. The copy is idempotent: already copied links only get their click count
+ * refreshed, so it can be re-run (by deleting {@link #MARKER_KEY}) right before
+ * the last entity-layout instance is stopped. The entity keys are left in place,
+ * so switching back remains possible.
+ */
+@Component
+@ConditionalOnProperty(name = "shorty.storage.layout", havingValue = "compact")
+public class CompactStorageMigration implements ApplicationRunner {
+
+    // Marker key written once the entity layout has been copied
+    static final String MARKER_KEY = "shorty:migration:compact-layout";
+
+    private static final Logger log = LoggerFactory.getLogger(CompactStorageMigration.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private CompactLayout compactLayout;
+
+    @Autowired
+    private ShortUrlFilter shortUrlFilter;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(MARKER_KEY))) {
+            return;
+        }
+
+        // EVALSHA inside a pipeline cannot fall back to EVAL, so make sure the script is loaded
+        byte[] script = CompactLayout.IMPORT_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        String sha = redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands()
+                .scriptLoad(script));
+
+        long copied = 0;
+        long refreshed = 0;
+        long conflicts = 0;
+        String cursor = UrlPage.START_CURSOR;
+        do {
+            List<?> reply = redisTemplate.execute(UrlPageScripts.PAGE_SCRIPT, UrlPageScripts.keys(),
+                    UrlPageScripts.args(cursor, UrlPageScripts.MAX_PAGE_SIZE));
+            UrlPage page = UrlPageScripts.toPage(reply);
+
+            for (Object result : importPage(sha, page.getUrls())) {
+                long status = (Long) result;
+                if (status == 1) {
+                    copied++;
+                } else if (status == 0) {
+                    refreshed++;
+                } else {
+                    conflicts++;
+                }
+            }
+            cursor = page.getNextCursor();
+        } while (!UrlPage.START_CURSOR.equals(cursor));
+
+        redisTemplate.opsForValue().set(MARKER_KEY, String.valueOf(System.currentTimeMillis()));
+        if (conflicts > 0) {
+            // Case variants of one short URL; the compact layout keeps one per folded short URL
+            log.warn("Skipped {} links whose short URL differs only in case from a copied one", conflicts);
+        }
+        log.info("Copied {} links to the compact layout ({} already present)", copied, refreshed);
+
+        if (copied > 0) {
+            // The startup rebuild may have run before the copy; reload so the new links are not rejected
+            shortUrlFilter.rebuild();
+        }
+    }
+
+    // A failed call fails the start, so a partial copy is never marked complete
+    private List<Object> importPage(String sha, List<Url> urls) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Url url : urls) {
+                List<String> keys = compactLayout.importKeys(url);
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, keys.size(),
+                        CompactLayout.keysAndArgs(keys, compactLayout.importArgs(url)));
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,70 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.exception.UrlException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when new links expire: after {@code shorty.expiry.default-ttl-days},
+ * unless the create request asks for a lifetime of its own.
+ */
+@Component
+public class LinkExpiry {
+
+    // Longest lifetime a create may ask for; keeps expiry times exact in Lua's doubles
+    private static final long MAX_TTL_SECONDS = TimeUnit.DAYS.toSeconds(36500);
+
+    private final long defaultTtlSeconds;
+
+    /**
+     * @param defaultTtlDays Lifetime of links created without one of their own; 0 for no expiry.
+     */
+    public LinkExpiry(@Value("${shorty.expiry.default-ttl-days:0}") long defaultTtlDays) {
+        if (defaultTtlDays < 0 || TimeUnit.DAYS.toSeconds(defaultTtlDays) > MAX_TTL_SECONDS) {
+            throw new IllegalArgumentException("shorty.expiry.default-ttl-days must be between 0 and 36500");
+        }
+        this.defaultTtlSeconds = TimeUnit.DAYS.toSeconds(defaultTtlDays);
+    }
+
+    /**
+     * @param expiresInSeconds The lifetime a create request asked for: null for the
+     *                         default, 0 for a link that never expires.
+     * @return The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @throws UrlException if the lifetime is negative or too long
+     */
+    public long expiresAt(Long expiresInSeconds) {
+        long ttlSeconds = expiresInSeconds == null ? defaultTtlSeconds : expiresInSeconds;
+        if (ttlSeconds < 0 || ttlSeconds > MAX_TTL_SECONDS) {
+            throw new UrlException("Expiry must be between 0 and " + MAX_TTL_SECONDS + " seconds.");
+        }
+        return ttlSeconds == 0 ? 0 : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * @param expiresAt An expiry in epoch milliseconds, or 0 for none.
+     * @return The expiry as an ISO-8601 instant for responses, or null for none.
+     */
+    public static String format(long expiresAt) {
+        return expiresAt == 0 ? null : Instant.ofEpochMilli(expiresAt).toString();
+    }
+
+    /**
+     * @param expiresAt An expiry as written by {@link #format}; null or empty for none.
+     * @return The expiry in epoch milliseconds, or 0 for none.
+     * @throws UrlException if the value is not an ISO-8601 instant
+     */
+    public static long parse(String expiresAt) {
+        if (expiresAt == null || expiresAt.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Instant.parse(expiresAt).toEpochMilli();
+        } catch (DateTimeParseException | ArithmeticException e) {
+            throw new UrlException("Invalid expiry: " + expiresAt);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.analytics.ClickAnalytics;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.UrlStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reclaims the memory of expired links. Every {@code shorty.expiry.reap-interval-ms}
+ * it takes the links whose expiry has passed from the expiry index, in batches of
+ * {@code shorty.expiry.reap-batch-size}, and removes what is left of them: index
+ * and dedup entries, click counts, click series and visitor estimates.
+ *
+ * Lookups treat a link as gone from its expiry on, so reaping late only costs
+ * memory. Every instance runs a reaper; each link is removed by exactly one.
+ */
+@Component
+public class LinkReaper {
+
+    // Batches one run may reap before leaving the rest to the next run
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    private static final Logger log = LoggerFactory.getLogger(LinkReaper.class);
+
+    private final int batchSize;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private BoundedCache<CachedLink> redirectCache;
+
+    @Autowired
+    private BoundedCache<String> dedupCache;
+
+    @Autowired
+    private ClickCountBuffer clickCountBuffer;
+
+    @Autowired
+    private VisitorTracker visitorTracker;
+
+    @Autowired
+    private ClickAnalytics clickAnalytics;
+
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    public LinkReaper(@Value("${shorty.expiry.reap-batch-size:500}") int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("shorty.expiry.reap-batch-size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Removes the links that have expired so far, a batch at a time.
+     */
+    @Scheduled(fixedDelayString = "${shorty.expiry.reap-interval-ms:60000}",
+            initialDelayString = "${shorty.expiry.reap-interval-ms:60000}")
+    public void reap() {
+        long now = System.currentTimeMillis();
+        try {
+            for (int batch = 0; batch < MAX_BATCHES_PER_RUN; batch++) {
+                List<Url> reaped = urlStore.reapExpired(now, batchSize);
+                if (!reaped.isEmpty()) {
+                    forget(reaped);
+                }
+                if (reaped.size() < batchSize) {
+                    return;
+                }
+            }
+        } catch (DataAccessException e) {
+            // Nothing is lost: the expiry index still lists whatever was not reaped
+            log.warn("Could not reap expired links: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Drops reaped links from the local caches, and
+     * deletes their click series and visitor estimates.
+     */
+    private void forget(List<Url> reaped) {
+        for (Url link : reaped) {
+            redirectCache.invalidate(link.getShortUrlKey());
+            if (link.getLongUrl() != null) {
+                dedupCache.invalidate(link.getLongUrl());
+            }
+            clickCountBuffer.discard(link.getShortUrl());
+            visitorTracker.discard(link.getShortUrl());
+        }
+
+        // A link has a key per retained series bucket, so send one UNLINK per link,
+        // in a pipeline per server holding them
+        Map<StringRedisTemplate, List<Url>> byServer = new LinkedHashMap<>();
+        for (Url link : reaped) {
+            byServer.computeIfAbsent(urlStore.redisFor(link.getShortUrl()), key -> new ArrayList<>()).add(link);
+            StringRedisTemplate previous = urlStore.previousRedisFor(link.getShortUrl());
+            if (previous != null) {
+                byServer.computeIfAbsent(previous, key -> new ArrayList<>()).add(link);
+            }
+        }
+        for (Map.Entry<StringRedisTemplate, List<Url>> server : byServer.entrySet()) {
+            server.getKey().executePipelined((RedisCallback<Object>) connection -> {
+                for (Url link : server.getValue()) {
+                    List<String> keys = new ArrayList<>(clickAnalytics.retainedKeys(link.getShortUrl()));
+                    keys.add(VisitorTracker.key(link.getShortUrl()));
+                    connection.keyCommands().unlink(keys.stream()
+                            .map(key -> key.getBytes(StandardCharsets.UTF_8))
+                            .toArray(byte[][]::new));
+                }
+                return null;
+            });
+        }
+        urlMetrics.linksReaped(reaped.size());
+    }
+}
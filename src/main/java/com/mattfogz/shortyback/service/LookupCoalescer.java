@@ -0,0 +1,252 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.UrlStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shares Redis round trips between concurrent redirect lookups.
+ *
+ * Concurrent lookups of the same (case-folded) short URL wait for a single
+ * in-flight fetch. While another fetch is already running, lookups of different
+ * short URLs are gathered for up to {@code shorty.lookup.batch.max-wait-micros}
+ * (or until {@code shorty.lookup.batch.max-size} are queued) and read with one
+ * pipelined {@link UrlStore#findByShortUrls(List)} call. The first lookup of a
+ * batch waits out the window and then runs the batch on its own thread, as does
+ * a lookup that fills it; no extra thread is involved. A lookup arriving while
+ * Redis is idle is sent straight away, so batching only adds latency under load.
+ *
+ * A lookup sharing another's fetch gets the stamp the other took before it
+ * started, so a result read before a concurrent change is not cached after the
+ * change invalidated the key (see {@link BoundedCache#put(String, Object, long)}).
+ */
+@Component
+public class LookupCoalescer {
+
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    // One fetch per case-folded short URL; later lookups of the same code wait for it
+    private final ConcurrentMap<String, Fetch> inFlight = new ConcurrentHashMap<>();
+
+    // Fetches (single or batched) currently waiting on Redis
+    private final AtomicInteger fetching = new AtomicInteger();
+
+    // Guards the batch still accepting lookups
+    private final Object lock = new Object();
+    private Batch open;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    public LookupCoalescer(@Value("${shorty.lookup.batch.max-size:32}") int maxBatchSize,
+            @Value("${shorty.lookup.batch.max-wait-micros:200}") long maxWaitMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("shorty.lookup.batch.max-size must be positive");
+        }
+        if (maxWaitMicros < 0) {
+            throw new IllegalArgumentException("shorty.lookup.batch.max-wait-micros must not be negative");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+    }
+
+    /**
+     * Finds a link by short URL, case-insensitively, like
+     * {@link UrlStore#findByShortUrl(String)}, sharing the Redis round trip with
+     * concurrent lookups.
+     *
+     * @param shortUrl The short URL to look up.
+     * @param stamp    The redirect cache {@link BoundedCache#stamp() stamp} taken before this lookup.
+     * @return The link, or empty if none exists, with the stamp to cache it under.
+     */
+    public Found find(String shortUrl, long stamp) {
+        String key = Url.foldShortUrl(shortUrl);
+        Fetch fetch = new Fetch(stamp);
+        Fetch existing = inFlight.putIfAbsent(key, fetch);
+        if (existing != null) {
+            urlMetrics.lookupCoalesced();
+            // The shared fetch may have read Redis before this lookup's stamp
+            return new Found(await(existing), existing.stamp);
+        }
+
+        try {
+            if (maxBatchSize == 1 || maxWaitNanos == 0 || fetching.get() == 0) {
+                fetchOne(shortUrl, fetch);
+            } else {
+                enqueue(shortUrl, fetch);
+            }
+            return new Found(await(fetch), stamp);
+        } finally {
+            inFlight.remove(key, fetch);
+        }
+    }
+
+    private void fetchOne(String shortUrl, CompletableFuture<Optional<Url>> fetch) {
+        fetching.incrementAndGet();
+        try {
+            fetch.complete(urlStore.findByShortUrl(shortUrl));
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+        } finally {
+            fetching.decrementAndGet();
+        }
+    }
+
+    /**
+     * Adds a lookup to the open batch, opening one if needed. Returns once the
+     * batch has been sent if this lookup opened or filled it, right away otherwise.
+     */
+    private void enqueue(String shortUrl, CompletableFuture<Optional<Url>> fetch) {
+        Batch batch;
+        boolean opened = false;
+        boolean filled;
+        synchronized (lock) {
+            if (open == null) {
+                open = new Batch();
+                opened = true;
+            }
+            batch = open;
+            batch.add(shortUrl, fetch);
+            filled = batch.size() >= maxBatchSize;
+            if (filled) {
+                open = null;
+                batch.closed = true;
+            }
+        }
+
+        if (filled) {
+            LockSupport.unpark(batch.opener);
+            send(batch);
+        } else if (opened) {
+            long deadline = batch.openedAt + maxWaitNanos;
+            long remaining;
+            // Whoever fills the batch sends it; otherwise it is sent once the window ends
+            while (!batch.closed && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            synchronized (lock) {
+                if (batch.closed) {
+                    return;
+                }
+                open = null;
+                batch.closed = true;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(Batch batch) {
+        long sentAt = System.nanoTime();
+        urlMetrics.lookupBatch(batch.size());
+        for (long queuedAt : batch.queuedAt) {
+            urlMetrics.lookupQueued(sentAt - queuedAt);
+        }
+
+        fetching.incrementAndGet();
+        List<Url> urls;
+        try {
+            urls = urlStore.findByShortUrls(batch.shortUrls);
+        } catch (RuntimeException e) {
+            batch.fetches.forEach(fetch -> fetch.completeExceptionally(e));
+            return;
+        } finally {
+            fetching.decrementAndGet();
+        }
+        for (int i = 0; i < urls.size(); i++) {
+            batch.fetches.get(i).complete(Optional.ofNullable(urls.get(i)));
+        }
+    }
+
+    private static Optional<Url> await(CompletableFuture<Optional<Url>> fetch) {
+        try {
+            return fetch.join();
+        } catch (CompletionException e) {
+            // Surface the Redis failure itself, as a direct repository call would
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The outcome of {@link #find(String, long)}.
+     */
+    public static final class Found {
+        private final Optional<Url> url;
+        private final long stamp;
+
+        Found(Optional<Url> url, long stamp) {
+            this.url = url;
+            this.stamp = stamp;
+        }
+
+        /**
+         * @return The link, or empty if none exists.
+         */
+        public Optional<Url> getUrl() {
+            return url;
+        }
+
+        /**
+         * @return The stamp taken before the fetch that read the link.
+         */
+        public long getStamp() {
+            return stamp;
+        }
+    }
+
+    /**
+     * A fetch of one short URL, with the stamp its first lookup took.
+     */
+    private static final class Fetch extends CompletableFuture<Optional<Url>> {
+        final long stamp;
+
+        Fetch(long stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Lookups gathered into one pipelined read.
+     */
+    private static final class Batch {
+        final Thread opener = Thread.currentThread();
+        final long openedAt = System.nanoTime();
+        final List<String> shortUrls = new ArrayList<>();
+        final List<CompletableFuture<Optional<Url>>> fetches = new ArrayList<>();
+        final List<Long> queuedAt = new ArrayList<>();
+
+        // Set under the lock once the batch stops accepting lookups
+        volatile boolean closed;
+
+        void add(String shortUrl, CompletableFuture<Optional<Url>> fetch) {
+            shortUrls.add(shortUrl);
+            fetches.add(fetch);
+            queuedAt.add(System.nanoTime());
+        }
+
+        int size() {
+            return shortUrls.size();
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.analytics.ClickAnalytics;
+import com.mattfogz.shortyback.analytics.ClickRange;
+import com.mattfogz.shortyback.analytics.TrendingTracker;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.exception.UrlException;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.ReactiveUrlStore;
+import com.mattfogz.shortyback.repository.Reservation;
+import com.mattfogz.shortyback.shortcode.ShortCodeGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Non-blocking counterpart of {@link UrlService}, used when the application runs
+ * as a reactive (WebFlux) web application.
+ *
+ * Shares normalization, the redirect cache, the click count buffer and the short
+ * code generator with the servlet stack, and talks to Redis through
+ * {@link ReactiveUrlStore}, so no request thread ever blocks on Redis.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUrlService {
+
+    // Reservations a batch keeps in flight at once
+    private static final int BATCH_CONCURRENCY = 64;
+
+    @Autowired
+    private ReactiveUrlStore urlStore;
+
+    @Autowired
+    private BoundedCache<CachedLink> redirectCache;
+
+    @Autowired
+    private BoundedCache<String> dedupCache;
+
+    @Autowired
+    private ClickCountBuffer clickCountBuffer;
+
+    @Autowired
+    private ShortCodeGenerator shortCodeGenerator;
+
+    @Autowired
+    private UrlNormalizer urlNormalizer;
+
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    @Autowired
+    private ClickAnalytics clickAnalytics;
+
+    @Autowired
+    private TrendingTracker trendingTracker;
+
+    @Autowired
+    private VisitorTracker visitorTracker;
+
+    @Autowired
+    private ShortUrlFilter shortUrlFilter;
+
+    @Autowired
+    private LinkExpiry linkExpiry;
+
+    /**
+     * Creates a short URL for the given long URL, reusing an existing short URL for
+     * the same long URL unless a custom short URL is requested.
+     *
+     * @param longUrl        Original long URL
+     * @param customShortUrl Custom short URL provided by the user (can be null)
+     * @return The created (or reused) short URL; errors with UrlException if the
+     *         custom short URL is taken or the URL format is invalid
+     */
+    public Mono<String> createShortUrl(String longUrl, String customShortUrl) {
+        return createShortUrl(longUrl, customShortUrl, null);
+    }
+
+    /**
+     * Creates a short URL like {@link #createShortUrl(String, String)}, expiring
+     * after the given lifetime. A reused link's expiry is extended so that it
+     * lives at least as long as the requested one.
+     *
+     * @param longUrl          Original long URL
+     * @param customShortUrl   Custom short URL provided by the user (can be null)
+     * @param expiresInSeconds Lifetime of the link; null for the default, 0 for none
+     * @return The created (or reused) short URL; errors with UrlException if the
+     *         custom short URL is taken or the URL format or lifetime is invalid
+     */
+    public Mono<String> createShortUrl(String longUrl, String customShortUrl, Long expiresInSeconds) {
+        String normalizedLongUrl = urlNormalizer.normalize(longUrl);
+        if (!urlNormalizer.isValid(normalizedLongUrl)) {
+            urlMetrics.validationFailure();
+            return Mono.error(new UrlException("Invalid URL format."));
+        }
+        return createLink(normalizedLongUrl, customShortUrl, expiresInSeconds).map(Reservation::getShortUrl);
+    }
+
+    /**
+     * Stores or reuses the link of a long URL already normalized and validated.
+     *
+     * @param normalizedLongUrl The normalized long URL
+     * @param customShortUrl    Custom short URL provided by the user (can be null)
+     * @param expiresInSeconds  Lifetime of the link; null for the default, 0 for none
+     * @return The reservation, created or existing; errors with UrlException if the
+     *         custom short URL is taken or the lifetime is invalid
+     */
+    private Mono<Reservation> createLink(String normalizedLongUrl, String customShortUrl, Long expiresInSeconds) {
+        boolean custom = customShortUrl != null && !customShortUrl.isEmpty();
+        long expiresAt;
+        try {
+            expiresAt = linkExpiry.expiresAt(expiresInSeconds);
+        } catch (UrlException e) {
+            return Mono.error(e);
+        }
+        // The dedup cache only holds links that live at least as long as the default
+        boolean defaultExpiry = expiresInSeconds == null;
+
+        // A recently created link for this long URL is only a hint: it is tried
+        // first, and the reservation still confirms it (and extends its expiry)
+        String hint = !custom && defaultExpiry ? cachedShortCode(normalizedLongUrl) : null;
+        Mono<String> candidate = custom ? Mono.just(customShortUrl)
+                : hint != null ? Mono.just(hint) : nextShortCode(normalizedLongUrl);
+        return candidate
+                .flatMap(shortUrl -> urlStore.reserve(shortUrl, normalizedLongUrl, !custom, expiresAt))
+                .flatMap(reservation -> {
+                    switch (reservation.getStatus()) {
+                        case CREATED:
+                            // Drop any negative cache entry left by earlier lookups of this code
+                            redirectCache.invalidate(Url.foldShortUrl(reservation.getShortUrl()));
+                            if (defaultExpiry) {
+                                dedupCache.put(normalizedLongUrl, reservation.getShortUrl());
+                            }
+                            return shortUrlFilter.addedReactive(reservation.getShortUrl())
+                                    .thenReturn(reservation);
+                        case EXISTING:
+                            // The reused link's expiry may have been extended
+                            redirectCache.invalidate(Url.foldShortUrl(reservation.getShortUrl()));
+                            if (defaultExpiry) {
+                                dedupCache.put(normalizedLongUrl, reservation.getShortUrl());
+                            }
+                            shortUrlFilter.confirmed(reservation.getShortUrl());
+                            return Mono.just(reservation);
+                        default:
+                            if (custom) {
+                                return Mono.error(new UrlException("Custom short URL already exists. Please choose another"));
+                            }
+                            // A generated code clashed with a custom or legacy one, or the
+                            // cached code was deleted and claimed by someone else; forget
+                            // the cached one and try the next
+                            urlMetrics.shortCodeRetry();
+                            if (reservation.getShortUrl().equals(hint)) {
+                                dedupCache.invalidate(normalizedLongUrl);
+                            }
+                            return createLink(normalizedLongUrl, null, expiresInSeconds);
+                    }
+                });
+    }
+
+    /**
+     * Creates short URLs for a chunk of links. Long URLs are normalized and
+     * validated up front in parallel, and up to {@code BATCH_CONCURRENCY}
+     * reservations are in flight at once on the shared connection, which Lettuce
+     * pipelines. A bad entry only fails its own result.
+     *
+     * @param longUrls        Original long URLs
+     * @param customShortUrls Custom short URLs, index-aligned with longUrls (entries can be null)
+     * @return One result per entry, in order: {@code shortUrl}, {@code longUrl} and
+     *         {@code status} ("created" or "existing"), or {@code error}
+     */
+    public Flux<Map<String, String>> createShortUrls(List<String> longUrls, List<String> customShortUrls) {
+        return createShortUrls(longUrls, customShortUrls, Collections.nCopies(longUrls.size(), null));
+    }
+
+    /**
+     * Creates short URLs for a chunk of links like {@link #createShortUrls(List, List)},
+     * each expiring after its own lifetime.
+     *
+     * @param longUrls         Original long URLs
+     * @param customShortUrls  Custom short URLs, index-aligned with longUrls (entries can be null)
+     * @param expiresInSeconds Lifetimes, index-aligned with longUrls; null entries get the default
+     * @return One result per entry, in order: {@code shortUrl}, {@code longUrl} and
+     *         {@code status} ("created" or "existing"), or {@code error}
+     */
+    public Flux<Map<String, String>> createShortUrls(List<String> longUrls, List<String> customShortUrls,
+            List<Long> expiresInSeconds) {
+        return Mono.fromCallable(() -> {
+            String[] normalized = new String[longUrls.size()];
+            IntStream.range(0, normalized.length).parallel().forEach(i -> {
+                String longUrl = longUrls.get(i);
+                String candidate = longUrl == null ? null : urlNormalizer.normalize(longUrl);
+                if (candidate != null && urlNormalizer.isValid(candidate)) {
+                    normalized[i] = candidate;
+                }
+            });
+            return normalized;
+        }).subscribeOn(Schedulers.parallel()).flatMapMany(normalized -> Flux.range(0, normalized.length)
+                .flatMapSequential(i -> {
+                    Map<String, String> result = new HashMap<>();
+                    if (normalized[i] == null) {
+                        urlMetrics.validationFailure();
+                        result.put("error", "Invalid URL format.");
+                        return Mono.just(result);
+                    }
+                    return createLink(normalized[i], customShortUrls.get(i), expiresInSeconds.get(i))
+                            .map(reservation -> {
+                                result.put("shortUrl", reservation.getShortUrl());
+                                result.put("longUrl", normalized[i]);
+                                result.put("status", reservation.getStatus() == Reservation.Status.CREATED
+                                        ? "created" : "existing");
+                                return result;
+                            })
+                            .onErrorResume(UrlException.class, e -> {
+                                result.put("error", e.getMessage());
+                                return Mono.just(result);
+                            });
+                }, BATCH_CONCURRENCY));
+    }
+
+    /**
+     * Retrieves the redirect target for a short URL (case-insensitive).
+     *
+     * @param shortUrl The short URL to lookup.
+     * @return The normalized long URL; errors with UrlException if not found
+     */
+    public Mono<String> getLongUrl(String shortUrl) {
+        return findLongUrl(shortUrl)
+                .switchIfEmpty(Mono.error(() -> new UrlException("Short URL not found.")));
+    }
+
+    /**
+     * Retrieves the redirect target for a short URL (case-insensitive), completing
+     * empty instead of erroring when it does not exist.
+     *
+     * @param shortUrl The short URL to lookup.
+     * @return The normalized long URL, or empty if not found
+     */
+    public Mono<String> findLongUrl(String shortUrl) {
+        return findLink(shortUrl).map(CachedLink::getLongUrl);
+    }
+
+    /**
+     * Retrieves the link behind a short URL, with everything a redirect response
+     * needs: the canonical short URL, the redirect target and the expiry.
+     *
+     * @param shortUrl The short URL to lookup (case-insensitive).
+     * @return The link, or empty if not found
+     */
+    public Mono<CachedLink> findLink(String shortUrl) {
+        return resolveLink(shortUrl)
+                .doOnNext(link -> urlMetrics.lookup(true))
+                .switchIfEmpty(Mono.fromRunnable(() -> urlMetrics.lookup(false)));
+    }
+
+    /**
+     * Adds clicks that were counted outside this service, such as redirects that
+     * browsers or CDNs served from their cache and reported afterwards.
+     *
+     * @param clicks Clicks per short URL (case-insensitive).
+     * @return The number of short URLs whose clicks were recorded; unknown short
+     *         URLs and counts outside 1 to {@link ClickCountBuffer#MAX_REPORTED_CLICKS} are skipped
+     */
+    public Mono<Integer> recordClicks(Map<String, Long> clicks) {
+        return Flux.fromIterable(clicks.entrySet())
+                .filter(entry -> entry.getValue() != null && entry.getValue() >= 1
+                        && entry.getValue() <= ClickCountBuffer.MAX_REPORTED_CLICKS)
+                .flatMap(entry -> resolveLink(entry.getKey())
+                        .doOnNext(link -> clickCountBuffer.add(link.getShortUrl(), entry.getValue())),
+                        BATCH_CONCURRENCY)
+                .count()
+                .map(Long::intValue)
+                .doOnNext(urlMetrics::clicksReported);
+    }
+
+    /**
+     * Retrieves when a short URL expires, through the redirect cache.
+     *
+     * @param shortUrl The short URL to look up (case-insensitive).
+     * @return The expiry in epoch milliseconds, or 0 if the link never expires or does not exist
+     */
+    public Mono<Long> findExpiresAt(String shortUrl) {
+        return resolveLink(shortUrl).map(CachedLink::getExpiresAt).defaultIfEmpty(0L);
+    }
+
+    /**
+     * Records a click for a short URL in the write-behind buffer.
+     *
+     * @param shortUrl  Short URL to increment click count for.
+     * @param visitorId Opaque visitor id for the unique visitor estimate, or null.
+     * @return Completes once the click is buffered; errors with UrlException if not found
+     */
+    public Mono<Void> incrementClickCount(String shortUrl, String visitorId) {
+        return resolveLink(shortUrl)
+                .switchIfEmpty(Mono.error(() -> new UrlException("Short URL not found. Cannot increment click count.")))
+                .doOnNext(link -> {
+                    clickCountBuffer.increment(link.getShortUrl());
+                    if (visitorId != null) {
+                        visitorTracker.record(link.getShortUrl(), visitorId);
+                    }
+                })
+                .then();
+    }
+
+    /**
+     * Retrieves the click count for the given short URL, including unflushed clicks.
+     *
+     * @param shortUrl Short URL to retrieve the click count for.
+     * @return Click count; errors with UrlException if not found
+     */
+    public Mono<Long> getClickCount(String shortUrl) {
+        return urlStore.findByShortUrl(shortUrl)
+                .map(this::totalClickCount)
+                .switchIfEmpty(Mono.error(() -> new UrlException("Short URL not found.")));
+    }
+
+    /**
+     * Updates the long URL of every short URL matching case-insensitively.
+     *
+     * @param shortUrl   Short URL to update (case-insensitive).
+     * @param newLongUrl New long URL to associate with the short URL
+     * @return Completes once updated; errors with UrlException if not found
+     */
+    public Mono<Void> updateUrl(String shortUrl, String newLongUrl) {
+        String normalizedLongUrl = urlNormalizer.normalize(newLongUrl);
+
+        return urlStore.findAllByShortUrl(shortUrl)
+                .concatMap(url -> urlStore.updateLongUrl(url, normalizedLongUrl)
+                        .doOnSuccess(done -> {
+                            redirectCache.invalidate(url.getShortUrlKey());
+                            dedupCache.invalidate(url.getLongUrl());
+                        })
+                        .thenReturn(url))
+                .hasElements()
+                .flatMap(found -> found ? Mono.<Void>empty()
+                        : Mono.error(new UrlException("Short URL not found. Cannot update.")));
+    }
+
+    /**
+     * Deletes the short URL (case-insensitive) and its index entries.
+     *
+     * @param shortUrl Short URL to delete
+     * @return Completes once deleted; errors with UrlException if not found
+     */
+    public Mono<Void> deleteShortUrl(String shortUrl) {
+        return urlStore.findByShortUrl(shortUrl)
+                .switchIfEmpty(Mono.error(() -> new UrlException("Short URL not found. Cannot delete.")))
+                .flatMap(url -> urlStore.delete(url).doOnSuccess(done -> {
+                    redirectCache.invalidate(url.getShortUrlKey());
+                    dedupCache.invalidate(url.getLongUrl());
+                    clickCountBuffer.discard(url.getShortUrl());
+                    visitorTracker.discard(url.getShortUrl());
+                }).then(Mono.defer(() -> {
+                    List<String> analyticsKeys = new ArrayList<>(clickAnalytics.retainedKeys(url.getShortUrl()));
+                    analyticsKeys.add(VisitorTracker.key(url.getShortUrl()));
+                    return urlStore.unlink(url.getShortUrl(), analyticsKeys);
+                })));
+    }
+
+    /**
+     * Estimates the number of distinct visitors of a short URL. Visits reach the
+     * estimate with the next flush, after {@code shorty.clicks.flush-interval-ms}.
+     *
+     * @param shortUrl Short URL to report on (case-insensitive).
+     * @return The estimated unique visitors (standard error 0.81%); errors with
+     *         UrlException if the short URL is not found
+     */
+    public Mono<Long> getUniqueVisitors(String shortUrl) {
+        return urlStore.findByShortUrl(shortUrl)
+                .switchIfEmpty(Mono.error(() -> new UrlException("Short URL not found.")))
+                .flatMap(url -> urlStore.countVisitors(url.getShortUrl()));
+    }
+
+    /**
+     * Returns the most clicked links of the recent past, as seen by this instance.
+     *
+     * @param windowMinutes Window length in minutes, 1 to 60.
+     * @param limit         Maximum number of links.
+     * @return Links with their estimated {@code clicks} and {@code error} bound, most
+     *         clicked first; errors with IllegalArgumentException if the window or limit is out of range
+     */
+    public Mono<List<Map<String, Object>>> getTrending(int windowMinutes, int limit) {
+        return Mono.fromCallable(() -> trendingTracker.top(windowMinutes, limit));
+    }
+
+    /**
+     * Retrieves the click time series of a short URL. The latest bucket may lag
+     * by up to {@code shorty.clicks.flush-interval-ms}.
+     *
+     * @param shortUrl    Short URL to report on (case-insensitive).
+     * @param granularity "minute", "hour" or "day"; null means "hour".
+     * @param from        ISO-8601 start instant, or null for the default window.
+     * @param to          ISO-8601 end instant, or null for now.
+     * @return The series with its total; errors with UrlException if not found, or
+     *         IllegalArgumentException if a parameter is malformed
+     */
+    public Mono<Map<String, Object>> getClickStats(String shortUrl, String granularity, String from, String to) {
+        return urlStore.findByShortUrl(shortUrl)
+                .switchIfEmpty(Mono.error(() -> new UrlException("Short URL not found.")))
+                .flatMap(url -> {
+                    ClickRange range = clickAnalytics.range(url.getShortUrl(), granularity, from, to);
+                    return urlStore.readClickRange(range).map(range::toStats);
+                });
+    }
+
+    /**
+     * Streams every URL mapping with its click count.
+     *
+     * @return URL mappings, emitted as they are read from Redis
+     */
+    public Flux<Map<String, String>> getAllUrlsWithClickCount() {
+        return urlStore.findAll().map(this::toUrlInfo);
+    }
+
+    /**
+     * Retrieves one page of URL mappings with click counts.
+     *
+     * @param cursor Cursor returned by the previous page; null or empty to start
+     * @param size   Requested page size
+     * @return Map with the page's {@code urls} and the {@code nextCursor} (null on the last page)
+     */
+    public Mono<Map<String, Object>> getUrlPageWithClickCount(String cursor, int size) {
+        return Mono.defer(() -> urlStore.findPage(cursor, size)).map(page -> {
+            List<Map<String, String>> urlList = new ArrayList<>(page.getUrls().size());
+            for (Url url : page.getUrls()) {
+                urlList.add(toUrlInfo(url));
+            }
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("urls", urlList);
+            response.put("nextCursor", page.hasNext() ? page.getNextCursor() : null);
+            return response;
+        });
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters of the redirect cache.
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Long> getRedirectCacheStats() {
+        return redirectCache.stats();
+    }
+
+    /**
+     * Looks up the short URL last handed out for a long URL, as a candidate to
+     * reserve; see {@code UrlService#cachedShortCode}.
+     */
+    private String cachedShortCode(String longUrl) {
+        String cached = dedupCache.lookup(longUrl).getValue();
+        return cached != null && urlStore.colocated(cached, longUrl) ? cached : null;
+    }
+
+    /**
+     * Draws a generated short URL for a long URL; with sharded storage, one that
+     * lives on the long URL's shard (see {@link ReactiveUrlStore#colocated}).
+     */
+    private Mono<String> nextShortCode(String longUrl) {
+        // The generator leases id blocks from Redis with a blocking call, once per block
+        return Mono.fromCallable(() -> {
+            String shortUrl = shortCodeGenerator.nextShortCode();
+            while (!urlStore.colocated(shortUrl, longUrl)) {
+                shortUrl = shortCodeGenerator.nextShortCode();
+            }
+            return shortUrl;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<CachedLink> resolveLink(String shortUrl) {
+        if (shortUrl == null) {
+            return Mono.empty();
+        }
+
+        String key = Url.foldShortUrl(shortUrl);
+        long now = System.currentTimeMillis();
+        BoundedCache.Lookup<CachedLink> cached = redirectCache.lookup(key);
+        if (cached.isCached()) {
+            // An expired entry may have been extended by a create since it was cached; ask Redis
+            if (cached.getValue() == null || !cached.getValue().isExpired(now)) {
+                return Mono.justOrEmpty(cached.getValue());
+            }
+            redirectCache.invalidate(key);
+        }
+        // Codes that were never created are turned away without a Redis round trip
+        if (!shortUrlFilter.mightContain(key)) {
+            return Mono.empty();
+        }
+
+        // Taken before the read, so a result predating a concurrent update or delete is not cached
+        long stamp = redirectCache.stamp();
+        return urlStore.findByShortUrl(shortUrl)
+                .switchIfEmpty(Mono.fromRunnable(() -> shortUrlFilter.falsePositive(key)))
+                // Expired links are gone as far as clients are concerned, even before the reaper removes them
+                .filter(url -> !url.isExpired(now))
+                .map(url -> new CachedLink(url.getShortUrl(), urlNormalizer.toRedirectUrl(url.getLongUrl()),
+                        url.getExpiresAt()))
+                .doOnNext(link -> redirectCache.put(key, link, stamp))
+                .switchIfEmpty(Mono.fromRunnable(() -> redirectCache.putAbsent(key, stamp)));
+    }
+
+    private Map<String, String> toUrlInfo(Url url) {
+        Map<String, String> urlInfo = new HashMap<>();
+        urlInfo.put("longUrl", url.getLongUrl());
+        urlInfo.put("shortUrl", url.getShortUrl());
+        urlInfo.put("clickCount", String.valueOf(totalClickCount(url)));
+        if (url.getExpiresAt() != 0) {
+            urlInfo.put("expiresAt", LinkExpiry.format(url.getExpiresAt()));
+        }
+        return urlInfo;
+    }
+
+    private long totalClickCount(Url url) {
+        return url.getClickCount() + clickCountBuffer.getPending(url.getShortUrl());
+    }
+}
@@ -0,0 +1,189 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.cache.LinkSnapshot;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.UrlStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the hottest redirect cache entries in a {@link LinkSnapshot} on local
+ * disk, so a restarted instance starts with a warm cache instead of sending
+ * every first redirect to Redis.
+ *
+ * The snapshot is written every {@code shorty.snapshot.interval-ms} and on
+ * shutdown, and loaded into the cache before the application starts serving.
+ * Redis stays the source of truth: once started, the loaded entries are
+ * re-read from Redis in pipelined batches, and entries whose link was changed
+ * or deleted meanwhile are dropped from the cache. Loaded entries also expire
+ * with the cache's normal TTL.
+ */
+@Component
+public class RedirectCacheSnapshot implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(RedirectCacheSnapshot.class);
+
+    private final boolean enabled;
+    private final Path file;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final int verifyBatchSize;
+
+    // Links loaded from the snapshot, kept until they have been checked against Redis
+    private List<CachedLink> loaded = new ArrayList<>();
+
+    @Autowired
+    private BoundedCache<CachedLink> redirectCache;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private UrlNormalizer urlNormalizer;
+
+    public RedirectCacheSnapshot(@Value("${shorty.snapshot.enabled:true}") boolean enabled,
+            @Value("${shorty.snapshot.file:redirect-cache.snapshot}") String file,
+            @Value("${shorty.snapshot.max-entries:50000}") int maxEntries,
+            @Value("${shorty.snapshot.max-age-seconds:86400}") long maxAgeSeconds,
+            @Value("${shorty.snapshot.verify-batch-size:500}") int verifyBatchSize) {
+        if (verifyBatchSize < 1) {
+            throw new IllegalArgumentException("shorty.snapshot.verify-batch-size must be positive");
+        }
+        this.enabled = enabled;
+        this.file = Paths.get(file);
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        this.verifyBatchSize = verifyBatchSize;
+    }
+
+    /**
+     * Fills the redirect cache from the snapshot file, if there is a usable one.
+     * A missing, stale, corrupt or differently versioned file leaves the cache cold.
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        LinkSnapshot snapshot;
+        try {
+            snapshot = LinkSnapshot.read(file);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.warn("Ignoring redirect cache snapshot: {}", e.getMessage());
+            return;
+        }
+
+        long age = System.currentTimeMillis() - snapshot.getCreatedAt();
+        if (age > maxAgeMillis) {
+            log.info("Ignoring redirect cache snapshot {}, written {} s ago", file,
+                    TimeUnit.MILLISECONDS.toSeconds(age));
+            return;
+        }
+
+        // Stored hottest first; only as many as the cache holds are worth loading
+        List<CachedLink> links = new ArrayList<>(snapshot.getLinks());
+        // Links that expired since the snapshot was written would only be dropped on their first hit
+        long now = System.currentTimeMillis();
+        links.removeIf(link -> link.isExpired(now));
+        int count = Math.min(links.size(), Math.min(maxEntries, redirectCache.getMaxSize()));
+        for (int i = count - 1; i >= 0; i--) {
+            CachedLink link = links.get(i);
+            redirectCache.put(Url.foldShortUrl(link.getShortUrl()), link);
+        }
+        loaded = new ArrayList<>(links.subList(0, count));
+        log.info("Warmed the redirect cache with {} links from {} in {} ms", count, file,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /**
+     * Checks the loaded links against Redis once the application has started, and
+     * drops those that were changed or deleted since the snapshot was written.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        List<CachedLink> links = loaded;
+        loaded = new ArrayList<>();
+
+        int dropped = 0;
+        for (int from = 0; from < links.size(); from += verifyBatchSize) {
+            List<CachedLink> batch = links.subList(from, Math.min(from + verifyBatchSize, links.size()));
+            List<String> shortUrls = new ArrayList<>(batch.size());
+            batch.forEach(link -> shortUrls.add(link.getShortUrl()));
+
+            List<Url> urls;
+            try {
+                urls = urlStore.findByShortUrls(shortUrls);
+            } catch (RuntimeException e) {
+                // Unchecked entries must not outlive a failed check; drop them and start cold
+                log.warn("Could not check snapshot links against Redis, dropping them: {}", e.getMessage());
+                links.subList(from, links.size())
+                        .forEach(link -> redirectCache.invalidate(Url.foldShortUrl(link.getShortUrl())));
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (!matches(batch.get(i), urls.get(i))) {
+                    // Never write the Redis value here: a concurrent update may already be newer
+                    redirectCache.invalidate(Url.foldShortUrl(batch.get(i).getShortUrl()));
+                    dropped++;
+                }
+            }
+        }
+        if (dropped > 0) {
+            log.info("Dropped {} of {} snapshot links that changed in Redis", dropped, links.size());
+        }
+    }
+
+    private boolean matches(CachedLink link, Url url) {
+        return url != null && url.getShortUrl().equals(link.getShortUrl())
+                && Objects.equals(urlNormalizer.toRedirectUrl(url.getLongUrl()), link.getLongUrl())
+                && url.getExpiresAt() == link.getExpiresAt();
+    }
+
+    /**
+     * Writes the hottest redirect cache entries to the snapshot file. Runs
+     * periodically and once more on shutdown.
+     */
+    @Scheduled(fixedDelayString = "${shorty.snapshot.interval-ms:60000}",
+            initialDelayString = "${shorty.snapshot.interval-ms:60000}")
+    @PreDestroy
+    public synchronized void save() {
+        if (!enabled) {
+            return;
+        }
+
+        List<CachedLink> links = redirectCache.hottest(maxEntries);
+        if (links.isEmpty() && Files.exists(file)) {
+            // Keep the previous snapshot rather than replacing it with an empty one
+            return;
+        }
+        try {
+            LinkSnapshot.write(file, links);
+        } catch (IOException e) {
+            log.warn("Could not write the redirect cache snapshot {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.cache.CachedLink;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how redirects are answered: their status, how long browsers and CDNs
+ * may cache them, and the validator they revalidate with.
+ *
+ * The ETag is derived from the redirect target and the link's expiry, so it
+ * changes whenever the link is updated, and a CDN holding a stale redirect gets
+ * the new one on its next revalidation instead of a 304. Expiring links are
+ * never cached beyond their expiry and never answered with a permanent status,
+ * which browsers would keep after the link is gone.
+ */
+@Component
+public class RedirectPolicy {
+
+    private final HttpStatus status;
+    private final long maxAgeSeconds;
+    private final boolean shared;
+    // Cache-Control of links that never expire, the same for every redirect
+    private final String cacheControl;
+
+    /**
+     * @param status        Status of redirects: 301, 302, 307 or 308.
+     * @param maxAgeSeconds How long a redirect may be cached; 0 to have every click revalidate.
+     * @param cacheScope    "public" to let CDNs and proxies cache redirects, "private" for browsers only.
+     */
+    public RedirectPolicy(@Value("${shorty.redirect.status:302}") int status,
+            @Value("${shorty.redirect.max-age-seconds:0}") long maxAgeSeconds,
+            @Value("${shorty.redirect.cache-scope:public}") String cacheScope) {
+        HttpStatus resolved = HttpStatus.resolve(status);
+        if (resolved != HttpStatus.MOVED_PERMANENTLY && resolved != HttpStatus.FOUND
+                && resolved != HttpStatus.TEMPORARY_REDIRECT && resolved != HttpStatus.PERMANENT_REDIRECT) {
+            throw new IllegalArgumentException("shorty.redirect.status must be 301, 302, 307 or 308");
+        }
+        if (maxAgeSeconds < 0) {
+            throw new IllegalArgumentException("shorty.redirect.max-age-seconds must not be negative");
+        }
+        if (!"public".equals(cacheScope) && !"private".equals(cacheScope)) {
+            throw new IllegalArgumentException("shorty.redirect.cache-scope must be public or private");
+        }
+        this.status = resolved;
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.shared = "public".equals(cacheScope);
+        this.cacheControl = cacheControl(maxAgeSeconds);
+    }
+
+    /**
+     * @param link The link being redirected to.
+     * @return The redirect status; a permanent one is downgraded to its temporary
+     *         counterpart for links that expire.
+     */
+    public HttpStatus status(CachedLink link) {
+        if (link.getExpiresAt() == 0) {
+            return status;
+        }
+        return status == HttpStatus.PERMANENT_REDIRECT ? HttpStatus.TEMPORARY_REDIRECT
+                : status == HttpStatus.MOVED_PERMANENTLY ? HttpStatus.FOUND : status;
+    }
+
+    /**
+     * Builds the caching headers of a redirect or of its 304 revalidation.
+     *
+     * @param link The link being redirected to.
+     * @param now  The current time in epoch milliseconds.
+     * @return The ETag and Cache-Control headers.
+     */
+    public HttpHeaders cacheHeaders(CachedLink link, long now) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(link.getETag());
+        headers.setCacheControl(cacheControl(link, now));
+        return headers;
+    }
+
+    /**
+     * @param link The link being redirected to.
+     * @param now  The current time in epoch milliseconds.
+     * @return The Cache-Control header value of a redirect to the link.
+     */
+    public String cacheControl(CachedLink link, long now) {
+        if (link.getExpiresAt() == 0) {
+            return cacheControl;
+        }
+        // A cached redirect must not outlive its link
+        long remaining = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(link.getExpiresAt() - now));
+        return remaining >= maxAgeSeconds ? cacheControl : cacheControl(remaining);
+    }
+
+    private String cacheControl(long maxAge) {
+        return maxAge == 0 ? "no-cache" : (shared ? "public" : "private") + ", max-age=" + maxAge;
+    }
+
+    /**
+     * @param ifNoneMatch The request's If-None-Match header, or null.
+     * @param link        The link being redirected to.
+     * @return Whether the client's cached redirect is still current and a 304 will do.
+     */
+    public boolean isNotModified(String ifNoneMatch, CachedLink link) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String etag = link.getETag();
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // Weak comparison, as RFC 9110 prescribes for If-None-Match
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
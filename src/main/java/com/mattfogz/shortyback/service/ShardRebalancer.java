@@ -0,0 +1,426 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.analytics.ClickAnalytics;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.Reservation;
+import com.mattfogz.shortyback.repository.ShardedUrlStore;
+import com.mattfogz.shortyback.repository.UrlPage;
+import com.mattfogz.shortyback.repository.UrlPageScripts;
+import com.mattfogz.shortyback.repository.UrlStore;
+import com.mattfogz.shortyback.shard.ShardNode;
+import com.mattfogz.shortyback.shard.ShardTopology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Moves links to the shards that own them after nodes were added, while the
+ * service keeps running. Starts whenever {@code shorty.shards.previous-nodes} is set.
+ *
+ * One instance at a time does the work, holding a lock in Redis; the others wait
+ * and take over if it stops. For each previous node, links owned elsewhere are
+ * read page by page, reserved on their new owner with their click count and
+ * expiry, and then deleted from the old node. Each link read is also indexed on
+ * the shard now owning its long URL, if kept elsewhere, so creating a link for
+ * the same long URL keeps reusing it. Their click series buckets are then
+ * added to the new owner's, and their visitor HyperLogLogs merged into it.
+ * Every step can be repeated, so an interrupted rebalance simply starts over.
+ * Completion is recorded in a marker key per move, after which
+ * {@code shorty.shards.previous-nodes} can be removed.
+ */
+@Component
+public class ShardRebalancer implements ApplicationRunner, DisposableBean {
+
+    // Held by the instance doing the work
+    static final String LOCK_KEY = "shorty:shards:rebalance-lock";
+
+    // Marker key prefix, followed by the id of the move, written once it is complete
+    static final String MARKER_KEY_PREFIX = "shorty:shards:rebalanced:";
+
+    // Prefix of the copies of visitor HyperLogLogs being merged on their new owner
+    private static final String MERGE_KEY_PREFIX = "shorty:shards:merge:";
+
+    // Marker key prefix, followed by the id of the move and a click series key, written
+    // on the new owner when the key's clicks have been added there
+    private static final String MERGED_KEY_PREFIX = "shorty:shards:merged:";
+
+    // Markers only matter until their key is deleted from the old node, normally moments later
+    private static final Duration MERGED_MARKER_TTL = Duration.ofDays(1);
+
+    // Renewed after every batch, so a stopped instance hands over within this time
+    private static final Duration LOCK_TTL = Duration.ofSeconds(30);
+
+    // Keys read per SCAN call, and moved per batch
+    private static final int KEY_BATCH_SIZE = 500;
+
+    private static final RedisScript<Long> RENEW_LOCK_SCRIPT = script("scripts/renew_lock.lua");
+    private static final RedisScript<Long> MERGE_CLICKS_SCRIPT = script("scripts/merge_clicks.lua");
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private final String token = UUID.randomUUID().toString();
+    private final long pauseMillis;
+
+    private volatile Thread worker;
+
+    @Autowired
+    private ShardTopology topology;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    /**
+     * @param pauseMillis Pause after each batch, to limit the load a rebalance puts on the nodes.
+     */
+    public ShardRebalancer(@Value("${shorty.shards.rebalance.pause-ms:0}") long pauseMillis) {
+        if (pauseMillis < 0) {
+            throw new IllegalArgumentException("shorty.shards.rebalance.pause-ms must not be negative");
+        }
+        this.pauseMillis = pauseMillis;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!topology.isRebalancing()) {
+            return;
+        }
+        // Links move in the background; until they have, lookups also ask their previous owner
+        Thread thread = new Thread(this::work, "shard-rebalancer");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    @Override
+    public void destroy() {
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void work() {
+        String markerKey = MARKER_KEY_PREFIX + topology.getRebalanceId();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (Boolean.TRUE.equals(redisTemplate.hasKey(markerKey))) {
+                    log.info("Shards are rebalanced; remove shorty.shards.previous-nodes and restart each instance");
+                    return;
+                }
+                if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, LOCK_TTL))) {
+                    try {
+                        rebalance();
+                    } finally {
+                        redisTemplate.execute(RENEW_LOCK_SCRIPT, Collections.singletonList(LOCK_KEY), token, "0");
+                    }
+                    redisTemplate.opsForValue().set(markerKey, String.valueOf(System.currentTimeMillis()));
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Shard rebalance stopped; will try again", e);
+            }
+
+            // Another instance is at it, or this one failed; check again once a lock could have expired
+            try {
+                Thread.sleep(LOCK_TTL.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void rebalance() throws InterruptedException {
+        ShardedUrlStore shards = (ShardedUrlStore) urlStore;
+        log.info("Rebalancing links from {} onto {}", topology.getPreviousNodes(), topology.getNodes());
+
+        for (ShardNode source : topology.getPreviousNodes()) {
+            long[] links = new long[2];
+            String cursor = UrlPage.START_CURSOR;
+            do {
+                UrlPage page = shards.storeOn(source).findPage(cursor, UrlPageScripts.MAX_PAGE_SIZE);
+                moveLinks(shards, source, page.getUrls(), links);
+                cursor = page.getNextCursor();
+                checkpoint();
+            } while (!UrlPage.START_CURSOR.equals(cursor));
+
+            long counts = moveKeys(source, ClickAnalytics.KEY_PATTERN, ClickAnalytics::shortUrlOf,
+                    this::moveClickCounts);
+            long visitors = moveKeys(source, VisitorTracker.KEY_PATTERN, VisitorTracker::shortUrlOf,
+                    this::moveVisitors);
+            log.info("Moved {} links, {} click series buckets and {} visitor estimates off {}", links[0], counts,
+                    visitors, source);
+            if (links[1] > 0) {
+                log.warn("Left {} links on {}: another link holds their short URL on its new shard", links[1],
+                        source);
+            }
+        }
+    }
+
+    /**
+     * Moves the links of one page that belong on another shard, then indexes
+     * every link of the page that is not on its long URL's shard there, so
+     * reservations for the long URL keep reusing it.
+     *
+     * @param totals Incremented: [0] links moved, [1] links left behind for a clash.
+     */
+    private void moveLinks(ShardedUrlStore shards, ShardNode source, List<Url> urls, long[] totals) {
+        Set<String> leftBehind = new HashSet<>();
+        Map<ShardNode, List<Url>> byTarget = new LinkedHashMap<>();
+        for (Url url : urls) {
+            ShardNode owner = topology.ownerOf(Url.foldShortUrl(url.getShortUrl()));
+            if (owner != source) {
+                byTarget.computeIfAbsent(owner, key -> new ArrayList<>()).add(url);
+            }
+        }
+
+        UrlStore from = shards.storeOn(source);
+        for (Map.Entry<ShardNode, List<Url>> target : byTarget.entrySet()) {
+            UrlStore to = shards.storeOn(target.getKey());
+            List<Url> links = target.getValue();
+            List<String> shortUrls = new ArrayList<>(links.size());
+            List<String> longUrls = new ArrayList<>(links.size());
+            List<Long> expiresAt = new ArrayList<>(links.size());
+            for (Url url : links) {
+                shortUrls.add(url.getShortUrl());
+                longUrls.add(url.getLongUrl());
+                expiresAt.add(url.getExpiresAt());
+            }
+            List<Reservation> reservations = to.reserveAll(shortUrls, longUrls,
+                    Collections.nCopies(links.size(), false), expiresAt);
+
+            // A link found on the new owner already was copied by an interrupted run
+            List<Integer> taken = new ArrayList<>();
+            for (int i = 0; i < links.size(); i++) {
+                Reservation reservation = reservations.get(i);
+                if (reservation == null) {
+                    throw new IllegalStateException("Could not copy " + shortUrls.get(i) + " to " + target.getKey());
+                }
+                if (reservation.getStatus() == Reservation.Status.TAKEN) {
+                    taken.add(i);
+                }
+            }
+            List<Url> copies = taken.isEmpty() ? Collections.emptyList()
+                    : to.findByShortUrls(select(shortUrls, taken));
+
+            List<Url> moved = new ArrayList<>(links.size());
+            int t = 0;
+            for (int i = 0; i < links.size(); i++) {
+                if (t < taken.size() && taken.get(t) == i) {
+                    Url copy = copies.get(t++);
+                    if (copy == null || !copy.getLongUrl().equals(links.get(i).getLongUrl())) {
+                        leftBehind.add(shortUrls.get(i));
+                        totals[1]++;
+                        continue;
+                    }
+                }
+                moved.add(links.get(i));
+            }
+
+            List<String> movedShortUrls = new ArrayList<>(moved.size());
+            List<Long> clickCounts = new ArrayList<>(moved.size());
+            for (Url url : moved) {
+                movedShortUrls.add(url.getShortUrl());
+                clickCounts.add(url.getClickCount());
+            }
+            to.restoreClickCounts(movedShortUrls, clickCounts);
+            for (Url url : moved) {
+                from.delete(url);
+            }
+            totals[0] += moved.size();
+        }
+
+        // A long URL may have changed shards too, so this covers links that stayed
+        List<String> shortUrls = new ArrayList<>(urls.size());
+        List<String> longUrls = new ArrayList<>(urls.size());
+        for (Url url : urls) {
+            if (!leftBehind.contains(url.getShortUrl())) {
+                shortUrls.add(url.getShortUrl());
+                longUrls.add(url.getLongUrl());
+            }
+        }
+        shards.indexLongUrls(shortUrls, longUrls);
+    }
+
+    /**
+     * Moves the per-link keys matching a pattern off a node, in batches per new owner.
+     *
+     * @param shortUrlOf Finds the short URL a key belongs to.
+     * @param mover      Moves a batch of keys from the node to a new owner.
+     * @return The number of keys moved.
+     */
+    private long moveKeys(ShardNode source, String pattern, Function<String, String> shortUrlOf, KeyMover mover)
+            throws InterruptedException {
+        Map<ShardNode, List<String>> byTarget = new LinkedHashMap<>();
+        long moved = 0;
+        try (Cursor<String> keys = source.getRedisTemplate()
+                .scan(ScanOptions.scanOptions().match(pattern).count(KEY_BATCH_SIZE).build())) {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                ShardNode owner = topology.ownerOf(Url.foldShortUrl(shortUrlOf.apply(key)));
+                if (owner == source) {
+                    continue;
+                }
+                List<String> batch = byTarget.computeIfAbsent(owner, node -> new ArrayList<>());
+                batch.add(key);
+                if (batch.size() == KEY_BATCH_SIZE) {
+                    mover.move(source.getRedisTemplate(), owner.getRedisTemplate(), batch);
+                    moved += batch.size();
+                    batch.clear();
+                    checkpoint();
+                }
+            }
+        }
+        for (Map.Entry<ShardNode, List<String>> batch : byTarget.entrySet()) {
+            if (!batch.getValue().isEmpty()) {
+                mover.move(source.getRedisTemplate(), batch.getKey().getRedisTemplate(), batch.getValue());
+                moved += batch.getValue().size();
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Adds click series buckets to the new owner's, keeping their expiry. Each
+     * key is added by one script call that also writes a marker, and deleted from
+     * the old node afterwards, so a rebalance repeated in between does not count
+     * its clicks twice.
+     */
+    private void moveClickCounts(StringRedisTemplate from, StringRedisTemplate to, List<String> keys) {
+        List<Object> replies = from.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.hashCommands().hGetAll(bytes(key));
+                connection.keyCommands().pTtl(bytes(key));
+            }
+            return null;
+        });
+
+        // EVALSHA inside a pipeline cannot fall back to EVAL, so make sure the script is loaded
+        String sha = to.execute((RedisCallback<String>) connection -> connection.scriptingCommands()
+                .scriptLoad(bytes(MERGE_CLICKS_SCRIPT.getScriptAsString())));
+        List<String> markers = new ArrayList<>(keys.size());
+        to.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                String marker = MERGED_KEY_PREFIX + topology.getRebalanceId() + ":" + keys.get(i);
+                markers.add(marker);
+                @SuppressWarnings("unchecked")
+                Map<String, String> buckets = (Map<String, String>) replies.get(2 * i);
+                byte[][] keysAndArgs = new byte[4 + 2 * buckets.size()][];
+                keysAndArgs[0] = bytes(keys.get(i));
+                keysAndArgs[1] = bytes(marker);
+                keysAndArgs[2] = bytes(String.valueOf(replies.get(2 * i + 1)));
+                keysAndArgs[3] = bytes(String.valueOf(MERGED_MARKER_TTL.toMillis()));
+                int arg = 4;
+                for (Map.Entry<String, String> bucket : buckets.entrySet()) {
+                    keysAndArgs[arg++] = bytes(bucket.getKey());
+                    keysAndArgs[arg++] = bytes(bucket.getValue());
+                }
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 2, keysAndArgs);
+            }
+            return null;
+        });
+        from.unlink(keys);
+        to.unlink(markers);
+    }
+
+    /**
+     * Merges visitor HyperLogLogs into the new owner's: each is copied next to it
+     * with DUMP and RESTORE, then merged with PFMERGE, which may be repeated safely.
+     */
+    private void moveVisitors(StringRedisTemplate from, StringRedisTemplate to, List<String> keys) {
+        // Serialized values are binary, so skip the template's string conversion
+        List<Object> dumps = from.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.keyCommands().dump(bytes(key));
+            }
+            return null;
+        }, null);
+        to.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] dump = (byte[]) dumps.get(i);
+                if (dump == null) {
+                    continue;
+                }
+                byte[] copy = bytes(MERGE_KEY_PREFIX + keys.get(i));
+                connection.keyCommands().restore(copy, LOCK_TTL.toMillis(), dump, true);
+                connection.hyperLogLogCommands().pfMerge(bytes(keys.get(i)), copy);
+                connection.keyCommands().del(copy);
+            }
+            return null;
+        });
+        from.unlink(keys);
+    }
+
+    /**
+     * Keeps the lock for another {@link #LOCK_TTL} and pauses if configured.
+     *
+     * @throws IllegalStateException if the lock was lost, e.g. after a long stall
+     */
+    private void checkpoint() throws InterruptedException {
+        Long renewed = redisTemplate.execute(RENEW_LOCK_SCRIPT, Collections.singletonList(LOCK_KEY), token,
+                String.valueOf(LOCK_TTL.toMillis()));
+        if (renewed == null || renewed != 1) {
+            throw new IllegalStateException("Lost the shard rebalance lock");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        if (pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    private static <T> List<T> select(List<T> values, List<Integer> positions) {
+        List<T> selected = new ArrayList<>(positions.size());
+        for (int i : positions) {
+            selected.add(values.get(i));
+        }
+        return selected;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static RedisScript<Long> script(String location) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    @FunctionalInterface
+    private interface KeyMover {
+        void move(StringRedisTemplate from, StringRedisTemplate to, List<String> keys);
+    }
+}
@@ -0,0 +1,370 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.cache.CuckooFilter;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.UrlStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.SubscriptionListener;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process {@link CuckooFilter} of every existing short URL (case-folded), so
+ * redirects for codes that were never created are answered without a Redis
+ * round trip or a negative cache entry.
+ *
+ * The filter is filled by walking every stored short URL at startup and again
+ * every {@code shorty.filter.rebuild-interval-ms}; until the first scan completes
+ * every code passes. Creates update it immediately and are published on
+ * {@link #CHANNEL}, so other instances stay in sync between rebuilds.
+ *
+ * Pub/sub delivers at most once, so a rejection is only trusted while this
+ * instance cannot have missed a create: the filter must have been built while
+ * subscribed to the channel, with no resubscription and no gap in any other
+ * instance's event sequence since. Otherwise every code passes on to Redis, and
+ * a rebuild is started to get back in sync.
+ *
+ * Deletes never remove fingerprints: removing a code whose create this filter
+ * did not see could drop the fingerprint of a live code that collides with it.
+ * Deleted codes pass the filter until the next rebuild, as unknown codes did
+ * before the filter.
+ */
+@Component
+public class ShortUrlFilter implements MessageListener, SubscriptionListener {
+
+    // Pub/sub channel carrying "<instance> <sequence> +<folded short URL>" messages
+    public static final String CHANNEL = "shorty:filter:events";
+
+    private static final Logger log = LoggerFactory.getLogger(ShortUrlFilter.class);
+
+    private final boolean enabled;
+    private final long expectedLinks;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // Serializes updates against the swap at the end of a rebuild
+    private final Object swapLock = new Object();
+
+    // The filter answering lookups; null while none is ready (every code passes)
+    private volatile CuckooFilter active;
+    // The filter a running rebuild is filling; receives adds made meanwhile
+    private CuckooFilter building;
+
+    // Serializes rebuilds started by the schedule and by losing sync
+    private final Object rebuildLock = new Object();
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+    // Bumped whenever events may have been missed: on every (re)subscription and
+    // unsubscription, and on a gap in an instance's event sequence
+    private final AtomicLong syncEpoch = new AtomicLong();
+    private volatile boolean subscribed;
+    // The sync epoch the active filter was built in; rejections are trusted while it is current
+    private volatile long activeEpoch = -1;
+
+    // Sequence of the events this instance published, and the last one seen from each other instance
+    private final AtomicLong published = new AtomicLong();
+    private final Map<String, Long> lastSequence = new ConcurrentHashMap<>();
+
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // Publishes the events of reactive creates, which must not block their event-loop thread
+    @Autowired(required = false)
+    private ReactiveStringRedisTemplate reactiveRedisTemplate;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    public ShortUrlFilter(@Value("${shorty.filter.enabled:true}") boolean enabled,
+            @Value("${shorty.filter.expected-links:1000000}") long expectedLinks) {
+        this.enabled = enabled;
+        this.expectedLinks = expectedLinks;
+    }
+
+    /**
+     * Checks whether a short URL may exist. Never touches Redis.
+     *
+     * @param shortUrlKey The case-folded short URL.
+     * @return false only if the short URL certainly does not exist.
+     */
+    public boolean mightContain(String shortUrlKey) {
+        CuckooFilter filter = active;
+        if (filter == null) {
+            return true;
+        }
+        // A code the filter does not know may have been created by an instance whose event was missed
+        if (filter.mightContain(shortUrlKey) || !isInSync()) {
+            passed.increment();
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * @return Whether the filter's rejections are trusted: a filter is ready and no
+     *         create event can have been missed since it was built.
+     */
+    public boolean isInSync() {
+        return active != null && subscribed && activeEpoch == syncEpoch.get();
+    }
+
+    /**
+     * Counts a short URL that passed the filter but was not found in Redis.
+     *
+     * @param shortUrlKey The case-folded short URL.
+     */
+    public void falsePositive(String shortUrlKey) {
+        CuckooFilter filter = active;
+        // Codes let through while no filter was ready are not the filter's mistakes
+        if (filter != null && filter.mightContain(shortUrlKey)) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Records a newly created short URL, here and on every other instance.
+     *
+     * @param shortUrl The created short URL.
+     */
+    public void added(String shortUrl) {
+        if (enabled) {
+            String key = Url.foldShortUrl(shortUrl);
+            add(key);
+            publish(key);
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #added(String)} for the reactive stack, whose
+     * creates continue on Redis event-loop threads.
+     *
+     * @param shortUrl The created short URL.
+     * @return Completes once the event is sent; a failed send is logged, not signalled.
+     */
+    public Mono<Void> addedReactive(String shortUrl) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        String key = Url.foldShortUrl(shortUrl);
+        add(key);
+        // Numbered even if sending fails, so other instances notice the gap
+        long sequence = published.incrementAndGet();
+        return reactiveRedisTemplate.convertAndSend(CHANNEL, message(sequence, key))
+                .doOnError(e -> log.warn("Failed to publish short URL filter event; "
+                        + "other instances rebuild on their next event", e))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * Records a short URL just found in Redis, in case this instance missed the
+     * event of its creation. Only adds it if the filter would reject it, so
+     * repeated calls do not store duplicates.
+     *
+     * @param shortUrl The existing short URL.
+     */
+    public void confirmed(String shortUrl) {
+        CuckooFilter filter = active;
+        if (filter != null) {
+            String key = Url.foldShortUrl(shortUrl);
+            if (!filter.mightContain(key)) {
+                add(key);
+            }
+        }
+    }
+
+    /**
+     * Applies a create published by another instance. A gap in that instance's
+     * sequence means events were lost, so the filter is out of sync until rebuilt.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int first = body.indexOf(' ');
+        int second = first < 0 ? -1 : body.indexOf(' ', first + 1);
+        if (second < 0 || second + 2 > body.length() || body.charAt(second + 1) != '+') {
+            return;
+        }
+        String instance = body.substring(0, first);
+        if (instance.equals(instanceId)) {
+            return;
+        }
+
+        long sequence;
+        try {
+            sequence = Long.parseLong(body.substring(first + 1, second));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        add(body.substring(second + 2));
+
+        Long previous = lastSequence.put(instance, sequence);
+        if (previous != null && sequence != previous + 1) {
+            log.warn("Missed {} short URL filter events from instance {}; rebuilding the filter",
+                    sequence - previous - 1, instance);
+            lostSync();
+        }
+    }
+
+    /**
+     * Called when the subscription to {@link #CHANNEL} is made, at startup and
+     * again after each reconnect. Events sent while not subscribed are lost, so
+     * the filter is rebuilt.
+     */
+    @Override
+    public void onChannelSubscribed(byte[] channel, long count) {
+        subscribed = true;
+        lostSync();
+    }
+
+    @Override
+    public void onChannelUnsubscribed(byte[] channel, long count) {
+        subscribed = false;
+        syncEpoch.incrementAndGet();
+    }
+
+    /**
+     * Builds a fresh filter from the stored short URLs and swaps it in. Runs at
+     * startup and then periodically, which also sheds the fingerprints of deletes
+     * missed by this instance and resizes the filter as the number of links grows.
+     */
+    @Scheduled(fixedDelayString = "${shorty.filter.rebuild-interval-ms:600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (rebuildLock) {
+            rebuildOnce();
+        }
+    }
+
+    private void rebuildOnce() {
+        // Creates missed from here on bump the epoch, so the new filter is not trusted
+        long epoch = syncEpoch.get();
+
+        // Leave room for the links created before the next rebuild
+        CuckooFilter filter = new CuckooFilter(Math.max(expectedLinks, urlStore.count() * 3 / 2));
+        synchronized (swapLock) {
+            building = filter;
+        }
+
+        long[] count = new long[1];
+        boolean[] full = new boolean[1];
+        try {
+            urlStore.forEachShortUrlKey(key -> {
+                if (!full[0]) {
+                    full[0] = !filter.add(key);
+                    count[0]++;
+                }
+            });
+            if (full[0]) {
+                log.warn("Short URL filter is full after {} links; raise shorty.filter.expected-links", count[0]);
+                return;
+            }
+            synchronized (swapLock) {
+                active = filter;
+                activeEpoch = epoch;
+            }
+        } finally {
+            synchronized (swapLock) {
+                building = null;
+            }
+        }
+        log.debug("Rebuilt the short URL filter with {} links", count[0]);
+    }
+
+    /**
+     * @return The number of short URLs in the active filter, or 0 if none is ready.
+     */
+    public long size() {
+        CuckooFilter filter = active;
+        return filter == null ? 0 : filter.size();
+    }
+
+    /**
+     * @return The expected false-positive rate of the active filter at its current load.
+     */
+    public double expectedFalsePositiveRate() {
+        CuckooFilter filter = active;
+        return filter == null ? 0 : filter.expectedFalsePositiveRate();
+    }
+
+    public long getPassedCount() {
+        return passed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    private void add(String key) {
+        synchronized (swapLock) {
+            if (building != null) {
+                building.add(key);
+            }
+            CuckooFilter filter = active;
+            if (filter != null && !filter.add(key)) {
+                // A full filter would reject the new link; let every code through until the next rebuild
+                log.warn("Short URL filter is full; disabled until the next rebuild");
+                active = null;
+            }
+        }
+    }
+
+    // Distrusts the active filter and rebuilds it in the background
+    private void lostSync() {
+        syncEpoch.incrementAndGet();
+        if (!enabled || !rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            // Cleared first, so a loss of sync during this rebuild starts another one
+            rebuildPending.set(false);
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                log.warn("Failed to rebuild the short URL filter; retrying on the next scheduled rebuild", e);
+            }
+        }, "short-url-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void publish(String key) {
+        // Numbered even if sending fails, so other instances notice the gap
+        long sequence = published.incrementAndGet();
+        try {
+            redisTemplate.convertAndSend(CHANNEL, message(sequence, key));
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish short URL filter event; other instances rebuild on their next event", e);
+        }
+    }
+
+    private String message(long sequence, String key) {
+        return instanceId + " " + sequence + " +" + key;
+    }
+}
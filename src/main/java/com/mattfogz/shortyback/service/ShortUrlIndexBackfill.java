@@ -0,0 +1,59 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.UrlRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * One-off backfill of the case-folded {@code shortUrlKey} index for Url entities
+ * that were stored before the index existed.
+ *
+ * Completion is recorded in a marker key, so only the first start against a given
+ * Redis database walks the stored links; every later start costs a single lookup.
+ */
+@Component
+public class ShortUrlIndexBackfill implements ApplicationRunner {
+
+    // Marker key written once every stored Url carries a shortUrlKey
+    static final String MARKER_KEY = "shorty:migration:short-url-key";
+
+    private static final Logger log = LoggerFactory.getLogger(ShortUrlIndexBackfill.class);
+
+    @Autowired
+    private UrlRepository urlRepository;
+
+    @Autowired
+    private RedisKeyValueTemplate keyValueTemplate;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(MARKER_KEY))) {
+            return;
+        }
+
+        int updated = 0;
+        for (Url url : urlRepository.findAll()) {
+            if (url.getShortUrlKey() == null) {
+                // A partial update writes the field and its index entry without
+                // rewriting the rest of the hash (e.g. a concurrently flushed click count)
+                keyValueTemplate.update(new PartialUpdate<>(url.getShortUrl(), Url.class)
+                        .set("shortUrlKey", Url.foldShortUrl(url.getShortUrl())));
+                updated++;
+            }
+        }
+
+        redisTemplate.opsForValue().set(MARKER_KEY, String.valueOf(System.currentTimeMillis()));
+        log.info("Backfilled short URL index for {} stored links", updated);
+    }
+}
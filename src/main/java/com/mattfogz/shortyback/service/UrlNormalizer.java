@@ -0,0 +1,119 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.cache.BoundedCache;
+import org.apache.commons.validator.routines.UrlValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Normalizes and validates long URLs. Shared by the servlet and reactive
+ * service implementations so both store links in exactly the same form.
+ */
+@Component
+public class UrlNormalizer {
+
+    private static final String HTTP = "http://";
+    private static final String HTTPS = "https://";
+    private static final String WWW = "www.";
+
+    // UrlValidator is immutable once built, so one instance serves all threads
+    private static final UrlValidator URL_VALIDATOR = new UrlValidator(new String[] { "http", "https" });
+
+    @Autowired
+    private BoundedCache<Boolean> validationCache;
+
+    /**
+     * Normalizes the provided long URL by applying the following transformations:
+     * <ul>
+     * <li>Remove "http://" or "https://" prefixes, if they exist</li>
+     * <li>Remove the "www." prefix, repeated or not, if it exists</li>
+     * <li>Convert the host to lowercase; the path, query and fragment keep their case</li>
+     * <li>Strip off trailing "/"s, if present</li>
+     * <li>Prepend the normalized URL with "http://"</li>
+     * </ul>
+     * This ensures uniformity and a standardized format for all URLs being
+     * processed. The URL is scanned once and copied at most once; a URL that is
+     * already normalized is returned as is, so normalizing a normalized URL
+     * changes nothing.
+     *
+     * @param longUrl The original long URL to be normalized.
+     * @return A normalized version of the long URL.
+     */
+    public String normalize(String longUrl) {
+        // Skip the "http://" or "https://" prefix, whatever its case
+        int start = 0;
+        if (longUrl.regionMatches(true, 0, HTTP, 0, HTTP.length())) {
+            start = HTTP.length();
+        } else if (longUrl.regionMatches(true, 0, HTTPS, 0, HTTPS.length())) {
+            start = HTTPS.length();
+        }
+
+        // Strip every "www." so that a second pass finds none left
+        while (longUrl.regionMatches(true, start, WWW, 0, WWW.length())) {
+            start += WWW.length();
+        }
+
+        // If the URL ends with trailing "/"s, leave them out for consistency
+        int end = longUrl.length();
+        while (end > start && longUrl.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        // The authority ends at the first path, query or fragment delimiter; only
+        // the host part of it (after any user info) is case-insensitive
+        int hostStart = start;
+        int hostEnd = start;
+        while (hostEnd < end) {
+            char c = longUrl.charAt(hostEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@') {
+                hostStart = hostEnd + 1;
+            }
+            hostEnd++;
+        }
+
+        boolean lowercaseHost = true;
+        for (int i = hostStart; i < hostEnd && lowercaseHost; i++) {
+            lowercaseHost = Character.toLowerCase(longUrl.charAt(i)) == longUrl.charAt(i);
+        }
+
+        // Already in normalized form: nothing to copy
+        if (lowercaseHost && start == HTTP.length() && end == longUrl.length() && longUrl.startsWith(HTTP)) {
+            return longUrl;
+        }
+
+        // Prepend "http://" to ensure a minimum protocol is present
+        StringBuilder normalized = new StringBuilder(HTTP.length() + end - start);
+        normalized.append(HTTP).append(longUrl, start, hostStart);
+        for (int i = hostStart; i < hostEnd; i++) {
+            normalized.append(Character.toLowerCase(longUrl.charAt(i)));
+        }
+        return normalized.append(longUrl, hostEnd, end).toString();
+    }
+
+    /**
+     * Converts a stored long URL into the form returned for redirects.
+     *
+     * @param longUrl The long URL as stored.
+     * @return The long URL with an "http://" prefix.
+     */
+    public String toRedirectUrl(String longUrl) {
+        // Ensure the URL starts with "http://", adding the prefix if it's missing.
+        // This step handles any inconsistencies in previously stored data; the rest
+        // was already normalized when the link was stored.
+        return longUrl.startsWith(HTTP) ? longUrl : HTTP + longUrl;
+    }
+
+    /**
+     * Validates whether a given URL is valid. Results are cached, so repeat
+     * submissions of the same URL skip the validator's regular expressions.
+     *
+     * @param url The URL to validate.
+     * @return true if the URL is valid, false otherwise.
+     */
+    public boolean isValid(String url) {
+        return url != null && validationCache.get(url, URL_VALIDATOR::isValid);
+    }
+}
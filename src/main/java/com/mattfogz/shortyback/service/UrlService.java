@@ -1,159 +1,355 @@
 package com.mattfogz.shortyback.service;
 
+import com.mattfogz.shortyback.analytics.ClickAnalytics;
+import com.mattfogz.shortyback.analytics.ClickRange;
+import com.mattfogz.shortyback.analytics.TrendingTracker;
+import com.mattfogz.shortyback.analytics.VisitorTracker;
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
 import com.mattfogz.shortyback.model.Url;
-import com.mattfogz.shortyback.repository.UrlRepository;
+import com.mattfogz.shortyback.repository.Reservation;
+import com.mattfogz.shortyback.repository.UrlPage;
+import com.mattfogz.shortyback.repository.UrlPageScripts;
+import com.mattfogz.shortyback.repository.UrlStore;
+import com.mattfogz.shortyback.shortcode.ShortCodeGenerator;
 import com.mattfogz.shortyback.exception.UrlException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
-import org.apache.commons.validator.routines.UrlValidator;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
-
-import javax.annotation.PostConstruct;
-
-// import java.util.concurrent.ConcurrentHashMap;
-// import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 @Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UrlService {
 
-    // Use ConcurrentHashMap for thread safety
-    private ConcurrentMap<String, String> longToShortUrlMapping = new ConcurrentHashMap<>();
+    @Autowired
+    private UrlStore urlStore;
 
     @Autowired
-    private UrlRepository urlRepository;
+    private BoundedCache<CachedLink> redirectCache;
 
-    @PostConstruct
-    public void init() {
-        urlRepository.findAll().forEach(url -> {
-            longToShortUrlMapping.put(url.getLongUrl(), url.getShortUrl());
-        });
-    }
+    @Autowired
+    private BoundedCache<String> dedupCache;
 
-    /**
-     * Generates a random 6-character short URL string.
-     *
-     * @return Randomly generated short URL string
-     */
-    private String generateShortUrl() {
-        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    @Autowired
+    private ClickCountBuffer clickCountBuffer;
 
-        Random rnd = new Random();
-        StringBuilder sb = new StringBuilder(6);
+    @Autowired
+    private ShortCodeGenerator shortCodeGenerator;
 
-        for (int i = 0; i < 6; i++) {
-            sb.append(chars.charAt(rnd.nextInt(chars.length())));
-        }
+    @Autowired
+    private UrlNormalizer urlNormalizer;
 
-        return sb.toString();
-    }
+    @Autowired
+    private UrlMetrics urlMetrics;
+
+    @Autowired
+    private ClickAnalytics clickAnalytics;
+
+    @Autowired
+    private TrendingTracker trendingTracker;
+
+    @Autowired
+    private VisitorTracker visitorTracker;
+
+    @Autowired
+    private ShortUrlFilter shortUrlFilter;
+
+    @Autowired
+    private LookupCoalescer lookupCoalescer;
+
+    @Autowired
+    private LinkExpiry linkExpiry;
 
     /**
      * Creates a short URL for the given long URL. If a custom short URL is
-     * provided, it uses that, otherwise, it generates a random one.
+     * provided, it uses that, otherwise, it generates one (or reuses the short URL
+     * already pointing at the same long URL).
+     * Each attempt claims the short URL and writes the link with its index entries
+     * in one atomic script call, so concurrent creates can neither claim the same
+     * short URL nor create two generated short URLs for one long URL.
      *
      * @param longUrl        Original long URL
      * @param customShortUrl Custom short URL provided by the user (can be null)
      * @return Created short URL
-     * @throws UrlException if the URL format is invalid
+     * @throws UrlException if the URL format is invalid or the custom short URL is taken
      */
     public String createShortUrl(String longUrl, String customShortUrl) {
-        // Normalize the long URL by converting it to lowercase and removing any
-        // "http://" or "https://"
-        String lowercaseLongUrl = normalizeLongUrl(longUrl);
-
-        // Check if a custom short URL is provided. If not, check if the long URL
-        // already exists with a generated short URL.
-        String shortUrl;
-
-        if (customShortUrl == null || customShortUrl.isEmpty()) {
-            // Check if the long URL already exists with a generated short URL
-            if (longToShortUrlMapping.containsKey(lowercaseLongUrl)) {
-                // Use the existing generated short URL
-                shortUrl = longToShortUrlMapping.get(lowercaseLongUrl);
-            } else {
-                // Generate a new short URL only if it's the first entry with this long URL
-                shortUrl = generateShortUrl();
+        return createShortUrl(longUrl, customShortUrl, null);
+    }
 
-                // Ensure the desired short URL does not already exist in the database
-                // (case-insensitive search)
-                while (urlRepository.findById(shortUrl).isPresent()) {
-                    shortUrl = generateShortUrl();
-                }
+    /**
+     * Creates a short URL like {@link #createShortUrl(String, String)}, expiring
+     * after the given lifetime. A reused link's expiry is extended so that it
+     * lives at least as long as the requested one.
+     *
+     * @param longUrl          Original long URL
+     * @param customShortUrl   Custom short URL provided by the user (can be null)
+     * @param expiresInSeconds Lifetime of the link; null for the default, 0 for none
+     * @return Created short URL
+     * @throws UrlException if the URL format or lifetime is invalid, or the custom short URL is taken
+     */
+    public String createShortUrl(String longUrl, String customShortUrl, Long expiresInSeconds) {
+        // Normalize the long URL by lowercasing its host and removing any
+        // "http://" or "https://" prefix
+        String normalizedLongUrl = urlNormalizer.normalize(longUrl);
+        boolean custom = customShortUrl != null && !customShortUrl.isEmpty();
+        long expiresAt = linkExpiry.expiresAt(expiresInSeconds);
+        // The dedup cache only holds links that live at least as long as the default,
+        // so creates asking for their own lifetime skip it
+        boolean defaultExpiry = expiresInSeconds == null;
 
-                // Store the mapping of long URL to generated short URL
-                longToShortUrlMapping.put(lowercaseLongUrl, shortUrl);
-            }
-        } else {
-            // Use the custom short URL provided by the user
-            shortUrl = customShortUrl;
+        // Validate the long URL
+        if (!urlNormalizer.isValid(normalizedLongUrl)) {
+            urlMetrics.validationFailure();
+            throw new UrlException("Invalid URL format.");
+        }
 
-            // Ensure the custom short URL does not already exist in the database
-            // (case-insensitive search)
-            if (urlRepository.findById(shortUrl).isPresent()) {
-                throw new UrlException("Custom short URL already exists. Please choose another");
+        // A recently created link for this long URL is only a hint: it is tried
+        // first, and the reservation still confirms it (and extends its expiry)
+        String hint = !custom && defaultExpiry ? cachedShortCode(normalizedLongUrl) : null;
+
+        while (true) {
+            String shortUrl = custom ? customShortUrl : hint != null ? hint : nextShortCode(normalizedLongUrl);
+            hint = null;
+            Reservation reservation = reserve(shortUrl, normalizedLongUrl, !custom, expiresAt);
+
+            switch (reservation.getStatus()) {
+                case CREATED:
+                    // Drop any negative cache entry left by earlier lookups of this code
+                    redirectCache.invalidate(Url.foldShortUrl(shortUrl));
+                    if (defaultExpiry) {
+                        dedupCache.put(normalizedLongUrl, shortUrl);
+                    }
+                    shortUrlFilter.added(shortUrl);
+                    return shortUrl;
+                case EXISTING:
+                    // Another link already points at this long URL; reuse it. Its
+                    // expiry may have been extended, so drop what is cached of it.
+                    redirectCache.invalidate(Url.foldShortUrl(reservation.getShortUrl()));
+                    if (defaultExpiry) {
+                        dedupCache.put(normalizedLongUrl, reservation.getShortUrl());
+                    }
+                    shortUrlFilter.confirmed(reservation.getShortUrl());
+                    return reservation.getShortUrl();
+                default:
+                    if (custom) {
+                        throw new UrlException("Custom short URL already exists. Please choose another");
+                    }
+                    // Generated codes never repeat among themselves, but one may already be
+                    // taken by a custom or legacy random short URL, and a cached one may have
+                    // been deleted and claimed by someone else; try the next one
+                    urlMetrics.shortCodeRetry();
+                    dedupCache.invalidate(normalizedLongUrl);
             }
         }
+    }
 
-        // Validate the long URL
-        if (!isValidUrl(lowercaseLongUrl)) {
-            throw new UrlException("Invalid URL format.");
+    /**
+     * Looks up the short URL last handed out for a long URL. The dedup cache can be
+     * stale (the link may have been deleted, or have expired), so the code is only
+     * a candidate for {@link #reserve}: if the link still exists the reservation
+     * reuses it, otherwise the code is claimed again or, if someone else took it,
+     * a new one is drawn.
+     *
+     * @param longUrl The normalized long URL.
+     * @return The cached short URL, or null if there is none or it no longer lives
+     *         on the long URL's shard.
+     */
+    private String cachedShortCode(String longUrl) {
+        String cached = dedupCache.lookup(longUrl).getValue();
+        return cached != null && urlStore.colocated(cached, longUrl) ? cached : null;
+    }
+
+    /**
+     * Draws a generated short URL for a long URL. With sharded storage, codes are
+     * drawn until one lives on the long URL's shard, where its dedup index is;
+     * that takes about one draw per shard.
+     *
+     * @param longUrl The normalized long URL.
+     * @return A short URL to try to reserve.
+     */
+    private String nextShortCode(String longUrl) {
+        String shortUrl = shortCodeGenerator.nextShortCode();
+        while (!urlStore.colocated(shortUrl, longUrl)) {
+            shortUrl = shortCodeGenerator.nextShortCode();
         }
+        return shortUrl;
+    }
 
-        // Save the new mapping of long URL and short URL in the database
-        Url url = new Url(lowercaseLongUrl, shortUrl);
-        urlRepository.save(url);
+    /**
+     * Claims one short URL and stores the link in the configured storage layout.
+     *
+     * @param shortUrl  The short URL to claim.
+     * @param longUrl   The normalized long URL.
+     * @param dedup     Whether an existing link for longUrl should be reused instead.
+     * @param expiresAt The expiry in epoch milliseconds, or 0 if the link never expires.
+     * @return The reservation outcome.
+     */
+    private Reservation reserve(String shortUrl, String longUrl, boolean dedup, long expiresAt) {
+        return urlStore.reserve(shortUrl, longUrl, dedup, expiresAt);
+    }
 
-        return shortUrl;
+    /**
+     * Creates short URLs for a batch of links. Long URLs are normalized and
+     * validated in parallel, generated codes are drawn in bulk from the generator,
+     * and all reservations are sent to Redis as a single pipeline. A bad entry only
+     * fails its own result.
+     *
+     * @param longUrls        Original long URLs
+     * @param customShortUrls Custom short URLs, index-aligned with longUrls (entries can be null)
+     * @return One result per entry, in order: {@code shortUrl}, {@code longUrl} and
+     *         {@code status} ("created" or "existing"), or {@code error}
+     */
+    public List<Map<String, String>> createShortUrls(List<String> longUrls, List<String> customShortUrls) {
+        return createShortUrls(longUrls, customShortUrls, Collections.nCopies(longUrls.size(), null));
     }
 
     /**
-     * Normalizes the provided long URL by applying the following transformations:
-     * <ul>
-     * <li>Convert the entire URL to lowercase</li>
-     * <li>Remove "http://" or "https://" prefixes, if they exist</li>
-     * <li>Remove the "www." prefix, if it exists</li>
-     * <li>Strip off a trailing "/", if present</li>
-     * <li>Prepend the normalized URL with "http://"</li>
-     * </ul>
-     * This ensures uniformity and a standardized format for all URLs being
-     * processed.
+     * Creates short URLs for a batch of links like {@link #createShortUrls(List, List)},
+     * each expiring after its own lifetime.
      *
-     * @param longUrl The original long URL to be normalized.
-     * @return A normalized version of the long URL.
+     * @param longUrls         Original long URLs
+     * @param customShortUrls  Custom short URLs, index-aligned with longUrls (entries can be null)
+     * @param expiresInSeconds Lifetimes, index-aligned with longUrls; null entries get the default
+     * @return One result per entry, in order: {@code shortUrl}, {@code longUrl} and
+     *         {@code status} ("created" or "existing"), or {@code error}
      */
-    private String normalizeLongUrl(String longUrl) {
-        // Convert the entire URL to lowercase for uniformity
-        longUrl = longUrl.toLowerCase();
-
-        // Remove "http://", "https://", and "www." prefixes to standardize the URL
-        // format
-        if (longUrl.startsWith("http://")) {
-            longUrl = longUrl.substring(7);
-        } else if (longUrl.startsWith("https://")) {
-            longUrl = longUrl.substring(8);
+    public List<Map<String, String>> createShortUrls(List<String> longUrls, List<String> customShortUrls,
+            List<Long> expiresInSeconds) {
+        int size = longUrls.size();
+        String[] normalized = new String[size];
+        String[] shortUrls = new String[size];
+        long[] expiresAt = new long[size];
+        List<Map<String, String>> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(new HashMap<>());
+        }
+
+        // Normalization and validation are CPU-only, so spread them over cores
+        IntStream.range(0, size).parallel().forEach(i -> {
+            String longUrl = longUrls.get(i);
+            String candidate = longUrl == null ? null : urlNormalizer.normalize(longUrl);
+            if (candidate != null && urlNormalizer.isValid(candidate)) {
+                normalized[i] = candidate;
+            }
+        });
+
+        // Settle what can be settled locally and pick a code for everything else
+        List<Integer> pending = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String custom = customShortUrls.get(i);
+            if (normalized[i] == null) {
+                urlMetrics.validationFailure();
+                results.get(i).put("error", "Invalid URL format.");
+                continue;
+            }
+            try {
+                expiresAt[i] = linkExpiry.expiresAt(expiresInSeconds.get(i));
+            } catch (UrlException e) {
+                results.get(i).put("error", e.getMessage());
+                continue;
+            }
+
+            if (custom == null || custom.isEmpty()) {
+                // A cached code is only a candidate; the reservation confirms it
+                String cached = expiresInSeconds.get(i) == null ? cachedShortCode(normalized[i]) : null;
+                shortUrls[i] = cached != null ? cached : nextShortCode(normalized[i]);
+                pending.add(i);
+            } else {
+                shortUrls[i] = custom;
+                pending.add(i);
+            }
         }
 
-        if (longUrl.startsWith("www.")) {
-            longUrl = longUrl.substring(4);
+        List<Reservation> reservations = reserveAll(pending, shortUrls, normalized, customShortUrls, expiresAt);
+
+        for (int p = 0; p < pending.size(); p++) {
+            int i = pending.get(p);
+            Reservation reservation = reservations.get(p);
+            boolean custom = customShortUrls.get(i) != null && !customShortUrls.get(i).isEmpty();
+            boolean defaultExpiry = expiresInSeconds.get(i) == null;
+
+            if (reservation == null) {
+                results.get(i).put("error", "Could not store the short URL.");
+                continue;
+            }
+
+            switch (reservation.getStatus()) {
+                case CREATED:
+                    redirectCache.invalidate(Url.foldShortUrl(reservation.getShortUrl()));
+                    if (defaultExpiry) {
+                        dedupCache.put(normalized[i], reservation.getShortUrl());
+                    }
+                    shortUrlFilter.added(reservation.getShortUrl());
+                    putCreated(results.get(i), reservation.getShortUrl(), normalized[i], "created");
+                    break;
+                case EXISTING:
+                    redirectCache.invalidate(Url.foldShortUrl(reservation.getShortUrl()));
+                    if (defaultExpiry) {
+                        dedupCache.put(normalized[i], reservation.getShortUrl());
+                    }
+                    shortUrlFilter.confirmed(reservation.getShortUrl());
+                    putCreated(results.get(i), reservation.getShortUrl(), normalized[i], "existing");
+                    break;
+                default:
+                    if (custom) {
+                        results.get(i).put("error", "Custom short URL already exists. Please choose another");
+                    } else {
+                        // Rare clash of a generated code with a custom or legacy one, or
+                        // of a stale cached code
+                        urlMetrics.shortCodeRetry();
+                        dedupCache.invalidate(normalized[i]);
+                        try {
+                            // Given the caller's URL, which createShortUrl normalizes itself
+                            String shortUrl = createShortUrl(longUrls.get(i), null, expiresInSeconds.get(i));
+                            putCreated(results.get(i), shortUrl, normalized[i], "created");
+                        } catch (UrlException e) {
+                            results.get(i).put("error", e.getMessage());
+                        }
+                    }
+            }
         }
 
-        // If the URL ends with a trailing "/", remove it for consistency
-        if (longUrl.endsWith("/")) {
-            longUrl = longUrl.substring(0, longUrl.length() - 1);
+        return results;
+    }
+
+    /**
+     * Sends one reservation per pending entry to Redis in a single pipeline.
+     *
+     * @return The outcomes, aligned with pending; null where the call failed.
+     */
+    private List<Reservation> reserveAll(List<Integer> pending, String[] shortUrls, String[] normalized,
+            List<String> customShortUrls, long[] expiresAt) {
+        List<String> pendingShortUrls = new ArrayList<>(pending.size());
+        List<String> pendingLongUrls = new ArrayList<>(pending.size());
+        List<Boolean> dedup = new ArrayList<>(pending.size());
+        List<Long> pendingExpiresAt = new ArrayList<>(pending.size());
+        for (int i : pending) {
+            pendingShortUrls.add(shortUrls[i]);
+            pendingLongUrls.add(normalized[i]);
+            dedup.add(customShortUrls.get(i) == null || customShortUrls.get(i).isEmpty());
+            pendingExpiresAt.add(expiresAt[i]);
         }
+        return urlStore.reserveAll(pendingShortUrls, pendingLongUrls, dedup, pendingExpiresAt);
+    }
 
-        // Prepend the normalized URL with "http://" to ensure a minimum protocol is
-        // present
-        return "http://" + longUrl;
+    private void putCreated(Map<String, String> result, String shortUrl, String longUrl, String status) {
+        result.put("shortUrl", shortUrl);
+        result.put("longUrl", longUrl);
+        result.put("status", status);
     }
 
     /**
@@ -161,57 +357,169 @@ public class UrlService {
      * lookup is case-insensitive.
      * The method ensures that the retrieved URL starts with "http://". If the
      * stored URL doesn't have this
-     * prefix, it is added for consistency. All returned URLs will be in lowercase
-     * for uniformity.
+     * prefix, it is added for consistency. The rest of the URL is returned as
+     * stored, already normalized when the link was created.
      *
      * @param shortUrl The short URL to lookup. The lookup is case-insensitive.
      * @return The original long URL corresponding to the provided short URL.
      * @throws UrlException If the provided short URL is not found in the database.
      */
     public String getLongUrl(String shortUrl) {
-        // Fetching all URLs from the repository and filtering to find the matching one
-        Optional<Url> url = StreamSupport.stream(urlRepository.findAll().spliterator(), false)
-                .filter(u -> u.getShortUrl().equalsIgnoreCase(shortUrl))
-                .findFirst();
+        String longUrl = findLongUrl(shortUrl);
 
-        // If a matching URL is found
-        if (url.isPresent()) {
-            String longUrl = url.get().getLongUrl();
+        if (longUrl == null) {
+            // Throw an exception if no matching URL is found
+            throw new UrlException("Short URL not found.");
+        }
+        return longUrl;
+    }
+
+    /**
+     * Retrieves the redirect target for a short URL like {@link #getLongUrl(String)},
+     * but reports a missing short URL with null instead of an exception, so the
+     * redirect endpoint can answer unknown codes cheaply.
+     *
+     * @param shortUrl The short URL to lookup. The lookup is case-insensitive.
+     * @return The long URL, or null if the short URL does not exist.
+     */
+    public String findLongUrl(String shortUrl) {
+        CachedLink link = findLink(shortUrl);
+        return link == null ? null : link.getLongUrl();
+    }
 
-            // Ensure the URL starts with "http://", adding the prefix if it's missing.
-            // This step handles any inconsistencies in previously stored data.
-            if (!longUrl.startsWith("http://")) {
-                longUrl = "http://" + longUrl;
+    /**
+     * Retrieves the link behind a short URL, with everything a redirect response
+     * needs: the canonical short URL, the redirect target and the expiry.
+     *
+     * @param shortUrl The short URL to lookup. The lookup is case-insensitive.
+     * @return The link, or null if the short URL does not exist.
+     */
+    public CachedLink findLink(String shortUrl) {
+        // Serve from the in-process cache; on a miss, check the short URL filter,
+        // then resolve through the case-insensitive index and remember the result
+        // (or its absence)
+        CachedLink link = resolveLink(shortUrl);
+        urlMetrics.lookup(link != null);
+        return link;
+    }
+
+    /**
+     * Resolves a short URL to its link through the redirect cache.
+     *
+     * @param shortUrl The short URL to resolve (case-insensitive).
+     * @return The cached or freshly loaded link, or null if the short URL does not exist.
+     */
+    private CachedLink resolveLink(String shortUrl) {
+        if (shortUrl == null) {
+            return null;
+        }
+
+        String key = Url.foldShortUrl(shortUrl);
+        long now = System.currentTimeMillis();
+        BoundedCache.Lookup<CachedLink> cached = redirectCache.lookup(key);
+        if (cached.isCached()) {
+            // An expired entry may have been extended by a create since it was cached; ask Redis
+            if (cached.getValue() == null || !cached.getValue().isExpired(now)) {
+                return cached.getValue();
             }
+            redirectCache.invalidate(key);
+        }
+        // Codes that were never created are turned away without a Redis round trip,
+        // and without crowding real links out of the cache with negative entries
+        if (!shortUrlFilter.mightContain(key)) {
+            return null;
+        }
 
-            // Return the long URL in lowercase for consistency
-            return longUrl.toLowerCase();
-        } else {
-            // Throw an exception if no matching URL is found
-            throw new UrlException("Short URL not found.");
+        // Concurrent misses share their Redis round trips; what they read is only
+        // cached if no update or delete invalidated the key since the read began
+        LookupCoalescer.Found found = lookupCoalescer.find(shortUrl, redirectCache.stamp());
+        Url url = found.getUrl().orElse(null);
+        if (url == null) {
+            shortUrlFilter.falsePositive(key);
+            redirectCache.putAbsent(key, found.getStamp());
+            return null;
+        }
+        // Expired links are gone as far as clients are concerned, even before the reaper removes them
+        if (url.isExpired(now)) {
+            redirectCache.putAbsent(key, found.getStamp());
+            return null;
         }
+        CachedLink link = new CachedLink(url.getShortUrl(), urlNormalizer.toRedirectUrl(url.getLongUrl()),
+                url.getExpiresAt());
+        redirectCache.put(key, link, found.getStamp());
+        return link;
+    }
+
+    /**
+     * Retrieves when a short URL expires, through the redirect cache.
+     *
+     * @param shortUrl The short URL to look up (case-insensitive).
+     * @return The expiry in epoch milliseconds, or 0 if the link never expires or does not exist.
+     */
+    public long findExpiresAt(String shortUrl) {
+        CachedLink link = resolveLink(shortUrl);
+        return link == null ? 0 : link.getExpiresAt();
     }
 
     /**
      * Increments the click count of a short URL.
+     * The click is buffered in memory and written to Redis by the next
+     * {@link ClickCountBuffer} flush, keeping writes off the redirect path.
      *
-     * @param shortUrl Short URL to increment click count for.
+     * @param shortUrl  Short URL to increment click count for.
+     * @param visitorId Opaque visitor id for the unique visitor estimate, or null.
      * @throws UrlException if the provided short URL is not found in the database
      */
-    public void incrementClickCount(String shortUrl) {
-        Optional<Url> url = StreamSupport.stream(urlRepository.findAll().spliterator(), false)
-                .filter(u -> u.getShortUrl().equalsIgnoreCase(shortUrl))
-                .findFirst();
+    public void incrementClickCount(String shortUrl, String visitorId) {
+        CachedLink link = resolveLink(shortUrl);
 
-        if (url.isPresent()) {
-            Url urlEntity = url.get();
-            urlEntity.setClickCount(urlEntity.getClickCount() + 1);
-            urlRepository.save(urlEntity);
+        if (link != null) {
+            recordClick(link, visitorId);
         } else {
             throw new UrlException("Short URL not found. Cannot increment click count.");
         }
     }
 
+    /**
+     * Records a click for a link already resolved with {@link #findLink(String)},
+     * without looking it up again.
+     *
+     * @param link      The clicked link.
+     * @param visitorId Opaque visitor id for the unique visitor estimate, or null.
+     */
+    public void recordClick(CachedLink link, String visitorId) {
+        clickCountBuffer.increment(link.getShortUrl());
+        if (visitorId != null) {
+            visitorTracker.record(link.getShortUrl(), visitorId);
+        }
+    }
+
+    /**
+     * Adds clicks that were counted outside this service, such as redirects that
+     * browsers or CDNs served from their cache and reported afterwards. The clicks
+     * go through the same write-behind buffer as redirects.
+     *
+     * @param clicks Clicks per short URL (case-insensitive).
+     * @return The number of short URLs whose clicks were recorded; unknown short
+     *         URLs and counts outside 1 to {@link ClickCountBuffer#MAX_REPORTED_CLICKS} are skipped
+     */
+    public int recordClicks(Map<String, Long> clicks) {
+        int recorded = 0;
+        for (Map.Entry<String, Long> entry : clicks.entrySet()) {
+            Long count = entry.getValue();
+            if (count == null || count < 1 || count > ClickCountBuffer.MAX_REPORTED_CLICKS) {
+                continue;
+            }
+            CachedLink link = resolveLink(entry.getKey());
+            if (link != null) {
+                clickCountBuffer.add(link.getShortUrl(), count);
+                recorded++;
+            }
+        }
+        urlMetrics.clicksReported(recorded);
+        return recorded;
+    }
+
     /**
      * Retrieves the click count for the given short URL.
      *
@@ -219,12 +527,11 @@ public class UrlService {
      * @return Click count
      * @throws UrlException if the provided short URL is not found in the database
      */
-    public int getClickCount(String shortUrl) {
-        // Implement the logic to retrieve the click count for the given short URL
-        // You can use your repository or any other data source for this
-        Optional<Url> url = urlRepository.findById(shortUrl);
+    public long getClickCount(String shortUrl) {
+        Optional<Url> url = findUrl(shortUrl);
         if (url.isPresent()) {
-            return url.get().getClickCount();
+            // Persisted count plus clicks still waiting for the next flush
+            return totalClickCount(url.get());
         } else {
             throw new UrlException("Short URL not found.");
         }
@@ -240,21 +547,21 @@ public class UrlService {
      */
     public void updateUrl(String shortUrl, String newLongUrl) {
         // Normalize the new long URL to ensure it's in the correct format
-        newLongUrl = normalizeLongUrl(newLongUrl);
+        newLongUrl = urlNormalizer.normalize(newLongUrl);
 
-        // Perform a case-insensitive lookup
-        List<Url> allUrls = StreamSupport.stream(urlRepository.findAll().spliterator(), false)
-                .filter(u -> u.getShortUrl().equalsIgnoreCase(shortUrl))
-                .collect(Collectors.toList());
+        // Perform a case-insensitive lookup through the short URL index
+        List<Url> allUrls = findMatchingUrls(shortUrl);
 
         if (allUrls.isEmpty()) {
             throw new UrlException("Short URL not found. Cannot update.");
         }
 
-        // Update each matching URL
+        // Update only the longUrl field of each match (and its index), so buffered
+        // click increments flushed concurrently are not overwritten
         for (Url existingUrl : allUrls) {
-            Url updatedUrl = new Url(newLongUrl, existingUrl.getShortUrl());
-            urlRepository.save(updatedUrl);
+            urlStore.updateLongUrl(existingUrl, newLongUrl);
+            redirectCache.invalidate(existingUrl.getShortUrlKey());
+            dedupCache.invalidate(existingUrl.getLongUrl());
         }
     }
 
@@ -265,55 +572,193 @@ public class UrlService {
      * @throws UrlException if the provided short URL is not found in the database
      */
     public void deleteShortUrl(String shortUrl) {
-        Optional<Url> existingUrl = urlRepository.findById(shortUrl);
+        // Exact match first, then a case-insensitive lookup through the index
+        Optional<Url> existingUrl = findUrl(shortUrl);
 
         if (!existingUrl.isPresent()) {
-            // If not found, perform a case-insensitive search and delete if found
-            List<Url> urls = StreamSupport.stream(urlRepository.findAll().spliterator(), false)
-                    .filter(url -> url.getShortUrl().equalsIgnoreCase(shortUrl))
-                    .collect(Collectors.toList());
+            throw new UrlException("Short URL not found. Cannot delete.");
+        }
 
-            if (!urls.isEmpty()) {
-                urlRepository.deleteById(urls.get(0).getShortUrl());
-            } else {
-                throw new UrlException("Short URL not found. Cannot delete.");
+        // Delete the found URL and forget any cached redirect for it
+        urlStore.delete(existingUrl.get());
+        redirectCache.invalidate(Url.foldShortUrl(shortUrl));
+        dedupCache.invalidate(existingUrl.get().getLongUrl());
+        clickCountBuffer.discard(existingUrl.get().getShortUrl());
+        visitorTracker.discard(existingUrl.get().getShortUrl());
+
+        String canonical = existingUrl.get().getShortUrl();
+        List<String> analyticsKeys = new ArrayList<>(clickAnalytics.retainedKeys(canonical));
+        analyticsKeys.add(VisitorTracker.key(canonical));
+        urlStore.redisFor(canonical).unlink(analyticsKeys);
+        StringRedisTemplate previous = urlStore.previousRedisFor(canonical);
+        if (previous != null) {
+            // A rebalance may not have moved them yet
+            previous.unlink(analyticsKeys);
+        }
+    }
+
+    /**
+     * Estimates the number of distinct visitors of a short URL. Visits reach the
+     * estimate with the next flush, after {@code shorty.clicks.flush-interval-ms}.
+     *
+     * @param shortUrl Short URL to report on (case-insensitive).
+     * @return The estimated unique visitors (standard error 0.81%)
+     * @throws UrlException if the short URL is not found
+     */
+    public long getUniqueVisitors(String shortUrl) {
+        Url url = findUrl(shortUrl).orElseThrow(() -> new UrlException("Short URL not found."));
+        return visitorTracker.countVisitors(url.getShortUrl());
+    }
+
+    /**
+     * Returns the most clicked links of the recent past, as seen by this instance.
+     *
+     * @param windowMinutes Window length in minutes, 1 to 60.
+     * @param limit         Maximum number of links.
+     * @return Links with their estimated {@code clicks} and {@code error} bound, most clicked first
+     * @throws IllegalArgumentException if the window or limit is out of range
+     */
+    public List<Map<String, Object>> getTrending(int windowMinutes, int limit) {
+        return trendingTracker.top(windowMinutes, limit);
+    }
+
+    /**
+     * Retrieves the click time series of a short URL. Clicks reach the series
+     * with the click buffer's flush, so the latest bucket may lag by up to
+     * {@code shorty.clicks.flush-interval-ms}.
+     *
+     * @param shortUrl    Short URL to report on (case-insensitive).
+     * @param granularity "minute", "hour" or "day"; null means "hour".
+     * @param from        ISO-8601 start instant, or null for the default window.
+     * @param to          ISO-8601 end instant, or null for now.
+     * @return The series with its total; see {@link ClickRange#toStats(List)}
+     * @throws UrlException if the short URL is not found
+     * @throws IllegalArgumentException if a parameter is malformed or the range is too large
+     */
+    public Map<String, Object> getClickStats(String shortUrl, String granularity, String from, String to) {
+        Url url = findUrl(shortUrl).orElseThrow(() -> new UrlException("Short URL not found."));
+        ClickRange range = clickAnalytics.range(url.getShortUrl(), granularity, from, to);
+
+        // One HMGET per bucket hash, all in a single round trip to the link's server
+        StringRedisTemplate redisTemplate = urlStore.redisFor(url.getShortUrl());
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < range.getKeys().size(); i++) {
+                connection.hashCommands().hMGet(range.getKeys().get(i).getBytes(StandardCharsets.UTF_8),
+                        range.getFields().get(i).stream()
+                                .map(field -> field.getBytes(StandardCharsets.UTF_8))
+                                .toArray(byte[][]::new));
             }
-        } else {
-            // Delete the found URL
-            urlRepository.deleteById(shortUrl);
+            return null;
+        });
+
+        List<List<String>> values = new ArrayList<>(replies.size());
+        for (Object reply : replies) {
+            @SuppressWarnings("unchecked")
+            List<String> fields = (List<String>) reply;
+            values.add(fields);
         }
+        return range.toStats(values);
     }
 
     /**
-     * Retrieves all the URL mappings (both long and short) from the database.
-     * 
-     * @return List of URL mappings
+     * Adds the unflushed clicks held by the {@link ClickCountBuffer} to a persisted count.
+     *
+     * @param url The stored Url entity.
+     * @return The click count as seen by callers.
      */
-    public List<Url> getAllUrls() {
-        Iterable<Url> urls = urlRepository.findAll();
-        // Convert Iterable<Url> to List<Url>
-        return StreamSupport.stream(urls.spliterator(), false).collect(Collectors.toList());
+    private long totalClickCount(Url url) {
+        return url.getClickCount() + clickCountBuffer.getPending(url.getShortUrl());
     }
 
     /**
-     * Retrieves all the URL mappings (both long and short) from the database,
-     * including click counts.
-     * 
-     * @return List of URL mappings with click counts
+     * Finds the Url entity for a short URL, case-insensitively, in a constant
+     * number of Redis round trips regardless of how many links are stored.
+     *
+     * @param shortUrl The short URL to look up.
+     * @return The matching Url entity, or empty if none exists.
      */
-    public List<Map<String, String>> getAllUrlsWithClickCount() {
-        Iterable<Url> urls = urlRepository.findAll();
-        List<Map<String, String>> urlList = new ArrayList<>();
-
-        for (Url url : urls) {
-            Map<String, String> urlInfo = new HashMap<>();
-            urlInfo.put("longUrl", url.getLongUrl());
-            urlInfo.put("shortUrl", url.getShortUrl());
-            urlInfo.put("clickCount", String.valueOf(url.getClickCount())); // Add click count to the response
-            urlList.add(urlInfo);
+    private Optional<Url> findUrl(String shortUrl) {
+        return urlStore.findByShortUrl(shortUrl);
+    }
+
+    /**
+     * Finds every Url entity whose short URL matches case-insensitively.
+     *
+     * @param shortUrl The short URL to look up.
+     * @return All matching Url entities; empty if none exist.
+     */
+    private List<Url> findMatchingUrls(String shortUrl) {
+        return urlStore.findAllByShortUrl(shortUrl);
+    }
+
+    /**
+     * Retrieves one page of URL mappings with click counts, walking the stored
+     * links with SSCAN (bucket by bucket in the compact layout). Pages hold
+     * roughly {@code size} entries and may be empty while the scan continues;
+     * clients should follow {@code nextCursor} until it is null.
+     *
+     * @param cursor Cursor returned by the previous page; null or empty to start
+     * @param size   Requested page size, between 1 and {@link UrlPageScripts#MAX_PAGE_SIZE}
+     * @return Map with the page's {@code urls} and the {@code nextCursor}
+     */
+    public Map<String, Object> getUrlPageWithClickCount(String cursor, int size) {
+        UrlPage page = readPage(cursor, size);
+
+        List<Map<String, String>> urlList = new ArrayList<>(page.getUrls().size());
+        for (Url url : page.getUrls()) {
+            urlList.add(toUrlInfo(url));
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("urls", urlList);
+        response.put("nextCursor", page.hasNext() ? page.getNextCursor() : null);
+        return response;
+    }
+
+    /**
+     * Walks every stored URL mapping page by page, handing each page to the action
+     * as soon as it is read, so callers can stream the full set in constant memory.
+     *
+     * @param size   Requested page size, between 1 and {@link UrlPageScripts#MAX_PAGE_SIZE}
+     * @param action Receives each page of URL mappings with click counts
+     */
+    public void forEachUrlPage(int size, Consumer<List<Map<String, String>>> action) {
+        String cursor = UrlPage.START_CURSOR;
+        do {
+            UrlPage page = readPage(cursor, size);
+            if (!page.getUrls().isEmpty()) {
+                List<Map<String, String>> urlList = new ArrayList<>(page.getUrls().size());
+                for (Url url : page.getUrls()) {
+                    urlList.add(toUrlInfo(url));
+                }
+                action.accept(urlList);
+            }
+            cursor = page.getNextCursor();
+        } while (!UrlPage.START_CURSOR.equals(cursor));
+    }
+
+    private UrlPage readPage(String cursor, int size) {
+        return urlStore.findPage(cursor, size);
+    }
+
+    private Map<String, String> toUrlInfo(Url url) {
+        Map<String, String> urlInfo = new HashMap<>();
+        urlInfo.put("longUrl", url.getLongUrl());
+        urlInfo.put("shortUrl", url.getShortUrl());
+        urlInfo.put("clickCount", String.valueOf(totalClickCount(url))); // Add click count to the response
+        if (url.getExpiresAt() != 0) {
+            urlInfo.put("expiresAt", LinkExpiry.format(url.getExpiresAt()));
         }
+        return urlInfo;
+    }
 
-        return urlList;
+    /**
+     * Returns the hit, miss and eviction counters of the redirect cache.
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Long> getRedirectCacheStats() {
+        return redirectCache.stats();
     }
 
     /**
@@ -323,11 +768,6 @@ public class UrlService {
      * @return true if the URL is valid, false otherwise.
      */
     public boolean isValidUrl(String url) {
-        // Define URL validation options (you can customize this as needed)
-        UrlValidator urlValidator = new UrlValidator(
-                new String[] { "http", "https" });
-
-        // Check if the URL is valid
-        return urlValidator.isValid(url);
+        return urlNormalizer.isValid(url);
     }
-}
+}
\ No newline at end of file
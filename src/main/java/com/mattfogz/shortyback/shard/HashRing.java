@@ -0,0 +1,80 @@
+package com.mattfogz.shortyback.shard;
+
+import com.mattfogz.shortyback.util.Fnv;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring. Each node is placed at {@code virtualNodes} points,
+ * derived from its name, and a key belongs to the node of the first point at or
+ * after the key's hash. Adding a node only moves the keys that land on its new
+ * points, about 1/N of them. The more points per node, the closer each node's
+ * share comes to 1/N; at 160, typically within about 15% of it.
+ *
+ * @param <T> The node type.
+ */
+public class HashRing<T> {
+
+    private final long[] points;
+    private final Object[] owners;
+
+    /**
+     * Builds the ring. Points depend only on node names, so the order of the
+     * nodes does not change which node owns a key.
+     *
+     * @param nodes        The nodes by name, e.g. {@code host:port}.
+     * @param virtualNodes Points per node, at least 1.
+     */
+    public HashRing(Map<String, T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one point per node");
+        }
+
+        // Names in order, so the rare point collision is settled the same way on every instance
+        TreeMap<Long, T> ring = new TreeMap<>();
+        for (String name : new TreeMap<>(nodes).keySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(name + "#" + i), nodes.get(name));
+            }
+        }
+
+        this.points = new long[ring.size()];
+        this.owners = new Object[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, T> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * @param key A key, e.g. a case-folded short URL.
+     * @return The node owning the key.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            // Not a point itself: take the next point clockwise, wrapping around
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return (T) owners[index];
+    }
+
+    /**
+     * 64-bit FNV-1a, with the MurmurHash3 finalizer so that keys differing only
+     * in their last characters still spread over the whole ring.
+     */
+    static long hash(String key) {
+        return Fnv.fmix64(Fnv.hash(key));
+    }
+}
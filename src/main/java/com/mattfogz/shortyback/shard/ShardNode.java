@@ -0,0 +1,62 @@
+package com.mattfogz.shortyback.shard;
+
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * One Redis server of a sharded link store, with its own connection.
+ */
+public class ShardNode {
+
+    private final int index;
+    private final String name;
+    private final LettuceConnectionFactory connectionFactory;
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+
+    /**
+     * @param index             Position of the node in {@code shorty.shards.nodes}.
+     * @param name              {@code host:port}; places the node on the hash ring.
+     * @param connectionFactory An initialized connection factory for the node.
+     */
+    public ShardNode(int index, String name, LettuceConnectionFactory connectionFactory) {
+        this.index = index;
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.reactiveRedisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+    }
+
+    // Getter for the position of the node in shorty.shards.nodes
+    public int getIndex() {
+        return index;
+    }
+
+    // Getter for the node name, host:port
+    public String getName() {
+        return name;
+    }
+
+    // Getter for the blocking template on the node
+    public StringRedisTemplate getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    // Getter for the non-blocking template on the node
+    public ReactiveStringRedisTemplate getReactiveRedisTemplate() {
+        return reactiveRedisTemplate;
+    }
+
+    /**
+     * Closes the node's connections.
+     */
+    void close() {
+        connectionFactory.destroy();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,178 @@
+package com.mattfogz.shortyback.shard;
+
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The Redis servers links are sharded over, configured by {@code shorty.shards.*}.
+ *
+ * Each link, with its click series and visitor estimate, lives on the node that
+ * owns its case-folded short URL on a {@link HashRing}. With no nodes configured
+ * the store is not sharded and everything stays on {@code spring.data.redis.*}.
+ * Keys shared by all instances (the id sequence, pub/sub, migration markers and
+ * import checkpoints) stay there in either case.
+ *
+ * While a rebalance is under way, {@code shorty.shards.previous-nodes} names the
+ * nodes from before new ones were added; a link may then still be on the node
+ * that owned it on that ring (see {@link com.mattfogz.shortyback.service.ShardRebalancer}).
+ */
+public class ShardTopology implements DisposableBean {
+
+    private final List<ShardNode> nodes;
+    private final List<ShardNode> previousNodes;
+    private final HashRing<ShardNode> ring;
+    private final HashRing<ShardNode> previousRing;
+
+    /**
+     * Connects to every node.
+     *
+     * @param nodeSpecs       {@code redis://[:password@]host:port[/database]} or {@code host:port}
+     *                        per node; empty for an unsharded store.
+     * @param previousNames   {@code host:port} of the nodes before the last were added; empty
+     *                        unless rebalancing. Must all be among the nodes.
+     * @param virtualNodes    Points per node on the hash ring.
+     * @param clientResources Shared Lettuce resources, so commands to every node are measured.
+     * @param commandCounter  Counts the Redis commands of each request.
+     */
+    public ShardTopology(List<String> nodeSpecs, List<String> previousNames, int virtualNodes,
+            ClientResources clientResources, RedisCommandCounter commandCounter) {
+        if (nodeSpecs.isEmpty()) {
+            if (!previousNames.isEmpty()) {
+                throw new IllegalArgumentException("shorty.shards.previous-nodes requires shorty.shards.nodes");
+            }
+            this.nodes = Collections.emptyList();
+            this.previousNodes = Collections.emptyList();
+            this.ring = null;
+            this.previousRing = null;
+            return;
+        }
+
+        Map<String, ShardNode> byName = new LinkedHashMap<>();
+        try {
+            for (String spec : nodeSpecs) {
+                RedisURI uri = RedisURI.create(spec.contains("://") ? spec : "redis://" + spec);
+                String name = uri.getHost() + ":" + uri.getPort();
+                if (byName.containsKey(name)) {
+                    throw new IllegalArgumentException("Duplicate shard node: " + name);
+                }
+                byName.put(name, new ShardNode(byName.size(), name, connect(uri, clientResources, commandCounter)));
+            }
+        } catch (RuntimeException e) {
+            byName.values().forEach(ShardNode::close);
+            throw e;
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(byName.values()));
+        this.ring = new HashRing<>(byName, virtualNodes);
+
+        Map<String, ShardNode> previous = new LinkedHashMap<>();
+        for (String name : previousNames) {
+            ShardNode node = byName.get(name);
+            if (node == null) {
+                destroy();
+                throw new IllegalArgumentException("shorty.shards.previous-nodes lists " + name
+                        + ", which is not in shorty.shards.nodes; only adding nodes is supported");
+            }
+            previous.put(name, node);
+        }
+        this.previousNodes = Collections.unmodifiableList(new ArrayList<>(previous.values()));
+        this.previousRing = previous.isEmpty() ? null : new HashRing<>(previous, virtualNodes);
+    }
+
+    private static LettuceConnectionFactory connect(RedisURI uri, ClientResources clientResources,
+            RedisCommandCounter commandCounter) {
+        RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(uri.getHost(), uri.getPort());
+        standalone.setDatabase(uri.getDatabase());
+        if (uri.getUsername() != null) {
+            standalone.setUsername(uri.getUsername());
+        }
+        if (uri.getPassword() != null) {
+            standalone.setPassword(RedisPassword.of(uri.getPassword()));
+        }
+
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder()
+                .clientResources(clientResources);
+        if (uri.isSsl()) {
+            client.useSsl();
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(standalone, client.build());
+        factory.afterPropertiesSet();
+        factory.getRequiredNativeClient().addListener(commandCounter);
+        return factory;
+    }
+
+    /**
+     * @return Whether links are spread over several nodes.
+     */
+    public boolean isSharded() {
+        return ring != null;
+    }
+
+    /**
+     * @return Whether {@code shorty.shards.previous-nodes} is set, so links may still
+     *         be on the node that owned them before.
+     */
+    public boolean isRebalancing() {
+        return previousRing != null;
+    }
+
+    // Getter for the nodes, in shorty.shards.nodes order
+    public List<ShardNode> getNodes() {
+        return nodes;
+    }
+
+    // Getter for the nodes from before the last were added; empty unless rebalancing
+    public List<ShardNode> getPreviousNodes() {
+        return previousNodes;
+    }
+
+    /**
+     * @param key A case-folded short URL, or a long URL.
+     * @return The node owning the key.
+     */
+    public ShardNode ownerOf(String key) {
+        return ring.get(key);
+    }
+
+    /**
+     * @param key A case-folded short URL, or a long URL.
+     * @return The node that owned the key before the last nodes were added, if a
+     *         rebalance is under way and it is not the owner now; otherwise null.
+     */
+    public ShardNode previousOwnerOf(String key) {
+        if (previousRing == null) {
+            return null;
+        }
+        ShardNode previous = previousRing.get(key);
+        return previous == ring.get(key) ? null : previous;
+    }
+
+    /**
+     * @return An id of the move from the previous nodes to the current ones, the
+     *         same on every instance with the same configuration.
+     */
+    public String getRebalanceId() {
+        TreeSet<String> from = new TreeSet<>();
+        previousNodes.forEach(node -> from.add(node.getName()));
+        TreeSet<String> to = new TreeSet<>();
+        nodes.forEach(node -> to.add(node.getName()));
+        return Long.toHexString(HashRing.hash(String.join(",", from) + ">" + String.join(",", to)));
+    }
+
+    @Override
+    public void destroy() {
+        nodes.forEach(ShardNode::close);
+    }
+}
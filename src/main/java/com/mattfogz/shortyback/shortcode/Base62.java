@@ -0,0 +1,71 @@
+package com.mattfogz.shortyback.shortcode;
+
+/**
+ * Base62 encoding of non-negative numbers into short codes, using the same
+ * alphabet the service has always used for generated short URLs.
+ */
+public final class Base62 {
+
+    public static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    public static final int BASE = ALPHABET.length();
+
+    private Base62() {
+    }
+
+    /**
+     * Encodes a value, left-padding with the zero digit up to a minimum width.
+     *
+     * @param value    The non-negative value to encode.
+     * @param minWidth The minimum number of characters in the result.
+     * @return The base62 representation of value.
+     */
+    public static String encode(long value, int minWidth) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Only non-negative values can be encoded.");
+        }
+
+        // 11 digits cover Long.MAX_VALUE in base62
+        char[] buf = new char[Math.max(11, minWidth)];
+        int pos = buf.length;
+        do {
+            buf[--pos] = ALPHABET.charAt((int) (value % BASE));
+            value /= BASE;
+        } while (value > 0);
+
+        while (buf.length - pos < minWidth) {
+            buf[--pos] = ALPHABET.charAt(0);
+        }
+        return new String(buf, pos, buf.length - pos);
+    }
+
+    /**
+     * Decodes a base62 string produced by {@link #encode(long, int)}.
+     *
+     * @param code The base62 string.
+     * @return The encoded value.
+     */
+    public static long decode(String code) {
+        long value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            int digit = ALPHABET.indexOf(code.charAt(i));
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a base62 code: " + code);
+            }
+            value = value * BASE + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @param width Number of base62 digits.
+     * @return How many distinct codes of exactly that width exist (62^width).
+     */
+    public static long capacity(int width) {
+        long capacity = 1;
+        for (int i = 0; i < width; i++) {
+            capacity = Math.multiplyExact(capacity, BASE);
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,16 @@
+package com.mattfogz.shortyback.shortcode;
+
+/**
+ * Hands out disjoint blocks of sequence numbers shared by all service instances.
+ */
+@FunctionalInterface
+public interface IdBlockAllocator {
+
+    /**
+     * Reserves the next block of ids.
+     *
+     * @param blockSize Number of ids to reserve.
+     * @return The first id of the block; the block is [first, first + blockSize).
+     */
+    long allocate(int blockSize);
+}
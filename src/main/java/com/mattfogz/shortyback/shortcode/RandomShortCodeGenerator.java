@@ -0,0 +1,31 @@
+package com.mattfogz.shortyback.shortcode;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates random fixed-length base62 codes. Codes can repeat, so callers must
+ * check each one against stored links and retry on a clash.
+ */
+public class RandomShortCodeGenerator implements ShortCodeGenerator {
+
+    private final int width;
+
+    /**
+     * @param width Number of characters per code.
+     */
+    public RandomShortCodeGenerator(int width) {
+        this.width = width;
+    }
+
+    @Override
+    public String nextShortCode() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        char[] code = new char[width];
+
+        for (int i = 0; i < width; i++) {
+            code[i] = Base62.ALPHABET.charAt(rnd.nextInt(Base62.BASE));
+        }
+
+        return new String(code);
+    }
+}
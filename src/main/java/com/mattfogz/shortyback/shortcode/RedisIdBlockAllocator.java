@@ -0,0 +1,28 @@
+package com.mattfogz.shortyback.shortcode;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * Allocates id blocks with a single atomic INCRBY on a shared Redis counter,
+ * so every instance gets disjoint ranges without coordination.
+ */
+public class RedisIdBlockAllocator implements IdBlockAllocator {
+
+    // Counter holding the last id handed out across all instances
+    public static final String SEQUENCE_KEY = "shorty:shortcode:sequence";
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisIdBlockAllocator(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public long allocate(int blockSize) {
+        Long last = redisTemplate.opsForValue().increment(SEQUENCE_KEY, blockSize);
+        if (last == null) {
+            throw new IllegalStateException("Redis returned no value for " + SEQUENCE_KEY);
+        }
+        return last - blockSize + 1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.mattfogz.shortyback.shortcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates short codes from a sequence leased in blocks.
+ *
+ * Each instance reserves a block of ids with one call to its {@link IdBlockAllocator}
+ * and hands them out locally, so Redis is contacted once per block rather than once
+ * per code. Ids below 62^width are optionally scrambled with a keyed
+ * {@link FeistelPermutation} and encoded as exactly {@code width} characters.
+ * Once those run out, scrambled codes grow by two characters at a time, each
+ * length with its own permutation under the same secret, so later codes are no
+ * easier to guess; unscrambled codes grow by one character. Since every id is
+ * used once and codes of one length come from one range, generated codes never
+ * repeat.
+ */
+public class SequentialShortCodeGenerator implements ShortCodeGenerator {
+
+    // Widest code whose range, 62^width, fits in a long
+    private static final int MAX_WIDTH = 10;
+
+    private final IdBlockAllocator allocator;
+    private final int blockSize;
+    private final int width;
+    private final long fixedWidthRange;
+    private final FeistelPermutation permutation;
+
+    // Permutations of width, width + 2, ... for as long as their range fits a long
+    private final List<FeistelPermutation> tiers = new ArrayList<>();
+
+    // Next id to hand out and the end (exclusive) of the current block; guarded by this
+    private long next;
+    private long limit;
+
+    /**
+     * @param allocator   Source of id blocks.
+     * @param blockSize   Number of ids leased per allocation.
+     * @param width       Length of codes for ids below 62^width.
+     * @param permutation Scrambles ids in the fixed-width range; null keeps them sequential.
+     */
+    public SequentialShortCodeGenerator(IdBlockAllocator allocator, int blockSize, int width,
+            FeistelPermutation permutation) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        if (permutation != null && permutation.range() != Base62.capacity(width)) {
+            throw new IllegalArgumentException("Permutation range must match the code width.");
+        }
+        this.allocator = allocator;
+        this.blockSize = blockSize;
+        this.width = width;
+        this.fixedWidthRange = Base62.capacity(width);
+        this.permutation = permutation;
+        if (permutation != null) {
+            for (int tierWidth = width; tierWidth <= MAX_WIDTH; tierWidth += 2) {
+                tiers.add(permutation.withWidth(tierWidth));
+            }
+        }
+    }
+
+    @Override
+    public String nextShortCode() {
+        return encode(nextId());
+    }
+
+    private synchronized long nextId() {
+        if (next >= limit) {
+            next = allocator.allocate(blockSize);
+            limit = next + blockSize;
+        }
+        return next++;
+    }
+
+    private String encode(long id) {
+        if (permutation == null) {
+            if (id < fixedWidthRange) {
+                return Base62.encode(id, width);
+            }
+            // Past the fixed-width range codes grow by a character; they cannot clash
+            // with fixed-width ones
+            return Base62.encode(id, width + 1);
+        }
+
+        // Each length permutes its whole range, but only receives the ids the shorter
+        // lengths could not hold; codes of different lengths cannot clash
+        for (FeistelPermutation tier : tiers) {
+            if (id < tier.range()) {
+                return Base62.encode(tier.permute(id), tier.width());
+            }
+        }
+        throw new IllegalStateException("Short code sequence exhausted at id " + id);
+    }
+}
@@ -0,0 +1,12 @@
+package com.mattfogz.shortyback.shortcode;
+
+/**
+ * Produces short codes for links created without a custom short URL.
+ */
+public interface ShortCodeGenerator {
+
+    /**
+     * @return The next short code. Implementations must be thread-safe.
+     */
+    String nextShortCode();
+}
@@ -0,0 +1,138 @@
+package com.mattfogz.shortyback.transfer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A blocking InputStream over a reactive request body, for parsers that pull
+ * their input. One buffer is requested at a time, and the next only once the
+ * reader has consumed it, so a slow reader slows the upload down rather than
+ * queueing it in memory. Must not be read on an event loop thread.
+ */
+public class DataBufferInputStream extends InputStream {
+
+    // Queued after the last buffer
+    private static final Object END = new Object();
+
+    // At most one buffer and the terminal signal are outstanding
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    private final BodySubscriber subscriber = new BodySubscriber();
+
+    private byte[] current;
+    private int position;
+    private boolean done;
+
+    /**
+     * Subscribes to the body.
+     *
+     * @param body The request body.
+     */
+    public DataBufferInputStream(Publisher<DataBuffer> body) {
+        body.subscribe(subscriber);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        subscriber.dispose();
+        signals.clear();
+    }
+
+    /**
+     * Makes sure unread bytes are at hand, waiting for the next buffer if needed.
+     *
+     * @return false at the end of the body.
+     */
+    private boolean fill() throws IOException {
+        while (current == null || position == current.length) {
+            if (done) {
+                return false;
+            }
+            if (current != null) {
+                // The previous buffer is consumed; only now ask for the next one
+                subscriber.request(1);
+            }
+
+            Object signal;
+            try {
+                signal = signals.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the request body");
+            }
+            if (signal == END) {
+                done = true;
+                return false;
+            }
+            if (signal instanceof Throwable) {
+                done = true;
+                throw new IOException("Request body failed", (Throwable) signal);
+            }
+            current = (byte[]) signal;
+            position = 0;
+        }
+        return true;
+    }
+
+    private class BodySubscriber extends BaseSubscriber<DataBuffer> {
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            subscription.request(1);
+        }
+
+        @Override
+        protected void hookOnNext(DataBuffer buffer) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            DataBufferUtils.release(buffer);
+            signals.add(bytes);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            signals.add(END);
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            signals.add(throwable);
+        }
+    }
+}
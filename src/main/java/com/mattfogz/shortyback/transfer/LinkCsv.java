@@ -0,0 +1,131 @@
+package com.mattfogz.shortyback.transfer;
+
+import com.mattfogz.shortyback.exception.UrlException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The CSV form of exported links: a header row naming the columns, then one row
+ * per link. Fields holding a comma, a quote or a line break are quoted as
+ * RFC 4180 describes, so any long URL survives the round trip.
+ */
+public final class LinkCsv {
+
+    // Columns of an export, in order; an empty expiresAt means the link never expires
+    public static final List<String> COLUMNS = List.of("shortUrl", "longUrl", "clickCount", "expiresAt");
+
+    // Longest field a row may hold, so a quote that is never closed cannot read a whole upload into memory
+    public static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    private LinkCsv() {
+    }
+
+    /**
+     * Writes the header row.
+     */
+    public static void writeHeader(Writer out) throws IOException {
+        writeRow(out, COLUMNS);
+    }
+
+    /**
+     * Writes one link as a row, its fields in {@link #COLUMNS} order.
+     *
+     * @param urlInfo The link's fields; missing ones are written empty.
+     */
+    public static void writeLink(Writer out, Map<String, String> urlInfo) throws IOException {
+        List<String> values = new ArrayList<>(COLUMNS.size());
+        for (String column : COLUMNS) {
+            values.add(urlInfo.get(column));
+        }
+        writeRow(out, values);
+    }
+
+    private static void writeRow(Writer out, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = values.get(i);
+            if (value == null) {
+                continue;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                out.write(value);
+            } else {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            }
+        }
+        out.write("\r\n");
+    }
+
+    /**
+     * Reads the next row. Rows end with CRLF or a bare LF; blank lines are skipped.
+     *
+     * @param in A buffered reader over the CSV text.
+     * @return The row's fields, or null at the end of the input.
+     * @throws UrlException if a quoted field is not closed or a field is longer than {@link #MAX_FIELD_LENGTH}
+     */
+    public static List<String> readRow(Reader in) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean started = false;
+
+        int c;
+        while ((c = in.read()) != -1) {
+            if (quoted) {
+                if (c != '"') {
+                    append(field, c, true);
+                    continue;
+                }
+                in.mark(1);
+                if (in.read() == '"') {
+                    // An escaped quote inside a quoted field
+                    append(field, '"', true);
+                } else {
+                    in.reset();
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+                started = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                started = true;
+            } else if (c == '\n') {
+                if (started || field.length() > 0) {
+                    break;
+                }
+            } else if (c != '\r') {
+                append(field, c, false);
+                started = true;
+            }
+        }
+
+        if (quoted) {
+            throw new UrlException("Unterminated quoted field in CSV.");
+        }
+        if (!started && field.length() == 0) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void append(StringBuilder field, int c, boolean quoted) {
+        if (field.length() >= MAX_FIELD_LENGTH) {
+            // Past the cap inside quotes, the closing quote is most likely missing
+            throw new UrlException(quoted ? "Unterminated quoted field in CSV." : "CSV field is too long.");
+        }
+        field.append((char) c);
+    }
+}
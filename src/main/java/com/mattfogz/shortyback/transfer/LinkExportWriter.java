@@ -0,0 +1,123 @@
+package com.mattfogz.shortyback.transfer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes exported links page by page as NDJSON, a JSON array or CSV, optionally
+ * gzip-compressed. Every page is flushed through the compressor as soon as it is
+ * written, so the client receives it without waiting for the rest of the export.
+ */
+public class LinkExportWriter {
+
+    public static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    private final OutputStream target;
+    private final GZIPOutputStream gzip;
+    private final String format;
+    private final JsonGenerator generator;
+    private final Writer csv;
+
+    /**
+     * Starts an export.
+     *
+     * @param out          Where the export goes; left open by {@link #finish}.
+     * @param format       {@code ndjson}, {@code json} or {@code csv}.
+     * @param compress     Whether to gzip the export.
+     * @param objectMapper Writes the JSON formats.
+     */
+    public LinkExportWriter(OutputStream out, String format, boolean compress, ObjectMapper objectMapper)
+            throws IOException {
+        checkFormat(format);
+        // Sync flushes end each page on a byte boundary the client can decompress
+        this.gzip = compress ? new GZIPOutputStream(out, true) : null;
+        this.target = compress ? gzip : out;
+        this.format = format;
+
+        if ("csv".equals(format)) {
+            this.generator = null;
+            this.csv = new OutputStreamWriter(target, StandardCharsets.UTF_8);
+            LinkCsv.writeHeader(csv);
+        } else {
+            this.csv = null;
+            this.generator = objectMapper.getFactory().createGenerator(target);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if ("ndjson".equals(format)) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+            } else {
+                generator.writeStartArray();
+            }
+        }
+    }
+
+    /**
+     * @param format An export format.
+     * @throws IllegalArgumentException if it is not {@code ndjson}, {@code json} or {@code csv}
+     */
+    public static void checkFormat(String format) {
+        if (!"ndjson".equals(format) && !"json".equals(format) && !"csv".equals(format)) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+    }
+
+    /**
+     * @param format An export format.
+     * @return The Content-Type of an export in that format.
+     */
+    public static MediaType contentType(String format) {
+        return "ndjson".equals(format) ? MediaType.APPLICATION_NDJSON
+                : "csv".equals(format) ? TEXT_CSV : MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Writes one page of links and pushes it to the client.
+     *
+     * @param page URL mappings with click counts, as listed by the services.
+     */
+    public void writePage(List<Map<String, String>> page) throws IOException {
+        if (csv != null) {
+            for (Map<String, String> urlInfo : page) {
+                LinkCsv.writeLink(csv, urlInfo);
+            }
+            csv.flush();
+        } else {
+            for (Map<String, String> urlInfo : page) {
+                generator.writeObject(urlInfo);
+            }
+            generator.flush();
+        }
+    }
+
+    /**
+     * Ends the export: closes the JSON array or the last NDJSON line, and writes
+     * the gzip trailer. The underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (csv != null) {
+            csv.flush();
+        } else {
+            if (!"ndjson".equals(format)) {
+                generator.writeEndArray();
+            }
+            generator.flush();
+            if ("ndjson".equals(format)) {
+                target.write('\n');
+            }
+        }
+        if (gzip != null) {
+            gzip.finish();
+        }
+        target.flush();
+    }
+}
@@ -0,0 +1,439 @@
+package com.mattfogz.shortyback.transfer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mattfogz.shortyback.cache.BoundedCache;
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.exception.UrlException;
+import com.mattfogz.shortyback.model.Url;
+import com.mattfogz.shortyback.repository.Reservation;
+import com.mattfogz.shortyback.repository.UrlStore;
+import com.mattfogz.shortyback.service.LinkExpiry;
+import com.mattfogz.shortyback.service.ShortUrlFilter;
+import com.mattfogz.shortyback.service.UrlNormalizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Restores links from an export: NDJSON, a JSON array or CSV with the columns of
+ * {@link LinkCsv#COLUMNS}. Links keep their short URL, click count and expiry.
+ *
+ * The body is parsed incrementally and handled in chunks of {@link #CHUNK_SIZE}
+ * records: normalized and validated in parallel, then reserved in one pipeline
+ * and their click counts restored in another, so memory use does not grow with
+ * the size of the import. An import given an id records in Redis how many records
+ * it has completed after every chunk; sending the same body again with the same
+ * id skips those records and carries on from there. Importing a link that is
+ * already stored with the same long URL is harmless, so a chunk interrupted
+ * halfway can simply be repeated.
+ *
+ * Used by both web stacks; the reactive one calls it on a blocking-capable thread.
+ */
+@Component
+public class LinkImporter {
+
+    // Records validated and written together, and completed between checkpoints
+    public static final int CHUNK_SIZE = 1000;
+
+    private static final String CHECKPOINT_KEY_PREFIX = "shorty:import:";
+    private static final Pattern IMPORT_ID = Pattern.compile("[A-Za-z0-9_.-]{1,64}");
+    private static final TypeReference<Map<String, String>> RECORD = new TypeReference<>() {
+    };
+
+    private final Duration checkpointTtl;
+
+    @Autowired
+    private UrlStore urlStore;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private BoundedCache<CachedLink> redirectCache;
+
+    @Autowired
+    private ShortUrlFilter shortUrlFilter;
+
+    @Autowired
+    private UrlNormalizer urlNormalizer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param checkpointTtlHours How long an unfinished import can be resumed.
+     */
+    public LinkImporter(@Value("${shorty.import.checkpoint-ttl-hours:24}") long checkpointTtlHours) {
+        if (checkpointTtlHours < 1) {
+            throw new IllegalArgumentException("shorty.import.checkpoint-ttl-hours must be positive");
+        }
+        this.checkpointTtl = Duration.ofHours(checkpointTtlHours);
+    }
+
+    /**
+     * @param importId An import id from a request; null for an import without checkpoints.
+     * @throws IllegalArgumentException if it is not 1 to 64 letters, digits, '.', '_' or '-'
+     */
+    public static void checkImportId(String importId) {
+        if (importId != null && !IMPORT_ID.matcher(importId).matches()) {
+            throw new IllegalArgumentException("importId must be 1 to 64 letters, digits, '.', '_' or '-'.");
+        }
+    }
+
+    /**
+     * @param contentType The Content-Type of an import request, or null.
+     * @return {@code csv} for a CSV body, otherwise {@code ndjson} (which also reads a JSON array).
+     */
+    public static String format(MediaType contentType) {
+        return contentType != null && LinkExportWriter.TEXT_CSV.isCompatibleWith(contentType) ? "csv" : "ndjson";
+    }
+
+    /**
+     * Imports every record of the body, reporting as it goes. Records that fail
+     * are reported and skipped. A body that cannot be read to the end ends the
+     * import after the records before the failure, and its checkpoint is kept.
+     *
+     * @param body     The uncompressed body.
+     * @param format   {@code ndjson} or {@code csv}.
+     * @param importId Names the checkpoint to resume from and update; null for none.
+     * @param report   Receives a {@code resumedFrom} line when resuming, one line per
+     *                 failed record with its {@code index} and {@code error}, a
+     *                 {@code checkpoint} line after every chunk, and a final line
+     *                 counting the records {@code created}, {@code existing},
+     *                 {@code expired}, {@code failed} and {@code skipped}.
+     */
+    public void importLinks(InputStream body, String format, String importId, Consumer<Map<String, String>> report) {
+        long resumeFrom = importId == null ? 0 : readCheckpoint(importId);
+        if (resumeFrom > 0) {
+            report.accept(Collections.singletonMap("resumedFrom", String.valueOf(resumeFrom)));
+        }
+
+        Map<String, Long> totals = new HashMap<>();
+        List<Map<String, String>> chunk = new ArrayList<>(CHUNK_SIZE);
+        long index = 0;
+        String failure = null;
+        try (RecordReader records = "csv".equals(format) ? new CsvRecordReader(body) : new JsonRecordReader(body)) {
+            Map<String, String> record;
+            while ((record = records.next()) != null) {
+                if (index++ < resumeFrom) {
+                    // Completed before the interruption
+                    continue;
+                }
+                chunk.add(record);
+                if (chunk.size() == CHUNK_SIZE) {
+                    importChunk(chunk, index - chunk.size(), importId, totals, report);
+                    chunk.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            failure = "Malformed request body: " + e.getOriginalMessage();
+        } catch (UrlException e) {
+            failure = "Malformed request body: " + e.getMessage();
+        } catch (IOException e) {
+            // A truncated upload or corrupt gzip data
+            failure = "Could not read request body: " + e.getMessage();
+        }
+        // Records read before a failure are still imported
+        importChunk(chunk, index - chunk.size(), importId, totals, report);
+
+        if (failure != null) {
+            report.accept(errorLine(index, failure));
+        } else if (importId != null) {
+            redisTemplate.delete(CHECKPOINT_KEY_PREFIX + importId);
+        }
+        report.accept(summary(totals, Math.min(index, resumeFrom)));
+    }
+
+    /**
+     * Imports one chunk, reports its failures, and records the checkpoint after it.
+     */
+    private void importChunk(List<Map<String, String>> chunk, long firstIndex, String importId,
+            Map<String, Long> totals, Consumer<Map<String, String>> report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, String>> results = importRecords(chunk);
+        for (int i = 0; i < results.size(); i++) {
+            Map<String, String> result = results.get(i);
+            if (result.containsKey("error")) {
+                result.put("index", String.valueOf(firstIndex + i));
+                report.accept(result);
+                totals.merge("failed", 1L, Long::sum);
+            } else {
+                totals.merge(result.get("status"), 1L, Long::sum);
+            }
+        }
+
+        long completed = firstIndex + chunk.size();
+        if (importId != null) {
+            redisTemplate.opsForValue().set(CHECKPOINT_KEY_PREFIX + importId, String.valueOf(completed),
+                    checkpointTtl);
+        }
+        report.accept(Collections.singletonMap("checkpoint", String.valueOf(completed)));
+    }
+
+    /**
+     * Restores a chunk of links. A record whose short URL is already stored for the
+     * same long URL counts as existing, and only its click count may be raised.
+     *
+     * @param records Records with {@code shortUrl}, {@code longUrl} and optionally
+     *                {@code clickCount} and {@code expiresAt}.
+     * @return One result per record, in order: {@code shortUrl} and {@code status}
+     *         ("created", "existing" or "expired"), or {@code error}
+     */
+    private List<Map<String, String>> importRecords(List<Map<String, String>> records) {
+        int size = records.size();
+        String[] shortUrls = new String[size];
+        String[] normalized = new String[size];
+        long[] clickCounts = new long[size];
+        long[] expiresAt = new long[size];
+        String[] errors = new String[size];
+
+        // Normalization and validation are CPU-only, so spread them over cores
+        IntStream.range(0, size).parallel().forEach(i -> {
+            Map<String, String> record = records.get(i);
+            try {
+                shortUrls[i] = record.get("shortUrl");
+                if (shortUrls[i] == null || shortUrls[i].isEmpty() || shortUrls[i].indexOf('/') >= 0) {
+                    throw new UrlException("Invalid short URL.");
+                }
+                String longUrl = record.get("longUrl");
+                String candidate = longUrl == null ? null : urlNormalizer.normalize(longUrl);
+                if (candidate == null || !urlNormalizer.isValid(candidate)) {
+                    throw new UrlException("Invalid URL format.");
+                }
+                normalized[i] = candidate;
+                clickCounts[i] = parseClickCount(record.get("clickCount"));
+                expiresAt[i] = LinkExpiry.parse(record.get("expiresAt"));
+            } catch (UrlException e) {
+                errors[i] = e.getMessage();
+            }
+        });
+
+        List<Map<String, String>> results = new ArrayList<>(size);
+        List<Integer> pending = new ArrayList<>(size);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            Map<String, String> result = new HashMap<>();
+            if (shortUrls[i] != null) {
+                result.put("shortUrl", shortUrls[i]);
+            }
+            results.add(result);
+
+            if (errors[i] != null) {
+                result.put("error", errors[i]);
+            } else if (expiresAt[i] != 0 && expiresAt[i] <= now) {
+                // Gone already; storing it would only give the reaper work
+                result.put("status", "expired");
+            } else {
+                pending.add(i);
+            }
+        }
+
+        List<String> pendingShortUrls = new ArrayList<>(pending.size());
+        List<String> pendingLongUrls = new ArrayList<>(pending.size());
+        List<Long> pendingExpiresAt = new ArrayList<>(pending.size());
+        for (int i : pending) {
+            pendingShortUrls.add(shortUrls[i]);
+            pendingLongUrls.add(normalized[i]);
+            pendingExpiresAt.add(expiresAt[i]);
+        }
+        // Never dedup: every link keeps the short URL it was exported with
+        List<Reservation> reservations = urlStore.reserveAll(pendingShortUrls, pendingLongUrls,
+                Collections.nCopies(pending.size(), false), pendingExpiresAt);
+
+        List<Integer> taken = new ArrayList<>();
+        List<String> counted = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        for (int p = 0; p < pending.size(); p++) {
+            int i = pending.get(p);
+            Reservation reservation = reservations.get(p);
+            if (reservation == null) {
+                results.get(i).put("error", "Could not store the link.");
+            } else if (reservation.getStatus() == Reservation.Status.CREATED) {
+                // Drop any negative cache entry left by earlier lookups of this code
+                redirectCache.invalidate(Url.foldShortUrl(shortUrls[i]));
+                shortUrlFilter.added(shortUrls[i]);
+                results.get(i).put("status", "created");
+                if (clickCounts[i] > 0) {
+                    counted.add(shortUrls[i]);
+                    counts.add(clickCounts[i]);
+                }
+            } else {
+                taken.add(i);
+            }
+        }
+
+        // A taken short URL is fine if it is this very link, imported before
+        List<String> takenShortUrls = new ArrayList<>(taken.size());
+        for (int i : taken) {
+            takenShortUrls.add(shortUrls[i]);
+        }
+        List<Url> stored = taken.isEmpty() ? Collections.emptyList() : urlStore.findByShortUrls(takenShortUrls);
+        for (int t = 0; t < taken.size(); t++) {
+            int i = taken.get(t);
+            Url url = stored.get(t);
+            if (url != null && shortUrls[i].equals(url.getShortUrl()) && normalized[i].equals(url.getLongUrl())) {
+                results.get(i).put("status", "existing");
+                shortUrlFilter.confirmed(shortUrls[i]);
+                if (clickCounts[i] > url.getClickCount()) {
+                    counted.add(shortUrls[i]);
+                    counts.add(clickCounts[i]);
+                }
+            } else {
+                results.get(i).put("error", "Short URL already exists with a different long URL.");
+            }
+        }
+
+        urlStore.restoreClickCounts(counted, counts);
+        return results;
+    }
+
+    private static long parseClickCount(String clickCount) {
+        if (clickCount == null || clickCount.isEmpty()) {
+            return 0;
+        }
+        try {
+            long count = Long.parseLong(clickCount);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new UrlException("Invalid click count.");
+    }
+
+    private long readCheckpoint(String importId) {
+        String position = redisTemplate.opsForValue().get(CHECKPOINT_KEY_PREFIX + importId);
+        return position == null ? 0 : Long.parseLong(position);
+    }
+
+    private static Map<String, String> errorLine(long index, String error) {
+        Map<String, String> line = new HashMap<>();
+        line.put("index", String.valueOf(index));
+        line.put("error", error);
+        return line;
+    }
+
+    private static Map<String, String> summary(Map<String, Long> totals, long skipped) {
+        Map<String, String> line = new HashMap<>();
+        for (String outcome : List.of("created", "existing", "expired", "failed")) {
+            line.put(outcome, String.valueOf(totals.getOrDefault(outcome, 0L)));
+        }
+        line.put("skipped", String.valueOf(skipped));
+        return line;
+    }
+
+    /**
+     * Reads import records one at a time.
+     */
+    private interface RecordReader extends AutoCloseable {
+
+        /**
+         * @return The next record, or null at the end of the body.
+         */
+        Map<String, String> next() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Reads NDJSON, or a JSON array element by element.
+     */
+    private class JsonRecordReader implements RecordReader {
+
+        private final JsonParser parser;
+        private boolean array;
+        private JsonToken token;
+
+        JsonRecordReader(InputStream body) throws IOException {
+            this.parser = objectMapper.getFactory().createParser(body);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (token == null) {
+                JsonToken first = parser.nextToken();
+                array = first == JsonToken.START_ARRAY;
+                token = array ? parser.nextToken() : first;
+            } else {
+                token = parser.nextToken();
+            }
+            if (token == null || (array && token == JsonToken.END_ARRAY)) {
+                return null;
+            }
+            Map<String, String> record = parser.readValueAs(RECORD);
+            return record == null ? Collections.emptyMap() : record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads CSV whose header row names the columns, in any order.
+     */
+    private static class CsvRecordReader implements RecordReader {
+
+        private final BufferedReader reader;
+        private List<String> header;
+
+        CsvRecordReader(InputStream body) {
+            this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (header == null) {
+                header = LinkCsv.readRow(reader);
+                if (header == null) {
+                    return null;
+                }
+                if (!header.contains("shortUrl") || !header.contains("longUrl")) {
+                    throw new UrlException("The CSV header must name the shortUrl and longUrl columns.");
+                }
+            }
+
+            List<String> row = LinkCsv.readRow(reader);
+            if (row == null) {
+                return null;
+            }
+            Map<String, String> record = new HashMap<>();
+            for (int i = 0; i < header.size() && i < row.size(); i++) {
+                record.put(header.get(i), row.get(i));
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.mattfogz.shortyback.util;
+
+/**
+ * 64-bit FNV-1a hashing. Unlike {@link String#hashCode()} it is 64 bits wide and
+ * fixed by its definition, so values can be persisted or shared between
+ * instances: compact-layout bucket names, redirect ETags and hash ring points
+ * all depend on it never changing. Characters are hashed as whole UTF-16 units,
+ * which for ASCII gives the standard byte-wise FNV-1a.
+ */
+public final class Fnv {
+
+    public static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    public static final long PRIME = 0x100000001b3L;
+
+    private Fnv() {
+    }
+
+    /**
+     * @param value The characters to hash.
+     * @return The 64-bit FNV-1a hash of value.
+     */
+    public static long hash(String value) {
+        long hash = OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Folds a whole 64-bit value into a hash in a single FNV-1a step.
+     *
+     * @param hash  A hash from {@link #hash(String)} or a previous call.
+     * @param value The value to fold in.
+     * @return The combined hash.
+     */
+    public static long hash(long hash, long value) {
+        hash ^= value;
+        hash *= PRIME;
+        return hash;
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer. FNV-1a leaves the high bits weakly
+     * dependent on the last characters; this spreads every input bit over the
+     * whole result, for callers that use the high bits or the hash's order.
+     *
+     * @param hash The hash to mix.
+     * @return The mixed hash.
+     */
+    public static long fmix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,16 @@
+-- Deletes a link of the compact layout with its click count, dedup entry and expiry.
+-- KEYS[1]: links bucket  KEYS[2]: counts bucket  KEYS[3]: long URL bucket
+-- KEYS[4]: expiry index "shorty:expiry"
+-- ARGV[1]: folded short URL  ARGV[2]: long URL fingerprint  ARGV[3]: short URL
+-- Returns 1, or 0 if the link did not exist.
+if redis.call('HDEL', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+
+redis.call('HDEL', KEYS[2], ARGV[1])
+-- Another link may have become the one reused for this long URL; leave it alone
+if redis.call('HGET', KEYS[3], ARGV[2]) == ARGV[3] then
+    redis.call('HDEL', KEYS[3], ARGV[2])
+end
+redis.call('ZREM', KEYS[4], ARGV[3])
+return 1
@@ -0,0 +1,29 @@
+-- Removes an expired link of the compact layout with its click count and dedup entry.
+-- KEYS[1]: expiry index "shorty:expiry"  KEYS[2]: links bucket  KEYS[3]: counts bucket
+-- KEYS[4]: long URL bucket of the link as read before the call
+-- ARGV[1]: short URL as stored  ARGV[2]: folded short URL  ARGV[3]: now in epoch milliseconds
+-- ARGV[4]: the encoded link as read before the call  ARGV[5]: its long URL fingerprint
+-- Returns 1 if removed, or 0 if the link has not expired or changed since it was read.
+local expiresAt = redis.call('ZSCORE', KEYS[1], ARGV[1])
+if not expiresAt or tonumber(expiresAt) > tonumber(ARGV[3]) then
+    return 0
+end
+
+local value = redis.call('HGET', KEYS[2], ARGV[2])
+if not value then
+    -- Deleted already; only the expiry entry was left
+    redis.call('ZREM', KEYS[1], ARGV[1])
+    return 0
+end
+-- Updated since it was read, so KEYS[4] may be the wrong bucket; the next run retries
+if value ~= ARGV[4] then
+    return 0
+end
+
+redis.call('HDEL', KEYS[2], ARGV[2])
+redis.call('HDEL', KEYS[3], ARGV[2])
+if redis.call('HGET', KEYS[4], ARGV[5]) == ARGV[1] then
+    redis.call('HDEL', KEYS[4], ARGV[5])
+end
+redis.call('ZREM', KEYS[1], ARGV[1])
+return 1
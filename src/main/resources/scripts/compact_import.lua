@@ -0,0 +1,20 @@
+-- Copies one link into the compact layout, e.g. from the entity layout.
+-- KEYS[1]: links bucket  KEYS[2]: long URL bucket  KEYS[3]: counts bucket
+-- ARGV[1]: folded short URL  ARGV[2]: encoded link  ARGV[3]: long URL fingerprint
+-- ARGV[4]: short URL  ARGV[5]: click count
+-- Returns 1 if copied, 0 if already copied (its click count is refreshed), or -1
+-- if a different link holds the folded short URL.
+local copied = 1
+if redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2]) == 0 then
+    if redis.call('HGET', KEYS[1], ARGV[1]) ~= ARGV[2] then
+        return -1
+    end
+    copied = 0
+else
+    redis.call('HSETNX', KEYS[2], ARGV[3], ARGV[4])
+end
+
+if ARGV[5] ~= '0' then
+    redis.call('HSET', KEYS[3], ARGV[1], ARGV[5])
+end
+return copied
@@ -0,0 +1,35 @@
+-- Reads one page of links of the compact layout in a single round trip, walking
+-- the buckets in order.
+-- ARGV[1]: first bucket  ARGV[2]: page size  ARGV[3]: number of buckets
+-- ARGV[4]: most buckets to visit  ARGV[5]: links key prefix  ARGV[6]: counts key prefix
+-- Returns { nextCursor, field1, link1, clickCount1, field2, ... }; the cursor is
+-- the next bucket to read, or "0" once every bucket has been read.
+local bucket = tonumber(ARGV[1])
+local size = tonumber(ARGV[2])
+local last = math.min(tonumber(ARGV[3]), bucket + tonumber(ARGV[4]))
+local result = { '0' }
+local found = 0
+
+-- Whole buckets are read, so a page may run over the size by one bucket
+while bucket < last and found < size do
+    local links = redis.call('HGETALL', ARGV[5] .. bucket)
+    if #links > 0 then
+        local counts = redis.call('HGETALL', ARGV[6] .. bucket)
+        local clicks = {}
+        for i = 1, #counts, 2 do
+            clicks[counts[i]] = counts[i + 1]
+        end
+        for i = 1, #links, 2 do
+            table.insert(result, links[i])
+            table.insert(result, links[i + 1])
+            table.insert(result, clicks[links[i]] or '0')
+        end
+        found = found + #links / 2
+    end
+    bucket = bucket + 1
+end
+
+if bucket < tonumber(ARGV[3]) then
+    result[1] = string.format('%d', bucket)
+end
+return result
@@ -0,0 +1,25 @@
+-- Atomically claims a short URL in the compact layout and stores the link.
+-- KEYS[1]: links bucket "shorty:links:<n>"   KEYS[2]: long URL bucket "shorty:longs:<n>"
+-- KEYS[3]: expiry index "shorty:expiry"
+-- ARGV[1]: folded short URL  ARGV[2]: encoded link  ARGV[3]: long URL fingerprint
+-- ARGV[4]: "1" to reuse any link already pointing at the long URL, "0" otherwise
+-- ARGV[5]: short URL as requested  ARGV[6]: expiry in epoch milliseconds, "0" for none
+-- Returns { status, shortUrl } with status "created", "existing" or "taken".
+if ARGV[4] == '1' then
+    local existing = redis.call('HGET', KEYS[2], ARGV[3])
+    if existing then
+        return { 'existing', existing }
+    end
+end
+
+-- Fields are case-folded, so any case variant counts as taken
+if redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2]) == 0 then
+    return { 'taken', ARGV[5] }
+end
+
+-- The first link stored for a long URL is the one reused for it
+redis.call('HSETNX', KEYS[2], ARGV[3], ARGV[5])
+if ARGV[6] ~= '0' then
+    redis.call('ZADD', KEYS[3], ARGV[6], ARGV[5])
+end
+return { 'created', ARGV[5] }
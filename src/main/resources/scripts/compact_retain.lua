@@ -0,0 +1,25 @@
+-- Extends the expiry of a reused link of the compact layout, so it lives at
+-- least as long as the link its creator asked for.
+-- KEYS[1]: links bucket  KEYS[2]: expiry index "shorty:expiry"
+-- ARGV[1]: folded short URL  ARGV[2]: short URL as stored
+-- ARGV[3]: requested expiry in epoch milliseconds, "0" for none
+-- Returns 1, or 0 if the link no longer exists.
+local value = redis.call('HGET', KEYS[1], ARGV[1])
+if not value then
+    return 0
+end
+
+-- Expiring links start with "\0\0<expiresAt>\0"; others never expire
+if string.sub(value, 1, 2) ~= '\0\0' then
+    return 1
+end
+local finish = string.find(value, '\0', 3, true)
+local current = string.sub(value, 3, finish - 1)
+if ARGV[3] == '0' then
+    redis.call('HSET', KEYS[1], ARGV[1], string.sub(value, finish + 1))
+    redis.call('ZREM', KEYS[2], ARGV[2])
+elseif tonumber(ARGV[3]) > tonumber(current) then
+    redis.call('HSET', KEYS[1], ARGV[1], '\0\0' .. ARGV[3] .. string.sub(value, finish))
+    redis.call('ZADD', KEYS[2], ARGV[3], ARGV[2])
+end
+return 1
@@ -0,0 +1,9 @@
+-- Removes a long URL's dedup entry of the compact layout if it names the given link.
+-- KEYS[1]: long URL bucket "shorty:longs:<n>"
+-- ARGV[1]: long URL fingerprint  ARGV[2]: short URL as stored
+-- Returns 1, or 0 if the entry names another link or does not exist.
+if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+    return 1
+end
+return 0
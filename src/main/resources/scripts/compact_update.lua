@@ -0,0 +1,15 @@
+-- Points a link of the compact layout at a new long URL and moves its dedup entry.
+-- KEYS[1]: links bucket  KEYS[2]: old long URL bucket  KEYS[3]: new long URL bucket
+-- ARGV[1]: folded short URL  ARGV[2]: new encoded link
+-- ARGV[3]: old long URL fingerprint  ARGV[4]: new long URL fingerprint  ARGV[5]: short URL
+-- Returns 1, or 0 if the link no longer exists.
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+
+redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+if redis.call('HGET', KEYS[2], ARGV[3]) == ARGV[5] then
+    redis.call('HDEL', KEYS[2], ARGV[3])
+end
+redis.call('HSETNX', KEYS[3], ARGV[4], ARGV[5])
+return 1
@@ -0,0 +1,25 @@
+-- Removes an expired link of the entity layout with every index entry pointing
+-- at it. The hash has normally expired already; its index entries have not.
+-- KEYS[1]: expiry index "shorty:expiry"  KEYS[2]: id set "Url"
+-- KEYS[3]: entity hash "Url:<id>"        KEYS[4]: "Url:<id>:idx"
+-- ARGV[1]: id  ARGV[2]: now in epoch milliseconds  ARGV[3]: long URL index prefix "Url:longUrl:"
+-- Returns the link's long URL ("" if unknown), or nil if it has not expired.
+local expiresAt = redis.call('ZSCORE', KEYS[1], ARGV[1])
+-- Not expiring any more, or extended since it was picked
+if not expiresAt or tonumber(expiresAt) > tonumber(ARGV[2]) then
+    return false
+end
+
+-- Clocks of the application and Redis may differ by a little
+redis.call('DEL', KEYS[3])
+local longUrl = ''
+for _, index in ipairs(redis.call('SMEMBERS', KEYS[4])) do
+    redis.call('SREM', index, ARGV[1])
+    if string.sub(index, 1, #ARGV[3]) == ARGV[3] then
+        longUrl = string.sub(index, #ARGV[3] + 1)
+    end
+end
+redis.call('DEL', KEYS[4])
+redis.call('SREM', KEYS[2], ARGV[1])
+redis.call('ZREM', KEYS[1], ARGV[1])
+return longUrl
@@ -0,0 +1,17 @@
+-- Adds the click series buckets of a key moved off another shard to this shard's
+-- copy, once: a marker records the merge, so a repeated rebalance skips it.
+-- KEYS[1]: click series hash  KEYS[2]: merge marker
+-- ARGV[1]: time to live of the moved key in ms, or a negative value for none
+-- ARGV[2]: time to live of the marker in ms  ARGV[3..]: bucket field and click count pairs
+-- Returns 1, or 0 if an earlier run merged the key already.
+if not redis.call('SET', KEYS[2], '1', 'NX', 'PX', ARGV[2]) then
+    return 0
+end
+
+for i = 3, #ARGV, 2 do
+    redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+if #ARGV > 2 and tonumber(ARGV[1]) > 0 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[1])
+end
+return 1
@@ -0,0 +1,32 @@
+-- Applies a batch of clicks to one link: its running total and its minute, hour
+-- and day buckets, so every granularity is rolled up in the same atomic step.
+-- KEYS[1]: hash holding the link  KEYS[2]: hash holding its click count
+-- KEYS[3..5]: minute, hour and day bucket hashes
+-- KEYS[6]: bitmap of the entries of the flush batch already applied
+-- ARGV[1]: number of clicks
+-- ARGV[2]: field of the link in KEYS[1]  ARGV[3]: field of the count in KEYS[2]
+-- ARGV[4..6]: bucket fields (minute of hour, hour of day, day of month)
+-- ARGV[7..9]: bucket expiry times (Unix seconds)
+-- ARGV[10]: position of this entry in the batch  ARGV[11]: lifetime of KEYS[6] (seconds)
+-- Returns the new total, or 0 if the link no longer exists.
+
+-- A batch retried after a failed pipeline skips the entries that did get applied.
+-- Entries run in order, so the first one sets the bitmap's lifetime.
+if redis.call('SETBIT', KEYS[6], ARGV[10], 1) == 1 then
+    return tonumber(redis.call('HGET', KEYS[2], ARGV[3])) or 0
+end
+if ARGV[10] == '0' then
+    redis.call('EXPIRE', KEYS[6], ARGV[11])
+end
+
+-- A click buffered just before a delete must not resurrect a partial link
+if redis.call('HEXISTS', KEYS[1], ARGV[2]) == 0 then
+    return 0
+end
+
+local total = redis.call('HINCRBY', KEYS[2], ARGV[3], ARGV[1])
+for i = 3, 5 do
+    redis.call('HINCRBY', KEYS[i], ARGV[i + 1], ARGV[1])
+    redis.call('EXPIREAT', KEYS[i], ARGV[i + 4])
+end
+return total
@@ -0,0 +1,12 @@
+-- Extends or releases a lock, but only for the caller holding it.
+-- KEYS[1]: lock key
+-- ARGV[1]: the holder's token  ARGV[2]: new time to live in ms, or 0 to release
+-- Returns 1, or 0 if the lock has expired or another caller holds it.
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+
+if ARGV[2] == '0' then
+    return redis.call('DEL', KEYS[1])
+end
+return redis.call('PEXPIRE', KEYS[1], ARGV[2])
@@ -0,0 +1,49 @@
+-- Atomically claims a short URL and writes the link with all its index entries,
+-- using the same keys as Spring Data's @RedisHash("Url") mapping.
+-- KEYS[1]: entity hash "Url:<id>"       KEYS[2]: id set "Url"
+-- KEYS[3]: "Url:longUrl:<longUrl>"       KEYS[4]: "Url:shortUrlKey:<folded id>"
+-- KEYS[5]: "Url:<id>:idx"                KEYS[6]: expiry index "shorty:expiry"
+-- ARGV[1]: id  ARGV[2]: longUrl  ARGV[3]: folded id  ARGV[4]: type hint
+-- ARGV[5]: "1" to reuse any link already pointing at longUrl, "0" otherwise
+-- ARGV[6]: expiry in epoch milliseconds, "0" for none  ARGV[7]: hash key prefix "Url:"
+-- Returns { status, shortUrl } with status "created", "existing" or "taken".
+if ARGV[5] == '1' then
+    local existing = redis.call('SRANDMEMBER', KEYS[3])
+    -- An expired hash may still be indexed until the reaper runs; never hand it out
+    if existing and redis.call('EXISTS', ARGV[7] .. existing) == 1 then
+        -- A reused link lives at least as long as the new one would have
+        local key = ARGV[7] .. existing
+        local current = redis.call('HGET', key, 'expiresAt')
+        if current then
+            if ARGV[6] == '0' then
+                redis.call('HDEL', key, 'expiresAt')
+                redis.call('PERSIST', key)
+                redis.call('ZREM', KEYS[6], existing)
+            elseif tonumber(ARGV[6]) > tonumber(current) then
+                redis.call('HSET', key, 'expiresAt', ARGV[6])
+                redis.call('PEXPIREAT', key, ARGV[6])
+                redis.call('ZADD', KEYS[6], ARGV[6], existing)
+            end
+        end
+        return { 'existing', existing }
+    end
+end
+
+-- Short URLs resolve case-insensitively, so any case variant counts as taken
+if redis.call('EXISTS', KEYS[1]) == 1 or redis.call('SCARD', KEYS[4]) > 0 then
+    return { 'taken', ARGV[1] }
+end
+
+redis.call('HSET', KEYS[1], '_class', ARGV[4], 'longUrl', ARGV[2], 'shortUrl', ARGV[1],
+    'shortUrlKey', ARGV[3], 'clickCount', '0')
+redis.call('SADD', KEYS[2], ARGV[1])
+redis.call('SADD', KEYS[3], ARGV[1])
+redis.call('SADD', KEYS[4], ARGV[1])
+redis.call('SADD', KEYS[5], KEYS[3], KEYS[4])
+-- The hash itself expires; the reaper removes the index entries that point at it
+if ARGV[6] ~= '0' then
+    redis.call('HSET', KEYS[1], 'expiresAt', ARGV[6])
+    redis.call('PEXPIREAT', KEYS[1], ARGV[6])
+    redis.call('ZADD', KEYS[6], ARGV[6], ARGV[1])
+end
+return { 'created', ARGV[1] }
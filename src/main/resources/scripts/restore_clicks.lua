@@ -0,0 +1,19 @@
+-- Raises a restored link's click count to at least the imported value.
+-- KEYS[1]: hash holding the link  KEYS[2]: hash holding its click count
+-- ARGV[1]: field of the link in KEYS[1]  ARGV[2]: field of the count in KEYS[2]
+-- ARGV[3]: imported click count
+-- Returns 1 if the count was raised, 0 if it was already as high or the link no
+-- longer exists.
+
+-- The link may have been deleted or reaped since it was imported
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+
+-- Clicks recorded since the export was taken are kept
+local current = tonumber(redis.call('HGET', KEYS[2], ARGV[2]) or '0')
+if tonumber(ARGV[3]) <= current then
+    return 0
+end
+redis.call('HSET', KEYS[2], ARGV[2], ARGV[3])
+return 1
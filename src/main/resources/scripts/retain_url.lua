@@ -0,0 +1,22 @@
+-- Extends the expiry of a reused link, so it lives at least as long as the link
+-- its creator asked for; the same steps reserve_url.lua takes on a dedup hit.
+-- KEYS[1]: entity hash "Url:<id>"  KEYS[2]: expiry index "shorty:expiry"
+-- ARGV[1]: id  ARGV[2]: requested expiry in epoch milliseconds, "0" for none
+-- Returns 1, or 0 if the link no longer exists.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+
+local current = redis.call('HGET', KEYS[1], 'expiresAt')
+if current then
+    if ARGV[2] == '0' then
+        redis.call('HDEL', KEYS[1], 'expiresAt')
+        redis.call('PERSIST', KEYS[1])
+        redis.call('ZREM', KEYS[2], ARGV[1])
+    elseif tonumber(ARGV[2]) > tonumber(current) then
+        redis.call('HSET', KEYS[1], 'expiresAt', ARGV[2])
+        redis.call('PEXPIREAT', KEYS[1], ARGV[2])
+        redis.call('ZADD', KEYS[2], ARGV[2], ARGV[1])
+    end
+end
+return 1
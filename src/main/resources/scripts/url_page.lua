@@ -0,0 +1,17 @@
+-- Reads one page of stored links in a single round trip.
+-- KEYS[1]: set of all link ids ("Url")
+-- ARGV[1]: SSCAN cursor, ARGV[2]: COUNT hint, ARGV[3]: hash key prefix ("Url:")
+-- Returns { nextCursor, shortUrl1, longUrl1, clickCount1, expiresAt1, shortUrl2, ... }
+local scan = redis.call('SSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
+local result = { scan[1] }
+for _, id in ipairs(scan[2]) do
+    local fields = redis.call('HMGET', ARGV[3] .. id, 'longUrl', 'clickCount', 'expiresAt')
+    -- Skip ids whose hash is gone (deleted or expired, but still in the id set)
+    if fields[1] then
+        table.insert(result, id)
+        table.insert(result, fields[1])
+        table.insert(result, fields[2] or '0')
+        table.insert(result, fields[3] or '0')
+    end
+end
+return result
@@ -0,0 +1,113 @@
+package com.mattfogz.shortyback.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(40);
+
+    @Test
+    void growsToTheMaximumWhileLatencyHolds() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 5, 100);
+        int previous = limit.getLimit();
+        for (int round = 0; round < 100; round++) {
+            saturate(limit, FAST, false);
+            assertTrue(limit.getLimit() >= previous, "shrank at a steady latency");
+            previous = limit.getLimit();
+        }
+        assertEquals(100, limit.getLimit());
+    }
+
+    @Test
+    void shrinksWhenLatencyRisesAndRecoversWhenItFalls() {
+        AdaptiveLimit limit = new AdaptiveLimit(50, 5, 100);
+        for (int round = 0; round < 20; round++) {
+            saturate(limit, FAST, false);
+        }
+        int baseline = limit.getLimit();
+
+        for (int round = 0; round < 20; round++) {
+            saturate(limit, SLOW, false);
+            assertWithinBounds(limit, 5, 100);
+        }
+        int congested = limit.getLimit();
+        assertTrue(congested < baseline / 2, "limit " + congested + " did not shrink from " + baseline);
+        assertTrue(limit.getGradient() < 0.6, "gradient " + limit.getGradient());
+
+        for (int round = 0; round < 20; round++) {
+            saturate(limit, FAST, false);
+            assertWithinBounds(limit, 5, 100);
+        }
+        assertTrue(limit.getLimit() > congested * 2, "limit " + limit.getLimit() + " did not recover");
+        assertEquals(1.0, limit.getGradient());
+    }
+
+    @Test
+    void backsOffOnFailuresDownToTheMinimum() {
+        AdaptiveLimit limit = new AdaptiveLimit(100, 5, 100);
+        int previous = limit.getLimit();
+        for (int round = 0; round < 100; round++) {
+            saturate(limit, FAST, true);
+            assertTrue(limit.getLimit() <= previous, "grew while failing");
+            assertWithinBounds(limit, 5, 100);
+            previous = limit.getLimit();
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void keepsTheLimitWhenItWasNotReached() {
+        AdaptiveLimit limit = new AdaptiveLimit(40, 5, 100);
+        for (int i = 0; i < 100; i++) {
+            int inFlight = limit.tryAcquire();
+            limit.release(i % 2 == 0 ? FAST : SLOW, inFlight, false, 1.0);
+        }
+        assertEquals(40, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    void rejectsRequestsBeyondTheLimit() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10);
+        assertEquals(1, limit.tryAcquire());
+        assertEquals(2, limit.tryAcquire());
+        assertEquals(0, limit.tryAcquire());
+        assertEquals(1, limit.getRejectedCount());
+
+        limit.release(FAST, 2, false, 1.0);
+        assertEquals(2, limit.tryAcquire());
+    }
+
+    @Test
+    void clampsTheInitialLimitAndRejectsBadBounds() {
+        assertEquals(10, new AdaptiveLimit(50, 1, 10).getLimit());
+        assertEquals(3, new AdaptiveLimit(1, 3, 10).getLimit());
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(5, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(5, 10, 9));
+    }
+
+    /**
+     * Admits as many requests as the limit allows, then ends them all with one latency.
+     */
+    private static void saturate(AdaptiveLimit limit, long rttNanos, boolean failed) {
+        int admitted = limit.getLimit();
+        for (int i = 0; i < admitted; i++) {
+            assertTrue(limit.tryAcquire() > 0);
+        }
+        for (int i = admitted; i > 0; i--) {
+            limit.release(rttNanos, i, failed, 1.0);
+        }
+        assertEquals(0, limit.getInFlight());
+    }
+
+    private static void assertWithinBounds(AdaptiveLimit limit, int min, int max) {
+        assertTrue(limit.getLimit() >= min && limit.getLimit() <= max, "limit " + limit.getLimit());
+    }
+}
@@ -0,0 +1,74 @@
+package com.mattfogz.shortyback.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControlTest {
+
+    @Test
+    void shrinksOtherClassesWhenRedirectsQueue() {
+        AdmissionControl admission = admission();
+        AdaptiveLimit redirects = admission.getLimit(RequestClass.REDIRECT);
+        AdaptiveLimit writes = admission.getLimit(RequestClass.WRITE);
+
+        // Fast writes alone leave the write limit where it is
+        completeWrites(admission, 20);
+        assertEquals(50, writes.getLimit());
+
+        // Redirect latency climbs well above its baseline
+        for (int i = 0; i < 50; i++) {
+            redirects.release(TimeUnit.MILLISECONDS.toNanos(1), redirects.tryAcquire(), false, 1.0);
+        }
+        for (int i = 0; i < 50; i++) {
+            redirects.release(TimeUnit.MILLISECONDS.toNanos(50), redirects.tryAcquire(), false, 1.0);
+        }
+        assertEquals(0.5, redirects.getGradient());
+
+        completeWrites(admission, 20);
+        assertTrue(writes.getLimit() < 40, "write limit " + writes.getLimit() + " did not yield to redirects");
+        assertTrue(writes.getLimit() >= 2);
+    }
+
+    @Test
+    void countsACompletionOnce() {
+        AdmissionControl admission = admission();
+        AdaptiveLimit writes = admission.getLimit(RequestClass.WRITE);
+        AdmissionControl.Permit permit = admission.tryAcquire(RequestClass.WRITE);
+        assertNotNull(permit);
+
+        admission.complete(permit, false);
+        admission.complete(permit, false);
+        assertEquals(0, writes.getInFlight());
+    }
+
+    @Test
+    void requiresALimitPerClass() {
+        Map<RequestClass, AdaptiveLimit> limits = new EnumMap<>(RequestClass.class);
+        limits.put(RequestClass.REDIRECT, new AdaptiveLimit(10, 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(limits));
+    }
+
+    private static void completeWrites(AdmissionControl admission, int count) {
+        for (int i = 0; i < count; i++) {
+            AdmissionControl.Permit permit = admission.tryAcquire(RequestClass.WRITE);
+            assertNotNull(permit);
+            admission.complete(permit, false);
+        }
+    }
+
+    private static AdmissionControl admission() {
+        Map<RequestClass, AdaptiveLimit> limits = new EnumMap<>(RequestClass.class);
+        limits.put(RequestClass.REDIRECT, new AdaptiveLimit(100, 10, 200));
+        limits.put(RequestClass.WRITE, new AdaptiveLimit(50, 2, 100));
+        limits.put(RequestClass.ADMIN, new AdaptiveLimit(20, 2, 50));
+        return new AdmissionControl(limits);
+    }
+}
@@ -0,0 +1,141 @@
+package com.mattfogz.shortyback.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsExactlyWhileUnderCapacity() {
+        SpaceSaving summary = new SpaceSaving(10);
+        summary.offer("a", 3);
+        summary.offer("b", 1);
+        summary.offer("a", 2);
+
+        List<SpaceSaving.Counter> top = summary.top(10);
+        assertEquals(2, top.size());
+        assertEquals("a", top.get(0).getKey());
+        assertEquals(5, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals("b", top.get(1).getKey());
+        assertEquals(1, top.get(1).getCount());
+    }
+
+    @Test
+    void replacesTheSmallestCounterAndInheritsItAsError() {
+        SpaceSaving summary = new SpaceSaving(2);
+        summary.offer("a", 5);
+        summary.offer("b", 2);
+        summary.offer("c", 1);
+
+        assertEquals(2, summary.size());
+        SpaceSaving.Counter c = summary.top(2).get(1);
+        assertEquals("c", c.getKey());
+        assertEquals(3, c.getCount());
+        assertEquals(2, c.getError());
+    }
+
+    @Test
+    void tracksEveryHeavyHitterWithBoundedOverestimate() {
+        SpaceSaving summary = new SpaceSaving(50);
+        Map<String, Long> truth = new HashMap<>();
+        Random random = new Random(7);
+        long total = 0;
+        for (int i = 0; i < 100_000; i++) {
+            // A few hot keys over a long tail
+            String key = random.nextInt(10) < 3 ? "hot" + random.nextInt(5) : "tail" + random.nextInt(10_000);
+            summary.offer(key, 1);
+            truth.merge(key, 1L, Long::sum);
+            total++;
+        }
+
+        Map<String, SpaceSaving.Counter> tracked = new HashMap<>();
+        for (SpaceSaving.Counter counter : summary.top(50)) {
+            tracked.put(counter.getKey(), counter);
+        }
+        for (Map.Entry<String, Long> entry : truth.entrySet()) {
+            if (entry.getValue() > total / 50) {
+                SpaceSaving.Counter counter = tracked.get(entry.getKey());
+                assertTrue(counter != null, entry.getKey() + " is a heavy hitter");
+                assertTrue(counter.getCount() >= entry.getValue());
+                assertTrue(counter.getCount() - counter.getError() <= entry.getValue());
+            }
+        }
+    }
+
+    @Test
+    void mergesCountsAndErrorsPerKey() {
+        SpaceSaving first = new SpaceSaving(2);
+        first.offer("a", 4);
+        SpaceSaving second = new SpaceSaving(1);
+        second.offer("b", 1);
+        second.offer("a", 2);
+
+        Map<String, long[]> merged = SpaceSaving.merge(Arrays.asList(first, second));
+
+        assertEquals(1, merged.size());
+        assertArrayEquals(new long[] {7, 1}, merged.get("a"));
+    }
+
+    @Test
+    void chargesKeysMissingFromAFullSummaryItsSmallestCount() {
+        SpaceSaving first = new SpaceSaving(2);
+        first.offer("a", 4);
+        first.offer("c", 1);
+        SpaceSaving second = new SpaceSaving(2);
+        second.offer("a", 2);
+        second.offer("b", 1);
+        second.offer("d", 5);
+        SpaceSaving notFull = new SpaceSaving(3);
+        notFull.offer("a", 1);
+
+        Map<String, long[]> merged = SpaceSaving.merge(Arrays.asList(first, second, notFull));
+
+        assertEquals(3, merged.size());
+        assertArrayEquals(new long[] {7, 0}, merged.get("a"));
+        // Missing from the second summary, whose smallest count is 2
+        assertArrayEquals(new long[] {3, 2}, merged.get("c"));
+        // Missing from the first, whose smallest count is 1, and inheriting b's count in the second
+        assertArrayEquals(new long[] {7, 2}, merged.get("d"));
+    }
+
+    @Test
+    void boundsMergedCountsByTheirErrors() {
+        Random random = new Random(11);
+        List<SpaceSaving> summaries = new ArrayList<>();
+        Map<String, Long> truth = new HashMap<>();
+        for (int s = 0; s < 10; s++) {
+            SpaceSaving summary = new SpaceSaving(20);
+            for (int i = 0; i < 2_000; i++) {
+                String key = random.nextInt(10) < 3 ? "hot" + random.nextInt(5) : "tail" + random.nextInt(500);
+                summary.offer(key, 1);
+                truth.merge(key, 1L, Long::sum);
+            }
+            summaries.add(summary);
+        }
+
+        for (Map.Entry<String, long[]> entry : SpaceSaving.merge(summaries).entrySet()) {
+            long count = entry.getValue()[0];
+            long error = entry.getValue()[1];
+            long actual = truth.getOrDefault(entry.getKey(), 0L);
+            assertTrue(count >= actual, entry.getKey());
+            assertTrue(count - error <= actual, entry.getKey());
+        }
+    }
+
+    @Test
+    void rejectsANonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSaving(0));
+    }
+}
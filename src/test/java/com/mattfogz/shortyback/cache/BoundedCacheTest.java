@@ -0,0 +1,144 @@
+package com.mattfogz.shortyback.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCacheTest {
+
+    // Time as seen by the cache, advanced by the tests
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesOnceFull() {
+        BoundedCache<String> cache = new BoundedCache<>(32, 0, 0, nanos::get);
+        cache.put("kept", "kept");
+        cache.put("untouched", "untouched");
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+            // Reading an entry makes it the most recently used of its segment
+            cache.lookup("kept");
+        }
+
+        assertTrue(cache.size() <= 32);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals("kept", cache.lookup("kept").getValue());
+        assertFalse(cache.lookup("untouched").isCached());
+    }
+
+    @Test
+    void expiresEntriesAfterTheirTimeToLive() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 10, 0, nanos::get);
+        cache.put("key", "value");
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals("value", cache.lookup("key").getValue());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertFalse(cache.lookup("key").isCached());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void keepsEntriesWithoutTimeToLiveUntilEvicted() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 0, 0, nanos::get);
+        cache.put("key", "value");
+
+        nanos.addAndGet(TimeUnit.DAYS.toNanos(365));
+        assertEquals("value", cache.lookup("key").getValue());
+    }
+
+    @Test
+    void remembersAbsentKeysForTheNegativeTimeToLive() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 60, 5, nanos::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(cache.get("missing", key -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        BoundedCache.Lookup<String> lookup = cache.lookup("missing");
+        assertTrue(lookup.isCached());
+        assertNull(lookup.getValue());
+        assertEquals(1, cache.getNegativeHitCount());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        assertFalse(cache.lookup("missing").isCached());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void skipsAbsentKeysWhenNegativeCachingIsDisabled() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 60, 0, nanos::get);
+        cache.putAbsent("missing");
+
+        assertFalse(cache.lookup("missing").isCached());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void cachesNothingWhenDisabled() {
+        BoundedCache<String> cache = new BoundedCache<>(0, 60, 60, nanos::get);
+        cache.put("key", "value");
+
+        assertFalse(cache.lookup("key").isCached());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void dropsALoadThatRacedAnInvalidation() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 300, 30, nanos::get);
+
+        // A lookup starts reading the old value, then an update invalidates the key
+        long stamp = cache.stamp();
+        cache.invalidate("key");
+        cache.put("key", "old", stamp);
+        assertFalse(cache.lookup("key").isCached());
+
+        // Likewise for a delete racing a lookup that still found the link
+        long absentStamp = cache.stamp();
+        cache.invalidate("gone");
+        cache.putAbsent("gone", absentStamp);
+        assertFalse(cache.lookup("gone").isCached());
+    }
+
+    @Test
+    void cachesALoadThatStartedAfterTheInvalidation() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 300, 30, nanos::get);
+
+        cache.invalidate("key");
+        long stamp = cache.stamp();
+        cache.put("key", "new", stamp);
+        assertEquals("new", cache.lookup("key").getValue());
+    }
+
+    @Test
+    void dropsLoadsThatRacedInvalidateAll() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 300, 30, nanos::get);
+
+        long stamp = cache.stamp();
+        cache.invalidateAll();
+        cache.put("key", "old", stamp);
+        assertFalse(cache.lookup("key").isCached());
+    }
+
+    @Test
+    void getDoesNotCacheAValueInvalidatedWhileLoading() {
+        BoundedCache<String> cache = new BoundedCache<>(100, 300, 30, nanos::get);
+
+        assertEquals("old", cache.get("key", key -> {
+            // Invalidated by a concurrent update while the old value was being read
+            cache.invalidate(key);
+            return "old";
+        }));
+        assertFalse(cache.lookup("key").isCached());
+    }
+}
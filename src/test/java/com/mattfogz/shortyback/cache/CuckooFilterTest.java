@@ -0,0 +1,83 @@
+package com.mattfogz.shortyback.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CuckooFilterTest {
+
+    @Test
+    void neverForgetsAnAddedItem() {
+        CuckooFilter filter = new CuckooFilter(10_000);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.add("link" + i));
+        }
+
+        assertEquals(10_000, filter.size());
+        assertFalse(filter.isFull());
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("link" + i));
+        }
+    }
+
+    @Test
+    void rarelyReportsAbsentItems() {
+        CuckooFilter filter = new CuckooFilter(10_000);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("link" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("absent" + i)) {
+                falsePositives++;
+            }
+        }
+        // About 0.01% expected; allow a generous margin
+        assertTrue(falsePositives < 100, falsePositives + " false positives");
+        assertTrue(filter.expectedFalsePositiveRate() < 0.00015);
+    }
+
+    @Test
+    void removesOnlyTheGivenItem() {
+        CuckooFilter filter = new CuckooFilter(1000);
+        filter.add("kept");
+        filter.add("removed");
+
+        assertTrue(filter.remove("removed"));
+        assertFalse(filter.mightContain("removed"));
+        assertTrue(filter.mightContain("kept"));
+        assertFalse(filter.remove("removed"));
+        assertEquals(1, filter.size());
+    }
+
+    @Test
+    void keepsDuplicatesUntilEachIsRemoved() {
+        CuckooFilter filter = new CuckooFilter(1000);
+        filter.add("twice");
+        filter.add("twice");
+
+        assertTrue(filter.remove("twice"));
+        assertTrue(filter.mightContain("twice"));
+        assertTrue(filter.remove("twice"));
+        assertFalse(filter.mightContain("twice"));
+    }
+
+    @Test
+    void reportsFullButKeepsEveryItemOncePastCapacity() {
+        CuckooFilter filter = new CuckooFilter(100);
+        int added = 0;
+        while (filter.add("link" + added)) {
+            added++;
+        }
+
+        assertTrue(filter.isFull());
+        assertTrue(added >= filter.capacity() * 0.9, added + " of " + filter.capacity());
+        for (int i = 0; i < added; i++) {
+            assertTrue(filter.mightContain("link" + i));
+        }
+        assertFalse(filter.add("rejected"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.mattfogz.shortyback.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LinkSnapshotTest {
+
+    // Offset of the entry count in the header
+    private static final int COUNT_OFFSET = 4 + 4 + 8;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsLinks() throws IOException {
+        Path file = dir.resolve("links.snapshot");
+        List<CachedLink> links = Arrays.asList(new CachedLink("abc", "http://example.com/a", 0),
+                new CachedLink("XyZ", "http://example.com/\u00fc", 4102444800000L));
+        LinkSnapshot.write(file, links);
+
+        List<CachedLink> read = LinkSnapshot.read(file).getLinks();
+        assertEquals(2, read.size());
+        for (int i = 0; i < links.size(); i++) {
+            assertEquals(links.get(i).getShortUrl(), read.get(i).getShortUrl());
+            assertEquals(links.get(i).getLongUrl(), read.get(i).getLongUrl());
+            assertEquals(links.get(i).getExpiresAt(), read.get(i).getExpiresAt());
+        }
+    }
+
+    @Test
+    void rejectsAnEntryCountTheFileCannotHold() throws IOException {
+        for (int count : new int[] {Integer.MAX_VALUE, -1, 3, 1}) {
+            Path file = dir.resolve("links.snapshot");
+            LinkSnapshot.write(file, Arrays.asList(new CachedLink("abc", "http://example.com/a", 0),
+                    new CachedLink("def", "http://example.com/d", 0)));
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer.wrap(bytes).putInt(COUNT_OFFSET, count);
+            Files.write(file, bytes);
+
+            assertThrows(IOException.class, () -> LinkSnapshot.read(file), String.valueOf(count));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException {
+        Path file = dir.resolve("links.snapshot");
+        LinkSnapshot.write(file, Arrays.asList(new CachedLink("abc", "http://example.com/a", 0)));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertThrows(IOException.class, () -> LinkSnapshot.read(file));
+    }
+}
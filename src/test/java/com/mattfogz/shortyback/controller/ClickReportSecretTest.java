@@ -0,0 +1,28 @@
+package com.mattfogz.shortyback.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClickReportSecretTest {
+
+    @Test
+    void acceptsEveryReportWhenUnset() {
+        ClickReportSecret secret = new ClickReportSecret("");
+
+        assertTrue(secret.accepts(null));
+        assertTrue(secret.accepts("anything"));
+    }
+
+    @Test
+    void acceptsOnlyTheConfiguredSecret() {
+        ClickReportSecret secret = new ClickReportSecret("s3cret");
+
+        assertTrue(secret.accepts("s3cret"));
+        assertFalse(secret.accepts(null));
+        assertFalse(secret.accepts(""));
+        assertFalse(secret.accepts("s3cre"));
+        assertFalse(secret.accepts("S3CRET"));
+    }
+}
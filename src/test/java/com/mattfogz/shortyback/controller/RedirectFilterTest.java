@@ -0,0 +1,88 @@
+package com.mattfogz.shortyback.controller;
+
+import com.mattfogz.shortyback.cache.CachedLink;
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.metrics.UrlMetrics;
+import com.mattfogz.shortyback.service.RedirectPolicy;
+import com.mattfogz.shortyback.service.UrlService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RedirectFilterTest {
+
+    private final RedisCommandCounter counter = new RedisCommandCounter();
+    private final UrlService urlService = mock(UrlService.class);
+    private final UrlMetrics urlMetrics = mock(UrlMetrics.class);
+    private RedirectFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new RedirectFilter(urlService, new RedirectPolicy(302, 0, "public"), urlMetrics, counter,
+                Set.of("error"));
+    }
+
+    @Test
+    void recordsTheRedisCallsOfAServedRedirect() throws Exception {
+        CachedLink link = new CachedLink("abc123", "https://example.com/", 0);
+        when(urlService.findLink("abc123")).thenAnswer(invocation -> {
+            // Two commands sent while looking the link up
+            counter.commandStarted(null);
+            counter.commandStarted(null);
+            return link;
+        });
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("GET", "/abc123"), response, chain);
+
+        assertEquals(302, response.getStatus());
+        assertEquals("https://example.com/", response.getHeader("Location"));
+        assertNull(chain.getRequest());
+        verify(urlMetrics).recordRedisCalls(RedirectFilter.HANDLER, 2);
+        assertEquals(-1, counter.stop());
+    }
+
+    @Test
+    void recordsTheRedisCallsOfAnUnknownShortUrl() throws Exception {
+        when(urlService.findLink("missing")).thenAnswer(invocation -> {
+            counter.commandStarted(null);
+            return null;
+        });
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/missing"), response, new MockFilterChain());
+
+        assertEquals(404, response.getStatus());
+        verify(urlMetrics).recordRedisCalls(RedirectFilter.HANDLER, 1);
+    }
+
+    @Test
+    void leavesRequestsItPassesOnToTheInterceptor() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/url/create"), new MockHttpServletResponse(), chain);
+
+        // The link is not a valid URI, so the controller answers it
+        when(urlService.findLink("bad")).thenReturn(new CachedLink("bad", "http://exa mple.com/", 0));
+        MockFilterChain invalidChain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("GET", "/bad"), new MockHttpServletResponse(), invalidChain);
+
+        assertEquals("/api/url/create", ((MockHttpServletRequest) chain.getRequest()).getRequestURI());
+        assertEquals("/bad", ((MockHttpServletRequest) invalidChain.getRequest()).getRequestURI());
+        verify(urlMetrics, never()).recordRedisCalls(anyString(), anyInt());
+        assertEquals(-1, counter.stop());
+    }
+}
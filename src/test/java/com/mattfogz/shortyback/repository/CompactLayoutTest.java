@@ -0,0 +1,143 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CompactLayoutTest {
+
+    // Stored links name their prefix by this byte, so these may never change
+    private static final String[] PINNED_PREFIXES = {
+            "http://",
+            "http://youtube.com/watch?v=",
+            "http://youtu.be/",
+            "http://docs.google.com/",
+            "http://drive.google.com/",
+            "http://google.com/",
+            "http://github.com/",
+            "http://en.wikipedia.org/wiki/",
+            "http://twitter.com/",
+            "http://x.com/",
+            "http://facebook.com/",
+            "http://instagram.com/",
+            "http://linkedin.com/",
+            "http://amazon.com/",
+            "http://reddit.com/r/",
+            "http://medium.com/",
+            "http://stackoverflow.com/questions/",
+            "http://tiktok.com/",
+    };
+
+    private static final long EXPIRES_AT = 4102444800000L;
+
+    private final CompactLayout compressed = new CompactLayout(16, true);
+    private final CompactLayout uncompressed = new CompactLayout(16, false);
+
+    @Test
+    void compressesEveryPrefixToItsPinnedByte() {
+        for (int i = 0; i < PINNED_PREFIXES.length; i++) {
+            String longUrl = PINNED_PREFIXES[i] + "path?q=1";
+            assertEquals((char) (i + 1) + "path?q=1", compressed.encode("abc", longUrl, 0), longUrl);
+        }
+    }
+
+    @Test
+    void decodesStoredPrefixBytes() {
+        for (int i = 0; i < PINNED_PREFIXES.length; i++) {
+            assertEquals(PINNED_PREFIXES[i] + "path", uncompressed.decode("abc", (char) (i + 1) + "path")
+                    .getLongUrl());
+        }
+    }
+
+    @Test
+    void prefersTheLongestPrefix() {
+        assertEquals("\u0002abc", compressed.encode("abc", "http://youtube.com/watch?v=abc", 0));
+        assertEquals("\u0001youtube.com/about", compressed.encode("abc", "http://youtube.com/about", 0));
+    }
+
+    @Test
+    void roundTripsEveryPrefixWithAndWithoutCompression() {
+        for (String prefix : PINNED_PREFIXES) {
+            assertRoundTrips(prefix + "some/path?x=%20y");
+        }
+        assertRoundTrips("https://example.com/");
+        assertRoundTrips("ftp://example.com/file");
+    }
+
+    @Test
+    void storesUrlsAsGivenWithoutCompression() {
+        assertEquals("http://github.com/shorty", uncompressed.encode("abc", "http://github.com/shorty", 0));
+    }
+
+    @Test
+    void decodesLinksWrittenWithTheOtherSetting() {
+        String longUrl = "http://github.com/shorty";
+        assertEquals(longUrl, uncompressed.decode("abc", compressed.encode("abc", longUrl, 0)).getLongUrl());
+        assertEquals(longUrl, compressed.decode("abc", uncompressed.encode("abc", longUrl, 0)).getLongUrl());
+    }
+
+    @Test
+    void keepsTheCaseOfShortUrls() {
+        for (CompactLayout layout : new CompactLayout[] {compressed, uncompressed}) {
+            String value = layout.encode("AbC12", "http://github.com/shorty", 0);
+            Url url = layout.decode(Url.foldShortUrl("AbC12"), value);
+            assertEquals("AbC12", url.getShortUrl());
+            assertEquals("http://github.com/shorty", url.getLongUrl());
+            assertEquals(0, url.getExpiresAt());
+        }
+    }
+
+    @Test
+    void storesFoldedShortUrlsOnlyInTheField() {
+        assertEquals("\u0007shorty", compressed.encode("abc12", "http://github.com/shorty", 0));
+    }
+
+    @Test
+    void roundTripsExpiringLinks() {
+        for (CompactLayout layout : new CompactLayout[] {compressed, uncompressed}) {
+            for (String shortUrl : new String[] {"abc12", "AbC12"}) {
+                Url url = layout.decode(Url.foldShortUrl(shortUrl),
+                        layout.encode(shortUrl, "http://github.com/shorty", EXPIRES_AT));
+                assertEquals(shortUrl, url.getShortUrl());
+                assertEquals("http://github.com/shorty", url.getLongUrl());
+                assertEquals(EXPIRES_AT, url.getExpiresAt());
+            }
+        }
+    }
+
+    @Test
+    void treatsExpiredLinksAsMissing() {
+        String value = compressed.encode("AbC12", "http://github.com/shorty", System.currentTimeMillis() - 1);
+        assertNull(compressed.toUrl("abc12", value, "5"));
+        assertNull(compressed.toUrl("abc12", null, null));
+    }
+
+    @Test
+    void readsClickCountsOfLiveLinks() {
+        Url url = compressed.toUrl("abc12", compressed.encode("AbC12", "http://github.com/shorty", EXPIRES_AT), "5");
+        assertEquals("AbC12", url.getShortUrl());
+        assertEquals(5, url.getClickCount());
+        assertEquals(EXPIRES_AT, url.getExpiresAt());
+    }
+
+    @Test
+    void bucketsShortUrlsCaseInsensitively() {
+        assertEquals(compressed.linksKey("abc12"), compressed.linksKey("AbC12"));
+        assertEquals(compressed.countsKey("abc12"), compressed.countsKey("ABC12"));
+    }
+
+    private void assertRoundTrips(String longUrl) {
+        for (CompactLayout layout : new CompactLayout[] {compressed, uncompressed}) {
+            for (String shortUrl : new String[] {"abc12", "AbC12"}) {
+                for (long expiresAt : new long[] {0, EXPIRES_AT}) {
+                    Url url = layout.decode(Url.foldShortUrl(shortUrl), layout.encode(shortUrl, longUrl, expiresAt));
+                    assertEquals(shortUrl, url.getShortUrl(), longUrl);
+                    assertEquals(longUrl, url.getLongUrl(), shortUrl);
+                    assertEquals(expiresAt, url.getExpiresAt(), longUrl);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.mattfogz.shortyback.repository;
+
+import com.mattfogz.shortyback.model.Url;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Mono;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReactiveCompactUrlStoreTest {
+
+    private final CompactLayout layout = new CompactLayout(16, true);
+    @SuppressWarnings("unchecked")
+    private final ReactiveHashOperations<String, Object, Object> hashes = mock(ReactiveHashOperations.class);
+    private ReactiveCompactUrlStore store;
+
+    @BeforeEach
+    void setUp() {
+        ReactiveStringRedisTemplate template = mock(ReactiveStringRedisTemplate.class);
+        when(template.opsForHash()).thenReturn(hashes);
+        store = new ReactiveCompactUrlStore(layout);
+        store.connect(template);
+    }
+
+    @Test
+    void findsALiveLinkWithItsClickCount() {
+        stub("abc123", layout.encode("abc123", "https://example.com/", 0), "7");
+
+        Url url = store.findByShortUrl("ABC123").block();
+
+        assertEquals("abc123", url.getShortUrl());
+        assertEquals("https://example.com/", url.getLongUrl());
+        assertEquals(7, url.getClickCount());
+    }
+
+    @Test
+    void treatsAnExpiredLinkNotYetReapedAsMissing() {
+        stub("old", layout.encode("old", "https://example.com/", System.currentTimeMillis() - 1000), null);
+
+        assertNull(store.findByShortUrl("old").block());
+        assertNull(store.findById("old").block());
+    }
+
+    @Test
+    void treatsAnAbsentLinkAsMissing() {
+        stub("none", null, null);
+
+        assertNull(store.findByShortUrl("none").block());
+    }
+
+    private void stub(String field, String value, String clickCount) {
+        when(hashes.get(eq(layout.linksKey(field)), eq(field))).thenReturn(Mono.justOrEmpty(value));
+        when(hashes.get(eq(layout.countsKey(field)), any())).thenReturn(Mono.justOrEmpty(clickCount));
+    }
+}
@@ -0,0 +1,44 @@
+package com.mattfogz.shortyback.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardCursorTest {
+
+    @Test
+    void startsAtTheFirstShard() {
+        for (String cursor : new String[] {null, "", UrlPage.START_CURSOR}) {
+            ShardCursor parsed = ShardCursor.parse(cursor, 3);
+            assertEquals(0, parsed.getShard());
+            assertEquals(UrlPage.START_CURSOR, parsed.getCursor());
+        }
+    }
+
+    @Test
+    void roundTripsAShardAndItsCursor() {
+        ShardCursor parsed = ShardCursor.parse(ShardCursor.format(2, "1234", 3), 3);
+        assertEquals(2, parsed.getShard());
+        assertEquals("1234", parsed.getCursor());
+    }
+
+    @Test
+    void keepsSeparatorsInTheShardCursor() {
+        ShardCursor parsed = ShardCursor.parse("1:a:b", 3);
+        assertEquals(1, parsed.getShard());
+        assertEquals("a:b", parsed.getCursor());
+    }
+
+    @Test
+    void endsAfterTheLastShard() {
+        assertEquals(UrlPage.START_CURSOR, ShardCursor.format(3, "0", 3));
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        for (String cursor : new String[] {"x:0", "5", ":0", "-1:0", "3:0"}) {
+            assertThrows(IllegalArgumentException.class, () -> ShardCursor.parse(cursor, 3), cursor);
+        }
+    }
+}
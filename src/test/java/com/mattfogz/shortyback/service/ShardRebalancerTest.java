@@ -0,0 +1,189 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import com.mattfogz.shortyback.repository.CompactLayout;
+import com.mattfogz.shortyback.repository.CompactUrlStore;
+import com.mattfogz.shortyback.repository.Reservation;
+import com.mattfogz.shortyback.repository.ShardedUrlStore;
+import com.mattfogz.shortyback.repository.UrlStore;
+import com.mattfogz.shortyback.shard.ShardTopology;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Grows two embedded Redis shards to three and checks that creating a link for
+ * a long URL keeps reusing the link stored for it, while the rebalancer runs and
+ * after it is done, and that repeating a move does not count clicks twice.
+ */
+class ShardRebalancerTest {
+
+    private static final int LINKS = 200;
+    private static final int VIRTUAL_NODES = 16;
+
+    private final List<RedisServer> servers = new ArrayList<>();
+    private final List<String> nodes = new ArrayList<>();
+    private final List<ShardTopology> topologies = new ArrayList<>();
+    private final Random random = new Random(42);
+    private ClientResources clientResources;
+
+    @BeforeEach
+    void startServers() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            int port = freePort();
+            RedisServer server = new RedisServer(port);
+            server.start();
+            servers.add(server);
+            nodes.add("localhost:" + port);
+        }
+        clientResources = DefaultClientResources.create();
+    }
+
+    @AfterEach
+    void stopServers() throws IOException {
+        topologies.forEach(ShardTopology::destroy);
+        clientResources.shutdown();
+        for (RedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void keepsReusingEntityLinksAfterANodeIsAdded() throws InterruptedException {
+        keepsReusingLinksAfterANodeIsAdded(UrlStore::new);
+    }
+
+    @Test
+    void keepsReusingCompactLinksAfterANodeIsAdded() throws InterruptedException {
+        CompactLayout layout = new CompactLayout(64, true);
+        keepsReusingLinksAfterANodeIsAdded(() -> new CompactUrlStore(layout));
+    }
+
+    @Test
+    void countsClicksOnceWhenAnInterruptedMoveIsRepeated() {
+        ShardTopology growing = topology(nodes, nodes.subList(0, 2));
+        ShardRebalancer rebalancer = new ShardRebalancer(0);
+        ReflectionTestUtils.setField(rebalancer, "topology", growing);
+        StringRedisTemplate from = growing.getNodes().get(0).getRedisTemplate();
+        StringRedisTemplate to = growing.getNodes().get(2).getRedisTemplate();
+        String key = "shorty:clicks:abc1234:hour:2024-01-01";
+        from.opsForHash().put(key, "10", "3");
+        to.opsForHash().put(key, "10", "2");
+        List<String> keys = Collections.singletonList(key);
+
+        // Stop after adding the clicks, before the old node's key is deleted
+        StringRedisTemplate interrupted = spy(from);
+        doThrow(new IllegalStateException("interrupted")).when(interrupted).unlink(keys);
+        assertThrows(IllegalStateException.class,
+                () -> ReflectionTestUtils.invokeMethod(rebalancer, "moveClickCounts", interrupted, to, keys));
+        ReflectionTestUtils.invokeMethod(rebalancer, "moveClickCounts", from, to, keys);
+
+        assertEquals("5", to.opsForHash().get(key, "10"));
+        assertFalse(Boolean.TRUE.equals(from.hasKey(key)));
+    }
+
+    private void keepsReusingLinksAfterANodeIsAdded(Supplier<UrlStore> layoutStore) throws InterruptedException {
+        ShardedUrlStore before = store(nodes.subList(0, 2), Collections.emptyList(), layoutStore);
+        List<String> longUrls = new ArrayList<>();
+        List<String> shortUrls = new ArrayList<>();
+        for (int i = 0; i < LINKS; i++) {
+            String longUrl = "https://example.com/page/" + i;
+            Reservation reservation = before.reserve(generate(before, longUrl), longUrl, true, 0);
+            assertEquals(Reservation.Status.CREATED, reservation.getStatus());
+            longUrls.add(longUrl);
+            shortUrls.add(reservation.getShortUrl());
+        }
+
+        ShardTopology growing = topology(nodes, nodes.subList(0, 2));
+        ShardedUrlStore rebalancing = new ShardedUrlStore(growing, layoutStore, new RedisMappingContext());
+        int separated = 0;
+        for (int i = 0; i < LINKS; i++) {
+            if (!rebalancing.colocated(shortUrls.get(i), longUrls.get(i))) {
+                separated++;
+            }
+        }
+        assertTrue(separated > 0, "no link is separated from its long URL by the new node");
+        assertReused(rebalancing, longUrls, shortUrls);
+
+        ShardRebalancer rebalancer = new ShardRebalancer(0);
+        StringRedisTemplate lockTemplate = growing.getNodes().get(0).getRedisTemplate();
+        ReflectionTestUtils.setField(rebalancer, "topology", growing);
+        ReflectionTestUtils.setField(rebalancer, "urlStore", rebalancing);
+        ReflectionTestUtils.setField(rebalancer, "redisTemplate", lockTemplate);
+        rebalancer.run(null);
+        String markerKey = ShardRebalancer.MARKER_KEY_PREFIX + growing.getRebalanceId();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!Boolean.TRUE.equals(lockTemplate.hasKey(markerKey))) {
+            assertTrue(System.currentTimeMillis() < deadline, "rebalance did not finish");
+            Thread.sleep(50);
+        }
+        rebalancer.destroy();
+
+        assertReused(store(nodes, Collections.emptyList(), layoutStore), longUrls, shortUrls);
+    }
+
+    /**
+     * Creates a link with a new generated short URL for each long URL and checks
+     * the stored one comes back instead.
+     */
+    private void assertReused(ShardedUrlStore store, List<String> longUrls, List<String> shortUrls) {
+        for (int i = 0; i < longUrls.size(); i++) {
+            String longUrl = longUrls.get(i);
+            Reservation reservation = store.reserve(generate(store, longUrl), longUrl, true, 0);
+            assertEquals(Reservation.Status.EXISTING, reservation.getStatus(), longUrl);
+            assertEquals(shortUrls.get(i), reservation.getShortUrl(), longUrl);
+            assertEquals(longUrl, store.findByShortUrl(shortUrls.get(i)).orElseThrow().getLongUrl());
+        }
+    }
+
+    /**
+     * Draws short URLs the way the service does, until one is kept on the long URL's shard.
+     */
+    private String generate(ShardedUrlStore store, String longUrl) {
+        while (true) {
+            String shortUrl = Long.toString(random.nextLong() & Long.MAX_VALUE, 36).substring(0, 7);
+            if (store.colocated(shortUrl, longUrl)) {
+                return shortUrl;
+            }
+        }
+    }
+
+    private ShardedUrlStore store(List<String> nodeSpecs, List<String> previousNames,
+            Supplier<UrlStore> layoutStore) {
+        return new ShardedUrlStore(topology(nodeSpecs, previousNames), layoutStore, new RedisMappingContext());
+    }
+
+    private ShardTopology topology(List<String> nodeSpecs, List<String> previousNames) {
+        ShardTopology topology = new ShardTopology(nodeSpecs, previousNames, VIRTUAL_NODES, clientResources,
+                new RedisCommandCounter());
+        topologies.add(topology);
+        return topology;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.repository.UrlStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShortUrlFilterTest {
+
+    private static final byte[] CHANNEL = ShortUrlFilter.CHANNEL.getBytes(StandardCharsets.UTF_8);
+
+    private final StubUrlStore urlStore = new StubUrlStore();
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate = mock(ReactiveStringRedisTemplate.class);
+    private ShortUrlFilter filter;
+
+    @BeforeEach
+    void createFilter() {
+        filter = new ShortUrlFilter(true, 1000);
+        ReflectionTestUtils.setField(filter, "urlStore", urlStore);
+        ReflectionTestUtils.setField(filter, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(filter, "reactiveRedisTemplate", reactiveRedisTemplate);
+        urlStore.keys.add("abc");
+    }
+
+    @Test
+    void passesEveryCodeUntilLoaded() {
+        assertTrue(filter.mightContain("unknown"));
+    }
+
+    @Test
+    void passesUnknownCodesWhileNotSubscribed() {
+        filter.rebuild();
+
+        assertFalse(filter.isInSync());
+        assertTrue(filter.mightContain("unknown"));
+    }
+
+    @Test
+    void rejectsUnknownCodesOnceLoadedWhileSubscribed() {
+        subscribe();
+
+        assertTrue(filter.mightContain("abc"));
+        assertFalse(filter.mightContain("unknown"));
+        assertTrue(filter.getRejectedCount() > 0);
+    }
+
+    @Test
+    void passesUnknownCodesAfterUnsubscribing() {
+        subscribe();
+        filter.onChannelUnsubscribed(CHANNEL, 0);
+
+        assertTrue(filter.mightContain("unknown"));
+    }
+
+    @Test
+    void reloadsCreatesMissedWhileResubscribing() {
+        subscribe();
+        // Created by another instance while this one was disconnected
+        urlStore.keys.add("missed");
+        assertFalse(filter.mightContain("missed"));
+
+        subscribe();
+
+        assertTrue(filter.mightContain("missed"));
+    }
+
+    @Test
+    void appliesCreatesOfOtherInstances() {
+        subscribe();
+        filter.onMessage(message("other 1 +new"), null);
+
+        assertTrue(filter.mightContain("new"));
+        assertTrue(filter.isInSync());
+    }
+
+    @Test
+    void reloadsAfterAGapInAnInstancesEvents() {
+        subscribe();
+        filter.onMessage(message("other 1 +first"), null);
+        // Event 2 was lost
+        urlStore.keys.add("lost");
+        filter.onMessage(message("other 3 +third"), null);
+
+        awaitInSync();
+        assertTrue(filter.mightContain("lost"));
+        assertFalse(filter.mightContain("unknown"));
+    }
+
+    @Test
+    void ignoresItsOwnEvents() {
+        subscribe();
+        String instanceId = (String) ReflectionTestUtils.getField(filter, "instanceId");
+        filter.onMessage(message(instanceId + " 1 +own"), null);
+
+        assertFalse(filter.mightContain("own"));
+    }
+
+    @Test
+    void publishesNumberedCreates() {
+        filter.added("New");
+        filter.added("Other");
+
+        String instanceId = (String) ReflectionTestUtils.getField(filter, "instanceId");
+        verify(redisTemplate).convertAndSend(ShortUrlFilter.CHANNEL, instanceId + " 1 +new");
+        verify(redisTemplate).convertAndSend(ShortUrlFilter.CHANNEL, instanceId + " 2 +other");
+    }
+
+    @Test
+    void publishesReactiveCreatesWithoutBlocking() {
+        subscribe();
+        when(reactiveRedisTemplate.convertAndSend(anyString(), anyString()))
+                .thenReturn(Mono.just(1L), Mono.error(new IllegalStateException("connection lost")));
+
+        filter.added("First");
+        filter.addedReactive("Second").block();
+        // A failed send is logged; the create still succeeds
+        filter.addedReactive("Third").block();
+
+        String instanceId = (String) ReflectionTestUtils.getField(filter, "instanceId");
+        verify(redisTemplate).convertAndSend(ShortUrlFilter.CHANNEL, instanceId + " 1 +first");
+        verify(reactiveRedisTemplate).convertAndSend(ShortUrlFilter.CHANNEL, instanceId + " 2 +second");
+        verify(reactiveRedisTemplate).convertAndSend(ShortUrlFilter.CHANNEL, instanceId + " 3 +third");
+        verify(redisTemplate, never()).convertAndSend(ShortUrlFilter.CHANNEL, instanceId + " 2 +second");
+        assertTrue(filter.mightContain("second"));
+        assertTrue(filter.mightContain("third"));
+    }
+
+    // Subscribes and waits for the rebuild that follows
+    private void subscribe() {
+        filter.onChannelSubscribed(CHANNEL, 1);
+        // The subscription distrusts the filter at once, so this waits for the new one
+        awaitInSync();
+    }
+
+    private void awaitInSync() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!filter.isInSync()) {
+            if (System.nanoTime() > deadline) {
+                fail("Filter did not rebuild");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(CHANNEL, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The stored short URL keys, without Redis
+    private static class StubUrlStore extends UrlStore {
+        final List<String> keys = new CopyOnWriteArrayList<>();
+
+        @Override
+        public long count() {
+            return keys.size();
+        }
+
+        @Override
+        public void forEachShortUrlKey(Consumer<String> action) {
+            keys.forEach(action);
+        }
+    }
+}
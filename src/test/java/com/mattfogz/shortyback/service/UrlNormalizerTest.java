@@ -0,0 +1,59 @@
+package com.mattfogz.shortyback.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class UrlNormalizerTest {
+
+    private final UrlNormalizer normalizer = new UrlNormalizer();
+
+    @Test
+    void removesSchemeAndWwwAndLowercasesTheHost() {
+        assertEquals("http://example.com/Path?Q=A#Frag", normalizer.normalize("HTTPS://WWW.Example.COM/Path?Q=A#Frag"));
+        assertEquals("http://example.com", normalizer.normalize("example.com"));
+        assertEquals("http://User@example.com:8080/a", normalizer.normalize("http://User@EXAMPLE.com:8080/a"));
+    }
+
+    @Test
+    void removesRepeatedWwwPrefixes() {
+        assertEquals("http://example.com", normalizer.normalize("www.www.example.com"));
+        assertEquals("http://example.com", normalizer.normalize("https://WWW.www.Www.example.com"));
+    }
+
+    @Test
+    void removesEveryTrailingSlash() {
+        assertEquals("http://example.com", normalizer.normalize("example.com/"));
+        assertEquals("http://example.com/a", normalizer.normalize("http://example.com/a///"));
+        assertEquals("http://", normalizer.normalize("https:////"));
+    }
+
+    @Test
+    void returnsANormalizedUrlAsIs() {
+        String normalized = "http://example.com/Path";
+        assertSame(normalized, normalizer.normalize(normalized));
+    }
+
+    @Test
+    void isIdempotent() {
+        List<String> urls = List.of(
+                "www.www.example.com//",
+                "HTTP://WWW.WWW.EXAMPLE.COM/A//",
+                "https://http://www.Example.com/",
+                "www.http://Example.com",
+                "http://www.",
+                "www.",
+                "/",
+                "",
+                "https://user@WWW.Example.com/x?y=/",
+                "Example.COM?q=1/",
+                "http://example.com#/");
+        for (String url : urls) {
+            String once = normalizer.normalize(url);
+            assertEquals(once, normalizer.normalize(once), url);
+        }
+    }
+}
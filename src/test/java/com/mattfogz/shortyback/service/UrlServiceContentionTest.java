@@ -0,0 +1,175 @@
+package com.mattfogz.shortyback.service;
+
+import com.mattfogz.shortyback.exception.UrlException;
+import com.mattfogz.shortyback.model.Url;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Races many creates of the same link against a real Redis and checks that the
+ * reservation scripts let exactly one of them through.
+ */
+@SpringBootTest(properties = {
+        "shorty.snapshot.enabled=false",
+        "shorty.storage.layout=entity"
+})
+class UrlServiceContentionTest {
+
+    private static final int THREADS = 16;
+
+    private static final RedisServer redis;
+    private static final int redisPort;
+
+    static {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            redis = new RedisServer(redisPort);
+            redis.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start embedded Redis", e);
+        }
+    }
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", () -> "localhost");
+        registry.add("spring.redis.port", () -> redisPort);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void flush() {
+        redisTemplate.execute(connection -> {
+            connection.flushDb();
+            return null;
+        }, true);
+    }
+
+    @Test
+    void concurrentCreatesOfOneLongUrlShareOneLink() throws Exception {
+        List<Object> results = race(thread -> urlService.createShortUrl("https://example.com/contended", null));
+
+        Set<Object> codes = new HashSet<>(results);
+        assertEquals(1, codes.size(), "every create returns the same code: " + codes);
+        String shortUrl = (String) codes.iterator().next();
+
+        assertEquals(1, redisTemplate.opsForSet().size("Url"));
+        assertEquals(Set.of(shortUrl), redisTemplate.opsForSet().members("Url"));
+        assertSingleIndexEntry("Url:longUrl:*", shortUrl);
+        assertSingleIndexEntry("Url:shortUrlKey:" + Url.foldShortUrl(shortUrl), shortUrl);
+    }
+
+    @Test
+    void concurrentClaimsOfOneCustomCodeInAnyCaseLetOneWin() throws Exception {
+        List<Object> results = race(thread -> urlService.createShortUrl(
+                "https://example.com/custom/" + thread, caseVariant("contended", thread)));
+
+        List<String> winners = new ArrayList<>();
+        for (Object result : results) {
+            if (result instanceof String) {
+                winners.add((String) result);
+            } else {
+                assertInstanceOf(UrlException.class, result);
+            }
+        }
+        assertEquals(1, winners.size(), "exactly one claim succeeds: " + winners);
+        String shortUrl = winners.get(0);
+
+        assertEquals(Set.of(shortUrl), redisTemplate.opsForSet().members("Url"));
+        assertEquals(1, redisTemplate.keys("Url:longUrl:*").size());
+        assertSingleIndexEntry("Url:shortUrlKey:contended", shortUrl);
+    }
+
+    private void assertSingleIndexEntry(String pattern, String shortUrl) {
+        Set<String> keys = redisTemplate.keys(pattern);
+        assertEquals(1, keys.size(), "index keys matching " + pattern + ": " + keys);
+        assertEquals(Set.of(shortUrl), redisTemplate.opsForSet().members(keys.iterator().next()));
+    }
+
+    /**
+     * Runs the create on {@link #THREADS} threads released at the same moment.
+     *
+     * @return Per thread, the returned short URL or the exception thrown.
+     */
+    private List<Object> race(IntFunction<String> create)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                Callable<Object> task = () -> {
+                    start.await();
+                    try {
+                        return create.apply(thread);
+                    } catch (RuntimeException e) {
+                        return e;
+                    }
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+
+            List<Object> results = new ArrayList<>();
+            for (Future<Object> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    // Upper-cases the letters of code selected by the bits of n
+    private static String caseVariant(String code, int n) {
+        StringBuilder variant = new StringBuilder(code.length());
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            variant.append((n >> i & 1) == 1 ? Character.toUpperCase(c) : c);
+        }
+        return variant.toString();
+    }
+}
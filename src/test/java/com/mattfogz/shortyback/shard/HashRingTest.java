@@ -0,0 +1,82 @@
+package com.mattfogz.shortyback.shard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    void placesKeysOnTheSameNodesAsEver() {
+        HashRing<String> ring = new HashRing<>(nodes("redis-a:6379", "redis-b:6379", "redis-c:6379"), 160);
+
+        // Links are stored on these nodes, so placement must never change
+        assertEquals("redis-a:6379", ring.get("abc123"));
+        assertEquals("redis-a:6379", ring.get("hello"));
+        assertEquals("redis-b:6379", ring.get("000000"));
+        assertEquals("redis-c:6379", ring.get("link1"));
+        assertEquals("redis-b:6379", ring.get("link3"));
+    }
+
+    @Test
+    void placementDoesNotDependOnNodeOrder() {
+        HashRing<String> forward = new HashRing<>(nodes("a:1", "b:1", "c:1"), 160);
+        HashRing<String> backward = new HashRing<>(nodes("c:1", "b:1", "a:1"), 160);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(forward.get("key" + i), backward.get("key" + i));
+        }
+    }
+
+    @Test
+    void spreadsKeysEvenly() {
+        HashRing<String> ring = new HashRing<>(nodes("a:1", "b:1", "c:1", "d:1"), 160);
+
+        Map<String, Integer> counts = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.get("key" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - KEYS / 4) < KEYS / 4 * 0.25, "keys per node: " + counts);
+        }
+    }
+
+    @Test
+    void addingANodeMovesAboutOneNthOfTheKeysOnlyToIt() {
+        HashRing<String> before = new HashRing<>(nodes("a:1", "b:1", "c:1", "d:1"), 160);
+        HashRing<String> after = new HashRing<>(nodes("a:1", "b:1", "c:1", "d:1", "e:1"), 160);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String owner = after.get("key" + i);
+            if (!owner.equals(before.get("key" + i))) {
+                assertEquals("e:1", owner);
+                moved++;
+            }
+        }
+        assertTrue(Math.abs(moved - KEYS / 5) < KEYS / 5 * 0.25, "moved " + moved + " of " + KEYS);
+    }
+
+    @Test
+    void rejectsAnEmptyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing<>(Map.of(), 160));
+        assertThrows(IllegalArgumentException.class, () -> new HashRing<>(nodes("a:1"), 0));
+    }
+
+    private static Map<String, String> nodes(String... names) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String name : names) {
+            nodes.put(name, name);
+        }
+        return nodes;
+    }
+}
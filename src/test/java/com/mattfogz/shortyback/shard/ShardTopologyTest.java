@@ -0,0 +1,79 @@
+package com.mattfogz.shortyback.shard;
+
+import com.mattfogz.shortyback.metrics.RedisCommandCounter;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Connects a topology to two embedded Redis servers.
+ */
+class ShardTopologyTest {
+
+    private final List<RedisServer> servers = new ArrayList<>();
+    private final List<String> nodes = new ArrayList<>();
+    private ClientResources clientResources;
+
+    @BeforeEach
+    void startServers() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            int port = freePort();
+            RedisServer server = new RedisServer(port);
+            server.start();
+            servers.add(server);
+            nodes.add("localhost:" + port);
+        }
+        clientResources = DefaultClientResources.create();
+    }
+
+    @AfterEach
+    void stopServers() throws IOException {
+        clientResources.shutdown();
+        for (RedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void countsCommandsSentToEveryNode() {
+        RedisCommandCounter counter = new RedisCommandCounter();
+        ShardTopology topology = new ShardTopology(nodes, Collections.emptyList(), 16, clientResources, counter);
+        try {
+            counter.start();
+            for (ShardNode node : topology.getNodes()) {
+                node.getRedisTemplate().opsForValue().get("key");
+            }
+            assertEquals(nodes.size(), counter.stop());
+        } finally {
+            topology.destroy();
+        }
+    }
+
+    @Test
+    void isNotShardedWithoutNodes() {
+        ShardTopology topology = new ShardTopology(Collections.emptyList(), Collections.emptyList(), 16,
+                clientResources, new RedisCommandCounter());
+
+        assertFalse(topology.isSharded());
+        assertTrue(topology.getNodes().isEmpty());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
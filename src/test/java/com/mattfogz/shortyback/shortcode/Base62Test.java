@@ -0,0 +1,52 @@
+package com.mattfogz.shortyback.shortcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Base62Test {
+
+    @Test
+    void padsToTheMinimumWidth() {
+        assertEquals("AAAAAA", Base62.encode(0, 6));
+        assertEquals("AAAAAB", Base62.encode(1, 6));
+        assertEquals("AAAABA", Base62.encode(62, 6));
+        assertEquals("999999", Base62.encode(Base62.capacity(6) - 1, 6));
+    }
+
+    @Test
+    void growsPastTheMinimumWidth() {
+        assertEquals("BAAAAAA", Base62.encode(Base62.capacity(6), 6));
+        assertEquals(7, Base62.encode(Base62.capacity(6), 6).length());
+        assertEquals(11, Base62.encode(Long.MAX_VALUE, 6).length());
+    }
+
+    @Test
+    void roundTrips() {
+        Random random = new Random(11);
+        for (long value : new long[] {0, 1, 61, 62, Base62.capacity(6) - 1, Base62.capacity(6), Long.MAX_VALUE}) {
+            assertEquals(value, Base62.decode(Base62.encode(value, 6)));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() & Long.MAX_VALUE;
+            assertEquals(value, Base62.decode(Base62.encode(value, 1)));
+        }
+    }
+
+    @Test
+    void reportsCapacity() {
+        assertEquals(1, Base62.capacity(0));
+        assertEquals(62, Base62.capacity(1));
+        assertEquals(56_800_235_584L, Base62.capacity(6));
+        assertThrows(ArithmeticException.class, () -> Base62.capacity(11));
+    }
+
+    @Test
+    void rejectsInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> Base62.encode(-1, 6));
+        assertThrows(IllegalArgumentException.class, () -> Base62.decode("abc-1"));
+    }
+}
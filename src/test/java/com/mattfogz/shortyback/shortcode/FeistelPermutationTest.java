@@ -0,0 +1,89 @@
+package com.mattfogz.shortyback.shortcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeistelPermutationTest {
+
+    @Test
+    void isABijectionOnItsRange() {
+        FeistelPermutation permutation = new FeistelPermutation(2, 1234L);
+        int range = (int) permutation.range();
+        assertEquals(62 * 62, range);
+
+        BitSet seen = new BitSet(range);
+        for (int value = 0; value < range; value++) {
+            long permuted = permutation.permute(value);
+            assertTrue(permuted >= 0 && permuted < range);
+            assertFalse(seen.get((int) permuted), "permuted twice onto " + permuted);
+            seen.set((int) permuted);
+            assertEquals(value, permutation.unpermute(permuted));
+        }
+        assertEquals(range, seen.cardinality());
+    }
+
+    @Test
+    void roundTripsAcrossTheWholeRange() {
+        FeistelPermutation permutation = new FeistelPermutation(6, -42L);
+        Random random = new Random(7);
+        long range = permutation.range();
+        for (long value : new long[] {0, 1, range / 2, range - 2, range - 1}) {
+            assertEquals(value, permutation.unpermute(permutation.permute(value)));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            long value = Math.floorMod(random.nextLong(), range);
+            assertEquals(value, permutation.unpermute(permutation.permute(value)));
+        }
+    }
+
+    @Test
+    void differentSecretsGiveDifferentPermutations() {
+        FeistelPermutation first = new FeistelPermutation(6, 1L);
+        FeistelPermutation second = new FeistelPermutation(6, 2L);
+        int same = 0;
+        for (long value = 0; value < 1000; value++) {
+            if (first.permute(value) == second.permute(value)) {
+                same++;
+            }
+        }
+        assertTrue(same < 5, same + " of 1000 values permuted alike");
+    }
+
+    @Test
+    void scattersConsecutiveValues() {
+        FeistelPermutation permutation = new FeistelPermutation(6, 99L);
+        assertNotEquals(permutation.permute(0) + 1, permutation.permute(1));
+        assertNotEquals(permutation.permute(1) + 1, permutation.permute(2));
+    }
+
+    @Test
+    void widerPermutationsKeepTheSecret() {
+        FeistelPermutation permutation = new FeistelPermutation(6, 5L);
+        FeistelPermutation wider = permutation.withWidth(8);
+        assertEquals(8, wider.width());
+        assertEquals(Base62.capacity(8), wider.range());
+        assertEquals(new FeistelPermutation(8, 5L).permute(123456789L), wider.permute(123456789L));
+    }
+
+    @Test
+    void rejectsValuesOutsideTheRange() {
+        FeistelPermutation permutation = new FeistelPermutation(2, 0L);
+        assertThrows(IllegalArgumentException.class, () -> permutation.permute(-1));
+        assertThrows(IllegalArgumentException.class, () -> permutation.permute(permutation.range()));
+        assertThrows(IllegalArgumentException.class, () -> permutation.unpermute(permutation.range()));
+    }
+
+    @Test
+    void rejectsOddWidths() {
+        assertThrows(IllegalArgumentException.class, () -> new FeistelPermutation(5, 0L));
+        assertThrows(IllegalArgumentException.class, () -> new FeistelPermutation(0, 0L));
+    }
+}
@@ -0,0 +1,59 @@
+package com.mattfogz.shortyback.shortcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequentialShortCodeGeneratorTest {
+
+    @Test
+    void handsOutDistinctFixedWidthCodes() {
+        ShortCodeGenerator generator = generator(0, 2, new FeistelPermutation(2, 77L));
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < 62 * 62; i++) {
+            String code = generator.nextShortCode();
+            assertEquals(2, code.length());
+            assertTrue(codes.add(code), "repeated " + code);
+        }
+    }
+
+    @Test
+    void keepsScramblingPastTheFixedWidthRange() {
+        FeistelPermutation permutation = new FeistelPermutation(2, 77L);
+        long first = Base62.capacity(2);
+        ShortCodeGenerator generator = generator(first, 2, permutation);
+        FeistelPermutation wider = permutation.withWidth(4);
+
+        Set<String> codes = new HashSet<>();
+        for (long id = first; id < first + 10_000; id++) {
+            String code = generator.nextShortCode();
+            assertEquals(4, code.length());
+            assertEquals(Base62.encode(wider.permute(id), 4), code);
+            // Not simply the id written out
+            assertNotEquals(Base62.encode(id, 4), code);
+            assertTrue(codes.add(code), "repeated " + code);
+        }
+    }
+
+    @Test
+    void keepsUnscrambledCodesSequential() {
+        ShortCodeGenerator generator = generator(Base62.capacity(2) - 1, 2, null);
+        assertEquals("99", generator.nextShortCode());
+        assertEquals("BAA", generator.nextShortCode());
+    }
+
+    /**
+     * A generator over an in-memory sequence starting at the given id.
+     */
+    private static ShortCodeGenerator generator(long firstId, int width, FeistelPermutation permutation) {
+        AtomicLong sequence = new AtomicLong(firstId);
+        return new SequentialShortCodeGenerator(blockSize -> sequence.getAndAdd(blockSize), 100, width,
+                permutation);
+    }
+}
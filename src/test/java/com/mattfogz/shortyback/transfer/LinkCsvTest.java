@@ -0,0 +1,140 @@
+package com.mattfogz.shortyback.transfer;
+
+import com.mattfogz.shortyback.exception.UrlException;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LinkCsvTest {
+
+    @Test
+    void readsPlainFields() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("abc", "http://example.com/", "5", "")),
+                readAll("abc,http://example.com/,5,\r\n"));
+    }
+
+    @Test
+    void readsQuotedFieldsWithCommasAndLineBreaks() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("abc", "http://example.com/?a=1,2", "line\r\nbreak")),
+                readAll("abc,\"http://example.com/?a=1,2\",\"line\r\nbreak\"\r\n"));
+    }
+
+    @Test
+    void readsEscapedQuotes() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("say \"hi\"", "\"", "")),
+                readAll("\"say \"\"hi\"\"\",\"\"\"\",\"\"\n"));
+    }
+
+    @Test
+    void endsRowsOnCrlfOrLf() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Arrays.asList("e", "f")),
+                readAll("a,b\r\nc,d\ne,f"));
+    }
+
+    @Test
+    void skipsBlankLines() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d")),
+                readAll("\r\n\na,b\r\n\r\n\nc,d\n\r\n"));
+        assertEquals(Arrays.asList(), readAll(""));
+        assertEquals(Arrays.asList(), readAll("\r\n\n"));
+    }
+
+    @Test
+    void keepsRowsOfEmptyFields() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("", ""), Arrays.asList("")), readAll(",\n\"\"\n"));
+    }
+
+    @Test
+    void rejectsUnterminatedQuotes() {
+        assertThrows(UrlException.class, () -> readAll("abc,\"http://example.com/\r\n"));
+    }
+
+    @Test
+    void capsTheFieldLengthOfUnterminatedQuotes() throws IOException {
+        String field = "x".repeat(LinkCsv.MAX_FIELD_LENGTH);
+        assertEquals(Arrays.asList(Arrays.asList(field, "a")), readAll("\"" + field + "\",a\n"));
+        assertEquals(Arrays.asList(Arrays.asList(field, "a")), readAll(field + ",a\n"));
+
+        // Never closed, the quote would otherwise take in every following row
+        StringBuilder csv = new StringBuilder("abc,\"http://example.com/\r\n");
+        while (csv.length() <= LinkCsv.MAX_FIELD_LENGTH) {
+            csv.append("def,http://example.com/\r\n");
+        }
+        BufferedReader in = new BufferedReader(new StringReader(csv.append("ghi,\"x\"\r\n").toString()));
+        UrlException e = assertThrows(UrlException.class, () -> LinkCsv.readRow(in));
+        assertEquals("Unterminated quoted field in CSV.", e.getMessage());
+        assertThrows(UrlException.class, () -> readAll(field + "x\n"));
+    }
+
+    @Test
+    void roundTripsLinks() throws IOException {
+        List<Map<String, String>> links = Arrays.asList(
+                link("abc", "http://example.com/", "0", ""),
+                link("def", "http://example.com/?q=\"a,b\"", "12", "4102444800000"),
+                link("ghi", "http://example.com/\r\nnext\nline\r", "3", ""),
+                link("jkl", "\"", "", null),
+                link("mno", " spaced , out ", "1", ""));
+        StringWriter out = new StringWriter();
+        LinkCsv.writeHeader(out);
+        for (Map<String, String> link : links) {
+            LinkCsv.writeLink(out, link);
+        }
+
+        List<List<String>> rows = readAll(out.toString());
+        assertEquals(LinkCsv.COLUMNS, rows.get(0));
+        assertEquals(links.size() + 1, rows.size());
+        for (int i = 0; i < links.size(); i++) {
+            for (int j = 0; j < LinkCsv.COLUMNS.size(); j++) {
+                String expected = links.get(i).get(LinkCsv.COLUMNS.get(j));
+                assertEquals(expected == null ? "" : expected, rows.get(i + 1).get(j));
+            }
+        }
+    }
+
+    @Test
+    void roundTripsReadRows() throws IOException {
+        String csv = "shortUrl,longUrl,clickCount,expiresAt\r\n"
+                + "abc,\"http://example.com/?a=\"\"1\"\",2\",7,\r\n";
+        StringWriter out = new StringWriter();
+        LinkCsv.writeHeader(out);
+        List<List<String>> rows = readAll(csv);
+        Map<String, String> link = new HashMap<>();
+        for (int i = 0; i < LinkCsv.COLUMNS.size(); i++) {
+            link.put(rows.get(0).get(i), rows.get(1).get(i));
+        }
+        LinkCsv.writeLink(out, link);
+        assertEquals(csv, out.toString());
+    }
+
+    private static Map<String, String> link(String shortUrl, String longUrl, String clickCount, String expiresAt) {
+        Map<String, String> link = new HashMap<>();
+        link.put("shortUrl", shortUrl);
+        link.put("longUrl", longUrl);
+        link.put("clickCount", clickCount);
+        link.put("expiresAt", expiresAt);
+        return link;
+    }
+
+    private static List<List<String>> readAll(String csv) throws IOException {
+        BufferedReader in = new BufferedReader(new StringReader(csv));
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row;
+        while ((row = LinkCsv.readRow(in)) != null) {
+            rows.add(row);
+        }
+        assertNull(LinkCsv.readRow(in));
+        return rows;
+    }
+}
@@ -0,0 +1,30 @@
+package com.mattfogz.shortyback.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FnvTest {
+
+    // Hashes are persisted or shared between instances, so these values must never change
+    @Test
+    void matchesTheReferenceFnv1aVectors() {
+        assertEquals(0xcbf29ce484222325L, Fnv.hash(""));
+        assertEquals(0xaf63dc4c8601ec8cL, Fnv.hash("a"));
+        assertEquals(0x85944171f73967e8L, Fnv.hash("foobar"));
+        assertEquals(0x046a4934057f51cfL, Fnv.hash("https://example.com/a"));
+    }
+
+    @Test
+    void foldsALongInOneStep() {
+        assertEquals(0x1ad36ce544103abdL, Fnv.hash(Fnv.hash("https://example.com/a"), 1700000000000L));
+    }
+
+    @Test
+    void finalizesWithMurmur3() {
+        assertEquals(0xefd01f60ba992926L, Fnv.fmix64(Fnv.hash("")));
+        assertEquals(0x82a2a958a9bece5bL, Fnv.fmix64(Fnv.hash("a")));
+        assertEquals(0xa6f732e66f4cd75bL, Fnv.fmix64(Fnv.hash("10.0.0.1:6379#0")));
+        assertEquals(0L, Fnv.fmix64(0L));
+    }
+}